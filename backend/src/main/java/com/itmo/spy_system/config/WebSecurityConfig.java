@@ -55,6 +55,7 @@ public class WebSecurityConfig {
                         .requestMatchers("/actuator/prometheus").permitAll()
                         .requestMatchers("/api/auth/validate-token").permitAll()
                         .requestMatchers(HttpMethod.POST, "/api/metrics").permitAll()
+                        .requestMatchers(HttpMethod.POST, "/api/metrics/batch").permitAll()
                         .requestMatchers("/api/auth/login").permitAll()
                         .requestMatchers("/error").permitAll()
                         .anyRequest().authenticated()
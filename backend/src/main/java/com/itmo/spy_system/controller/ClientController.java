@@ -83,7 +83,7 @@ public class ClientController extends BaseExceptionHandler {
     @Secured({"manager", "worker"})
     @GetMapping("/{id}/metrics/latest")
     public ResponseEntity<Metric> getLatestMetric(@PathVariable Long id) {
-        Optional<Metric> o = metricRepository.findTopByClientIdOrderByTimestampDesc(id);
+        Optional<Metric> o = metricRepository.findLatestByClientId(id);
         return ResponseEntity.of(o);
     }
 
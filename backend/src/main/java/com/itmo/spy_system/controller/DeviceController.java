@@ -32,7 +32,6 @@ public class DeviceController {
     private final MetricRepository metricRepository;
     private final ManagerRepository managerRepository;
     private final ContractRepository contractRepository;
-    private final DeviceRepository deviceRepository;
     private final Utils utils;
     private final DeviceMapper deviceMapper;
 
@@ -61,8 +60,8 @@ public class DeviceController {
             for (Contract c : res) {
                 clientIds.add(c.getClient().getId());
             }
-            List<Device> r = deviceRepository.findByAssignedClientIdIn(clientIds);
-            List<Device> r2 = deviceRepository.findByAssignedClientIdIsNull();
+            List<Device> r = service.findByAssignedClientIdIn(clientIds);
+            List<Device> r2 = service.findUnassigned();
             r.addAll(r2);
             List<DeviceWithClientDto> res1 = new ArrayList<>();
             for (Device d : r) {
@@ -1,20 +1,30 @@
 package com.itmo.spy_system.controller;
 
+import com.itmo.spy_system.dto.MetricPage;
+import com.itmo.spy_system.dto.MetricReading;
 import com.itmo.spy_system.entity.*;
-import com.itmo.spy_system.repository.NotificationRepository;
-import com.itmo.spy_system.service.DeviceService;
+import com.itmo.spy_system.repository.MetricRepositoryCustom.MetricFilter;
+import com.itmo.spy_system.service.MetricIngestionPipeline;
+import com.itmo.spy_system.service.MetricRollupService;
 import com.itmo.spy_system.service.MetricService;
+import com.itmo.spy_system.service.MetricStreamService;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.itmo.spy_system.service.NotificationService;
-import com.itmo.spy_system.utils.Utils;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.annotation.Secured;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
 import java.util.*;
 
 @RestController
@@ -22,51 +32,67 @@ import java.util.*;
 @RequiredArgsConstructor
 public class MetricController {
     private final MetricService service;
-    private final DeviceService deviceService;
-    private final NotificationService notificationService;
-    private final Utils utils;
+    private final MetricIngestionPipeline pipeline;
+    private final MetricRollupService rollupService;
+    private final MetricStreamService streamService;
+
+    @Value("${metrics.ingestion.retry-after-seconds:1}")
+    private int retryAfterSeconds;
 
     @GetMapping("/filtered")
     public List<Metric> getFiltered(@RequestParam(required = false) Long deviceId, @RequestParam(required = false) Long clientId, @RequestParam(required = false) Integer limit) {
-        List<Metric> metricsToRemove = new ArrayList<>();
-
-        List<Metric> results = service.findAll();
-        if (deviceId != null) {
-//            results.removeIf(e -> !e.getDeviceId().equals(deviceId));
-            for (Metric m : results) {
-                if (!m.getDeviceId().equals(deviceId) && !metricsToRemove.contains(m)) {
-                    metricsToRemove.add(m);
-                }
-            }
-        }
-        List<Metric> nextFilteredResults = new ArrayList<>();
-
-        if (clientId != null) {
-//            List<Metric> metrics_for_client =
-//            List<Device> devices = deviceService.findByClientId(clientId);
-//            Set<Long> devicesIds = new HashSet<>();
-//            for (Device d : devices) {
-//                devicesIds.add(d.getDeviceId());
-//            }
-
-            for (Metric m : results) {
-                if (!Objects.equals(m.getClientId(), clientId) && !metricsToRemove.contains(m)) {
-                    metricsToRemove.add(m);
-                }
-            }
-        }
+        return service.findPage(new MetricFilter(deviceId, clientId, null, null), null, false, limit).items();
+    }
 
-        for (Metric m : metricsToRemove) {
-            results.remove(m);
-        }
+    @GetMapping("/page")
+    public MetricPage getPage(@RequestParam(required = false) Long deviceId,
+                              @RequestParam(required = false) Long clientId,
+                              @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+                              @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to,
+                              @RequestParam(defaultValue = "desc") String order,
+                              @RequestParam(required = false) Integer limit,
+                              @RequestParam(required = false) String cursor) {
+        if (!order.equals("asc") && !order.equals("desc"))
+            throw new IllegalArgumentException("order must be asc or desc");
+        MetricFilter filter = new MetricFilter(deviceId, clientId, toTimestamp(from), toTimestamp(to));
+        return service.findPage(filter, cursor, order.equals("asc"), limit);
+    }
 
-        results.sort((Metric m, Metric m1) -> m1.getTimestamp().compareTo(m.getTimestamp()));
+    /**
+     * same convention as timestamps in request bodies: no offset means UTC
+     */
+    private static Timestamp toTimestamp(LocalDateTime dateTime) {
+        return dateTime == null ? null : Timestamp.from(dateTime.toInstant(ZoneOffset.UTC));
+    }
 
-        if (limit != null) {
-            results = results.subList(0, limit);
-        }
+    public record RollupResponse(RollupResolution resolution, List<MetricRollup> buckets) {
+    }
 
-        return results;
+    @GetMapping("/rollups")
+    public RollupResponse getRollups(@RequestParam(required = false) Long deviceId,
+                                     @RequestParam(required = false) Long clientId,
+                                     @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+                                     @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to,
+                                     @RequestParam(defaultValue = "500") int maxPoints) {
+        if ((deviceId == null) == (clientId == null))
+            throw new IllegalArgumentException("Exactly one of deviceId and clientId must be set");
+        if (maxPoints <= 0)
+            throw new IllegalArgumentException("maxPoints must be positive");
+        Timestamp toTs = to == null ? new Timestamp(System.currentTimeMillis()) : toTimestamp(to);
+        Timestamp fromTs = from == null ? new Timestamp(toTs.getTime() - 24 * 60 * 60 * 1000L) : toTimestamp(from);
+        if (!fromTs.before(toTs))
+            throw new IllegalArgumentException("from must be before to");
+
+        RollupResolution resolution = rollupService.chooseResolution(fromTs, toTs, maxPoints);
+        RollupScope scope = deviceId != null ? RollupScope.DEVICE : RollupScope.CLIENT;
+        Long scopeId = deviceId != null ? deviceId : clientId;
+        return new RollupResponse(resolution, rollupService.find(scope, scopeId, resolution, fromTs, toTs));
+    }
+
+    @Secured({"manager", "worker"})
+    @GetMapping(value = "/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter stream(@RequestParam(required = false) Long clientId, @RequestParam(required = false) Long deviceId) {
+        return streamService.subscribe(clientId, deviceId);
     }
 
     @GetMapping
@@ -81,35 +107,25 @@ public class MetricController {
 
     @PostMapping
     public ResponseEntity<?> create(@RequestParam Integer chargeLevel, @RequestBody Metric entity) {
-        Optional<Device> optDevice = deviceService.findById(entity.getDeviceId());
-
-        if (optDevice.isEmpty()) {
-            return ResponseEntity.unprocessableEntity().body("DeviceId not found in Device table");
-        }
-        Device d = optDevice.get();
-        int previousDeviceBatteryLevel = d.getBatteryLevel();
-        d.setBatteryLevel(chargeLevel);
-        d.setStatus(DeviceStatus.ACTIVE);
-
-        if (chargeLevel < 15 && previousDeviceBatteryLevel >= 15) {
-            Manager m = utils.getManagerByDeviceId(entity.getDeviceId());
-            if (m != null) {
-
-                Notification n = new Notification();
-                n.setManagerId(m.getId());
-                n.setType(NotificationType.DEVICE_LOW_BATTERY);
-                n.setText(String.format("Батарея устройства #%d менее 15%%", entity.getDeviceId()));
-//        n.setRelatedEntityId(-1);
-                n.setCreatedAt(new Timestamp(System.currentTimeMillis()));
-                n.setStatus(NotificationStatus.UNREAD);
-                notificationService.save(n);
-            }
+        MetricReading reading = new MetricReading(entity, chargeLevel);
+        if (!pipeline.isEnabled())
+            return ResponseEntity.ok(service.create(reading));
+
+        service.validate(reading);
+        if (!pipeline.offer(reading)) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds))
+                    .body("Metric ingestion queue is full");
         }
-        // Device d = new Device(entity.getDeviceId(), chargeLevel, null, DeviceAssignmentStatus.UNASSIGNED, null, null);
-        // deviceService.patch(Map.of("chargeLevel", chargeLevel), d);
-        deviceService.save(d);
-        entity.setClientId(d.getAssignedClientId());
-        return ResponseEntity.ok(service.create(entity));
+        return ResponseEntity.accepted().build();
+    }
+
+    public record BatchResponse(int accepted) {
+    }
+
+    @PostMapping("/batch")
+    public ResponseEntity<BatchResponse> createBatch(@RequestBody List<MetricReading> readings) {
+        return ResponseEntity.ok(new BatchResponse(service.createBatch(readings).size()));
     }
 
 //    @PutMapping("/{id}")
@@ -1,5 +1,8 @@
 package com.itmo.spy_system.controller;
 
+import com.itmo.spy_system.dto.ClientMapper;
+import com.itmo.spy_system.dto.ClientWithDetailsDto;
+import com.itmo.spy_system.dto.CoverageGap;
 import com.itmo.spy_system.dto.MonitoringTimeIntervalDTO;
 import com.itmo.spy_system.dto.MonitoringTimeIntervalMapper;
 import com.itmo.spy_system.entity.MonitoringTimeInterval;
@@ -8,11 +11,13 @@ import com.itmo.spy_system.utils.TimeIntervalClashException;
 import lombok.AllArgsConstructor;
 import lombok.Getter;
 import lombok.RequiredArgsConstructor;
+import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.annotation.Secured;
 import org.springframework.web.bind.annotation.*;
 
+import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Map;
 
@@ -23,6 +28,7 @@ public class MonitoringTimeIntervalController extends BaseExceptionHandler {
 
     private final MonitoringService service;
     private final MonitoringTimeIntervalMapper mapper;
+    private final ClientMapper clientMapper;
 
     @Secured({"manager", "worker"})
     @GetMapping
@@ -30,6 +36,23 @@ public class MonitoringTimeIntervalController extends BaseExceptionHandler {
         return service.getAll();
     }
 
+    /**
+     * Clients nobody watches at the given moment, now by default; deleted clients are left out
+     */
+    @Secured({"manager"})
+    @GetMapping("/uncovered")
+    public List<ClientWithDetailsDto> getUncovered(@RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime at) {
+        return service.getUncoveredClients(at != null ? at : LocalDateTime.now()).stream()
+                .map(clientMapper::toDto)
+                .toList();
+    }
+
+    @Secured({"manager"})
+    @GetMapping("/coverage_gaps")
+    public List<CoverageGap> getCoverageGaps() {
+        return service.getCoverageGaps();
+    }
+
     @Secured({"manager"})
     @PostMapping
     public MonitoringTimeIntervalDTO create(@RequestBody MonitoringTimeIntervalDTO dto)  {
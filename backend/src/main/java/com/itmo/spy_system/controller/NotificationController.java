@@ -1,14 +1,20 @@
 package com.itmo.spy_system.controller;
 
+import com.itmo.spy_system.dto.NotificationPage;
+import com.itmo.spy_system.dto.NotificationRecipient;
 import com.itmo.spy_system.entity.Notification;
+import com.itmo.spy_system.entity.NotificationStatus;
 import com.itmo.spy_system.repository.NotificationRepository;
 import com.itmo.spy_system.service.NotificationService;
+import com.itmo.spy_system.service.NotificationStreamService;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.annotation.Secured;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -19,10 +25,73 @@ import java.util.Map;
 public class NotificationController {
     private final NotificationService service;
     private final NotificationRepository repository;
+    private final NotificationStreamService streamService;
 
-    public NotificationController(NotificationService service, NotificationRepository repository) {
+    public NotificationController(NotificationService service, NotificationRepository repository,
+                                  NotificationStreamService streamService) {
         this.service = service;
         this.repository = repository;
+        this.streamService = streamService;
+    }
+
+    /**
+     * Notifications and task updates addressed to the authenticated user as they happen. After a reconnect
+     * the notifications created since Last-Event-ID (or after) are sent first.
+     */
+    @Secured({"client", "worker", "manager"})
+    @GetMapping(value = "/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter stream(@RequestHeader(value = "Last-Event-ID", required = false) Long lastEventId,
+                             @RequestParam(required = false) Long after) {
+        return streamService.subscribe(currentRecipient(), lastEventId != null ? lastEventId : after);
+    }
+
+    /**
+     * The authenticated user's notifications, newest first, a page at a time
+     */
+    @Secured({"client", "worker", "manager"})
+    @GetMapping("/inbox")
+    public NotificationPage getInbox(@RequestParam(required = false) NotificationStatus status,
+                                     @RequestParam(required = false) String cursor,
+                                     @RequestParam(required = false) Integer limit) {
+        return service.findInboxPage(currentRecipient(), status, cursor, limit);
+    }
+
+    /**
+     * The authenticated user's archived notifications, newest first; these are old read ones the inbox no longer has
+     */
+    @Secured({"client", "worker", "manager"})
+    @GetMapping("/archive")
+    public NotificationPage getArchive(@RequestParam(required = false) String cursor,
+                                       @RequestParam(required = false) Integer limit) {
+        return service.findArchivePage(currentRecipient(), cursor, limit);
+    }
+
+    @Secured({"client", "worker", "manager"})
+    @GetMapping("/unread_count")
+    public long getUnreadCount() {
+        return service.countUnread(currentRecipient());
+    }
+
+    /**
+     * Returns how many of the given notifications were unread
+     */
+    @Secured({"client", "worker", "manager"})
+    @PostMapping("/mark_read")
+    public int markRead(@RequestBody List<Long> ids) {
+        return service.markRead(currentRecipient(), ids);
+    }
+
+    @Secured({"client", "worker", "manager"})
+    @PostMapping("/mark_all_read")
+    public int markAllRead() {
+        return service.markRead(currentRecipient(), null);
+    }
+
+    private NotificationRecipient currentRecipient() {
+        NotificationRecipient recipient = streamService.currentRecipient();
+        if (recipient == null)
+            throw new IllegalArgumentException("Only clients, workers and managers receive notifications");
+        return recipient;
     }
 
     @GetMapping("/filtered")
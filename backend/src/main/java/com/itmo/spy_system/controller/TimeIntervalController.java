@@ -60,6 +60,15 @@ public class TimeIntervalController {
         }
     }
 
+    /**
+     * Replaces the weekly schedules of all workers and managers in the roster, all or nothing
+     */
+    @Secured({"manager"})
+    @PostMapping("/import")
+    public List<TimeInterval> importRoster(@RequestBody List<TimeInterval> roster) {
+        return service.importRoster(roster);
+    }
+
     @Secured({"manager"})
     @PutMapping("/{id}")
     public ResponseEntity<TimeInterval> update(@PathVariable Long id, @RequestBody TimeInterval entity) {
@@ -1,5 +1,6 @@
 package com.itmo.spy_system.dto;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.itmo.spy_system.entity.Contract;
 import com.itmo.spy_system.entity.Worker;
 import jakarta.persistence.*;
@@ -15,6 +16,7 @@ public class ClientWithDetailsDto {
     private Long id;
     private Set<Worker> monitoringOfficers;
     private String email;
+    @JsonIgnore
     private String password;
     private String name;
     private String surname;
@@ -0,0 +1,11 @@
+package com.itmo.spy_system.dto;
+
+import com.itmo.spy_system.entity.Weekday;
+
+import java.sql.Time;
+
+/**
+ * The client is not watched by anyone for the given number of minutes starting at from on weekday
+ */
+public record CoverageGap(Long clientId, Weekday weekday, Time from, int minutes) {
+}
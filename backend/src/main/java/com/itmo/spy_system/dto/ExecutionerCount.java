@@ -0,0 +1,9 @@
+package com.itmo.spy_system.dto;
+
+/**
+ * Number of tasks per executioner, projection of the task repositories' grouped counts
+ */
+public interface ExecutionerCount {
+    Long getExecutionerId();
+    Long getCount();
+}
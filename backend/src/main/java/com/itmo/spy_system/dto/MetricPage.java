@@ -0,0 +1,11 @@
+package com.itmo.spy_system.dto;
+
+import com.itmo.spy_system.entity.Metric;
+
+import java.util.List;
+
+/**
+ * nextCursor is null on the last page
+ */
+public record MetricPage(List<Metric> items, String nextCursor) {
+}
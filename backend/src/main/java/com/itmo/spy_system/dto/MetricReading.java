@@ -0,0 +1,29 @@
+package com.itmo.spy_system.dto;
+
+import com.itmo.spy_system.entity.Metric;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.sql.Timestamp;
+
+@Getter
+@Setter
+@NoArgsConstructor
+public class MetricReading {
+    private Long deviceId;
+    private Integer value;
+    private Timestamp timestamp;
+    private Double longitude;
+    private Double latitude;
+    private Integer chargeLevel;
+
+    public MetricReading(Metric metric, Integer chargeLevel) {
+        this.deviceId = metric.getDeviceId();
+        this.value = metric.getValue();
+        this.timestamp = metric.getTimestamp();
+        this.longitude = metric.getLongitude();
+        this.latitude = metric.getLatitude();
+        this.chargeLevel = chargeLevel;
+    }
+}
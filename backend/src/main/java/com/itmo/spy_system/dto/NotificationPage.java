@@ -0,0 +1,11 @@
+package com.itmo.spy_system.dto;
+
+import com.itmo.spy_system.entity.Notification;
+
+import java.util.List;
+
+/**
+ * nextCursor is null on the last page
+ */
+public record NotificationPage(List<Notification> items, String nextCursor) {
+}
@@ -0,0 +1,65 @@
+package com.itmo.spy_system.dto;
+
+import com.itmo.spy_system.entity.Notification;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A client, worker or manager notifications are addressed to; exactly one of the ids is set
+ */
+public record NotificationRecipient(Long clientId, Long workerId, Long managerId) {
+
+    public static NotificationRecipient client(Long id) {
+        return new NotificationRecipient(id, null, null);
+    }
+
+    public static NotificationRecipient worker(Long id) {
+        return new NotificationRecipient(null, id, null);
+    }
+
+    public static NotificationRecipient manager(Long id) {
+        return new NotificationRecipient(null, null, id);
+    }
+
+    /**
+     * Everyone the notification is addressed to
+     */
+    public static List<NotificationRecipient> of(Notification n) {
+        return of(n.getClientId(), n.getWorkerId(), n.getManagerId());
+    }
+
+    public static List<NotificationRecipient> of(Long clientId, Long workerId, Long managerId) {
+        List<NotificationRecipient> result = new ArrayList<>(1);
+        if (clientId != null)
+            result.add(client(clientId));
+        if (workerId != null)
+            result.add(worker(workerId));
+        if (managerId != null)
+            result.add(manager(managerId));
+        return result;
+    }
+
+    /**
+     * Notification property holding the recipient's id
+     */
+    public String property() {
+        return clientId != null ? "clientId" : workerId != null ? "workerId" : "managerId";
+    }
+
+    public Long id() {
+        return clientId != null ? clientId : workerId != null ? workerId : managerId;
+    }
+
+    public boolean receives(Object event) {
+        if (event instanceof Notification n)
+            return is(clientId, n.getClientId()) || is(workerId, n.getWorkerId()) || is(managerId, n.getManagerId());
+        if (event instanceof TaskUpdate t)
+            return is(workerId, t.executionerId()) || is(workerId, t.previousExecutionerId()) || is(managerId, t.creatorId());
+        return false;
+    }
+
+    private static boolean is(Long own, Long addressee) {
+        return own != null && own.equals(addressee);
+    }
+}
@@ -0,0 +1,29 @@
+package com.itmo.spy_system.dto;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.util.Base64;
+
+/**
+ * Position of the last returned row in a (timestamp, id) ordered page of metrics or notifications. Clients get it
+ * as an opaque string and pass it back to fetch the next page.
+ */
+public record PageCursor(Timestamp timestamp, Long id) {
+
+    public static PageCursor decode(String cursor) {
+        try {
+            String[] parts = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split(":");
+            Timestamp ts = new Timestamp(Long.parseLong(parts[0]) * 1000);
+            ts.setNanos(Integer.parseInt(parts[1]));
+            return new PageCursor(ts, Long.parseLong(parts[2]));
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Malformed cursor");
+        }
+    }
+
+    public String encode() {
+        long seconds = Math.floorDiv(timestamp.getTime(), 1000);
+        String raw = seconds + ":" + timestamp.getNanos() + ":" + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,11 @@
+package com.itmo.spy_system.dto;
+
+import com.itmo.spy_system.entity.TaskStatus;
+
+/**
+ * A punishment or device change task was created, reassigned or changed its status;
+ * previousExecutionerId is set when the task was taken away from someone
+ */
+public record TaskUpdate(String kind, Long taskId, TaskStatus status, Long executionerId,
+                         Long previousExecutionerId, Long creatorId) {
+}
@@ -0,0 +1,21 @@
+package com.itmo.spy_system.entity;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.sql.Timestamp;
+
+/**
+ * Key of the last chunk a batch run committed, the run resumes after it
+ */
+@Entity
+@Table(name = "batch_checkpoint")
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class BatchCheckpoint {
+    @Id
+    private String id;
+    private Long lastKey;
+    private Timestamp updatedAt;
+}
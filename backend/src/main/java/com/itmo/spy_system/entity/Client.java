@@ -1,5 +1,6 @@
 package com.itmo.spy_system.entity;
 
+import com.fasterxml.jackson.annotation.JsonProperty;
 import jakarta.persistence.*;
 import lombok.*;
 import org.hibernate.annotations.GenericGenerator;
@@ -18,7 +19,7 @@ public class Client {
     @SequenceGenerator(
             name="client_seq",
             sequenceName="client_sequence",
-            allocationSize=1
+            allocationSize=50
     )
     private Long id;
 
@@ -27,6 +28,8 @@ public class Client {
 
     @Column(unique = true)
     private String email;
+    // accepted in requests, never written to responses
+    @JsonProperty(access = JsonProperty.Access.WRITE_ONLY)
     private String password;
     private String name;
     private String surname;
@@ -19,7 +19,7 @@ public class Contract {
     @SequenceGenerator(
             name="contract_seq",
             sequenceName="contract_sequence",
-            allocationSize=1
+            allocationSize=50
     )
     private Long id;
     @Enumerated(EnumType.STRING)
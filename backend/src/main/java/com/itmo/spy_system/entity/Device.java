@@ -6,7 +6,9 @@ import lombok.*;
 import java.sql.Timestamp;
 
 @Entity
-@Table(name = "device")
+@Table(name = "device", indexes = {
+        @Index(name = "device_status_index", columnList = "status"),
+})
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
@@ -18,7 +18,7 @@ public class DeviceChangeTask {
     @SequenceGenerator(
             name="dct_seq",
             sequenceName="dct_sequence",
-            allocationSize=1
+            allocationSize=50
     )
     private Long id;
     @Enumerated(EnumType.STRING)
@@ -0,0 +1,27 @@
+package com.itmo.spy_system.entity;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.sql.Timestamp;
+
+/**
+ * Ownership of one partition of a background job, shared by all backend replicas
+ */
+@Entity
+@Table(name = "job_lease", indexes = {
+        @Index(name = "job_lease_job_index", columnList = "job")
+})
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class JobLease {
+    // job:partition
+    @Id
+    private String id;
+    private String job;
+    private Integer partitionNo;
+    private String owner;
+    private Timestamp leaseUntil;
+    private Timestamp lastRunAt;
+}
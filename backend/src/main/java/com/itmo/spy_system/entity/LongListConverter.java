@@ -0,0 +1,38 @@
+package com.itmo.spy_system.entity;
+
+import jakarta.persistence.AttributeConverter;
+import jakarta.persistence.Converter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Stores a list of ids as a comma-separated string, null for no list
+ */
+@Converter
+public class LongListConverter implements AttributeConverter<List<Long>, String> {
+
+    @Override
+    public String convertToDatabaseColumn(List<Long> ids) {
+        if (ids == null)
+            return null;
+        StringBuilder sb = new StringBuilder();
+        for (Long id : ids) {
+            if (!sb.isEmpty())
+                sb.append(',');
+            sb.append(id);
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public List<Long> convertToEntityAttribute(String column) {
+        if (column == null)
+            return null;
+        List<Long> ids = new ArrayList<>();
+        for (String id : column.split(","))
+            if (!id.isEmpty())
+                ids.add(Long.parseLong(id));
+        return ids;
+    }
+}
@@ -1,5 +1,6 @@
 package com.itmo.spy_system.entity;
 
+import com.fasterxml.jackson.annotation.JsonProperty;
 import jakarta.persistence.*;
 import lombok.*;
 
@@ -14,11 +15,13 @@ public class Manager {
     @SequenceGenerator(
             name="manager_seq",
             sequenceName="manager_sequence",
-            allocationSize=1
+            allocationSize=50
     )
     private Long id;
     @Column(unique = true)
     private String email;
+    // accepted in requests, never written to responses
+    @JsonProperty(access = JsonProperty.Access.WRITE_ONLY)
     private String password;
     private String name;
     private String surname;
@@ -7,8 +7,8 @@ import java.sql.*;
 
 @Entity
 @Table(name = "device_metric", indexes = {
-        @Index(name = "device_metric_client_id_index", columnList = "clientId"),
-        @Index(name = "device_metric_device_id_index", columnList = "deviceId"),
+        @Index(name = "device_metric_client_id_timestamp_index", columnList = "clientId, timestamp"),
+        @Index(name = "device_metric_device_id_timestamp_index", columnList = "deviceId, timestamp"),
 })
 @Data
 @NoArgsConstructor
@@ -19,7 +19,7 @@ public class Metric {
     @SequenceGenerator(
             name="metric_seq",
             sequenceName="metric_sequence",
-            allocationSize=1
+            allocationSize=50
     )
     private Long id;
     private Long deviceId;
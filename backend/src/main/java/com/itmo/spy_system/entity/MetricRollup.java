@@ -0,0 +1,49 @@
+package com.itmo.spy_system.entity;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.sql.Timestamp;
+
+@Entity
+@Table(name = "metric_rollup", uniqueConstraints = {
+        @UniqueConstraint(name = "metric_rollup_bucket_key", columnNames = {"scope", "scopeId", "resolution", "bucketStart"}),
+})
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class MetricRollup {
+    @Id
+    @GeneratedValue(strategy=GenerationType.SEQUENCE, generator="metric_rollup_seq")
+    @SequenceGenerator(
+            name="metric_rollup_seq",
+            sequenceName="metric_rollup_sequence",
+            allocationSize=50
+    )
+    private Long id;
+
+    @Enumerated(EnumType.STRING)
+    private RollupScope scope;
+    private Long scopeId;
+
+    @Enumerated(EnumType.STRING)
+    private RollupResolution resolution;
+    private Timestamp bucketStart;
+
+    private Integer minValue;
+    private Integer maxValue;
+    private Long sumValue;
+    @Column(name = "sample_count")
+    private Long count;
+    private Integer lastValue;
+    private Timestamp lastTimestamp;
+
+    @JsonIgnore
+    @Version
+    private Long version;
+
+    public Double getAvgValue() {
+        return count == null || count == 0 ? null : (double) sumValue / count;
+    }
+}
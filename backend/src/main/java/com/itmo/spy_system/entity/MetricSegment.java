@@ -0,0 +1,27 @@
+package com.itmo.spy_system.entity;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+/**
+ * A cold store segment file, path relative to metrics.cold.directory; recorded in the transaction that deletes
+ * its readings from device_metric, so every replica sees a reading in exactly one of the tiers
+ */
+@Entity
+@Table(name = "metric_segment")
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class MetricSegment {
+    @Id
+    @GeneratedValue(strategy=GenerationType.SEQUENCE, generator="metric_segment_seq")
+    @SequenceGenerator(
+            name="metric_segment_seq",
+            sequenceName="metric_segment_sequence",
+            allocationSize=50
+    )
+    private Long id;
+    @Column(unique = true)
+    private String path;
+    private Long deviceId;
+}
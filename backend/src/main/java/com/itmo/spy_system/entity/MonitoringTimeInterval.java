@@ -8,7 +8,10 @@ import lombok.NoArgsConstructor;
 import java.sql.Time;
 
 @Entity
-@Table(name = "monitoring_interval")
+@Table(name = "monitoring_interval", indexes = {
+        @Index(name = "monitoring_interval_client_id_weekday_begin", columnList = "clientId, weekday, begin"),
+        @Index(name = "monitoring_interval_worker_id_weekday_begin", columnList = "workerId, weekday, begin")
+})
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
@@ -19,7 +22,7 @@ public class MonitoringTimeInterval {
     @SequenceGenerator(
             name="mti_seq",
             sequenceName="mti_sequence",
-            allocationSize=1
+            allocationSize=50
     )
     private Long id;
 
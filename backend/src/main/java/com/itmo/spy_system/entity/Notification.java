@@ -5,12 +5,18 @@ import jakarta.persistence.*;
 import lombok.*;
 
 import java.sql.Timestamp;
+import java.util.List;
 
 @Entity
 @Table(name = "notification", indexes = {
-        @Index(name = "notification_worker_id", columnList = "workerId"),
-        @Index(name = "notification_client_id", columnList = "clientId"),
-        @Index(name = "notification_manager_id", columnList = "managerId"),
+        // inbox pages by (createdAt, id) and unread counts or bulk mark-as-read by status, per recipient
+        @Index(name = "notification_worker_id_created_at", columnList = "workerId, createdAt, id"),
+        @Index(name = "notification_worker_id_status", columnList = "workerId, status"),
+        @Index(name = "notification_client_id_created_at", columnList = "clientId, createdAt, id"),
+        @Index(name = "notification_client_id_status", columnList = "clientId, status"),
+        @Index(name = "notification_manager_id_created_at", columnList = "managerId, createdAt, id"),
+        @Index(name = "notification_manager_id_status", columnList = "managerId, status"),
+        @Index(name = "notification_related_entity_id_type", columnList = "relatedEntityId, type"),
 })
 @Data
 @NoArgsConstructor
@@ -21,7 +27,7 @@ public class Notification {
     @SequenceGenerator(
             name="notification_seq",
             sequenceName="notification_sequence",
-            allocationSize=1
+            allocationSize=50
     )
     private Long id;
     private String text;
@@ -37,6 +43,12 @@ public class Notification {
     private Long managerId;
     private Timestamp createdAt;
 
+    // set on digests only: how many notifications were collapsed into this one and what they were about
+    private Integer aggregateCount;
+    @Convert(converter = LongListConverter.class)
+    @Column(columnDefinition = "TEXT")
+    private List<Long> relatedEntityIds;
+
     @PostConstruct
     private void setDefaults() {
         if (this.status == null) {
@@ -0,0 +1,43 @@
+package com.itmo.spy_system.entity;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.sql.Timestamp;
+import java.util.List;
+
+/**
+ * A read notification moved out of the notification table by the archiver; it keeps the original id,
+ * and the status, always READ, is dropped
+ */
+@Entity
+@Table(name = "notification_archive", indexes = {
+        @Index(name = "notification_archive_worker_id_created_at", columnList = "workerId, createdAt, id"),
+        @Index(name = "notification_archive_client_id_created_at", columnList = "clientId, createdAt, id"),
+        @Index(name = "notification_archive_manager_id_created_at", columnList = "managerId, createdAt, id"),
+        @Index(name = "notification_archive_related_entity_id_type", columnList = "relatedEntityId, type"),
+})
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class NotificationArchive {
+    @Id
+    private Long id;
+    private String text;
+
+    @Enumerated(EnumType.STRING)
+    private NotificationType type;
+    private Long relatedEntityId;
+
+    private Long clientId;
+    private Long workerId;
+    private Long managerId;
+    private Timestamp createdAt;
+
+    // digests only, see Notification
+    private Integer aggregateCount;
+    @Convert(converter = LongListConverter.class)
+    @Column(columnDefinition = "TEXT")
+    private List<Long> relatedEntityIds;
+    private Timestamp archivedAt;
+}
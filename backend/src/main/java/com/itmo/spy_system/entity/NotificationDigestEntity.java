@@ -0,0 +1,32 @@
+package com.itmo.spy_system.entity;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+/**
+ * One of the entities a digest notification is about, so that the dedupe lookups find the ones folded into it;
+ * refers to the digest by id, which it keeps in notification_archive as well
+ */
+@Entity
+@Table(name = "notification_digest_entity", indexes = {
+        @Index(name = "notification_digest_entity_related_entity_id_type", columnList = "relatedEntityId, type"),
+        @Index(name = "notification_digest_entity_notification_id", columnList = "notificationId")
+})
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class NotificationDigestEntity {
+    @Id
+    @GeneratedValue(strategy=GenerationType.SEQUENCE, generator="notification_digest_entity_seq")
+    @SequenceGenerator(
+            name="notification_digest_entity_seq",
+            sequenceName="notification_digest_entity_sequence",
+            allocationSize=50
+    )
+    private Long id;
+
+    private Long notificationId;
+    @Enumerated(EnumType.STRING)
+    private NotificationType type;
+    private Long relatedEntityId;
+}
@@ -0,0 +1,40 @@
+package com.itmo.spy_system.entity;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.sql.Timestamp;
+
+/**
+ * Side effect of a business change written in the same transaction and carried out later by the outbox
+ * dispatcher; the row is deleted once it is done, or parked after too many failed attempts
+ */
+@Entity
+@Table(name = "outbox_message", indexes = {
+        @Index(name = "outbox_message_status_next_attempt_at", columnList = "status, nextAttemptAt")
+})
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class OutboxMessage {
+    @Id
+    @GeneratedValue(strategy=GenerationType.SEQUENCE, generator="outbox_message_seq")
+    @SequenceGenerator(
+            name="outbox_message_seq",
+            sequenceName="outbox_message_sequence",
+            allocationSize=50
+    )
+    private Long id;
+
+    @Enumerated(EnumType.STRING)
+    private OutboxMessageType type;
+    @Column(columnDefinition="TEXT")
+    private String payload;
+    @Enumerated(EnumType.STRING)
+    private OutboxStatus status;
+    private int attempts;
+    private Timestamp createdAt;
+    private Timestamp nextAttemptAt;
+    @Column(columnDefinition="TEXT")
+    private String lastError;
+}
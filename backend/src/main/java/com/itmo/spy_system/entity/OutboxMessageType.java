@@ -0,0 +1,5 @@
+package com.itmo.spy_system.entity;
+
+public enum OutboxMessageType {
+    NOTIFICATION, EMAIL
+}
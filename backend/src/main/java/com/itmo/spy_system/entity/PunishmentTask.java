@@ -16,7 +16,7 @@ public class PunishmentTask {
     @SequenceGenerator(
             name="punishment_task_seq",
             sequenceName="punishment_task_sequence",
-            allocationSize=1
+            allocationSize=50
     )
     private Long id;
     @Enumerated(EnumType.STRING)
@@ -18,7 +18,7 @@ public class ResetToken {
     @SequenceGenerator(
             name="reset_token_seq",
             sequenceName="reset_token_sequence",
-            allocationSize=1
+            allocationSize=50
     )
     private Long id;
 
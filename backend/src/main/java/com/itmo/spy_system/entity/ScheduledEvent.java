@@ -0,0 +1,40 @@
+package com.itmo.spy_system.entity;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.sql.Timestamp;
+
+/**
+ * Pending entry of the persistent delay queue, at most one per entity and type; a failed one is retried at
+ * nextAttemptAt and parked, with nextAttemptAt cleared, after too many failed attempts
+ */
+@Entity
+@Table(name = "scheduled_event", indexes = {
+        @Index(name = "scheduled_event_next_attempt_at_index", columnList = "nextAttemptAt")
+}, uniqueConstraints = {
+        @UniqueConstraint(name = "scheduled_event_entity_key", columnNames = {"type", "entityId"}),
+})
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ScheduledEvent {
+    @Id
+    @GeneratedValue(strategy=GenerationType.SEQUENCE, generator="scheduled_event_seq")
+    @SequenceGenerator(
+            name="scheduled_event_seq",
+            sequenceName="scheduled_event_sequence",
+            allocationSize=50
+    )
+    private Long id;
+
+    @Enumerated(EnumType.STRING)
+    private ScheduledEventType type;
+    private Long entityId;
+    private Timestamp dueAt;
+    private Timestamp nextAttemptAt;
+    // null on rows written before retries existed
+    private Integer attempts;
+    @Column(columnDefinition="TEXT")
+    private String lastError;
+}
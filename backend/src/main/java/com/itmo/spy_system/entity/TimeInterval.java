@@ -6,7 +6,10 @@ import lombok.*;
 import java.sql.*;
 
 @Entity
-@Table(name = "time_interval")
+@Table(name = "time_interval", indexes = {
+        @Index(name = "time_interval_worker_id_weekday_begin", columnList = "workerId, weekday, begin"),
+        @Index(name = "time_interval_manager_id_weekday_begin", columnList = "managerId, weekday, begin")
+})
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
@@ -16,7 +19,7 @@ public class TimeInterval {
     @SequenceGenerator(
             name="time_interval_seq",
             sequenceName="time_interval_sequence",
-            allocationSize=1
+            allocationSize=50
     )
     private Long id;
     private Long workerId;
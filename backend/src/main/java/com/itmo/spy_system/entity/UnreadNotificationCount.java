@@ -0,0 +1,19 @@
+package com.itmo.spy_system.entity;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+/**
+ * Number of unread notifications of one recipient, written in the transactions that change it
+ */
+@Entity
+@Table(name = "unread_notification_count")
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class UnreadNotificationCount {
+    // clientId:id, workerId:id or managerId:id
+    @Id
+    private String recipient;
+    private Long unread;
+}
@@ -1,5 +1,6 @@
 package com.itmo.spy_system.entity;
 
+import com.fasterxml.jackson.annotation.JsonProperty;
 import jakarta.persistence.*;
 import jakarta.validation.constraints.Email;
 import lombok.*;
@@ -15,12 +16,14 @@ public class Worker {
     @SequenceGenerator(
             name="worker_seq",
             sequenceName="worker_sequence",
-            allocationSize=1
+            allocationSize=50
     )
     private Long id;
     @Column(unique = true)
     @Email
     private String email;
+    // accepted in requests, never written to responses
+    @JsonProperty(access = JsonProperty.Access.WRITE_ONLY)
     private String password;
     private String name;
     private String surname;
@@ -0,0 +1,7 @@
+package com.itmo.spy_system.repository;
+
+import com.itmo.spy_system.entity.BatchCheckpoint;
+import org.springframework.data.jpa.repository.JpaRepository;
+
+public interface BatchCheckpointRepository extends JpaRepository<BatchCheckpoint, String> {
+}
@@ -2,13 +2,29 @@ package com.itmo.spy_system.repository;
 
 import com.itmo.spy_system.entity.Client;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
+import jakarta.persistence.LockModeType;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 //import org.springframework.data.repository.CrudRepository;
 
 //public interface ClientRepository extends CrudRepository<Client, Long> {
 public interface ClientRepository extends JpaRepository<Client, Long> {
     Optional<Client> findByEmail(String email);
     List<Client> findByMonitoringOfficers_Id(Long id);
+    @Modifying
+    @Query("UPDATE Client c SET c.canCreateNewContract = true WHERE c.id IN :ids")
+    int allowNewContractsByIdIn(@Param("ids") Collection<Long> ids);
+
+    /**
+     * Locks the rows in id order until the end of the transaction, so that writes to their schedules are serialized
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT c FROM Client c WHERE c.id IN :ids ORDER BY c.id")
+    List<Client> lockAllById(@Param("ids") Collection<Long> ids);
 }
@@ -4,8 +4,12 @@ import com.itmo.spy_system.entity.Client;
 import com.itmo.spy_system.entity.Contract;
 import com.itmo.spy_system.entity.ContractStatus;
 import com.itmo.spy_system.entity.Device;
+import com.itmo.spy_system.entity.ScheduledEventType;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
 import java.sql.Date;
 import java.util.Collection;
@@ -21,6 +25,25 @@ public interface ContractRepository extends JpaRepository<Contract, Long> {
     List<Contract> findBySignerId(Long managerId);
     List<Contract> findByClientId(Long clientId);
     List<Contract> findByEndDateBeforeAndStatusNot(Date someDate, ContractStatus status);
+    @Query("""
+            SELECT c FROM Contract c JOIN FETCH c.client LEFT JOIN FETCH c.signer
+            WHERE c.endDate < :date AND c.status <> :status AND MOD(c.id, :partitions) = :partition AND c.id > :afterId
+            ORDER BY c.id
+            """)
+    List<Contract> findByEndDateBeforeAndStatusNotInPartition(@Param("date") Date someDate, @Param("status") ContractStatus status,
+                                                              @Param("partition") int partition, @Param("partitions") int partitions,
+                                                              @Param("afterId") Long afterId, Pageable pageable);
+    @Query("""
+            SELECT c FROM Contract c
+            WHERE c.endDate >= :date AND c.status <> :status AND MOD(c.id, :partitions) = :partition
+            AND NOT EXISTS (SELECT e.id FROM ScheduledEvent e WHERE e.type = :type AND e.entityId = c.id)
+            """)
+    List<Contract> findWithoutScheduledEvent(@Param("date") Date someDate, @Param("status") ContractStatus status,
+                                             @Param("type") ScheduledEventType type,
+                                             @Param("partition") int partition, @Param("partitions") int partitions);
+    @Modifying
+    @Query("UPDATE Contract c SET c.status = :status WHERE c.id IN :ids")
+    int updateStatusByIdIn(@Param("ids") Collection<Long> ids, @Param("status") ContractStatus status);
     Boolean existsByClientIdAndStatusIn(Long clientId, Collection<ContractStatus> statuses);
 
 //    @Query("SELECT COUNT(c) AS count FROM Contract c GROUP BY c.signer.id ORDER BY count ASC LIMIT 1")
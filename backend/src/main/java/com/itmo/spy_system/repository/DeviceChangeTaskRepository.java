@@ -1,8 +1,11 @@
 package com.itmo.spy_system.repository;
 
+import com.itmo.spy_system.dto.ExecutionerCount;
 import com.itmo.spy_system.entity.DeviceChangeTask;
 import com.itmo.spy_system.entity.TaskStatus;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
 import java.util.Collection;
 import java.util.List;
@@ -11,4 +14,9 @@ public interface DeviceChangeTaskRepository extends JpaRepository<DeviceChangeTa
     List<DeviceChangeTask> findByExecutionerIdAndStatusIn(Long executionerId, List<TaskStatus> statuses);
     List<DeviceChangeTask> findByOldDeviceIdOrNewDeviceIdAndStatusIn(Long oldDeviceId, Long newDeviceId, List<TaskStatus> statuses);
     List<DeviceChangeTask> findByExecutionerIdIn(Collection<Long> ids);
+    @Query("""
+            SELECT t.executionerId AS executionerId, COUNT(t) AS count FROM DeviceChangeTask t
+            WHERE t.executionerId IS NOT NULL AND t.status IN :statuses GROUP BY t.executionerId
+            """)
+    List<ExecutionerCount> countByExecutionerAndStatusIn(@Param("statuses") Collection<TaskStatus> statuses);
 }
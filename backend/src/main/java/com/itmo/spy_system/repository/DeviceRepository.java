@@ -1,7 +1,11 @@
 package com.itmo.spy_system.repository;
 
 import com.itmo.spy_system.entity.Device;
+import com.itmo.spy_system.entity.DeviceStatus;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
 import java.util.Collection;
 import java.util.List;
@@ -11,4 +15,17 @@ public interface DeviceRepository extends JpaRepository<Device, Long> {
     List<Device> findByAssignedClientId(Long clientId);
     List<Device> findByAssignedClientIdIn(Collection<Long> ids);
     List<Device> findByAssignedClientIdIsNull();
+    List<Device> findByStatus(DeviceStatus status);
+    @Query("SELECT d FROM Device d WHERE d.status = :status AND MOD(d.deviceId, :partitions) = :partition")
+    List<Device> findByStatusInPartition(@Param("status") DeviceStatus status,
+                                         @Param("partition") int partition, @Param("partitions") int partitions);
+
+    /**
+     * Writes a battery level below threshold only if the row is not below it yet; 1 on exactly one
+     * of the replicas that see the same device drop
+     */
+    @Modifying
+    @Query("UPDATE Device d SET d.batteryLevel = :level " +
+            "WHERE d.deviceId = :deviceId AND (d.batteryLevel IS NULL OR d.batteryLevel >= :threshold)")
+    int markBatteryLow(@Param("deviceId") Long deviceId, @Param("level") Integer level, @Param("threshold") int threshold);
 }
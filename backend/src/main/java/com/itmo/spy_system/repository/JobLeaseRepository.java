@@ -0,0 +1,41 @@
+package com.itmo.spy_system.repository;
+
+import com.itmo.spy_system.entity.JobLease;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.sql.Timestamp;
+import java.util.List;
+
+public interface JobLeaseRepository extends JpaRepository<JobLease, String> {
+    List<JobLease> findByJob(String job);
+
+    /**
+     * Takes or renews the lease, succeeds only if it is free, expired or already ours
+     */
+    @Modifying
+    @Query("""
+            UPDATE JobLease l SET l.owner = :owner, l.leaseUntil = :until
+            WHERE l.id = :id AND (l.owner IS NULL OR l.owner = :owner OR l.leaseUntil < :now)
+            """)
+    int claim(@Param("id") String id, @Param("owner") String owner,
+              @Param("now") Timestamp now, @Param("until") Timestamp until);
+
+    @Modifying
+    @Query("UPDATE JobLease l SET l.owner = NULL, l.leaseUntil = NULL WHERE l.id = :id AND l.owner = :owner")
+    int release(@Param("id") String id, @Param("owner") String owner);
+
+    @Modifying
+    @Query("UPDATE JobLease l SET l.owner = NULL, l.leaseUntil = NULL WHERE l.owner = :owner")
+    int releaseAll(@Param("owner") String owner);
+
+    @Modifying
+    @Query("UPDATE JobLease l SET l.lastRunAt = :at WHERE l.id = :id")
+    int markRun(@Param("id") String id, @Param("at") Timestamp at);
+
+    @Modifying
+    @Query("DELETE FROM JobLease l WHERE l.job = :job AND (l.leaseUntil IS NULL OR l.leaseUntil < :before)")
+    int deleteExpired(@Param("job") String job, @Param("before") Timestamp before);
+}
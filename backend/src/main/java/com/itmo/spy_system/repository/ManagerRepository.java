@@ -1,10 +1,23 @@
 package com.itmo.spy_system.repository;
 
 import com.itmo.spy_system.entity.Manager;
+import jakarta.persistence.LockModeType;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 
 public interface ManagerRepository extends JpaRepository<Manager, Long> {
     Optional<Manager> findByEmail(String email);
+
+    /**
+     * Locks the rows in id order until the end of the transaction, so that writes to their schedules are serialized
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT m FROM Manager m WHERE m.id IN :ids ORDER BY m.id")
+    List<Manager> lockAllById(@Param("ids") Collection<Long> ids);
 }
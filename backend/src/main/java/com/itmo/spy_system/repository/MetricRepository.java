@@ -7,39 +7,32 @@ import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
 
 import java.sql.Timestamp;
+import java.time.Duration;
 import java.time.Instant;
 import java.util.List;
 import java.util.Optional;
 
-public interface MetricRepository extends JpaRepository<Metric, Long> {
+public interface MetricRepository extends JpaRepository<Metric, Long>, MetricRepositoryCustom {
+
+    /**
+     * How far back "latest" lookups look first, so that they only touch the most recent partitions
+     */
+    Duration RECENT_WINDOW = Duration.ofDays(1);
 
     Optional<Metric> findTopByDeviceIdOrderByTimestampDesc(Long deviceId);
     Optional<Metric> findTopByClientIdOrderByTimestampDesc(Long clientId);
+    Optional<Metric> findTopByDeviceIdAndTimestampGreaterThanEqualOrderByTimestampDesc(Long deviceId, Timestamp since);
+    Optional<Metric> findTopByClientIdAndTimestampGreaterThanEqualOrderByTimestampDesc(Long clientId, Timestamp since);
 
-//    @AllArgsConstructor
-//    @Getter
-//    public class DeviceLatestMetrics {
-//        private final Long metricId;
-//        private final Long deviceId;
-//        private final Timestamp timestamp;
-//    }
-
-    public interface DeviceLatestMetrics {
-        Long getId();
-        Long getDeviceId();
-        Timestamp getTimestamp();
+    default Optional<Metric> findLatestByDeviceId(Long deviceId) {
+        Timestamp since = Timestamp.from(Instant.now().minus(RECENT_WINDOW));
+        return findTopByDeviceIdAndTimestampGreaterThanEqualOrderByTimestampDesc(deviceId, since)
+                .or(() -> findTopByDeviceIdOrderByTimestampDesc(deviceId));
     }
 
-    @Query(value = """
-        SELECT m.id, m.device_id AS deviceId, m.timestamp
-        FROM device_metric m
-        JOIN (
-            SELECT device_id, MAX(timestamp) AS max_timestamp
-            FROM device_metric
-            GROUP BY device_id
-        ) t
-          ON m.device_id = t.device_id
-         AND m.timestamp = t.max_timestamp;
-    """, nativeQuery = true)
-    List<DeviceLatestMetrics> getLatestDevicesMetrics();
+    default Optional<Metric> findLatestByClientId(Long clientId) {
+        Timestamp since = Timestamp.from(Instant.now().minus(RECENT_WINDOW));
+        return findTopByClientIdAndTimestampGreaterThanEqualOrderByTimestampDesc(clientId, since)
+                .or(() -> findTopByClientIdOrderByTimestampDesc(clientId));
+    }
 }
@@ -0,0 +1,21 @@
+package com.itmo.spy_system.repository;
+
+import com.itmo.spy_system.dto.PageCursor;
+import com.itmo.spy_system.entity.Metric;
+
+import java.sql.Timestamp;
+import java.util.List;
+
+public interface MetricRepositoryCustom {
+
+    /**
+     * null fields are not filtered on, from is inclusive and to is exclusive
+     */
+    record MetricFilter(Long deviceId, Long clientId, Timestamp from, Timestamp to) {
+    }
+
+    /**
+     * Rows ordered by (timestamp, id) that come strictly after the cursor in the requested direction
+     */
+    List<Metric> findPage(MetricFilter filter, PageCursor after, boolean ascending, int limit);
+}
@@ -0,0 +1,56 @@
+package com.itmo.spy_system.repository;
+
+import com.itmo.spy_system.dto.PageCursor;
+import com.itmo.spy_system.entity.Metric;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.persistence.criteria.CriteriaBuilder;
+import jakarta.persistence.criteria.CriteriaQuery;
+import jakarta.persistence.criteria.Path;
+import jakarta.persistence.criteria.Predicate;
+import jakarta.persistence.criteria.Root;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+
+public class MetricRepositoryCustomImpl implements MetricRepositoryCustom {
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Override
+    public List<Metric> findPage(MetricFilter filter, PageCursor after, boolean ascending, int limit) {
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Metric> query = cb.createQuery(Metric.class);
+        Root<Metric> m = query.from(Metric.class);
+        Path<Timestamp> timestamp = m.get("timestamp");
+        Path<Long> id = m.get("id");
+
+        List<Predicate> where = new ArrayList<>();
+        where.add(cb.isNotNull(timestamp));
+        if (filter.deviceId() != null)
+            where.add(cb.equal(m.get("deviceId"), filter.deviceId()));
+        if (filter.clientId() != null)
+            where.add(cb.equal(m.get("clientId"), filter.clientId()));
+        if (filter.from() != null)
+            where.add(cb.greaterThanOrEqualTo(timestamp, filter.from()));
+        if (filter.to() != null)
+            where.add(cb.lessThan(timestamp, filter.to()));
+        if (after != null) {
+            // (timestamp, id) > (cursor.timestamp, cursor.id), or < for descending order
+            where.add(ascending
+                    ? cb.or(cb.greaterThan(timestamp, after.timestamp()),
+                            cb.and(cb.equal(timestamp, after.timestamp()), cb.greaterThan(id, after.id())))
+                    : cb.or(cb.lessThan(timestamp, after.timestamp()),
+                            cb.and(cb.equal(timestamp, after.timestamp()), cb.lessThan(id, after.id()))));
+        }
+
+        query.select(m)
+                .where(where.toArray(new Predicate[0]))
+                .orderBy(ascending
+                        ? List.of(cb.asc(timestamp), cb.asc(id))
+                        : List.of(cb.desc(timestamp), cb.desc(id)));
+        return entityManager.createQuery(query).setMaxResults(limit).getResultList();
+    }
+}
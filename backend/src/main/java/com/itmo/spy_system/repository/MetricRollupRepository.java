@@ -0,0 +1,25 @@
+package com.itmo.spy_system.repository;
+
+import com.itmo.spy_system.entity.MetricRollup;
+import com.itmo.spy_system.entity.RollupResolution;
+import com.itmo.spy_system.entity.RollupScope;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.sql.Timestamp;
+import java.util.Collection;
+import java.util.List;
+
+public interface MetricRollupRepository extends JpaRepository<MetricRollup, Long> {
+    List<MetricRollup> findByScopeAndResolutionAndScopeIdInAndBucketStartIn(
+            RollupScope scope, RollupResolution resolution, Collection<Long> scopeIds, Collection<Timestamp> bucketStarts);
+
+    List<MetricRollup> findByScopeAndScopeIdAndResolutionAndBucketStartGreaterThanEqualAndBucketStartLessThanOrderByBucketStart(
+            RollupScope scope, Long scopeId, RollupResolution resolution, Timestamp from, Timestamp to);
+
+    @Modifying
+    @Query("DELETE FROM MetricRollup r WHERE r.resolution = :resolution AND r.bucketStart < :before")
+    int deleteOlderThan(@Param("resolution") RollupResolution resolution, @Param("before") Timestamp before);
+}
@@ -0,0 +1,12 @@
+package com.itmo.spy_system.repository;
+
+import com.itmo.spy_system.entity.MetricSegment;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+
+import java.util.List;
+
+public interface MetricSegmentRepository extends JpaRepository<MetricSegment, Long> {
+    @Query("SELECT s.id FROM MetricSegment s")
+    List<Long> findAllIds();
+}
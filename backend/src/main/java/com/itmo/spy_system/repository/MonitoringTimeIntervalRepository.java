@@ -1,8 +1,12 @@
 package com.itmo.spy_system.repository;
 
 import com.itmo.spy_system.entity.MonitoringTimeInterval;
+import com.itmo.spy_system.entity.Weekday;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
+import java.sql.Time;
 import java.util.Collection;
 import java.util.List;
 
@@ -11,4 +15,15 @@ public interface MonitoringTimeIntervalRepository extends JpaRepository<Monitori
     List<MonitoringTimeInterval> findByClientId(Long id);
     List<MonitoringTimeInterval> findByWorkerId(Long id);
     List<MonitoringTimeInterval> findByClientIdIn(Collection<Long> ids);
+
+    /**
+     * Whether another interval of the client or of the worker overlaps [begin, ending] on the weekday;
+     * both bounds are inclusive
+     */
+    @Query("SELECT COUNT(m) > 0 FROM MonitoringTimeInterval m WHERE m.weekday = :weekday " +
+            "AND (m.client.id = :clientId OR m.worker.id = :workerId) " +
+            "AND m.begin <= :ending AND m.ending >= :begin AND (:id IS NULL OR m.id <> :id)")
+    boolean existsClash(@Param("clientId") Long clientId, @Param("workerId") Long workerId,
+                        @Param("weekday") Weekday weekday, @Param("begin") Time begin, @Param("ending") Time ending,
+                        @Param("id") Long id);
 }
@@ -0,0 +1,44 @@
+package com.itmo.spy_system.repository;
+
+import com.itmo.spy_system.entity.NotificationArchive;
+import com.itmo.spy_system.entity.NotificationStatus;
+import com.itmo.spy_system.entity.NotificationType;
+import com.itmo.spy_system.repository.NotificationRepository.NotifiedEntity;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.AvailableHints;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Stream;
+
+public interface NotificationArchiveRepository extends JpaRepository<NotificationArchive, Long>, NotificationArchiveRepositoryCustom {
+    boolean existsByRelatedEntityIdAndType(Long relatedEntityId, NotificationType type);
+    @Query("SELECT DISTINCT a.relatedEntityId FROM NotificationArchive a WHERE a.type = :type AND a.relatedEntityId IN :ids")
+    List<Long> findRelatedEntityIdsByTypeAndRelatedEntityIdIn(@Param("type") NotificationType type, @Param("ids") Collection<Long> ids);
+
+    /**
+     * Copies the notifications among ids that still have the status and are not archived yet
+     */
+    @Modifying
+    @Query("""
+            INSERT INTO NotificationArchive (id, text, type, relatedEntityId, clientId, workerId, managerId, createdAt,
+                aggregateCount, relatedEntityIds, archivedAt)
+            SELECT n.id, n.text, n.type, n.relatedEntityId, n.clientId, n.workerId, n.managerId, n.createdAt,
+                n.aggregateCount, n.relatedEntityIds, CURRENT_TIMESTAMP
+            FROM Notification n
+            WHERE n.id IN :ids AND n.status = :status AND NOT EXISTS (SELECT a.id FROM NotificationArchive a WHERE a.id = n.id)
+            """)
+    int copyFromNotifications(@Param("ids") Collection<Long> ids, @Param("status") NotificationStatus status);
+
+    @QueryHints(@QueryHint(name = AvailableHints.HINT_FETCH_SIZE, value = "1000"))
+    @Query("""
+            SELECT a.type AS type, a.relatedEntityId AS relatedEntityId, a.relatedEntityIds AS relatedEntityIds
+            FROM NotificationArchive a WHERE a.relatedEntityId IS NOT NULL
+            """)
+    Stream<NotifiedEntity> streamNotifiedEntities();
+}
@@ -0,0 +1,15 @@
+package com.itmo.spy_system.repository;
+
+import com.itmo.spy_system.dto.NotificationRecipient;
+import com.itmo.spy_system.dto.PageCursor;
+import com.itmo.spy_system.entity.NotificationArchive;
+
+import java.util.List;
+
+public interface NotificationArchiveRepositoryCustom {
+
+    /**
+     * Same as {@link NotificationRepositoryCustom#findInboxPage} over the archive
+     */
+    List<NotificationArchive> findPage(NotificationRecipient recipient, PageCursor after, int limit);
+}
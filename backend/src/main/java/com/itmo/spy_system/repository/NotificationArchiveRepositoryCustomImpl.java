@@ -0,0 +1,20 @@
+package com.itmo.spy_system.repository;
+
+import com.itmo.spy_system.dto.NotificationRecipient;
+import com.itmo.spy_system.dto.PageCursor;
+import com.itmo.spy_system.entity.NotificationArchive;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+
+import java.util.List;
+
+public class NotificationArchiveRepositoryCustomImpl implements NotificationArchiveRepositoryCustom {
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Override
+    public List<NotificationArchive> findPage(NotificationRecipient recipient, PageCursor after, int limit) {
+        return NotificationRepositoryCustomImpl.findRecipientPage(entityManager, NotificationArchive.class, recipient, null, after, limit);
+    }
+}
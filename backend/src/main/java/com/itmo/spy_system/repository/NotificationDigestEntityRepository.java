@@ -0,0 +1,21 @@
+package com.itmo.spy_system.repository;
+
+import com.itmo.spy_system.entity.NotificationDigestEntity;
+import com.itmo.spy_system.entity.NotificationType;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.util.Collection;
+import java.util.List;
+
+public interface NotificationDigestEntityRepository extends JpaRepository<NotificationDigestEntity, Long> {
+    boolean existsByRelatedEntityIdAndType(Long relatedEntityId, NotificationType type);
+    @Query("SELECT DISTINCT e.relatedEntityId FROM NotificationDigestEntity e WHERE e.type = :type AND e.relatedEntityId IN :ids")
+    List<Long> findRelatedEntityIdsByTypeAndRelatedEntityIdIn(@Param("type") NotificationType type, @Param("ids") Collection<Long> ids);
+
+    @Modifying
+    @Query("DELETE FROM NotificationDigestEntity e WHERE e.notificationId = :notificationId")
+    int deleteByNotificationId(@Param("notificationId") Long notificationId);
+}
@@ -1,15 +1,88 @@
 package com.itmo.spy_system.repository;
 
 import com.itmo.spy_system.entity.Notification;
+import com.itmo.spy_system.entity.NotificationStatus;
 import com.itmo.spy_system.entity.NotificationType;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.AvailableHints;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 
+import java.sql.Timestamp;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
+
+public interface NotificationRepository extends JpaRepository<Notification, Long>, NotificationRepositoryCustom {
+
+    interface NotifiedEntity {
+        NotificationType getType();
+        Long getRelatedEntityId();
+        // of a digest, null otherwise
+        List<Long> getRelatedEntityIds();
+    }
 
-public interface NotificationRepository extends JpaRepository<Notification, Long> {
     Optional<Notification> findByRelatedEntityIdAndType(Long relatedEntityId, NotificationType type);
+    boolean existsByRelatedEntityIdAndType(Long relatedEntityId, NotificationType type);
     List<Notification> findByClientIdOrderByCreatedAtDesc(Long clientId);
     List<Notification> findByManagerIdOrderByCreatedAtDesc(Long managerId);
     List<Notification> findByWorkerIdOrderByCreatedAtDesc(Long workerId);
+    @Query("SELECT DISTINCT n.relatedEntityId FROM Notification n WHERE n.type = :type AND n.relatedEntityId IN :ids")
+    List<Long> findRelatedEntityIdsByTypeAndRelatedEntityIdIn(@Param("type") NotificationType type, @Param("ids") Collection<Long> ids);
+    @Query("SELECT n FROM Notification n WHERE (n.clientId = :clientId OR n.workerId = :workerId OR n.managerId = :managerId) " +
+            "AND n.createdAt >= :since AND n.id <> :excludedId ORDER BY n.createdAt, n.id")
+    List<Notification> findForRecipientSince(@Param("clientId") Long clientId, @Param("workerId") Long workerId,
+                                                   @Param("managerId") Long managerId, @Param("since") Timestamp since,
+                                                   @Param("excludedId") Long excludedId, Pageable pageable);
+
+    @Query("""
+            SELECT n.id FROM Notification n
+            WHERE n.status = :status AND n.createdAt < :before AND MOD(n.id, :partitions) = :partition AND n.id > :afterId
+            ORDER BY n.id
+            """)
+    List<Long> findIdsToArchiveInPartition(@Param("status") NotificationStatus status, @Param("before") Timestamp before,
+                                           @Param("partition") int partition, @Param("partitions") int partitions,
+                                           @Param("afterId") Long afterId, Pageable pageable);
+
+    /**
+     * Deletes the notifications among ids that still have the status and are in the archive already
+     */
+    @Modifying
+    @Query("""
+            DELETE FROM Notification n
+            WHERE n.id IN :ids AND n.status = :status AND EXISTS (SELECT a.id FROM NotificationArchive a WHERE a.id = n.id)
+            """)
+    int deleteArchived(@Param("ids") Collection<Long> ids, @Param("status") NotificationStatus status);
+
+    /**
+     * Folds count more notifications, about the comma-separated ids, into the digest if it is still unread; only
+     * its aggregate columns are written, so a concurrent mark-as-read is never undone. Returns 0 if the digest was
+     * read or deleted meanwhile
+     */
+    @Modifying
+    @Query(value = """
+            UPDATE notification SET aggregate_count = aggregate_count + :count,
+                related_entity_ids = CASE WHEN :ids = '' THEN related_entity_ids
+                    WHEN related_entity_ids IS NULL OR related_entity_ids = '' THEN :ids
+                    ELSE related_entity_ids || ',' || :ids END,
+                text = :text || ' (+' || CAST(aggregate_count + :count - 1 AS VARCHAR) || ' похожих)'
+            WHERE id = :id AND status = 'UNREAD' AND aggregate_count IS NOT NULL
+            """, nativeQuery = true)
+    int foldIntoDigest(@Param("id") Long id, @Param("count") int count, @Param("ids") String ids, @Param("text") String text);
+
+    /**
+     * Every (type, relatedEntityId) pair, once per notification, with the ids a digest covers; must be consumed
+     * inside a transaction
+     */
+    @QueryHints(@QueryHint(name = AvailableHints.HINT_FETCH_SIZE, value = "1000"))
+    @Query("""
+            SELECT n.type AS type, n.relatedEntityId AS relatedEntityId, n.relatedEntityIds AS relatedEntityIds
+            FROM Notification n WHERE n.relatedEntityId IS NOT NULL
+            """)
+    Stream<NotifiedEntity> streamNotifiedEntities();
 }
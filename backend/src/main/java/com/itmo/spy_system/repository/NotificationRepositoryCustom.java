@@ -0,0 +1,42 @@
+package com.itmo.spy_system.repository;
+
+import com.itmo.spy_system.dto.NotificationRecipient;
+import com.itmo.spy_system.dto.PageCursor;
+import com.itmo.spy_system.entity.Notification;
+import com.itmo.spy_system.entity.NotificationStatus;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+public interface NotificationRepositoryCustom {
+
+    /**
+     * The recipient's notifications, newest first by (createdAt, id), that come strictly after the cursor;
+     * status null for any
+     */
+    List<Notification> findInboxPage(NotificationRecipient recipient, NotificationStatus status, PageCursor after, int limit);
+
+    /**
+     * Number of the recipient's unread notifications, counted over the (recipient, status) index
+     */
+    long countUnread(NotificationRecipient recipient);
+
+    /**
+     * Number of notifications with the status per recipient, a notification addressed to several recipients
+     * is counted for each of them
+     */
+    Map<NotificationRecipient, Long> countByRecipient(NotificationStatus status);
+
+    /**
+     * The recipient's unread notifications among ids, or all of them when ids is null, locked until the
+     * transaction ends
+     */
+    List<Notification> lockUnread(NotificationRecipient recipient, Collection<Long> ids);
+
+    /**
+     * Marks the recipient's unread notifications among ids, or all of them when ids is null, as read in
+     * a single UPDATE and returns how many rows changed
+     */
+    int markRead(NotificationRecipient recipient, Collection<Long> ids);
+}
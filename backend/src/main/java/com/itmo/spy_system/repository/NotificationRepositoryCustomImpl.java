@@ -0,0 +1,118 @@
+package com.itmo.spy_system.repository;
+
+import com.itmo.spy_system.dto.NotificationRecipient;
+import com.itmo.spy_system.dto.PageCursor;
+import com.itmo.spy_system.entity.Notification;
+import com.itmo.spy_system.entity.NotificationStatus;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.LockModeType;
+import jakarta.persistence.PersistenceContext;
+import jakarta.persistence.Query;
+import jakarta.persistence.TypedQuery;
+import jakarta.persistence.criteria.CriteriaBuilder;
+import jakarta.persistence.criteria.CriteriaQuery;
+import jakarta.persistence.criteria.Path;
+import jakarta.persistence.criteria.Predicate;
+import jakarta.persistence.criteria.Root;
+
+import java.sql.Timestamp;
+import java.util.*;
+import java.util.function.Function;
+
+public class NotificationRepositoryCustomImpl implements NotificationRepositoryCustom {
+
+    private static final Map<String, Function<Long, NotificationRecipient>> RECIPIENTS = Map.of(
+            "clientId", NotificationRecipient::client,
+            "workerId", NotificationRecipient::worker,
+            "managerId", NotificationRecipient::manager);
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Override
+    public List<Notification> findInboxPage(NotificationRecipient recipient, NotificationStatus status, PageCursor after, int limit) {
+        return findRecipientPage(entityManager, Notification.class, recipient, status, after, limit);
+    }
+
+    /**
+     * Keyset page over any entity with the notification's recipient, createdAt and id attributes, which the
+     * archive shares; status null for any
+     */
+    static <T> List<T> findRecipientPage(EntityManager entityManager, Class<T> entity, NotificationRecipient recipient,
+                                         NotificationStatus status, PageCursor after, int limit) {
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<T> query = cb.createQuery(entity);
+        Root<T> n = query.from(entity);
+        Path<Timestamp> createdAt = n.get("createdAt");
+        Path<Long> id = n.get("id");
+
+        List<Predicate> where = new ArrayList<>();
+        where.add(cb.equal(n.get(recipient.property()), recipient.id()));
+        where.add(cb.isNotNull(createdAt));
+        if (status != null)
+            where.add(cb.equal(n.get("status"), status));
+        if (after != null) {
+            // (createdAt, id) < (cursor.timestamp, cursor.id)
+            where.add(cb.or(cb.lessThan(createdAt, after.timestamp()),
+                    cb.and(cb.equal(createdAt, after.timestamp()), cb.lessThan(id, after.id()))));
+        }
+
+        query.select(n)
+                .where(where.toArray(new Predicate[0]))
+                .orderBy(cb.desc(createdAt), cb.desc(id));
+        return entityManager.createQuery(query).setMaxResults(limit).getResultList();
+    }
+
+    @Override
+    public long countUnread(NotificationRecipient recipient) {
+        TypedQuery<Long> query = entityManager.createQuery(
+                "SELECT COUNT(n) FROM Notification n WHERE " + unreadOf(recipient, null), Long.class);
+        bind(query, recipient, null);
+        return query.getSingleResult();
+    }
+
+    @Override
+    public Map<NotificationRecipient, Long> countByRecipient(NotificationStatus status) {
+        Map<NotificationRecipient, Long> result = new HashMap<>();
+        for (Map.Entry<String, Function<Long, NotificationRecipient>> e : RECIPIENTS.entrySet()) {
+            List<Object[]> rows = entityManager.createQuery(
+                            "SELECT n." + e.getKey() + ", COUNT(n) FROM Notification n " +
+                                    "WHERE n." + e.getKey() + " IS NOT NULL AND n.status = :status GROUP BY n." + e.getKey(),
+                            Object[].class)
+                    .setParameter("status", status)
+                    .getResultList();
+            for (Object[] row : rows)
+                result.put(e.getValue().apply((Long) row[0]), (Long) row[1]);
+        }
+        return result;
+    }
+
+    @Override
+    public List<Notification> lockUnread(NotificationRecipient recipient, Collection<Long> ids) {
+        TypedQuery<Notification> query = entityManager.createQuery(
+                "SELECT n FROM Notification n WHERE " + unreadOf(recipient, ids), Notification.class);
+        bind(query, recipient, ids);
+        return query.setLockMode(LockModeType.PESSIMISTIC_WRITE).getResultList();
+    }
+
+    @Override
+    public int markRead(NotificationRecipient recipient, Collection<Long> ids) {
+        Query update = entityManager.createQuery(
+                "UPDATE Notification n SET n.status = :read WHERE " + unreadOf(recipient, ids));
+        update.setParameter("read", NotificationStatus.READ);
+        bind(update, recipient, ids);
+        return update.executeUpdate();
+    }
+
+    private static String unreadOf(NotificationRecipient recipient, Collection<Long> ids) {
+        // the property name comes from the record, never from the request
+        return "n." + recipient.property() + " = :recipientId AND n.status = :unread" + (ids == null ? "" : " AND n.id IN :ids");
+    }
+
+    private static void bind(Query query, NotificationRecipient recipient, Collection<Long> ids) {
+        query.setParameter("recipientId", recipient.id());
+        query.setParameter("unread", NotificationStatus.UNREAD);
+        if (ids != null)
+            query.setParameter("ids", ids);
+    }
+}
@@ -0,0 +1,45 @@
+package com.itmo.spy_system.repository;
+
+import com.itmo.spy_system.entity.OutboxMessage;
+import com.itmo.spy_system.entity.OutboxStatus;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.sql.Timestamp;
+import java.util.Collection;
+import java.util.List;
+
+public interface OutboxMessageRepository extends JpaRepository<OutboxMessage, Long> {
+
+    @Query("""
+            SELECT m FROM OutboxMessage m
+            WHERE m.status = :status AND m.nextAttemptAt <= :now AND MOD(m.id, :partitions) = :partition
+            ORDER BY m.id
+            """)
+    List<OutboxMessage> findDueInPartition(@Param("status") OutboxStatus status, @Param("now") Timestamp now,
+                                           @Param("partition") int partition, @Param("partitions") int partitions,
+                                           Pageable pageable);
+
+    /**
+     * Takes the messages for dispatch, returns fewer than ids.size() if some were taken elsewhere in the meantime
+     */
+    @Modifying
+    @Query("DELETE FROM OutboxMessage m WHERE m.id IN :ids")
+    int take(@Param("ids") Collection<Long> ids);
+
+    @Modifying
+    @Query("""
+            UPDATE OutboxMessage m SET m.attempts = :attempts, m.nextAttemptAt = :nextAttemptAt,
+            m.lastError = :lastError, m.status = :status WHERE m.id = :id
+            """)
+    int reschedule(@Param("id") Long id, @Param("attempts") int attempts, @Param("nextAttemptAt") Timestamp nextAttemptAt,
+                   @Param("lastError") String lastError, @Param("status") OutboxStatus status);
+
+    @Query("SELECT MIN(m.createdAt) FROM OutboxMessage m WHERE m.status = :status")
+    Timestamp findOldestCreatedAt(@Param("status") OutboxStatus status);
+
+    long countByStatus(OutboxStatus status);
+}
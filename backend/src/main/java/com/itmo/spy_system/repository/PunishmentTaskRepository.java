@@ -1,13 +1,22 @@
 package com.itmo.spy_system.repository;
 
+import com.itmo.spy_system.dto.ExecutionerCount;
 import com.itmo.spy_system.entity.PunishmentTask;
 import com.itmo.spy_system.entity.TaskStatus;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
 import java.util.Collection;
 import java.util.List;
 
 public interface PunishmentTaskRepository extends JpaRepository<PunishmentTask, Long> {
+
     List<PunishmentTask> findByExecutionerIdAndStatusIn(Long executionerId, List<TaskStatus> statuses);
     List<PunishmentTask> findByExecutionerIdIn(Collection<Long> ids);
+    @Query("""
+            SELECT t.executionerId AS executionerId, COUNT(t) AS count FROM PunishmentTask t
+            WHERE t.executionerId IS NOT NULL AND t.status IN :statuses GROUP BY t.executionerId
+            """)
+    List<ExecutionerCount> countByExecutionerAndStatusIn(@Param("statuses") Collection<TaskStatus> statuses);
 }
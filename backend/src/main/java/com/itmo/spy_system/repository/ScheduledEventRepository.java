@@ -0,0 +1,44 @@
+package com.itmo.spy_system.repository;
+
+import com.itmo.spy_system.entity.ScheduledEvent;
+import com.itmo.spy_system.entity.ScheduledEventType;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.Optional;
+
+public interface ScheduledEventRepository extends JpaRepository<ScheduledEvent, Long> {
+    Optional<ScheduledEvent> findByTypeAndEntityId(ScheduledEventType type, Long entityId);
+    List<ScheduledEvent> findByNextAttemptAtBeforeOrderByNextAttemptAt(Timestamp before, Pageable pageable);
+
+    /**
+     * Takes the event for processing, fails if it was already taken or rescheduled in the meantime
+     */
+    @Modifying
+    @Query("DELETE FROM ScheduledEvent e WHERE e.id = :id AND e.nextAttemptAt = :at")
+    int take(@Param("id") Long id, @Param("at") Timestamp at);
+
+    /**
+     * Records a failed attempt unless the event was taken or rescheduled in the meantime; a null nextAttemptAt
+     * parks it
+     */
+    @Modifying
+    @Query("""
+            UPDATE ScheduledEvent e SET e.attempts = :attempts, e.nextAttemptAt = :nextAttemptAt, e.lastError = :lastError
+            WHERE e.id = :id AND e.nextAttemptAt = :at
+            """)
+    int retryLater(@Param("id") Long id, @Param("at") Timestamp at, @Param("attempts") int attempts,
+                   @Param("nextAttemptAt") Timestamp nextAttemptAt, @Param("lastError") String lastError);
+
+    /**
+     * Rows written before retries existed are first attempted at their due time
+     */
+    @Modifying
+    @Query("UPDATE ScheduledEvent e SET e.nextAttemptAt = e.dueAt, e.attempts = 0 WHERE e.attempts IS NULL")
+    int initAttempts();
+}
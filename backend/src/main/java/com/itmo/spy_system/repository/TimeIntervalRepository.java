@@ -3,11 +3,28 @@ package com.itmo.spy_system.repository;
 import com.itmo.spy_system.entity.TimeInterval;
 import com.itmo.spy_system.entity.Weekday;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
+import java.sql.Time;
+import java.util.Collection;
 import java.util.List;
 
 public interface TimeIntervalRepository extends JpaRepository<TimeInterval, Long> {
     List<TimeInterval> findByWorkerId(Long workerId);
     List<TimeInterval> findByWorkerIdAndWeekday(Long workerId, Weekday weekday);
     List<TimeInterval> findByManagerIdAndWeekday(Long managerId, Weekday weekday);
+    List<TimeInterval> findByWorkerIdIn(Collection<Long> workerIds);
+    List<TimeInterval> findByManagerIdInAndWorkerIdIsNull(Collection<Long> managerIds);
+
+    /**
+     * Whether another shift of the worker, or of the manager when no worker is given, overlaps [begin, ending]
+     * on the weekday; both bounds are inclusive
+     */
+    @Query("SELECT COUNT(t) > 0 FROM TimeInterval t WHERE t.weekday = :weekday " +
+            "AND (t.workerId = :workerId OR (:workerId IS NULL AND t.workerId IS NULL AND t.managerId = :managerId)) " +
+            "AND t.begin <= :ending AND t.ending >= :begin AND (:id IS NULL OR t.id <> :id)")
+    boolean existsClash(@Param("workerId") Long workerId, @Param("managerId") Long managerId,
+                        @Param("weekday") Weekday weekday, @Param("begin") Time begin, @Param("ending") Time ending,
+                        @Param("id") Long id);
 }
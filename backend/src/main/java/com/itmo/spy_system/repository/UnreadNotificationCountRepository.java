@@ -0,0 +1,28 @@
+package com.itmo.spy_system.repository;
+
+import com.itmo.spy_system.entity.UnreadNotificationCount;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+public interface UnreadNotificationCountRepository extends JpaRepository<UnreadNotificationCount, String> {
+
+    /**
+     * Adds delta to the recipient's count, never going below zero; 0 if the recipient has no row yet
+     */
+    @Modifying
+    @Query("""
+            UPDATE UnreadNotificationCount c
+            SET c.unread = CASE WHEN c.unread + :delta < 0 THEN 0 ELSE c.unread + :delta END
+            WHERE c.recipient = :recipient
+            """)
+    int add(@Param("recipient") String recipient, @Param("delta") long delta);
+
+    /**
+     * Sets the count only if it still is the expected one, i.e. no transaction changed it since it was read
+     */
+    @Modifying
+    @Query("UPDATE UnreadNotificationCount c SET c.unread = :actual WHERE c.recipient = :recipient AND c.unread = :expected")
+    int correct(@Param("recipient") String recipient, @Param("expected") long expected, @Param("actual") long actual);
+}
@@ -2,8 +2,13 @@ package com.itmo.spy_system.repository;
 
 import com.itmo.spy_system.entity.Worker;
 import com.itmo.spy_system.entity.WorkerRole;
+import jakarta.persistence.LockModeType;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -12,4 +17,11 @@ public interface WorkerRepository extends JpaRepository<Worker, Long> {
 
     Optional<Worker> findByEmail(String email);
     List<Worker> findByManagerId(Long managerId);
+
+    /**
+     * Locks the rows in id order until the end of the transaction, so that writes to their schedules are serialized
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT w FROM Worker w WHERE w.id IN :ids ORDER BY w.id")
+    List<Worker> lockAllById(@Param("ids") Collection<Long> ids);
 }
@@ -0,0 +1,81 @@
+package com.itmo.spy_system.service;
+
+import com.itmo.spy_system.entity.BatchCheckpoint;
+import com.itmo.spy_system.repository.BatchCheckpointRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.function.ToLongFunction;
+
+/**
+ * Processes a key-ordered data set in chunks. Each chunk is read after the key of the previous one and
+ * written in a single transaction together with the checkpoint, so an interrupted run resumes from the
+ * last committed chunk instead of starting over. A checkpoint older than batch.checkpoint.max-age-ms is left
+ * by a run that failed long ago, the data set has moved on since, so the run starts over instead. Writers are
+ * expected to work set-wise on the whole chunk.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class ChunkedBatchRunner {
+
+    public interface ChunkReader<T> {
+        /**
+         * Up to limit items with a key greater than afterKey, ordered by key; afterKey is null for the first chunk
+         */
+        List<T> read(Long afterKey, int limit);
+    }
+
+    public interface ChunkWriter<T> {
+        void write(List<T> chunk);
+    }
+
+    private final BatchCheckpointRepository checkpointRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${batch.checkpoint.max-age-ms:900000}")
+    private long checkpointMaxAgeMillis;
+
+    /**
+     * Runs until the reader is exhausted and returns the number of items written
+     */
+    public <T> long run(String name, int chunkSize, ChunkReader<T> reader, ToLongFunction<T> key, ChunkWriter<T> writer) {
+        BatchCheckpoint checkpoint = checkpointRepository.findById(name).orElse(null);
+        Long afterKey = null;
+        if (checkpoint != null && checkpoint.getUpdatedAt() != null
+                && System.currentTimeMillis() - checkpoint.getUpdatedAt().getTime() <= checkpointMaxAgeMillis) {
+            afterKey = checkpoint.getLastKey();
+            log.info("Batch {} resumes after key {}", name, afterKey);
+        } else if (checkpoint != null) {
+            log.warn("Batch {} ignores the checkpoint after key {} of {}, it starts over",
+                    name, checkpoint.getLastKey(), checkpoint.getUpdatedAt());
+        }
+        long written = 0;
+        while (true) {
+            List<T> chunk = reader.read(afterKey, chunkSize);
+            if (chunk.isEmpty())
+                break;
+            Long lastKey = key.applyAsLong(chunk.get(chunk.size() - 1));
+            meterRegistry.timer("batch.chunk.duration", "job", name).record(() ->
+                    transactionTemplate.executeWithoutResult(status -> {
+                        writer.write(chunk);
+                        checkpointRepository.save(new BatchCheckpoint(name, lastKey, new Timestamp(System.currentTimeMillis())));
+                    }));
+            meterRegistry.counter("batch.items", "job", name).increment(chunk.size());
+            written += chunk.size();
+            afterKey = lastKey;
+            if (chunk.size() < chunkSize)
+                break;
+        }
+        // the run is complete, the next one starts from the beginning
+        checkpointRepository.deleteById(name);
+        return written;
+    }
+}
@@ -10,6 +10,7 @@ import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Service;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -32,6 +33,10 @@ public class ClientService {
         return clientRepository.findById(id);
     }
 
+    public int allowNewContracts(Collection<Long> ids) {
+        return clientRepository.allowNewContractsByIdIn(ids);
+    }
+
     public Client save(Client client) {
         if (client.getPassword() != null) {
             client.setPassword(passwordEncoder.encode(client.getPassword()));
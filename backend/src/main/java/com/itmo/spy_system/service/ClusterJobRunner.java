@@ -0,0 +1,283 @@
+package com.itmo.spy_system.service;
+
+import com.itmo.spy_system.entity.JobLease;
+import com.itmo.spy_system.repository.JobLeaseRepository;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.sql.Timestamp;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs background jobs once per cluster instead of once per replica. A job's key space is split into
+ * partitions, each partition is a lease row in job_lease that one replica holds and renews. Replicas take
+ * at most their fair share of a job's partitions among the replicas running that job, so partitions spread
+ * over the cluster and are picked up by the survivors when a replica stops renewing. Every job runs on its
+ * own thread pool.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class ClusterJobRunner {
+
+    private static final String REPLICAS = "replicas";
+
+    public interface PartitionTask {
+        void run(int partition, int partitions);
+
+        /**
+         * The partition has just been taken over by this replica
+         */
+        default void onClaimed(int partition, int partitions) {
+        }
+    }
+
+    private final JobLeaseRepository jobLeaseRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${jobs.instance-id:}")
+    private String instanceId;
+
+    @Value("${jobs.lease-seconds:60}")
+    private long leaseSeconds;
+
+    @Value("${jobs.renew-ms:15000}")
+    private long renewMillis;
+
+    private final class Job {
+        final String name;
+        final int partitions;
+        final long intervalMillis;
+        final PartitionTask task;
+        final ExecutorService workers;
+        final Timer duration;
+        final long registeredAt = System.currentTimeMillis();
+        // partition -> when this replica took it over
+        final Map<Integer, Long> owned = new ConcurrentHashMap<>();
+        final Set<Integer> running = ConcurrentHashMap.newKeySet();
+        final Map<Integer, Long> lastRuns = new ConcurrentHashMap<>();
+        volatile long ownedUntil;
+
+        Job(String name, int partitions, int threads, long intervalMillis, PartitionTask task) {
+            this.name = name;
+            this.partitions = partitions;
+            this.intervalMillis = intervalMillis;
+            this.task = task;
+            AtomicInteger threadNumber = new AtomicInteger();
+            this.workers = Executors.newFixedThreadPool(threads, r -> {
+                Thread t = new Thread(r, "job-" + name + "-" + threadNumber.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+            this.duration = Timer.builder("jobs.run.duration").tag("job", name).register(meterRegistry);
+            Gauge.builder("jobs.lag", this, Job::lagSeconds).tag("job", name).baseUnit("seconds").register(meterRegistry);
+        }
+
+        /**
+         * How far the most overdue partition is behind its schedule, whichever replica owns it
+         */
+        double lagSeconds() {
+            long now = System.currentTimeMillis();
+            long worst = 0;
+            for (int p = 0; p < partitions; p++)
+                worst = Math.max(worst, now - lastRuns.getOrDefault(p, registeredAt) - intervalMillis);
+            return worst / 1000.0;
+        }
+    }
+
+    private final Map<String, Job> jobs = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService renewer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "job-leases");
+        t.setDaemon(true);
+        return t;
+    });
+
+    @PostConstruct
+    public void init() {
+        if (instanceId.isBlank())
+            instanceId = hostName() + "-" + UUID.randomUUID().toString().substring(0, 8);
+        renewer.scheduleWithFixedDelay(this::renew, 0, renewMillis, TimeUnit.MILLISECONDS);
+        log.info("Job runner started as {}", instanceId);
+    }
+
+    private static String hostName() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            return "backend";
+        }
+    }
+
+    public static int partitionOf(long key, int partitions) {
+        return (int) Math.floorMod(key, (long) partitions);
+    }
+
+    private static String leaseId(String job, Object partition) {
+        return job + ":" + partition;
+    }
+
+    /**
+     * Each partition runs every intervalMillis on the replica currently holding it
+     */
+    public void register(String name, int partitions, int threads, long intervalMillis, PartitionTask task) {
+        for (int p = 0; p < partitions; p++)
+            createLease(name, p, leaseId(name, p));
+        jobs.put(name, new Job(name, partitions, threads, intervalMillis, task));
+    }
+
+    private void createLease(String job, Integer partition, String id) {
+        if (jobLeaseRepository.existsById(id))
+            return;
+        try {
+            jobLeaseRepository.save(new JobLease(id, job, partition, null, null, null));
+        } catch (DataIntegrityViolationException e) {
+            // created by another replica at the same moment
+        }
+    }
+
+    /**
+     * Whether this replica currently holds the partition, work for partitions held elsewhere is left to their owner
+     */
+    public boolean owns(String name, int partition) {
+        Job job = jobs.get(name);
+        return job != null && job.owned.containsKey(partition) && System.currentTimeMillis() < job.ownedUntil;
+    }
+
+    /**
+     * Since when this replica has held the partition without a break, null if it does not hold it
+     */
+    public Long ownedSince(String name, int partition) {
+        return owns(name, partition) ? jobs.get(name).owned.get(partition) : null;
+    }
+
+    private void renew() {
+        try {
+            long now = System.currentTimeMillis();
+            for (Job job : jobs.values())
+                renew(job, now, announce(job.name, now));
+        } catch (RuntimeException e) {
+            log.error("Could not renew job leases", e);
+        }
+    }
+
+    /**
+     * Renews this replica's membership row for the job and returns how many replicas running it are alive; a
+     * replica that does not register the job, e.g. because it is disabled there, does not count
+     */
+    private int announce(String job, long now) {
+        Timestamp nowTs = new Timestamp(now);
+        String members = REPLICAS + ":" + job;
+        String id = leaseId(members, instanceId);
+        if (claim(id, nowTs, new Timestamp(now + leaseSeconds * 1000)) == 0) {
+            createLease(members, null, id);
+            claim(id, nowTs, new Timestamp(now + leaseSeconds * 1000));
+        }
+        transactionTemplate.executeWithoutResult(status ->
+                jobLeaseRepository.deleteExpired(members, new Timestamp(now - TimeUnit.DAYS.toMillis(1))));
+        long alive = jobLeaseRepository.findByJob(members).stream().filter(l -> isLive(l, now)).count();
+        return (int) Math.max(1, alive);
+    }
+
+    private void renew(Job job, long now, int replicas) {
+        List<JobLease> leases = jobLeaseRepository.findByJob(job.name).stream()
+                .filter(l -> l.getPartitionNo() != null && l.getPartitionNo() < job.partitions)
+                .sorted(Comparator.comparing(JobLease::getPartitionNo))
+                .toList();
+        int fairShare = (job.partitions + replicas - 1) / replicas;
+        int mine = (int) leases.stream().filter(l -> isOurs(l, now)).count();
+        Timestamp nowTs = new Timestamp(now);
+        Timestamp until = new Timestamp(now + leaseSeconds * 1000);
+
+        for (JobLease lease : leases) {
+            int p = lease.getPartitionNo();
+            if (lease.getLastRunAt() != null)
+                job.lastRuns.put(p, lease.getLastRunAt().getTime());
+            boolean ours = isOurs(lease, now);
+            if (ours && mine > fairShare && !job.running.contains(p)) {
+                // hand the surplus over to replicas that joined later
+                job.owned.remove(p);
+                transactionTemplate.executeWithoutResult(status -> jobLeaseRepository.release(lease.getId(), instanceId));
+                mine--;
+                continue;
+            }
+            if (!ours && (isLive(lease, now) || mine >= fairShare)) {
+                job.owned.remove(p);
+                continue;
+            }
+            if (claim(lease.getId(), nowTs, until) == 0) {
+                job.owned.remove(p);
+                continue;
+            }
+            if (!ours)
+                mine++;
+            boolean claimed = job.owned.putIfAbsent(p, now) == null;
+            boolean due = lease.getLastRunAt() == null || now - lease.getLastRunAt().getTime() >= job.intervalMillis;
+            if (claimed || due)
+                submit(job, p, claimed, due);
+        }
+        job.ownedUntil = now + leaseSeconds * 1000;
+    }
+
+    private boolean isLive(JobLease lease, long now) {
+        return lease.getOwner() != null && lease.getLeaseUntil() != null && lease.getLeaseUntil().getTime() > now;
+    }
+
+    private boolean isOurs(JobLease lease, long now) {
+        return instanceId.equals(lease.getOwner()) && isLive(lease, now);
+    }
+
+    private int claim(String id, Timestamp now, Timestamp until) {
+        Integer updated = transactionTemplate.execute(status -> jobLeaseRepository.claim(id, instanceId, now, until));
+        return updated == null ? 0 : updated;
+    }
+
+    private void submit(Job job, int partition, boolean claimed, boolean due) {
+        if (!job.running.add(partition))
+            return;
+        job.workers.execute(() -> {
+            try {
+                if (claimed)
+                    job.task.onClaimed(partition, job.partitions);
+                if (due) {
+                    long startedAt = System.currentTimeMillis();
+                    job.duration.record(() -> job.task.run(partition, job.partitions));
+                    transactionTemplate.executeWithoutResult(status ->
+                            jobLeaseRepository.markRun(leaseId(job.name, partition), new Timestamp(startedAt)));
+                    job.lastRuns.put(partition, startedAt);
+                }
+            } catch (RuntimeException e) {
+                log.error("Job {} failed on partition {}", job.name, partition, e);
+                if (claimed)
+                    job.owned.remove(partition);
+            } finally {
+                job.running.remove(partition);
+            }
+        });
+    }
+
+    @PreDestroy
+    public void stop() {
+        renewer.shutdownNow();
+        for (Job job : jobs.values())
+            job.workers.shutdownNow();
+        try {
+            transactionTemplate.executeWithoutResult(status -> jobLeaseRepository.releaseAll(instanceId));
+        } catch (RuntimeException e) {
+            log.warn("Could not release job leases, they expire in {}s: {}", leaseSeconds, e.getMessage());
+        }
+    }
+}
@@ -10,13 +10,17 @@ import com.itmo.spy_system.utils.NullAwareBeanUtilsBean;
 import com.itmo.spy_system.utils.ResourceException;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.sql.Date;
 import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.Objects;
 import java.util.Optional;
 
 @Service
@@ -27,6 +31,8 @@ public class ContractService {
     private final NotificationService notificationService;
     private final ManagerRepository managerRepository;
     private final ClientRepository clientRepository;
+    private final ScheduledEventQueue eventQueue;
+    private final OutboxService outboxService;
 
     public List<Contract> findAll() {
         return repository.findAll();
@@ -43,6 +49,7 @@ public class ContractService {
         return true;
     }
 
+    @Transactional
     public Contract create(ContractController.ContractCreate create) {
         if (create.getEndDate() != null && create.getEndDate().before(new Date(System.currentTimeMillis()))) {
             throw new IllegalArgumentException("End date can't be in the past");
@@ -71,14 +78,15 @@ public class ContractService {
 
         Contract createdContract = repository.save(entity);
         log.info("Contract created: {}", createdContract);
+        scheduleExpiry(createdContract);
 
         Notification n = new Notification();
         n.setText("Создан новый договор");
         n.setType(NotificationType.CONTRACT_CREATION);
         n.setRelatedEntityId(createdContract.getId());
         n.setManagerId(entity.getSigner().getId());
-        notificationService.save(n);
-        log.info("Notification created: {}", n);
+        outboxService.enqueueNotification(n);
+        log.info("Notification queued: {}", n);
         return createdContract;
     }
 
@@ -93,7 +101,25 @@ public class ContractService {
 //            createContractClientSignedNotification();
             createContractClientSignedNotification(fromDB.getSigner().getId(), fromDB.getId());
         }
-        return repository.save(updated);
+        Date endDate = fromDB.getEndDate();
+        Contract saved = repository.save(updated);
+        if (!Objects.equals(endDate, saved.getEndDate()))
+            scheduleExpiry(saved);
+        return saved;
+    }
+
+    /**
+     * A contract is outdated once its end date has passed, i.e. at the start of the next day
+     */
+    public static Timestamp expiresAt(Date endDate) {
+        return Timestamp.valueOf(endDate.toLocalDate().plusDays(1).atStartOfDay());
+    }
+
+    public void scheduleExpiry(Contract c) {
+        if (c.getEndDate() == null || c.getStatus() == ContractStatus.OUTDATED)
+            eventQueue.cancel(ScheduledEventType.CONTRACT_EXPIRY, c.getId());
+        else
+            eventQueue.schedule(ScheduledEventType.CONTRACT_EXPIRY, c.getId(), expiresAt(c.getEndDate()));
     }
 
     public List<Contract> getOutDatedContracts() {
@@ -101,6 +127,25 @@ public class ContractService {
         return repository.findByEndDateBeforeAndStatusNot(today, ContractStatus.OUTDATED);
     }
 
+    public List<Contract> getOutDatedContracts(int partition, int partitions, Long afterId, int limit) {
+        Date today = new java.sql.Date(System.currentTimeMillis());
+        return repository.findByEndDateBeforeAndStatusNotInPartition(today, ContractStatus.OUTDATED, partition, partitions,
+                afterId == null ? 0L : afterId, PageRequest.of(0, limit));
+    }
+
+    /**
+     * Running contracts that have no expiry event, e.g. created before events were introduced
+     */
+    public List<Contract> getContractsWithoutExpiryEvent(int partition, int partitions) {
+        Date today = new java.sql.Date(System.currentTimeMillis());
+        return repository.findWithoutScheduledEvent(today, ContractStatus.OUTDATED, ScheduledEventType.CONTRACT_EXPIRY,
+                partition, partitions);
+    }
+
+    public int updateStatus(Collection<Long> ids, ContractStatus status) {
+        return repository.updateStatusByIdIn(ids, status);
+    }
+
     public Contract patch(Contract toBePatched) {
         Contract fromDb = repository.findById(toBePatched.getId()).get();
         if (toBePatched.getStatus() == ContractStatus.SEND_TO_CLIENT && fromDb.getStatus() == ContractStatus.CREATED) {
@@ -111,10 +156,14 @@ public class ContractService {
             toBePatched.setSignedAt(new Timestamp(System.currentTimeMillis()));
             createContractClientSignedNotification(fromDb.getSigner().getId(), fromDb.getId());
         }
+        Date endDate = fromDb.getEndDate();
         NullAwareBeanUtilsBean.copyNonNullProperties(toBePatched, fromDb);
         fromDb.setEndDate(toBePatched.getEndDate());
         validate(fromDb);
-        return repository.save(fromDb);
+        Contract saved = repository.save(fromDb);
+        if (!Objects.equals(endDate, saved.getEndDate()))
+            scheduleExpiry(saved);
+        return saved;
     }
 
     private void createContractStatusUpdateNotification(Long clientId, Long contractId) {
@@ -143,6 +192,7 @@ public class ContractService {
 
     public void deleteById(Long id) {
         repository.deleteById(id);
+        eventQueue.cancel(ScheduledEventType.CONTRACT_EXPIRY, id);
     }
 
     public List<Contract> findByClientId(Long clientId) {
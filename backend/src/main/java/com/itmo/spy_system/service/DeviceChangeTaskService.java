@@ -1,14 +1,18 @@
 package com.itmo.spy_system.service;
 
+import com.itmo.spy_system.dto.TaskUpdate;
 import com.itmo.spy_system.entity.*;
 import com.itmo.spy_system.repository.DeviceChangeTaskRepository;
 import com.itmo.spy_system.utils.NullAwareBeanUtilsBean;
+import com.itmo.spy_system.utils.Utils;
 import lombok.AllArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.sql.Timestamp;
 import java.util.List;
+import java.util.Objects;
 import java.util.Optional;
 
 @Service
@@ -19,11 +23,15 @@ public class DeviceChangeTaskService {
     private final DeviceChangeTaskRepository repository;
     private final NotificationService notificationService;
     private final DeviceService deviceService;
+    private final WorkerTaskCounters taskCounters;
+    private final NotificationStreamService streamService;
+    private final OutboxService outboxService;
 
     public List<DeviceChangeTask> findAll() {
         return repository.findAll();
     }
 
+    @Transactional
     public DeviceChangeTask create(DeviceChangeTask entity, Client client) {
         entity.setCreatedAt(new Timestamp(System.currentTimeMillis()));
 //        DeviceChangeType punishmentType = client.getViolationsCount() > 4 ? DeviceChangeType.PHYSICAL : DeviceChangeType.ELECTRICAL;
@@ -35,6 +43,8 @@ public class DeviceChangeTaskService {
 
         // Notification(Long id, String text, NotificationStatus status, Long clientId, Long workerId, Long managerId)
         DeviceChangeTask savedEntity = repository.save(entity);
+        Utils.runAfterCommit(() -> taskCounters.onChange(WorkerTaskCounters.Kind.DEVICE_CHANGE, null, null, savedEntity.getExecutionerId(), savedEntity.getStatus()));
+        publishUpdate(savedEntity, null);
         Notification notification = new Notification();
         notification.setWorkerId(savedEntity.getExecutionerId());
         notification.setClientId(savedEntity.getClient().getId());
@@ -42,12 +52,20 @@ public class DeviceChangeTaskService {
         notification.setType(NotificationType.DEVICE_CHANGE_TASK_CREATION);
         notification.setRelatedEntityId(savedEntity.getId());
         notification.setText("Вам назначено новое задание #" + savedEntity.getId());
-        Notification n = notificationService.create(notification);
+        outboxService.enqueueNotification(notification);
         return savedEntity;
     }
 
     public DeviceChangeTask save(DeviceChangeTask entity) {
-        return repository.save(entity);
+        Optional<DeviceChangeTask> fromDb = entity.getId() == null ? Optional.empty() : repository.findById(entity.getId());
+        // read before saving, within a transaction fromDb is the instance that gets saved
+        Long oldExecutionerId = fromDb.map(DeviceChangeTask::getExecutionerId).orElse(null);
+        TaskStatus oldStatus = fromDb.map(DeviceChangeTask::getStatus).orElse(null);
+        DeviceChangeTask saved = repository.save(entity);
+        Utils.runAfterCommit(() -> taskCounters.onChange(WorkerTaskCounters.Kind.DEVICE_CHANGE,
+                oldExecutionerId, oldStatus, saved.getExecutionerId(), saved.getStatus()));
+        publishUpdate(saved, oldExecutionerId);
+        return saved;
     }
 
     public Optional<DeviceChangeTask> findById(Long id) {
@@ -87,11 +105,24 @@ public class DeviceChangeTaskService {
             notification.setText("Задание замены устройства #" + fromDb.getId() + " было отменено");
             Notification n = notificationService.create(notification);
         }
+        Long oldExecutionerId = fromDb.getExecutionerId();
+        TaskStatus oldStatus = fromDb.getStatus();
         NullAwareBeanUtilsBean.copyNonNullProperties(toBePatched, fromDb);
-        return repository.save(fromDb);
+        DeviceChangeTask saved = repository.save(fromDb);
+        Utils.runAfterCommit(() -> taskCounters.onChange(WorkerTaskCounters.Kind.DEVICE_CHANGE, oldExecutionerId, oldStatus, saved.getExecutionerId(), saved.getStatus()));
+        publishUpdate(saved, oldExecutionerId);
+        return saved;
+    }
+
+    private void publishUpdate(DeviceChangeTask task, Long previousExecutionerId) {
+        streamService.publish(new TaskUpdate(WorkerTaskCounters.Kind.DEVICE_CHANGE.name(), task.getId(), task.getStatus(),
+                task.getExecutionerId(), Objects.equals(previousExecutionerId, task.getExecutionerId()) ? null : previousExecutionerId,
+                task.getCreatorId()));
     }
 
     public void deleteById(Long id) {
+        Optional<DeviceChangeTask> fromDb = repository.findById(id);
         repository.deleteById(id);
+        fromDb.ifPresent(t -> Utils.runAfterCommit(() -> taskCounters.onChange(WorkerTaskCounters.Kind.DEVICE_CHANGE, t.getExecutionerId(), t.getStatus(), null, null)));
     }
 }
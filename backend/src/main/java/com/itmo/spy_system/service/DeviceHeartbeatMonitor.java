@@ -0,0 +1,181 @@
+package com.itmo.spy_system.service;
+
+import com.itmo.spy_system.entity.*;
+import com.itmo.spy_system.repository.DeviceRepository;
+import com.itmo.spy_system.repository.MetricRepository;
+import com.itmo.spy_system.utils.HierarchicalTimerWheel;
+import com.itmo.spy_system.utils.Utils;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+import org.springframework.scheduling.annotation.Scheduled;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Marks ACTIVE devices INACTIVE once they stay silent for devices.heartbeat.timeout-seconds.
+ * Every accepted reading re-arms the device's timer, so a tick only touches devices that actually timed out.
+ * Devices are split into {@link ClusterJobRunner} partitions, only the replica owning a device's partition
+ * acts on its timeout; the owner re-arms its partitions from the table to learn about readings other replicas took.
+ */
+@Slf4j
+@Configuration
+@EnableScheduling
+@RequiredArgsConstructor
+public class DeviceHeartbeatMonitor {
+
+    public static final String JOB = "device-heartbeat";
+
+    private final DeviceRepository deviceRepository;
+    private final DeviceService deviceService;
+    private final DeviceStateCache deviceStateCache;
+    private final MetricRepository metricRepository;
+    private final NotificationService notificationService;
+    private final NotificationDedupeIndex dedupeIndex;
+    private final Utils utils;
+    private final ClusterJobRunner jobRunner;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${devices.heartbeat.timeout-seconds:180}")
+    private long timeoutSeconds;
+
+    @Value("${devices.heartbeat.tick-ms:1000}")
+    private long tickMillis;
+
+    @Value("${devices.heartbeat.partitions:16}")
+    private int partitions;
+
+    @Value("${devices.heartbeat.rescan-ms:60000}")
+    private long rescanMillis;
+
+    private HierarchicalTimerWheel<Long> wheel;
+    private Counter timedOutCounter;
+
+    @PostConstruct
+    public void init() {
+        wheel = new HierarchicalTimerWheel<>(tickMillis, System.currentTimeMillis());
+        Gauge.builder("devices.heartbeat.armed", wheel, HierarchicalTimerWheel::size).register(meterRegistry);
+        timedOutCounter = meterRegistry.counter("devices.heartbeat.timed_out");
+        jobRunner.register(JOB, partitions, 1, rescanMillis, new ClusterJobRunner.PartitionTask() {
+            @Override
+            public void run(int partition, int partitions) {
+                arm(partition, partitions);
+            }
+
+            @Override
+            public void onClaimed(int partition, int partitions) {
+                arm(partition, partitions);
+                // the previous owner's notifications are not in this replica's filter yet
+                dedupeIndex.requestRebuild();
+            }
+        });
+    }
+
+    private void arm(int partition, int partitions) {
+        long now = System.currentTimeMillis();
+        List<Device> active = deviceRepository.findByStatusInPartition(DeviceStatus.ACTIVE, partition, partitions);
+        for (Device d : active) {
+            Timestamp cached = deviceStateCache.current(d).lastActiveTime();
+            // devices without a recorded activity get a full timeout from now
+            long lastActive = Math.max(d.getLastActiveTime() == null ? now : d.getLastActiveTime().getTime(),
+                    cached == null ? 0 : cached.getTime());
+            wheel.schedule(d.getDeviceId(), lastActive + timeoutSeconds * 1000);
+        }
+        log.debug("Heartbeat partition {}/{} armed for {} active devices", partition, partitions, active.size());
+    }
+
+    public void onActivity(Long deviceId, Timestamp at) {
+        wheel.schedule(deviceId, at.getTime() + timeoutSeconds * 1000);
+    }
+
+    public void cancel(Long deviceId) {
+        wheel.cancel(deviceId);
+    }
+
+    @Scheduled(fixedDelayString = "${devices.heartbeat.tick-ms:1000}")
+    public void tick() {
+        List<Device> timedOut = new ArrayList<>();
+        List<Notification> notifications = new ArrayList<>();
+        for (Long deviceId : wheel.advance(System.currentTimeMillis())) {
+            // the owner has its own timer for the device
+            if (!jobRunner.owns(JOB, ClusterJobRunner.partitionOf(deviceId, partitions)))
+                continue;
+            try {
+                Device d = onTimeout(deviceId, notifications);
+                if (d != null)
+                    timedOut.add(d);
+            } catch (RuntimeException e) {
+                log.error("Could not handle heartbeat timeout of device #{}", deviceId, e);
+            }
+        }
+        if (timedOut.isEmpty())
+            return;
+        try {
+            // one batch through the digester, a whole segment going quiet makes one digest instead of a row per device
+            notificationService.saveAll(notifications);
+        } catch (RuntimeException e) {
+            // the devices stay ACTIVE, so the next rescan arms them again
+            log.error("Could not notify about {} timed out devices", timedOut.size(), e);
+            return;
+        }
+        for (Device d : timedOut) {
+            try {
+                deviceStateCache.overlay(d);
+                d.setStatus(DeviceStatus.INACTIVE);
+                deviceService.save(d);
+            } catch (RuntimeException e) {
+                log.error("Could not mark device #{} inactive", d.getDeviceId(), e);
+            }
+        }
+    }
+
+    /**
+     * The device if it has timed out, with its notification added to notifications unless one was sent already
+     */
+    private Device onTimeout(Long deviceId, List<Notification> notifications) {
+        Optional<Device> optDevice = deviceRepository.findById(deviceId);
+        if (optDevice.isEmpty())
+            return null;
+        Device d = optDevice.get();
+        // the row may have been written by another replica, the cache holds what this one accepted
+        Timestamp dbLastActive = d.getLastActiveTime();
+        DeviceStateCache.DeviceState state = deviceStateCache.current(d);
+        if (state.status() != DeviceStatus.ACTIVE)
+            return null;
+        long lastActive = Math.max(dbLastActive == null ? 0 : dbLastActive.getTime(),
+                state.lastActiveTime() == null ? 0 : state.lastActiveTime().getTime());
+        long deadline = lastActive + timeoutSeconds * 1000;
+        if (deadline > System.currentTimeMillis()) {
+            wheel.schedule(deviceId, deadline);
+            return null;
+        }
+
+        timedOutCounter.increment();
+        Manager m = utils.getManagerByDeviceId(deviceId);
+        Optional<Metric> lastMetric = metricRepository.findLatestByDeviceId(deviceId);
+        Long relatedEntityId = lastMetric.map(Metric::getId).orElse(null);
+        Long ownedSince = jobRunner.ownedSince(JOB, ClusterJobRunner.partitionOf(deviceId, partitions));
+        boolean notified = relatedEntityId != null
+                && notificationService.isNotified(NotificationType.DEVICE_INACTIVE, relatedEntityId, ownedSince);
+        if (m != null && !notified) {
+            Notification n = new Notification();
+            n.setManagerId(m.getId());
+            n.setType(NotificationType.DEVICE_INACTIVE);
+            n.setText(String.format("Устройство #%d было неактивно последние 3 минуты", deviceId));
+            n.setRelatedEntityId(relatedEntityId);
+            n.setCreatedAt(new Timestamp(System.currentTimeMillis()));
+            n.setStatus(NotificationStatus.UNREAD);
+            notifications.add(n);
+        }
+        return d;
+    }
+}
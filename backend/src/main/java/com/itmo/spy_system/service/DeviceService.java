@@ -16,6 +16,7 @@ import org.springframework.web.client.HttpClientErrorException;
 
 import java.lang.reflect.Field;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -25,27 +26,43 @@ import java.util.Optional;
 public class DeviceService {
     private final DeviceRepository repository;
     private final MetricRepository metricRepository;
+    private final DeviceStateCache deviceStateCache;
 
     public List<Device> findAll() {
-        return repository.findAll();
+        return overlay(repository.findAll());
     }
 
     public Optional<Device> findById(Long id) {
-        return repository.findById(id);
+        return repository.findById(id).map(deviceStateCache::overlay);
     }
 
-    public List<Device> findByClientId(Long clientId) { return repository.findByAssignedClientId(clientId); }
+    public List<Device> findByClientId(Long clientId) { return overlay(repository.findByAssignedClientId(clientId)); }
+
+    public List<Device> findByAssignedClientIdIn(Collection<Long> clientIds) {
+        return overlay(repository.findByAssignedClientIdIn(clientIds));
+    }
+
+    public List<Device> findUnassigned() {
+        return overlay(repository.findByAssignedClientIdIsNull());
+    }
+
+    private List<Device> overlay(List<Device> devices) {
+        devices.forEach(deviceStateCache::overlay);
+        return devices;
+    }
 
     public Optional<Metric> getLatestDeviceMetric(Long id) {
-        return metricRepository.findTopByDeviceIdOrderByTimestampDesc(id);
+        return metricRepository.findLatestByDeviceId(id);
     }
 
     public Device save(Device entity) {
-        return repository.save(entity);
+        Device saved = repository.save(entity);
+        deviceStateCache.onSaved(saved);
+        return saved;
     }
 
     public Device patch(Map<String, Object> fieldsToPatch, Device toBePatched) {
-        Device fromDb = repository.findById(toBePatched.getDeviceId()).get();
+        Device fromDb = findById(toBePatched.getDeviceId()).get();
         if (fromDb.getAssignedClientId() == null && toBePatched.getAssignedClientId() != null && toBePatched.getAssignmentStatus() == null)
             fromDb.setAssignmentStatus(DeviceAssignmentStatus.ASSIGNED);
 //        for (Map.Entry<String, Object> entry : fieldsToPatch.entrySet()) {
@@ -63,10 +80,11 @@ public class DeviceService {
 
 //        }
 //        NullAwareBeanUtilsBean.copyNonNullProperties(toBePatched, fromDb);
-        return repository.save(fromDb);
+        return save(fromDb);
     }
 
     public void deleteById(Long id) {
         repository.deleteById(id);
+        deviceStateCache.evict(id);
     }
 }
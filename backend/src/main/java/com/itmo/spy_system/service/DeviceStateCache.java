@@ -0,0 +1,154 @@
+package com.itmo.spy_system.service;
+
+import com.itmo.spy_system.entity.Device;
+import com.itmo.spy_system.entity.DeviceStatus;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.sql.Timestamp;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Write-behind buffer for the frequently changing device columns (battery level, status, last activity).
+ * Readings update the in-memory state, dirty devices are written with one batched UPDATE on an interval
+ * or once enough of them have piled up. Only state that is not written yet is held: once flushed, the row is
+ * the truth again, so other replicas' writes are never hidden for longer than one flush interval.
+ * {@link DeviceService} overlays the unwritten state on every device it returns.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class DeviceStateCache {
+
+    private final JdbcTemplate jdbcTemplate;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${devices.state.flush-batch-size:500}")
+    private int flushBatchSize;
+
+    public record DeviceState(Integer batteryLevel, DeviceStatus status, Timestamp lastActiveTime) {
+        public static DeviceState of(Device d) {
+            return new DeviceState(d.getBatteryLevel(), d.getStatus(), d.getLastActiveTime());
+        }
+    }
+
+    // unwritten state only, an entry is removed once its flush succeeded
+    private final Map<Long, DeviceState> states = new ConcurrentHashMap<>();
+    private final Set<Long> dirty = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+    private final ExecutorService flusher = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "device-state-flush");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private Counter writtenCounter;
+
+    @PostConstruct
+    public void init() {
+        Gauge.builder("devices.state.dirty", dirty, Set::size).register(meterRegistry);
+        writtenCounter = meterRegistry.counter("devices.state.written");
+    }
+
+    /**
+     * State the next reading should be compared with
+     */
+    public DeviceState current(Device d) {
+        DeviceState s = states.get(d.getDeviceId());
+        return s != null ? s : DeviceState.of(d);
+    }
+
+    /**
+     * Called after the transaction that accepted the readings has committed
+     */
+    public void apply(Long deviceId, DeviceState state) {
+        states.put(deviceId, state);
+        dirty.add(deviceId);
+        if (dirty.size() >= flushBatchSize && flushRequested.compareAndSet(false, true))
+            flusher.execute(() -> {
+                flushRequested.set(false);
+                flush();
+            });
+    }
+
+    public Device overlay(Device d) {
+        if (d == null)
+            return null;
+        DeviceState s = states.get(d.getDeviceId());
+        if (s != null) {
+            d.setBatteryLevel(s.batteryLevel());
+            d.setStatus(s.status());
+            d.setLastActiveTime(s.lastActiveTime());
+        }
+        return d;
+    }
+
+    /**
+     * The device row was written directly, it is now the latest state
+     */
+    public void onSaved(Device d) {
+        states.remove(d.getDeviceId());
+        dirty.remove(d.getDeviceId());
+    }
+
+    public void evict(Long deviceId) {
+        states.remove(deviceId);
+        dirty.remove(deviceId);
+    }
+
+    /**
+     * Forgets everything including unflushed state, for when the device table was rewritten underneath
+     */
+    public void clear() {
+        states.clear();
+        dirty.clear();
+    }
+
+    @Scheduled(fixedDelayString = "${devices.state.flush-interval-ms:1000}")
+    public synchronized void flush() {
+        if (dirty.isEmpty())
+            return;
+        Map<Long, DeviceState> written = new HashMap<>();
+        List<Object[]> args = new ArrayList<>();
+        for (Long id : dirty) {
+            dirty.remove(id);
+            DeviceState s = states.get(id);
+            if (s == null)
+                continue;
+            written.put(id, s);
+            args.add(new Object[]{s.batteryLevel(), s.status() == null ? null : s.status().name(), s.lastActiveTime(), id});
+        }
+        if (args.isEmpty())
+            return;
+        try {
+            jdbcTemplate.batchUpdate(
+                    "UPDATE device SET battery_level = ?, status = ?, last_active_time = ? WHERE device_id = ?", args);
+            writtenCounter.increment(args.size());
+        } catch (RuntimeException e) {
+            log.warn("Could not write state of {} devices, retrying later: {}", written.size(), e.getMessage());
+            dirty.addAll(written.keySet());
+            return;
+        }
+        // a device that got a newer state meanwhile keeps it until the next flush
+        written.forEach(states::remove);
+    }
+
+    @PreDestroy
+    public void stop() {
+        flusher.shutdown();
+        flush();
+    }
+}
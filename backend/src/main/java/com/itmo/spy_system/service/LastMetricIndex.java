@@ -0,0 +1,130 @@
+package com.itmo.spy_system.service;
+
+import com.itmo.spy_system.entity.Metric;
+import com.itmo.spy_system.repository.MetricRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.sql.Timestamp;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Function;
+
+/**
+ * Last accepted value and timestamp per client and per device, so that threshold edge detection
+ * does not have to look into device_metric on every reading. Entries are loaded from the DB on a miss
+ * and kept in a bounded LRU map.
+ */
+@Service
+@RequiredArgsConstructor
+public class LastMetricIndex {
+
+    private final MetricRepository metricRepository;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${metrics.last-value.max-entries:100000}")
+    private int maxEntries;
+
+    @Value("${metrics.last-value.ttl-seconds:0}")
+    private long ttlSeconds;
+
+    /**
+     * value and timestamp are null when the owner has no readings yet
+     */
+    public record LastValue(Integer value, Timestamp timestamp, long cachedAt) {
+    }
+
+    private Index byClient;
+    private Index byDevice;
+
+    @PostConstruct
+    public void init() {
+        byClient = new Index("client", metricRepository::findLatestByClientId);
+        byDevice = new Index("device", metricRepository::findLatestByDeviceId);
+    }
+
+    public LastValue getForClient(Long clientId) {
+        return byClient.get(clientId);
+    }
+
+    public LastValue getForDevice(Long deviceId) {
+        return byDevice.get(deviceId);
+    }
+
+    public void record(Metric m) {
+        if (m.getClientId() != null)
+            byClient.record(m.getClientId(), m);
+        if (m.getDeviceId() != null)
+            byDevice.record(m.getDeviceId(), m);
+    }
+
+    public void evict(Metric m) {
+        if (m.getClientId() != null)
+            byClient.entries.remove(m.getClientId());
+        if (m.getDeviceId() != null)
+            byDevice.entries.remove(m.getDeviceId());
+    }
+
+    public void clear() {
+        byClient.entries.clear();
+        byDevice.entries.clear();
+    }
+
+    private class Index {
+        private final Map<Long, LastValue> entries;
+        private final Function<Long, Optional<Metric>> loader;
+        private final Counter hits;
+        private final Counter misses;
+
+        Index(String name, Function<Long, Optional<Metric>> loader) {
+            this.loader = loader;
+            this.entries = Collections.synchronizedMap(new LinkedHashMap<Long, LastValue>(1024, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Long, LastValue> eldest) {
+                    return size() > maxEntries;
+                }
+            });
+            this.hits = meterRegistry.counter("metrics.last_value.lookups", "index", name, "result", "hit");
+            this.misses = meterRegistry.counter("metrics.last_value.lookups", "index", name, "result", "miss");
+            Gauge.builder("metrics.last_value.size", entries, Map::size).tag("index", name).register(meterRegistry);
+        }
+
+        LastValue get(Long key) {
+            LastValue cached = entries.get(key);
+            if (cached != null && !isExpired(cached)) {
+                hits.increment();
+                return cached;
+            }
+            misses.increment();
+            LastValue loaded = loader.apply(key)
+                    .map(m -> new LastValue(m.getValue(), m.getTimestamp(), System.currentTimeMillis()))
+                    .orElseGet(() -> new LastValue(null, null, System.currentTimeMillis()));
+            // a reading accepted while we were loading is newer than what the DB returned
+            LastValue current = entries.putIfAbsent(key, loaded);
+            if (current == null)
+                return loaded;
+            if (!isExpired(current))
+                return current;
+            entries.put(key, loaded);
+            return loaded;
+        }
+
+        void record(Long key, Metric m) {
+            LastValue next = new LastValue(m.getValue(), m.getTimestamp(), System.currentTimeMillis());
+            entries.merge(key, next, (old, candidate) ->
+                    old.timestamp() == null || candidate.timestamp() == null || !candidate.timestamp().before(old.timestamp())
+                            ? candidate : old);
+        }
+
+        private boolean isExpired(LastValue v) {
+            return ttlSeconds > 0 && System.currentTimeMillis() - v.cachedAt() > ttlSeconds * 1000;
+        }
+    }
+}
@@ -0,0 +1,292 @@
+package com.itmo.spy_system.service;
+
+import com.itmo.spy_system.dto.PageCursor;
+import com.itmo.spy_system.entity.Metric;
+import com.itmo.spy_system.entity.MetricSegment;
+import com.itmo.spy_system.repository.MetricRepository;
+import com.itmo.spy_system.repository.MetricRepositoryCustom.MetricFilter;
+import com.itmo.spy_system.repository.MetricSegmentRepository;
+import com.itmo.spy_system.utils.MetricSegmentCodec;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Readings older than metrics.cold.after-days are moved out of device_metric into compressed
+ * per-device segment files (see {@link MetricSegmentCodec}). Segment headers are kept in memory,
+ * bodies are memory-mapped and decoded only when a query reaches into their time range.
+ * <p>
+ * metrics.cold.directory must be shared by all replicas. Tiering runs on one replica at a time through
+ * {@link ClusterJobRunner}; a segment is listed in metric_segment in the same transaction that deletes its
+ * readings from device_metric, and every replica picks up the segments written elsewhere from that table before
+ * reading, so a reading read after its tiering committed is found in the segments.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class MetricColdStore {
+
+    private static final String JOB = "metrics-cold-tier";
+    private static final String SEGMENT_SUFFIX = ".seg";
+
+    private final MetricRepository metricRepository;
+    private final MetricSegmentRepository segmentRepository;
+    private final ClusterJobRunner jobRunner;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${metrics.cold.enabled:false}")
+    private boolean enabled;
+
+    @Value("${metrics.cold.directory:./cold-metrics}")
+    private String directory;
+
+    @Value("${metrics.cold.after-days:30}")
+    private int afterDays;
+
+    @Value("${metrics.cold.segment-rows:10000}")
+    private int segmentRows;
+
+    @Value("${metrics.cold.interval-ms:86400000}")
+    private long intervalMillis;
+
+    private record Segment(Path path, MetricSegmentCodec.Header header) {
+    }
+
+    @Value("${metrics.cold.decoded-cache-segments:32}")
+    private int decodedCacheSegments;
+
+    private final List<Segment> segments = new CopyOnWriteArrayList<>();
+    private final Map<Long, List<Segment>> segmentsByDevice = new ConcurrentHashMap<>();
+    // ids of the metric_segment rows already in segments, guarded by itself
+    private final Set<Long> loaded = new HashSet<>();
+    // recently decoded segments, guarded by itself
+    private Map<Path, List<Metric>> decoded;
+    private Counter tieredCounter;
+    private Counter readCounter;
+
+    @PostConstruct
+    public void init() throws IOException {
+        if (!enabled)
+            return;
+        decoded = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Path, List<Metric>> eldest) {
+                return size() > decodedCacheSegments;
+            }
+        };
+        Path root = Paths.get(directory);
+        Files.createDirectories(root);
+        refresh();
+        Gauge.builder("metrics.cold.segments", segments, List::size).register(meterRegistry);
+        tieredCounter = meterRegistry.counter("metrics.cold.rows", "op", "tiered");
+        readCounter = meterRegistry.counter("metrics.cold.rows", "op", "read");
+        log.info("Metric cold store at {}: {} segments", root.toAbsolutePath(), segments.size());
+        jobRunner.register(JOB, 1, 1, intervalMillis, (partition, partitions) -> tier());
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Loads the headers of the segments listed since the last call, written by any replica
+     */
+    private void refresh() {
+        synchronized (loaded) {
+            List<Long> ids = segmentRepository.findAllIds().stream().filter(id -> !loaded.contains(id)).toList();
+            if (ids.isEmpty())
+                return;
+            for (MetricSegment s : segmentRepository.findAllById(ids)) {
+                Path p = Paths.get(directory).resolve(s.getPath());
+                try {
+                    add(new Segment(p, MetricSegmentCodec.readHeader(map(p))));
+                } catch (RuntimeException e) {
+                    log.error("Skipping unreadable metric segment {}: {}", p, e.getMessage());
+                }
+                loaded.add(s.getId());
+            }
+        }
+    }
+
+    private void add(Segment segment) {
+        segments.add(segment);
+        segmentsByDevice.computeIfAbsent(segment.header().deviceId(), d -> new CopyOnWriteArrayList<>()).add(segment);
+    }
+
+    private static MappedByteBuffer map(Path path) {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public synchronized void tier() {
+        if (!enabled)
+            return;
+        Timestamp cutoff = new Timestamp(System.currentTimeMillis() - Duration.ofDays(afterDays).toMillis());
+        List<Long> deviceIds = jdbcTemplate.queryForList(
+                "SELECT DISTINCT device_id FROM device_metric WHERE timestamp < ? AND device_id IS NOT NULL",
+                Long.class, cutoff);
+        for (Long deviceId : deviceIds) {
+            try {
+                tierDevice(deviceId, cutoff);
+            } catch (RuntimeException e) {
+                log.error("Could not move readings of device #{} to the cold store", deviceId, e);
+            }
+        }
+    }
+
+    private void tierDevice(Long deviceId, Timestamp cutoff) {
+        MetricFilter filter = new MetricFilter(deviceId, null, null, cutoff);
+        while (true) {
+            List<Metric> rows = metricRepository.findPage(filter, null, true, segmentRows);
+            if (rows.isEmpty())
+                return;
+            Path segment = write(deviceId, rows);
+            // a crash before this commit leaves an unlisted file behind, the rows stay in device_metric
+            transactionTemplate.executeWithoutResult(status -> {
+                segmentRepository.save(new MetricSegment(null, Paths.get(directory).relativize(segment).toString(), deviceId));
+                metricRepository.deleteAllByIdInBatch(rows.stream().map(Metric::getId).toList());
+            });
+            refresh();
+            tieredCounter.increment(rows.size());
+            if (rows.size() < segmentRows)
+                return;
+        }
+    }
+
+    private Path write(Long deviceId, List<Metric> rows) {
+        byte[] bytes = MetricSegmentCodec.encode(deviceId, rows);
+        Metric first = rows.get(0);
+        Metric last = rows.get(rows.size() - 1);
+        Path dir = Paths.get(directory, String.valueOf(deviceId));
+        Path target = dir.resolve(first.getTimestamp().getTime() + "-" + last.getId() + SEGMENT_SUFFIX);
+        try {
+            Files.createDirectories(dir);
+            Path tmp = Files.createTempFile(dir, "segment", ".tmp");
+            Files.write(tmp, bytes);
+            Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return target;
+    }
+
+    /**
+     * Same contract as {@link MetricRepository#findPage}, over the segment files. Segments are picked by device
+     * and time range from their headers and visited in page order, so decoding stops as soon as no remaining
+     * segment can hold a row that belongs to the page.
+     */
+    public List<Metric> findPage(MetricFilter filter, PageCursor after, boolean ascending, int limit) {
+        if (!enabled || limit <= 0)
+            return List.of();
+        refresh();
+        Comparator<Metric> order = Comparator.comparing(Metric::getTimestamp).thenComparing(Metric::getId);
+        if (!ascending)
+            order = order.reversed();
+
+        List<Segment> candidates = new ArrayList<>();
+        Collection<Segment> scope = filter.deviceId() == null
+                ? segments
+                : segmentsByDevice.getOrDefault(filter.deviceId(), List.of());
+        for (Segment s : scope)
+            if (overlaps(s.header(), filter, after, ascending))
+                candidates.add(s);
+        // a segment's rows cannot come before its first (ascending) or after its last (descending) timestamp
+        candidates.sort(ascending
+                ? Comparator.comparing((Segment s) -> s.header().first())
+                : Comparator.comparing((Segment s) -> s.header().last()).reversed());
+
+        // the best rows so far, at most limit of them; the same id read from two segments is kept once
+        TreeSet<Metric> page = new TreeSet<>(order);
+        for (Segment s : candidates) {
+            if (page.size() >= limit) {
+                Timestamp worst = page.last().getTimestamp();
+                if (ascending ? s.header().first().after(worst) : s.header().last().before(worst))
+                    break;
+            }
+            List<Metric> rows = decode(s);
+            if (rows == null)
+                continue;
+            for (Metric m : rows) {
+                if (!matches(m, filter, after, ascending))
+                    continue;
+                page.add(m);
+                if (page.size() > limit)
+                    page.pollLast();
+            }
+        }
+        readCounter.increment(page.size());
+        return new ArrayList<>(page);
+    }
+
+    private static boolean overlaps(MetricSegmentCodec.Header h, MetricFilter filter, PageCursor after, boolean ascending) {
+        if (filter.deviceId() != null && h.deviceId() != filter.deviceId())
+            return false;
+        if (filter.clientId() != null && !h.clientIds().contains(filter.clientId()))
+            return false;
+        if (filter.from() != null && h.last().before(filter.from()))
+            return false;
+        if (filter.to() != null && !h.first().before(filter.to()))
+            return false;
+        return after == null || !(ascending ? h.last().before(after.timestamp()) : h.first().after(after.timestamp()));
+    }
+
+    /**
+     * The segment's rows, from the cache when it was decoded recently, or null when it cannot be read
+     */
+    private List<Metric> decode(Segment s) {
+        synchronized (decoded) {
+            List<Metric> rows = decoded.get(s.path());
+            if (rows != null)
+                return rows;
+        }
+        List<Metric> rows;
+        try {
+            rows = MetricSegmentCodec.decode(map(s.path()));
+        } catch (UncheckedIOException e) {
+            log.error("Could not read metric segment {}", s.path(), e);
+            return null;
+        }
+        synchronized (decoded) {
+            decoded.put(s.path(), rows);
+        }
+        return rows;
+    }
+
+    private static boolean matches(Metric m, MetricFilter filter, PageCursor after, boolean ascending) {
+        if (filter.clientId() != null && !filter.clientId().equals(m.getClientId()))
+            return false;
+        if (filter.from() != null && m.getTimestamp().before(filter.from()))
+            return false;
+        if (filter.to() != null && !m.getTimestamp().before(filter.to()))
+            return false;
+        if (after == null)
+            return true;
+        int cmp = m.getTimestamp().compareTo(after.timestamp());
+        if (cmp == 0)
+            cmp = m.getId().compareTo(after.id());
+        return ascending ? cmp > 0 : cmp < 0;
+    }
+}
@@ -0,0 +1,171 @@
+package com.itmo.spy_system.service;
+
+import com.itmo.spy_system.dto.MetricReading;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded in-process queue between the /api/metrics handler and {@link MetricService}.
+ * Readings are partitioned by device id so every device is always handled by the same
+ * worker, which keeps threshold evaluation in arrival order.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class MetricIngestionPipeline {
+
+    private final MetricService metricService;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${metrics.ingestion.async.enabled:false}")
+    private boolean enabled;
+
+    @Value("${metrics.ingestion.queue-capacity:10000}")
+    private int queueCapacity;
+
+    @Value("${metrics.ingestion.workers:2}")
+    private int workerCount;
+
+    @Value("${metrics.ingestion.batch-size:200}")
+    private int batchSize;
+
+    @Value("${metrics.ingestion.shutdown-timeout-seconds:30}")
+    private int shutdownTimeoutSeconds;
+
+    private record Pending(MetricReading reading, long enqueuedAt) {
+    }
+
+    private final List<BlockingQueue<Pending>> queues = new ArrayList<>();
+    private ExecutorService workers;
+    private volatile boolean accepting;
+
+    private Counter acceptedCounter;
+    private Counter droppedCounter;
+    private Counter failedCounter;
+    private Timer queueTimer;
+    private Timer persistTimer;
+
+    @PostConstruct
+    public void start() {
+        if (!enabled)
+            return;
+        int perWorkerCapacity = Math.max(1, queueCapacity / workerCount);
+        for (int i = 0; i < workerCount; i++)
+            queues.add(new ArrayBlockingQueue<>(perWorkerCapacity));
+
+        Gauge.builder("metrics.ingestion.queue.depth", queues, qs -> qs.stream().mapToInt(BlockingQueue::size).sum())
+                .description("Readings waiting to be persisted")
+                .register(meterRegistry);
+        Gauge.builder("metrics.ingestion.queue.capacity", () -> perWorkerCapacity * workerCount)
+                .register(meterRegistry);
+        acceptedCounter = meterRegistry.counter("metrics.ingestion.readings", "result", "accepted");
+        droppedCounter = meterRegistry.counter("metrics.ingestion.readings", "result", "dropped");
+        failedCounter = meterRegistry.counter("metrics.ingestion.readings", "result", "failed");
+        queueTimer = Timer.builder("metrics.ingestion.stage.latency").tag("stage", "queue").register(meterRegistry);
+        persistTimer = Timer.builder("metrics.ingestion.stage.latency").tag("stage", "persist").register(meterRegistry);
+
+        AtomicInteger threadNumber = new AtomicInteger();
+        workers = Executors.newFixedThreadPool(workerCount, r -> {
+            Thread t = new Thread(r, "metric-ingestion-" + threadNumber.incrementAndGet());
+            t.setDaemon(false);
+            return t;
+        });
+        accepting = true;
+        for (BlockingQueue<Pending> queue : queues)
+            workers.submit(() -> runWorker(queue));
+        log.info("Async metric ingestion started: {} workers, capacity {}", workerCount, perWorkerCapacity * workerCount);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return false when the pipeline is saturated or shutting down, the caller is expected to answer
+     * with a retryable status
+     */
+    public boolean offer(MetricReading reading) {
+        if (!accepting) {
+            droppedCounter.increment();
+            return false;
+        }
+        BlockingQueue<Pending> queue = queues.get(Math.floorMod(reading.getDeviceId().hashCode(), queues.size()));
+        if (!queue.offer(new Pending(reading, System.nanoTime()))) {
+            droppedCounter.increment();
+            return false;
+        }
+        acceptedCounter.increment();
+        return true;
+    }
+
+    private void runWorker(BlockingQueue<Pending> queue) {
+        List<Pending> chunk = new ArrayList<>(batchSize);
+        while (accepting || !queue.isEmpty()) {
+            Pending first;
+            try {
+                first = queue.poll(200, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            if (first == null)
+                continue;
+            chunk.add(first);
+            queue.drainTo(chunk, batchSize - 1);
+
+            long now = System.nanoTime();
+            List<MetricReading> readings = new ArrayList<>(chunk.size());
+            for (Pending p : chunk) {
+                queueTimer.record(now - p.enqueuedAt(), TimeUnit.NANOSECONDS);
+                readings.add(p.reading());
+            }
+            persist(readings);
+            chunk.clear();
+        }
+        if (!queue.isEmpty())
+            log.warn("Metric ingestion worker stopped with {} readings left in queue", queue.size());
+    }
+
+    private void persist(List<MetricReading> readings) {
+        try {
+            persistTimer.record(() -> metricService.createBatch(readings));
+        } catch (Exception e) {
+            // one broken reading (e.g. a device removed after validation) must not drop the whole chunk
+            log.warn("Batch of {} readings failed, retrying one by one: {}", readings.size(), e.getMessage());
+            for (MetricReading r : readings) {
+                try {
+                    persistTimer.record(() -> metricService.create(r));
+                } catch (Exception ex) {
+                    failedCounter.increment();
+                    log.error("Could not persist reading of device #{}", r.getDeviceId(), ex);
+                }
+            }
+        }
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        if (!enabled)
+            return;
+        accepting = false;
+        workers.shutdown();
+        if (!workers.awaitTermination(shutdownTimeoutSeconds, TimeUnit.SECONDS)) {
+            int left = queues.stream().mapToInt(BlockingQueue::size).sum();
+            log.error("Metric ingestion did not drain in {}s, {} readings are lost", shutdownTimeoutSeconds, left);
+            workers.shutdownNow();
+        }
+    }
+}
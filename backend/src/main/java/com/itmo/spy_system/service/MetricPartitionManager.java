@@ -0,0 +1,146 @@
+package com.itmo.spy_system.service;
+
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.sql.Date;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+
+/**
+ * Keeps device_metric range-partitioned by timestamp (Postgres only): creates partitions ahead of time, drops
+ * whole partitions that fall out of the retention window and deletes the readings out of it from the default
+ * partition. The table is converted once by db/partition-device-metric.sql, until then this stays inactive.
+ * Runs on one replica at a time through {@link ClusterJobRunner}.
+ */
+@Slf4j
+@Service
+@DependsOn("entityManagerFactory")
+@RequiredArgsConstructor
+public class MetricPartitionManager {
+
+    private static final String JOB = "metric-partitions";
+    private static final String TABLE = "device_metric";
+    private static final String PARTITION_PREFIX = TABLE + "_p";
+    private static final String DEFAULT_PARTITION = TABLE + "_default";
+
+    public enum Granularity {
+        DAY(ChronoUnit.DAYS, DateTimeFormatter.ofPattern("yyyyMMdd")),
+        MONTH(ChronoUnit.MONTHS, DateTimeFormatter.ofPattern("yyyyMM"));
+
+        private final ChronoUnit unit;
+        private final DateTimeFormatter suffix;
+
+        Granularity(ChronoUnit unit, DateTimeFormatter suffix) {
+            this.unit = unit;
+            this.suffix = suffix;
+        }
+
+        LocalDate floor(LocalDate d) {
+            return this == DAY ? d : d.withDayOfMonth(1);
+        }
+    }
+
+    private final JdbcTemplate jdbcTemplate;
+    private final ClusterJobRunner jobRunner;
+
+    @Value("${metrics.partitioning.enabled:false}")
+    private boolean enabled;
+
+    @Value("${metrics.partitioning.granularity:DAY}")
+    private Granularity granularity;
+
+    @Value("${metrics.partitioning.premake:7}")
+    private int premake;
+
+    /**
+     * 0 keeps every reading
+     */
+    @Value("${metrics.partitioning.retention-days:365}")
+    private int retentionDays;
+
+    @Value("${metrics.partitioning.interval-ms:3600000}")
+    private long intervalMillis;
+
+    @PostConstruct
+    public void init() {
+        if (!enabled)
+            return;
+        String product = jdbcTemplate.execute((ConnectionCallback<String>) c -> c.getMetaData().getDatabaseProductName());
+        if (!"PostgreSQL".equals(product)) {
+            log.warn("device_metric partitioning requires PostgreSQL, running on {}", product);
+            return;
+        }
+        String kind = jdbcTemplate.queryForObject(
+                "SELECT relkind::text FROM pg_class WHERE oid = to_regclass(?)", String.class, TABLE);
+        if (!"p".equals(kind)) {
+            log.warn("{} is not partitioned, run db/partition-device-metric.sql once to convert it", TABLE);
+            return;
+        }
+        jobRunner.register(JOB, 1, 1, intervalMillis, (partition, partitions) -> maintain());
+    }
+
+    private LocalDate lowestRetainedDate() {
+        return retentionDays > 0 ? granularity.floor(LocalDate.now().minusDays(retentionDays)) : null;
+    }
+
+    private void createPartitions(LocalDate from, LocalDate to) {
+        for (LocalDate start = granularity.floor(from); !start.isAfter(to); start = start.plus(1, granularity.unit)) {
+            LocalDate end = start.plus(1, granularity.unit);
+            String name = PARTITION_PREFIX + start.format(granularity.suffix);
+            try {
+                jdbcTemplate.execute(String.format(
+                        "CREATE TABLE IF NOT EXISTS %s PARTITION OF device_metric FOR VALUES FROM ('%s') TO ('%s')",
+                        name, start, end));
+            } catch (DataAccessException e) {
+                // e.g. rows for that range already landed in the default partition
+                log.error("Could not create partition {}: {}", name, e.getMessage());
+            }
+        }
+    }
+
+    public void maintain() {
+        createPartitions(LocalDate.now(), LocalDate.now().plus(premake, granularity.unit));
+
+        LocalDate lowest = lowestRetainedDate();
+        if (lowest == null)
+            return;
+        List<String> partitions = jdbcTemplate.queryForList("""
+                SELECT c.relname
+                FROM pg_inherits i
+                JOIN pg_class c ON c.oid = i.inhrelid
+                WHERE i.inhparent = to_regclass(?)
+                """, String.class, TABLE);
+        for (String name : partitions) {
+            if (!name.startsWith(PARTITION_PREFIX))
+                continue;
+            LocalDate start;
+            try {
+                String suffix = name.substring(PARTITION_PREFIX.length());
+                start = granularity == Granularity.DAY
+                        ? LocalDate.parse(suffix, granularity.suffix)
+                        : LocalDate.parse(suffix + "01", DateTimeFormatter.ofPattern("yyyyMMdd"));
+            } catch (RuntimeException e) {
+                continue;
+            }
+            if (!start.plus(1, granularity.unit).isAfter(lowest)) {
+                log.info("Dropping partition {} (retention {} days)", name, retentionDays);
+                jdbcTemplate.execute("ALTER TABLE device_metric DETACH PARTITION " + name);
+                jdbcTemplate.execute("DROP TABLE " + name);
+            }
+        }
+        // readings from before the first partition and without a timestamp
+        int deleted = jdbcTemplate.update("DELETE FROM " + DEFAULT_PARTITION + " WHERE \"timestamp\" < ?", Date.valueOf(lowest));
+        if (deleted > 0)
+            log.info("Deleted {} readings out of retention from {}", deleted, DEFAULT_PARTITION);
+    }
+}
@@ -0,0 +1,209 @@
+package com.itmo.spy_system.service;
+
+import com.itmo.spy_system.entity.Metric;
+import com.itmo.spy_system.entity.MetricRollup;
+import com.itmo.spy_system.entity.RollupResolution;
+import com.itmo.spy_system.entity.RollupScope;
+import com.itmo.spy_system.repository.MetricRollupRepository;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Per-minute and per-hour min/max/sum/count/last of metric values for every device and client.
+ * Accepted readings are folded into in-memory buckets which are merged into metric_rollup rows
+ * every flush interval.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class MetricRollupService {
+
+    private final MetricRollupRepository repository;
+    private final TransactionTemplate transactionTemplate;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${metrics.rollup.minute-retention-days:7}")
+    private int minuteRetentionDays;
+
+    private record Key(RollupScope scope, Long scopeId, RollupResolution resolution, long bucketStart) {
+    }
+
+    private static final class Bucket {
+        int min = Integer.MAX_VALUE;
+        int max = Integer.MIN_VALUE;
+        long sum;
+        long count;
+        Integer last;
+        long lastTimestamp = Long.MIN_VALUE;
+
+        Bucket add(int value, long timestamp) {
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+            sum += value;
+            count++;
+            if (timestamp >= lastTimestamp) {
+                last = value;
+                lastTimestamp = timestamp;
+            }
+            return this;
+        }
+
+        Bucket merge(Bucket other) {
+            min = Math.min(min, other.min);
+            max = Math.max(max, other.max);
+            sum += other.sum;
+            count += other.count;
+            if (other.lastTimestamp >= lastTimestamp) {
+                last = other.last;
+                lastTimestamp = other.lastTimestamp;
+            }
+            return this;
+        }
+    }
+
+    private final Map<Key, Bucket> pending = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        Gauge.builder("metrics.rollup.pending.buckets", pending, Map::size).register(meterRegistry);
+    }
+
+    public static long bucketMillis(RollupResolution resolution) {
+        return resolution == RollupResolution.MINUTE ? 60_000L : 3_600_000L;
+    }
+
+    public void record(Collection<Metric> metrics) {
+        for (Metric m : metrics) {
+            if (m.getValue() == null || m.getTimestamp() == null)
+                continue;
+            long ts = m.getTimestamp().getTime();
+            for (RollupResolution resolution : RollupResolution.values()) {
+                long start = Math.floorDiv(ts, bucketMillis(resolution)) * bucketMillis(resolution);
+                if (m.getDeviceId() != null)
+                    add(new Key(RollupScope.DEVICE, m.getDeviceId(), resolution, start), m.getValue(), ts);
+                if (m.getClientId() != null)
+                    add(new Key(RollupScope.CLIENT, m.getClientId(), resolution, start), m.getValue(), ts);
+            }
+        }
+    }
+
+    private void add(Key key, int value, long timestamp) {
+        pending.compute(key, (k, b) -> (b == null ? new Bucket() : b).add(value, timestamp));
+    }
+
+    @Scheduled(fixedDelayString = "${metrics.rollup.flush-interval-ms:5000}")
+    public void flush() {
+        Map<Key, Bucket> batch = new HashMap<>();
+        for (Key key : pending.keySet()) {
+            Bucket b = pending.remove(key);
+            if (b != null)
+                batch.put(key, b);
+        }
+        if (batch.isEmpty())
+            return;
+        try {
+            transactionTemplate.executeWithoutResult(status -> persist(batch));
+        } catch (RuntimeException e) {
+            // e.g. an optimistic lock conflict with another instance, the buckets are retried next time
+            log.warn("Could not flush {} rollup buckets: {}", batch.size(), e.getMessage());
+            batch.forEach((k, b) -> pending.merge(k, b, Bucket::merge));
+        }
+    }
+
+    /**
+     * Buckets still in memory would be lost with the instance. Beans depending on this one are destroyed first,
+     * so the ingestion pipeline has drained through {@link MetricService} by then
+     */
+    @PreDestroy
+    public void stop() {
+        flush();
+        if (!pending.isEmpty())
+            log.error("{} rollup buckets could not be flushed on shutdown", pending.size());
+    }
+
+    private void persist(Map<Key, Bucket> batch) {
+        Map<RollupScope, Map<RollupResolution, List<Key>>> grouped = new EnumMap<>(RollupScope.class);
+        for (Key key : batch.keySet())
+            grouped.computeIfAbsent(key.scope(), s -> new EnumMap<>(RollupResolution.class))
+                    .computeIfAbsent(key.resolution(), r -> new ArrayList<>())
+                    .add(key);
+
+        List<MetricRollup> toSave = new ArrayList<>(batch.size());
+        grouped.forEach((scope, byResolution) -> byResolution.forEach((resolution, keys) -> {
+            Set<Long> scopeIds = new HashSet<>();
+            Set<Timestamp> starts = new HashSet<>();
+            for (Key key : keys) {
+                scopeIds.add(key.scopeId());
+                starts.add(new Timestamp(key.bucketStart()));
+            }
+            Map<Key, MetricRollup> existing = new HashMap<>();
+            for (MetricRollup r : repository.findByScopeAndResolutionAndScopeIdInAndBucketStartIn(scope, resolution, scopeIds, starts))
+                existing.put(new Key(scope, r.getScopeId(), resolution, r.getBucketStart().getTime()), r);
+
+            for (Key key : keys) {
+                MetricRollup r = existing.get(key);
+                if (r == null) {
+                    r = new MetricRollup();
+                    r.setScope(scope);
+                    r.setScopeId(key.scopeId());
+                    r.setResolution(resolution);
+                    r.setBucketStart(new Timestamp(key.bucketStart()));
+                    r.setSumValue(0L);
+                    r.setCount(0L);
+                }
+                apply(r, batch.get(key));
+                toSave.add(r);
+            }
+        }));
+        repository.saveAll(toSave);
+    }
+
+    private static void apply(MetricRollup r, Bucket b) {
+        r.setMinValue(r.getMinValue() == null ? b.min : Math.min(r.getMinValue(), b.min));
+        r.setMaxValue(r.getMaxValue() == null ? b.max : Math.max(r.getMaxValue(), b.max));
+        r.setSumValue(r.getSumValue() + b.sum);
+        r.setCount(r.getCount() + b.count);
+        if (r.getLastTimestamp() == null || b.lastTimestamp >= r.getLastTimestamp().getTime()) {
+            r.setLastValue(b.last);
+            r.setLastTimestamp(new Timestamp(b.lastTimestamp));
+        }
+    }
+
+    /**
+     * The finest resolution that fits into maxPoints buckets and is still retained for the whole range
+     */
+    public RollupResolution chooseResolution(Timestamp from, Timestamp to, int maxPoints) {
+        long minuteBuckets = (to.getTime() - from.getTime()) / bucketMillis(RollupResolution.MINUTE) + 1;
+        long minuteHorizon = System.currentTimeMillis() - Duration.ofDays(minuteRetentionDays).toMillis();
+        if (minuteBuckets <= maxPoints && from.getTime() >= minuteHorizon)
+            return RollupResolution.MINUTE;
+        return RollupResolution.HOUR;
+    }
+
+    public List<MetricRollup> find(RollupScope scope, Long scopeId, RollupResolution resolution, Timestamp from, Timestamp to) {
+        long size = bucketMillis(resolution);
+        Timestamp alignedFrom = new Timestamp(Math.floorDiv(from.getTime(), size) * size);
+        return repository.findByScopeAndScopeIdAndResolutionAndBucketStartGreaterThanEqualAndBucketStartLessThanOrderByBucketStart(
+                scope, scopeId, resolution, alignedFrom, to);
+    }
+
+    @Scheduled(cron = "${metrics.rollup.cleanup-cron:0 30 0 * * *}")
+    public void dropExpiredMinuteBuckets() {
+        Timestamp before = new Timestamp(System.currentTimeMillis() - Duration.ofDays(minuteRetentionDays).toMillis());
+        Integer deleted = transactionTemplate.execute(status -> repository.deleteOlderThan(RollupResolution.MINUTE, before));
+        log.info("Dropped {} minute rollups older than {}", deleted, before);
+    }
+}
@@ -1,110 +1,205 @@
 package com.itmo.spy_system.service;
 
-import com.itmo.spy_system.entity.*;
-import com.itmo.spy_system.repository.*;
-
+import com.itmo.spy_system.dto.PageCursor;
+import com.itmo.spy_system.dto.MetricPage;
+import com.itmo.spy_system.dto.MetricReading;
 import com.itmo.spy_system.entity.*;
 import com.itmo.spy_system.repository.ClientRepository;
 import com.itmo.spy_system.repository.DeviceRepository;
 import com.itmo.spy_system.repository.MetricRepository;
-import com.itmo.spy_system.repository.NotificationRepository;
+import com.itmo.spy_system.repository.MetricRepositoryCustom.MetricFilter;
+import com.itmo.spy_system.utils.Utils;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.aspectj.weaver.ast.Not;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.sql.Timestamp;
-import java.util.List;
-import java.util.Objects;
-import java.util.Optional;
+import java.util.*;
 
 @Slf4j
 @Service
 @RequiredArgsConstructor
 public class MetricService {
 
+    private static final int LOW_BATTERY_LEVEL = 15;
+
     private final MetricRepository metricRepository;
     private final ClientRepository clientRepository;
     private final DeviceRepository deviceRepository;
-    private final NotificationRepository notificationRepository;
-    private final PunishmentTaskService punishmentTaskService;
-    private final WorkerService workerService;
-
-    public Metric create(Metric metric) {
-
-        Metric previousMetricForClient = metricRepository.findTopByClientIdOrderByTimestampDesc(metric.getClientId()).orElse(null);
-        Device device = deviceRepository.findById(metric.getDeviceId()).get();
-        Metric saved = metricRepository.save(metric);
-//        log.info("Metric created: {}", metric);
-        Client client = null;
-        if (metric.getClientId() != null)
-            client = clientRepository.findById(metric.getClientId()).orElse(null);
-
-        if (client != null && (device.getAssignmentStatus() == DeviceAssignmentStatus.ASSIGNED || device.getAssignmentStatus() == DeviceAssignmentStatus.UNASSIGNMENT_PENDING) &&
-                client.getMetricThreshold() != null && saved.getValue() > client.getMetricThreshold() &&
-                (previousMetricForClient == null || previousMetricForClient.getValue() < client.getMetricThreshold())) {
-//            log.info("Metric fired");
-            PunishmentTask task = new PunishmentTask();
-//                        task.setClientId(client.getId());
-            task.setClient(client);
-            task.setCreatedAt(new Timestamp(System.currentTimeMillis()));
-            task.setStatus(TaskStatus.NEW);
-            PunishmentType punishmentType = client.getViolationsCount() > 4 ? PunishmentType.PHYSICAL : PunishmentType.ELECTRICAL;
-            task.setType(punishmentType);
-            Long executionerId = workerService.findMostFreeCorrectionsOfficer().getId();
-            task.setExecutionerId(executionerId); // Default executioner for example
-            task.setTriggeredMetricId(saved.getId());
-            PunishmentTask pt = punishmentTaskService.create(task, client);
-//            log.info("Punishment task created: {}", pt);
-
-//            client.setViolationsCount(client.getViolationsCount() + 1);
-            clientRepository.save(client);
+    private final ViolationAssigner violationAssigner;
+    private final Utils utils;
+    private final LastMetricIndex lastMetricIndex;
+    private final DeviceStateCache deviceStateCache;
+    private final DeviceHeartbeatMonitor heartbeatMonitor;
+    private final MetricRollupService rollupService;
+    private final MetricColdStore coldStore;
+    private final MetricStreamService streamService;
+    private final OutboxService outboxService;
+
+    @Value("${metrics.query.max-page-size:1000}")
+    private int maxPageSize;
+
+    public void validate(MetricReading reading) {
+        if (reading.getDeviceId() == null || !deviceRepository.existsById(reading.getDeviceId()))
+            throw new IllegalArgumentException("DeviceId not found in Device table");
+        if (reading.getChargeLevel() == null)
+            throw new IllegalArgumentException(String.format("chargeLevel is missing for device #%d", reading.getDeviceId()));
+    }
+
+    @Transactional
+    public Metric create(MetricReading reading) {
+        return createBatch(List.of(reading)).get(0);
+    }
+
+    /**
+     * Persists readings of any number of devices at once. Device state goes to {@link DeviceStateCache},
+     * metrics are inserted with JDBC batching and threshold evaluation runs for every reading
+     * in the order they were received.
+     */
+    @Transactional
+    public List<Metric> createBatch(List<MetricReading> readings) {
+        if (readings.isEmpty())
+            return List.of();
+
+        Set<Long> deviceIds = new HashSet<>();
+        for (MetricReading r : readings) {
+            if (r.getDeviceId() == null)
+                throw new IllegalArgumentException("DeviceId not found in Device table");
+            if (r.getChargeLevel() == null)
+                throw new IllegalArgumentException(String.format("chargeLevel is missing for device #%d", r.getDeviceId()));
+            deviceIds.add(r.getDeviceId());
+        }
+        Map<Long, Device> devices = new HashMap<>();
+        for (Device d : deviceRepository.findAllById(deviceIds))
+            devices.put(d.getDeviceId(), d);
+        if (devices.size() != deviceIds.size())
+            throw new IllegalArgumentException("DeviceId not found in Device table");
+
+        Map<Long, Integer> lowBatteryDevices = new LinkedHashMap<>();
+        Map<Long, DeviceStateCache.DeviceState> deviceStates = new LinkedHashMap<>();
+        List<Metric> metrics = new ArrayList<>(readings.size());
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        for (MetricReading r : readings) {
+            Device d = devices.get(r.getDeviceId());
+            Integer previousLevel = deviceStates.computeIfAbsent(d.getDeviceId(), id -> deviceStateCache.current(d)).batteryLevel();
+            if (r.getChargeLevel() < LOW_BATTERY_LEVEL && (previousLevel == null || previousLevel >= LOW_BATTERY_LEVEL))
+                lowBatteryDevices.putIfAbsent(d.getDeviceId(), r.getChargeLevel());
+            deviceStates.put(d.getDeviceId(), new DeviceStateCache.DeviceState(r.getChargeLevel(), DeviceStatus.ACTIVE, now));
+
+            Metric m = new Metric();
+            m.setDeviceId(r.getDeviceId());
+            m.setValue(r.getValue());
+            m.setTimestamp(r.getTimestamp() != null ? r.getTimestamp() : now);
+            m.setLongitude(r.getLongitude());
+            m.setLatitude(r.getLatitude());
+            m.setClientId(d.getAssignedClientId());
+            metrics.add(m);
         }
+        // other replicas may see the same drop, the row decides which one notifies
+        lowBatteryDevices.forEach((deviceId, level) -> {
+            if (deviceRepository.markBatteryLow(deviceId, level, LOW_BATTERY_LEVEL) > 0)
+                notifyLowBattery(deviceId);
+        });
 
-//        deviceRepository.findById(metric.getDeviceId()).ifPresent(device -> {
-//            if (device.getAssignedClientId() != null) {
-//                clientRepository.findById(device.getAssignedClientId()).ifPresent(client -> {
-//                    var devices = deviceRepository.findByAssignedClientId(client.getId());
-//                    boolean isFired = true;
-//                    for (Device d : devices) {
-//                        Metric latestMetric = metricRepository.findTopByDeviceIdOrderByTimestampDesc(d.getDeviceId()).orElse(null);
-//                        if (latestMetric != null && latestMetric.getValue() < client.getMetricThreshold() && !Objects.equals(latestMetric.getDeviceId(), saved.getDeviceId())) {
-//                            isFired = false;
-//                            break;
-//                        }
-//                    }
-//                    if (previousMetric != null && previousMetric.getValue() > client.getMetricThreshold()) {
-//                        isFired = false;
-//                    }
-//                    log.info("Metric fired: {}", isFired);
-//                    if (isFired) {
-////                        Client client = clientRepository.findById(client.getId()).get();
-//                        PunishmentTask task = new PunishmentTask();
-////                        task.setClientId(client.getId());
-//                        task.setClient(client);
-//                        task.setCreatedAt(new Timestamp(System.currentTimeMillis()));
-//                        task.setStatus(TaskStatus.NEW);
-//                        PunishmentType punishmentType = client.getViolationsCount() > 4 ? PunishmentType.PHYSICAL : PunishmentType.ELECTRICAL;
-//                        task.setType(punishmentType);
-//                        Long executionerId = workerService.findMostFreeCorrectionsOfficer().getId();
-//                        task.setExecutionerId(executionerId); // Default executioner for example
-//                        task.setTriggeredMetricId(saved.getId());
-//                        PunishmentTask pt = punishmentTaskService.create(task, client);
-//                        log.info("Punishment task created: {}", pt);
-//
-//                        client.setViolationsCount(client.getViolationsCount() + 1);
-//                        clientRepository.save(client);
-//                    }
-//                });
-//            }
-//        });
+        Map<Long, Client> clients = new HashMap<>();
+        Map<Long, Integer> previousValues = new HashMap<>();
+        Set<Long> clientIds = new HashSet<>();
+        for (Metric m : metrics)
+            if (m.getClientId() != null)
+                clientIds.add(m.getClientId());
+        for (Client c : clientRepository.findAllById(clientIds)) {
+            clients.put(c.getId(), c);
+            previousValues.put(c.getId(), lastMetricIndex.getForClient(c.getId()).value());
+        }
+
+        List<Metric> saved = metricRepository.saveAll(metrics);
+        List<ViolationAssigner.Violation> violations = new ArrayList<>();
+        for (Metric m : saved) {
+            Client client = m.getClientId() == null ? null : clients.get(m.getClientId());
+            if (client == null)
+                continue;
+            if (violatesThreshold(m, previousValues.get(client.getId()), devices.get(m.getDeviceId()), client))
+                violations.add(new ViolationAssigner.Violation(client.getId(), m.getId()));
+            previousValues.put(client.getId(), m.getValue());
+        }
+        violationAssigner.submit(violations);
+        Utils.runAfterCommit(() -> {
+            // device rows are written behind, the edges above were computed against the same state
+            deviceStates.forEach((id, state) -> {
+                deviceStateCache.apply(id, state);
+                heartbeatMonitor.onActivity(id, state.lastActiveTime());
+            });
+            saved.forEach(lastMetricIndex::record);
+            rollupService.record(saved);
+            streamService.publish(saved);
+        });
         return saved;
     }
 
+    private boolean violatesThreshold(Metric saved, Integer previousValue, Device device, Client client) {
+        return (device.getAssignmentStatus() == DeviceAssignmentStatus.ASSIGNED || device.getAssignmentStatus() == DeviceAssignmentStatus.UNASSIGNMENT_PENDING) &&
+                client.getMetricThreshold() != null && saved.getValue() != null && saved.getValue() > client.getMetricThreshold() &&
+                (previousValue == null || previousValue < client.getMetricThreshold());
+    }
+
+    private void notifyLowBattery(Long deviceId) {
+        Manager m = utils.getManagerByDeviceId(deviceId);
+        if (m == null)
+            return;
+        Notification n = new Notification();
+        n.setManagerId(m.getId());
+        n.setType(NotificationType.DEVICE_LOW_BATTERY);
+        n.setText(String.format("Батарея устройства #%d менее 15%%", deviceId));
+        n.setCreatedAt(new Timestamp(System.currentTimeMillis()));
+        n.setStatus(NotificationStatus.UNREAD);
+        outboxService.enqueueNotification(n);
+    }
+
     public List<Metric> findAll() {
         return metricRepository.findAll();
     }
 
+    /**
+     * One page of metrics ordered by (timestamp, id), limit is capped by metrics.query.max-page-size
+     */
+    public MetricPage findPage(MetricFilter filter, String cursor, boolean ascending, Integer limit) {
+        if (limit != null && limit <= 0)
+            throw new IllegalArgumentException("limit must be positive");
+        int size = limit == null ? maxPageSize : Math.min(limit, maxPageSize);
+        PageCursor after = cursor == null ? null : PageCursor.decode(cursor);
+
+        // hot before cold: a reading tiered in between is read twice rather than missed
+        List<Metric> rows = metricRepository.findPage(filter, after, ascending, size + 1);
+        if (coldStore.isEnabled())
+            rows = merge(rows, coldStore.findPage(filter, after, ascending, size + 1), ascending, size + 1);
+        if (rows.size() <= size)
+            return new MetricPage(rows, null);
+        List<Metric> items = rows.subList(0, size);
+        Metric last = items.get(size - 1);
+        return new MetricPage(items, new PageCursor(last.getTimestamp(), last.getId()).encode());
+    }
+
+    /**
+     * Hot and cold rows overlap when readings are tiered between the two reads, so rows are deduplicated by id
+     */
+    private static List<Metric> merge(List<Metric> hot, List<Metric> cold, boolean ascending, int limit) {
+        if (cold.isEmpty())
+            return hot;
+        Comparator<Metric> order = Comparator.comparing(Metric::getTimestamp).thenComparing(Metric::getId);
+        if (!ascending)
+            order = order.reversed();
+        Map<Long, Metric> byId = new HashMap<>();
+        for (Metric m : cold)
+            byId.put(m.getId(), m);
+        for (Metric m : hot)
+            byId.put(m.getId(), m);
+        List<Metric> merged = new ArrayList<>(byId.values());
+        merged.sort(order);
+        return merged.size() > limit ? merged.subList(0, limit) : merged;
+    }
+
     public Optional<Metric> findById(Long id) {
         return metricRepository.findById(id);
     }
@@ -120,6 +215,8 @@ public class MetricService {
 //    }
 
     public void deleteById(Long id) {
+        Optional<Metric> m = metricRepository.findById(id);
         metricRepository.deleteById(id);
+        m.ifPresent(lastMetricIndex::evict);
     }
 }
@@ -0,0 +1,57 @@
+package com.itmo.spy_system.service;
+
+import com.itmo.spy_system.entity.Metric;
+import com.itmo.spy_system.utils.SseSubscriptions;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.util.Collection;
+import java.util.Objects;
+
+/**
+ * Live feed of persisted readings for /api/metrics/stream, published from memory after commit.
+ */
+@Service
+@RequiredArgsConstructor
+public class MetricStreamService {
+
+    private final MeterRegistry meterRegistry;
+
+    @Value("${metrics.stream.buffer-size:256}")
+    private int bufferSize;
+
+    @Value("${metrics.stream.timeout-ms:1800000}")
+    private long timeoutMs;
+
+    @Value("${metrics.stream.sender-threads:2}")
+    private int senderThreads;
+
+    private SseSubscriptions<Metric> subscriptions;
+
+    @PostConstruct
+    public void init() {
+        subscriptions = new SseSubscriptions<>("metrics", bufferSize, timeoutMs, senderThreads, meterRegistry);
+    }
+
+    public SseEmitter subscribe(Long clientId, Long deviceId) {
+        return subscriptions.subscribe(m -> (clientId == null || Objects.equals(clientId, m.getClientId()))
+                && (deviceId == null || Objects.equals(deviceId, m.getDeviceId())));
+    }
+
+    public void publish(Collection<Metric> metrics) {
+        if (subscriptions.size() == 0)
+            return;
+        for (Metric m : metrics)
+            subscriptions.publish(new SseSubscriptions.Event<>(String.valueOf(m.getId()), "metric", m));
+    }
+
+    @PreDestroy
+    public void stop() {
+        subscriptions.shutdown();
+    }
+}
@@ -0,0 +1,172 @@
+package com.itmo.spy_system.service;
+
+import com.itmo.spy_system.dto.CoverageGap;
+import com.itmo.spy_system.entity.MonitoringTimeInterval;
+import com.itmo.spy_system.entity.Weekday;
+import com.itmo.spy_system.repository.MonitoringTimeIntervalRepository;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.sql.Time;
+import java.time.LocalTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.itmo.spy_system.service.WorkerScheduleIndex.MINUTES_PER_DAY;
+import static com.itmo.spy_system.service.WorkerScheduleIndex.MINUTES_PER_WEEK;
+
+/**
+ * Weekly surveillance coverage of every client as a bitmap with one bit per minute of the week, set while some
+ * {@link MonitoringTimeInterval} of the client is running. {@link MonitoringService} rebuilds a client's bitmap
+ * whenever one of its intervals changes, a periodic reload picks up changes made through other replicas.
+ */
+@Slf4j
+@Service
+@DependsOn("testDataLoader") // it may write intervals at startup
+@RequiredArgsConstructor
+public class MonitoringCoverageIndex {
+
+    private record Range(int begin, int ending) {
+    }
+
+    private final MonitoringTimeIntervalRepository repository;
+
+    // client id -> interval id -> minutes of the week
+    private final Map<Long, Map<Long, Range>> intervals = new ConcurrentHashMap<>();
+    private final Map<Long, Long> clientByInterval = new ConcurrentHashMap<>();
+    private volatile Map<Long, BitSet> coverage = Map.of();
+
+    @PostConstruct
+    @Scheduled(fixedDelayString = "${monitoring.coverage.reload-ms:300000}", initialDelayString = "${monitoring.coverage.reload-ms:300000}")
+    public synchronized void reload() {
+        intervals.clear();
+        clientByInterval.clear();
+        for (MonitoringTimeInterval m : repository.findAll())
+            add(m);
+        Map<Long, BitSet> rebuilt = new HashMap<>();
+        for (Long clientId : intervals.keySet())
+            rebuilt.put(clientId, bitmap(intervals.get(clientId).values()));
+        coverage = rebuilt;
+        log.debug("Monitoring coverage index loaded for {} clients", rebuilt.size());
+    }
+
+    public boolean isCovered(Long clientId, int minuteOfWeek) {
+        BitSet bits = coverage.get(clientId);
+        return bits != null && bits.get(minuteOfWeek);
+    }
+
+    /**
+     * The clients among the given ones that nobody watches at minuteOfWeek
+     */
+    public List<Long> uncovered(Collection<Long> clientIds, int minuteOfWeek) {
+        Map<Long, BitSet> snapshot = coverage;
+        List<Long> result = new ArrayList<>();
+        for (Long id : clientIds) {
+            BitSet bits = snapshot.get(id);
+            if (bits == null || !bits.get(minuteOfWeek))
+                result.add(id);
+        }
+        return result;
+    }
+
+    /**
+     * Maximal unwatched stretches of the client's week; a stretch running over Sunday midnight is reported
+     * once, starting on Sunday
+     */
+    public List<CoverageGap> gaps(Long clientId) {
+        BitSet bits = coverage.get(clientId);
+        int first = bits == null ? -1 : bits.nextSetBit(0);
+        if (first < 0)
+            return List.of(gap(clientId, 0, MINUTES_PER_WEEK));
+        // walk one full week starting at a watched minute, positions past the week wrap to its start
+        int end = first + MINUTES_PER_WEEK;
+        List<CoverageGap> result = new ArrayList<>();
+        int p = first;
+        while (true) {
+            int gapStart = nextClear(bits, p);
+            if (gapStart >= end)
+                break;
+            int gapEnd = nextSet(bits, gapStart);
+            result.add(gap(clientId, gapStart % MINUTES_PER_WEEK, gapEnd - gapStart));
+            p = gapEnd;
+        }
+        return result;
+    }
+
+    private static int nextClear(BitSet bits, int from) {
+        int c = from < MINUTES_PER_WEEK ? bits.nextClearBit(from) : MINUTES_PER_WEEK;
+        return c < MINUTES_PER_WEEK ? c : MINUTES_PER_WEEK + bits.nextClearBit(Math.max(0, from - MINUTES_PER_WEEK));
+    }
+
+    private static int nextSet(BitSet bits, int from) {
+        int s = from < MINUTES_PER_WEEK ? bits.nextSetBit(from) : -1;
+        return s >= 0 ? s : MINUTES_PER_WEEK + bits.nextSetBit(Math.max(0, from - MINUTES_PER_WEEK));
+    }
+
+    private static CoverageGap gap(Long clientId, int startMinute, int minutes) {
+        Weekday weekday = Weekday.values()[startMinute / MINUTES_PER_DAY];
+        LocalTime from = LocalTime.of(startMinute % MINUTES_PER_DAY / 60, startMinute % 60);
+        return new CoverageGap(clientId, weekday, Time.valueOf(from), minutes);
+    }
+
+    /**
+     * The interval was created or changed
+     */
+    public synchronized void put(MonitoringTimeInterval m) {
+        Long previousClient = detach(m.getId());
+        add(m);
+        rebuild(previousClient);
+        if (m.getClient() != null)
+            rebuild(m.getClient().getId());
+    }
+
+    public synchronized void remove(Long intervalId) {
+        rebuild(detach(intervalId));
+    }
+
+    private Long detach(Long intervalId) {
+        Long clientId = clientByInterval.remove(intervalId);
+        if (clientId != null) {
+            Map<Long, Range> byId = intervals.get(clientId);
+            if (byId != null)
+                byId.remove(intervalId);
+        }
+        return clientId;
+    }
+
+    private void add(MonitoringTimeInterval m) {
+        if (m.getClient() == null || m.getWeekday() == null || m.getBegin() == null || m.getEnding() == null)
+            return;
+        Range range = new Range(WorkerScheduleIndex.minuteOfWeek(m.getWeekday(), m.getBegin().toLocalTime()),
+                WorkerScheduleIndex.minuteOfWeek(m.getWeekday(), m.getEnding().toLocalTime()));
+        intervals.computeIfAbsent(m.getClient().getId(), id -> new ConcurrentHashMap<>()).put(m.getId(), range);
+        clientByInterval.put(m.getId(), m.getClient().getId());
+    }
+
+    private void rebuild(Long clientId) {
+        if (clientId == null)
+            return;
+        Map<Long, BitSet> updated = new HashMap<>(coverage);
+        Map<Long, Range> byId = intervals.get(clientId);
+        if (byId == null || byId.isEmpty()) {
+            intervals.remove(clientId);
+            updated.remove(clientId);
+        } else {
+            updated.put(clientId, bitmap(byId.values()));
+        }
+        coverage = updated;
+    }
+
+    private static BitSet bitmap(Collection<Range> ranges) {
+        BitSet bits = new BitSet(MINUTES_PER_WEEK);
+        // the ending minute is watched too, same as a shift's in WorkerScheduleIndex
+        for (Range r : ranges)
+            if (r.begin() <= r.ending())
+                bits.set(r.begin(), r.ending() + 1);
+        return bits;
+    }
+}
@@ -1,7 +1,9 @@
 package com.itmo.spy_system.service;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.itmo.spy_system.dto.CoverageGap;
 import com.itmo.spy_system.entity.*;
+import com.itmo.spy_system.repository.ClientRepository;
 import com.itmo.spy_system.repository.ManagerRepository;
 import com.itmo.spy_system.repository.MonitoringTimeIntervalRepository;
 import com.itmo.spy_system.repository.WorkerRepository;
@@ -15,8 +17,10 @@ import org.springframework.http.HttpStatus;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.bind.annotation.RequestBody;
 
+import java.time.LocalDateTime;
 import java.util.*;
 
 @Slf4j
@@ -29,6 +33,8 @@ public class MonitoringService {
     private final ManagerService managerService;
     private final MonitoringTimeIntervalRepository repository;
     private final ObjectMapper objectMapper;
+    private final MonitoringCoverageIndex coverageIndex;
+    private final ClientRepository clientRepository;
 
     public Object getAuthenticatedEntity() {
         Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
@@ -54,11 +60,15 @@ public class MonitoringService {
         return repository.findAll();
     }
 
+    @Transactional
     public MonitoringTimeInterval create(MonitoringTimeInterval m) {
         validate(m);
-        return repository.save(m);
+        MonitoringTimeInterval saved = repository.save(m);
+        Utils.runAfterCommit(() -> coverageIndex.put(saved));
+        return saved;
     }
 
+    @Transactional
     public MonitoringTimeInterval patch(@RequestBody Map<String, Object> entity) {
         MonitoringTimeInterval toBePatched = objectMapper.convertValue(entity, MonitoringTimeInterval.class);
 
@@ -71,17 +81,52 @@ public class MonitoringService {
 
         validate(fromDb);
 
-        return repository.save(fromDb);
+        MonitoringTimeInterval saved = repository.save(fromDb);
+        Utils.runAfterCommit(() -> coverageIndex.put(saved));
+        return saved;
     }
 
     public void deleteById(Long id) {
         repository.deleteById(id);
+        coverageIndex.remove(id);
     }
 
+    /**
+     * Clients of the authenticated manager, or all clients for anyone else
+     */
+    private Collection<Long> getScopeClientIds() {
+        Object user = getAuthenticatedEntity();
+        if (user instanceof Manager)
+            return managerService.getRelatedClientIds((Manager) user);
+        List<Long> ids = new ArrayList<>();
+        for (Client c : clientRepository.findAll())
+            ids.add(c.getId());
+        return ids;
+    }
+
+    public List<Client> getUncoveredClients(LocalDateTime at) {
+        List<Long> ids = coverageIndex.uncovered(getScopeClientIds(), WorkerScheduleIndex.minuteOfWeek(at));
+        List<Client> clients = new ArrayList<>(clientRepository.findAllById(ids));
+        clients.removeIf(c -> c.getDeletedAt() != null);
+        return clients;
+    }
+
+    public List<CoverageGap> getCoverageGaps() {
+        List<CoverageGap> result = new ArrayList<>();
+        for (Long clientId : getScopeClientIds())
+            result.addAll(coverageIndex.gaps(clientId));
+        return result;
+    }
+
+    /**
+     * Checked against the table while holding the worker's and the client's row locks, workers first like in
+     * {@link TimeIntervalService}, so that two replicas can not both pass the check with clashing intervals
+     */
     public boolean hasClashesWithOtherIntervals(MonitoringTimeInterval m) {
-        List<MonitoringTimeInterval> clientIntervals = repository.findByClientId(m.getClient().getId());
-        List<MonitoringTimeInterval> workerIntervals = repository.findByWorkerId(m.getWorker().getId());
-        return hasClashes(m, clientIntervals) || hasClashes(m, workerIntervals);
+        workerRepository.lockAllById(List.of(m.getWorker().getId()));
+        clientRepository.lockAllById(List.of(m.getClient().getId()));
+        return repository.existsClash(m.getClient().getId(), m.getWorker().getId(), m.getWeekday(),
+                m.getBegin(), m.getEnding(), m.getId());
     }
 
     public void validate(MonitoringTimeInterval m) {
@@ -93,19 +138,6 @@ public class MonitoringService {
             throw new IllegalArgumentException("Time interval can be related only to surveillance officer");
     }
 
-    public boolean hasClashes(MonitoringTimeInterval m, List<MonitoringTimeInterval> intervals) {
-        for (MonitoringTimeInterval interval : intervals) {
-            if (Objects.equals(interval.getId(), m.getId()))
-                continue;
-            if (interval.getWeekday() == m.getWeekday() && !(
-                    interval.getBegin().after(m.getEnding()) ||
-                    interval.getEnding().before(m.getBegin()))) {
-                return true;
-            }
-        }
-        return false;
-    }
-
     public Set<Client> getWorkerRelatedClients(Worker w) {
         List<MonitoringTimeInterval> ts = repository.findByWorkerId(w.getId());
         Set<Client> result = new HashSet<>();
@@ -0,0 +1,73 @@
+package com.itmo.spy_system.service;
+
+import com.itmo.spy_system.entity.NotificationStatus;
+import com.itmo.spy_system.repository.NotificationArchiveRepository;
+import com.itmo.spy_system.repository.NotificationRepository;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Moves read notifications older than notifications.archive.after-days from notification into
+ * notification_archive, so that the inbox and the dedupe lookups keep working on a table of bounded size.
+ * Every chunk is copied and deleted in its own transaction; the dedupe checks of {@link NotificationService}
+ * look into the archive as well, so archiving a notification never makes it be sent again.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class NotificationArchiver {
+
+    private static final String JOB = "notifications-archive";
+
+    private final NotificationRepository notificationRepository;
+    private final NotificationArchiveRepository archiveRepository;
+    private final ClusterJobRunner jobRunner;
+    private final ChunkedBatchRunner chunkedBatchRunner;
+
+    // 0 keeps every notification in the table
+    @Value("${notifications.archive.after-days:90}")
+    private int afterDays;
+
+    @Value("${notifications.archive.partitions:4}")
+    private int partitions;
+
+    @Value("${notifications.archive.threads:1}")
+    private int threads;
+
+    @Value("${notifications.archive.interval-ms:86400000}")
+    private long intervalMillis;
+
+    @Value("${notifications.archive.chunk-size:500}")
+    private int chunkSize;
+
+    @PostConstruct
+    public void init() {
+        if (afterDays > 0)
+            jobRunner.register(JOB, partitions, threads, intervalMillis, this::archive);
+    }
+
+    public void archive(int partition, int partitions) {
+        Timestamp before = new Timestamp(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(afterDays));
+        long archived = chunkedBatchRunner.run(JOB + ":" + partition, chunkSize,
+                (afterId, limit) -> notificationRepository.findIdsToArchiveInPartition(NotificationStatus.READ, before,
+                        partition, partitions, afterId == null ? 0L : afterId, PageRequest.of(0, limit)),
+                Long::longValue,
+                this::moveToArchive);
+        if (archived > 0)
+            log.info("Archived {} notifications of partition {} read before {}", archived, partition, before);
+    }
+
+    private void moveToArchive(List<Long> ids) {
+        // both only touch rows that are still read, one marked unread meanwhile stays where it is
+        archiveRepository.copyFromNotifications(ids, NotificationStatus.READ);
+        notificationRepository.deleteArchived(ids, NotificationStatus.READ);
+    }
+}
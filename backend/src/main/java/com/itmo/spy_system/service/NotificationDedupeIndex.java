@@ -0,0 +1,222 @@
+package com.itmo.spy_system.service;
+
+import com.itmo.spy_system.entity.NotificationType;
+import com.itmo.spy_system.repository.NotificationArchiveRepository;
+import com.itmo.spy_system.repository.NotificationRepository;
+import com.itmo.spy_system.repository.NotificationRepository.NotifiedEntity;
+import com.itmo.spy_system.utils.BloomFilter;
+import com.itmo.spy_system.utils.Utils;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+
+/**
+ * Answers "was a notification of this type about this entity ever sent" for the dedupe checks of the schedulers
+ * without a DB round trip in most cases. A Bloom filter over every (type, relatedEntityId) in notification and
+ * notification_archive tells the pairs that were never notified, a bounded LRU set holds pairs known to be
+ * notified; anything else is left to the DB. {@link NotificationService} adds every notification it writes,
+ * a periodic rebuild resizes the filter and picks up notifications written through other replicas. Those reach
+ * the filter only at the rebuild, so a miss is only trusted for keys that no other replica can have written since
+ * the filter was scanned; callers owning a key's partition say since when they own it, and ask for a rebuild when
+ * they take a partition over so that they do not go to the DB until the next periodic one.
+ */
+@Slf4j
+@Service
+@DependsOn("testDataLoader") // it may write notifications at startup
+@RequiredArgsConstructor
+public class NotificationDedupeIndex {
+
+    private final NotificationRepository repository;
+    private final NotificationArchiveRepository archiveRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${notifications.dedupe.expected-entries:1000000}")
+    private long expectedEntries;
+
+    @Value("${notifications.dedupe.false-positive-rate:0.01}")
+    private double falsePositiveRate;
+
+    @Value("${notifications.dedupe.cache-size:100000}")
+    private int cacheSize;
+
+    // guarded by this
+    private BloomFilter filter;
+    // when the scan of the current filter started, every key written through other replicas before is in it
+    private long scannedAt;
+    private List<Long> addedWhileRebuilding;
+    private Map<Long, Boolean> notified;
+
+    private final Object rebuildLock = new Object();
+    private final AtomicBoolean rebuildRequested = new AtomicBoolean();
+
+    private Counter absentCounter;
+    private Counter presentCounter;
+    private Counter unknownCounter;
+
+    @PostConstruct
+    public void init() {
+        notified = new LinkedHashMap<>(1024, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Boolean> eldest) {
+                return size() > cacheSize;
+            }
+        };
+        absentCounter = meterRegistry.counter("notifications.dedupe.lookups", "result", "absent");
+        presentCounter = meterRegistry.counter("notifications.dedupe.lookups", "result", "present");
+        unknownCounter = meterRegistry.counter("notifications.dedupe.lookups", "result", "unknown");
+        Gauge.builder("notifications.dedupe.cache.size", this, NotificationDedupeIndex::cachedCount).register(meterRegistry);
+        rebuild();
+    }
+
+    private synchronized int cachedCount() {
+        return notified.size();
+    }
+
+    private static long key(NotificationType type, Long relatedEntityId) {
+        // entity ids stay far below 2^56
+        return ((long) type.ordinal() << 56) ^ relatedEntityId;
+    }
+
+    /**
+     * TRUE or FALSE when the index knows the answer, null when it has to be looked up. A key missing from the
+     * filter is only known to be absent if the caller has owned it since ownedSince and the filter was scanned
+     * after that, ownedSince is null when other replicas may write the key at any time.
+     */
+    public synchronized Boolean isNotified(NotificationType type, Long relatedEntityId, Long ownedSince) {
+        long key = key(type, relatedEntityId);
+        if (filter != null && !filter.mightContain(key)) {
+            if (ownedSince == null || ownedSince > scannedAt) {
+                unknownCounter.increment();
+                return null;
+            }
+            absentCounter.increment();
+            return false;
+        }
+        if (notified.get(key) != null) {
+            presentCounter.increment();
+            return true;
+        }
+        unknownCounter.increment();
+        return null;
+    }
+
+    /**
+     * A notification about the entity is being written; the filter learns it right away so that no check
+     * can miss it, the exact set only once it is committed
+     */
+    public void add(NotificationType type, Long relatedEntityId) {
+        if (type == null || relatedEntityId == null)
+            return;
+        long key = key(type, relatedEntityId);
+        synchronized (this) {
+            if (filter != null)
+                filter.add(key);
+            if (addedWhileRebuilding != null)
+                addedWhileRebuilding.add(key);
+        }
+        Utils.runAfterCommit(() -> confirm(type, relatedEntityId));
+    }
+
+    /**
+     * The DB says the entity was notified
+     */
+    public synchronized void confirm(NotificationType type, Long relatedEntityId) {
+        notified.put(key(type, relatedEntityId), Boolean.TRUE);
+    }
+
+    /**
+     * A notification about the entity was deleted or changed, others about it may still exist
+     */
+    public void forget(NotificationType type, Long relatedEntityId) {
+        if (type == null || relatedEntityId == null)
+            return;
+        long key = key(type, relatedEntityId);
+        Utils.runAfterCommit(() -> {
+            synchronized (this) {
+                notified.remove(key);
+            }
+        });
+    }
+
+    /**
+     * The caller has just taken keys over from another replica, rebuilds the filter shortly so that it covers
+     * what that replica wrote; requests made meanwhile are served by one rebuild
+     */
+    public void requestRebuild() {
+        rebuildRequested.set(true);
+    }
+
+    @Scheduled(fixedDelayString = "${notifications.dedupe.requested-rebuild-delay-ms:5000}")
+    public void rebuildIfRequested() {
+        if (rebuildRequested.getAndSet(false))
+            rebuild();
+    }
+
+    @Scheduled(fixedDelayString = "${notifications.dedupe.rebuild-ms:3600000}", initialDelayString = "${notifications.dedupe.rebuild-ms:3600000}")
+    public void rebuild() {
+        synchronized (rebuildLock) {
+            long startedAt = System.currentTimeMillis();
+            synchronized (this) {
+                addedWhileRebuilding = new ArrayList<>();
+            }
+            BloomFilter rebuilt;
+            try {
+                rebuilt = scan();
+            } catch (RuntimeException e) {
+                synchronized (this) {
+                    addedWhileRebuilding = null;
+                }
+                log.error("Could not rebuild the notification dedupe index, keeping the previous one", e);
+                return;
+            }
+            synchronized (this) {
+                for (long key : addedWhileRebuilding)
+                    rebuilt.add(key);
+                addedWhileRebuilding = null;
+                filter = rebuilt;
+                scannedAt = startedAt;
+            }
+            log.debug("Notification dedupe index rebuilt with {} entries, {} bytes", rebuilt.entries(), rebuilt.sizeInBytes());
+        }
+    }
+
+    private BloomFilter scan() {
+        // twice the current size leaves room to grow until the next rebuild
+        long rows = repository.count() + archiveRepository.count();
+        BloomFilter scanned = new BloomFilter(Math.max(expectedEntries, 2 * rows), falsePositiveRate);
+        transactionTemplate.executeWithoutResult(status -> {
+            try (Stream<NotifiedEntity> s = repository.streamNotifiedEntities()) {
+                s.forEach(e -> add(scanned, e));
+            }
+            try (Stream<NotifiedEntity> s = archiveRepository.streamNotifiedEntities()) {
+                s.forEach(e -> add(scanned, e));
+            }
+        });
+        return scanned;
+    }
+
+    private static void add(BloomFilter filter, NotifiedEntity e) {
+        if (e.getType() == null)
+            return;
+        filter.add(key(e.getType(), e.getRelatedEntityId()));
+        if (e.getRelatedEntityIds() != null)
+            for (Long id : e.getRelatedEntityIds())
+                filter.add(key(e.getType(), id));
+    }
+}
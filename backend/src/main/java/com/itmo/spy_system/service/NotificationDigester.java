@@ -0,0 +1,167 @@
+package com.itmo.spy_system.service;
+
+import com.itmo.spy_system.entity.Notification;
+import com.itmo.spy_system.entity.NotificationType;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.env.Environment;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+
+/**
+ * Collapses storms of notifications of one type to one recipient, e.g. DEVICE_INACTIVE when a whole network
+ * segment goes quiet. Per type, notifications.digest.TYPE.threshold notifications within a sliding window of
+ * notifications.digest.TYPE.window-ms are written as they are; the ones beyond are folded into a single digest
+ * notification with their count and related entity ids, which stays open while more keep coming within the window
+ * and is still unread. A type without a threshold is never digested. Only decides in memory, the caller writes
+ * the result: new rows, and folds into digests written earlier as one UPDATE of their aggregate columns each.
+ * Bursts are tracked per replica: with notifications of one type to one recipient written through several
+ * replicas, each of them lets up to threshold through and opens a digest of its own, so a recipient can see up to
+ * threshold plus one notifications per replica within the window.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class NotificationDigester {
+
+    private final Environment environment;
+    private final MeterRegistry meterRegistry;
+
+    private record Policy(int threshold, long windowMillis) {
+    }
+
+    private record Key(NotificationType type, Long clientId, Long workerId, Long managerId) {
+        static Key of(Notification n) {
+            return new Key(n.getType(), n.getClientId(), n.getWorkerId(), n.getManagerId());
+        }
+    }
+
+    private static final class Burst {
+        // when the notifications written as they are within the window were written
+        final ArrayDeque<Long> emittedAt = new ArrayDeque<>();
+        // the open digest, its id is set once the batch that opened it is written
+        Notification digest;
+        String text;
+        long lastAt;
+    }
+
+    /**
+     * More notifications for a digest written earlier: count of them, the ids they are about, the digest's text
+     * without the count, and the first of them, which becomes a new digest if this one is read meanwhile
+     */
+    public record Fold(Long digestId, int count, List<Long> relatedEntityIds, String text, Notification first) {
+    }
+
+    /**
+     * emitted are new rows to insert, digests opened in this batch among them
+     */
+    public record Digested(List<Notification> emitted, List<Fold> folds) {
+    }
+
+    private final Map<NotificationType, Policy> policies = new EnumMap<>(NotificationType.class);
+    // guarded by this
+    private final Map<Key, Burst> bursts = new HashMap<>();
+
+    @PostConstruct
+    public void init() {
+        for (NotificationType type : NotificationType.values()) {
+            int threshold = environment.getProperty("notifications.digest." + type + ".threshold", Integer.class, 0);
+            long windowMillis = environment.getProperty("notifications.digest." + type + ".window-ms", Long.class, 60000L);
+            if (threshold > 0 && windowMillis > 0)
+                policies.put(type, new Policy(threshold, windowMillis));
+        }
+        if (!policies.isEmpty())
+            log.info("Notification digests enabled for {}", policies.keySet());
+    }
+
+    public synchronized Digested digest(List<Notification> notifications) {
+        if (policies.isEmpty())
+            return new Digested(notifications, List.of());
+        long now = System.currentTimeMillis();
+        List<Notification> emitted = new ArrayList<>(notifications.size());
+        Map<Long, Fold> folds = new LinkedHashMap<>();
+        Set<Notification> opened = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (Notification n : notifications) {
+            Policy policy = n.getType() == null ? null : policies.get(n.getType());
+            if (policy == null) {
+                emitted.add(n);
+                continue;
+            }
+            Burst burst = bursts.computeIfAbsent(Key.of(n), k -> new Burst());
+            boolean open = burst.digest != null && now - burst.lastAt <= policy.windowMillis();
+            burst.lastAt = now;
+            while (!burst.emittedAt.isEmpty() && now - burst.emittedAt.peekFirst() > policy.windowMillis())
+                burst.emittedAt.pollFirst();
+            if (!open && burst.emittedAt.size() < policy.threshold()) {
+                burst.emittedAt.addLast(now);
+                emitted.add(n);
+                count(n.getType(), "emitted");
+                continue;
+            }
+            count(n.getType(), "collapsed");
+            if (open && opened.contains(burst.digest)) {
+                // opened in this batch, not written yet
+                Notification digest = burst.digest;
+                digest.setAggregateCount(digest.getAggregateCount() + 1);
+                if (n.getRelatedEntityId() != null)
+                    digest.getRelatedEntityIds().add(n.getRelatedEntityId());
+                digest.setText(burst.text + " (+" + (digest.getAggregateCount() - 1) + " похожих)");
+                continue;
+            }
+            // the batch that opened it was not written
+            if (!open || burst.digest.getId() == null) {
+                burst.digest = n;
+                burst.text = n.getText();
+                opened.add(n);
+                n.setAggregateCount(1);
+                n.setRelatedEntityIds(new ArrayList<>());
+                if (n.getRelatedEntityId() != null)
+                    n.getRelatedEntityIds().add(n.getRelatedEntityId());
+                emitted.add(n);
+                continue;
+            }
+            Fold fold = folds.get(burst.digest.getId());
+            List<Long> ids = fold == null ? new ArrayList<>() : fold.relatedEntityIds();
+            if (n.getRelatedEntityId() != null)
+                ids.add(n.getRelatedEntityId());
+            folds.put(burst.digest.getId(), new Fold(burst.digest.getId(), fold == null ? 1 : fold.count() + 1, ids,
+                    burst.text, fold == null ? n : fold.first()));
+        }
+        return new Digested(emitted, new ArrayList<>(folds.values()));
+    }
+
+    /**
+     * The fold's digest was read or deleted before the fold was written, its first notification becomes the open
+     * digest instead; returns it to be inserted
+     */
+    public synchronized Notification reopen(Fold fold) {
+        Notification digest = fold.first();
+        Burst burst = bursts.get(Key.of(digest));
+        if (burst != null && burst.digest.getId() != null && burst.digest.getId().equals(fold.digestId())) {
+            burst.digest = digest;
+            burst.text = digest.getText();
+        }
+        digest.setAggregateCount(fold.count());
+        digest.setRelatedEntityIds(new ArrayList<>(fold.relatedEntityIds()));
+        if (fold.count() > 1)
+            digest.setText(digest.getText() + " (+" + (fold.count() - 1) + " похожих)");
+        return digest;
+    }
+
+    private void count(NotificationType type, String result) {
+        meterRegistry.counter("notifications.digest", "type", type.name(), "result", result).increment();
+    }
+
+    /**
+     * Forgets the bursts that have been quiet for longer than their window
+     */
+    @Scheduled(fixedDelayString = "${notifications.digest.evict-ms:60000}")
+    public synchronized void evict() {
+        long now = System.currentTimeMillis();
+        bursts.entrySet().removeIf(e -> now - e.getValue().lastAt > policies.get(e.getKey().type()).windowMillis());
+    }
+}
@@ -1,23 +1,44 @@
 package com.itmo.spy_system.service;
 
+import com.itmo.spy_system.dto.NotificationPage;
+import com.itmo.spy_system.dto.NotificationRecipient;
+import com.itmo.spy_system.dto.PageCursor;
+import com.itmo.spy_system.entity.LongListConverter;
 import com.itmo.spy_system.entity.Metric;
 import com.itmo.spy_system.entity.Notification;
+import com.itmo.spy_system.entity.NotificationArchive;
+import com.itmo.spy_system.entity.NotificationDigestEntity;
 import com.itmo.spy_system.entity.NotificationStatus;
 import com.itmo.spy_system.entity.NotificationType;
+import com.itmo.spy_system.repository.NotificationArchiveRepository;
+import com.itmo.spy_system.repository.NotificationDigestEntityRepository;
 import com.itmo.spy_system.repository.NotificationRepository;
 import com.itmo.spy_system.utils.NullAwareBeanUtilsBean;
 import lombok.RequiredArgsConstructor;
 import org.aspectj.weaver.ast.Not;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.sql.Timestamp;
-import java.util.List;
-import java.util.Optional;
+import java.util.*;
 
 @Service
 @RequiredArgsConstructor
 public class NotificationService {
     private final NotificationRepository repository;
+    private final NotificationArchiveRepository archiveRepository;
+    private final NotificationDigestEntityRepository digestEntityRepository;
+    private final NotificationStreamService streamService;
+    private final NotificationDedupeIndex dedupeIndex;
+    private final NotificationDigester digester;
+    private final UnreadNotificationCounters unreadCounters;
+
+    // ids per UPDATE of markRead, well below the bind parameter limits
+    private static final int MARK_READ_CHUNK = 1000;
+
+    @Value("${notifications.inbox.max-page-size:100}")
+    private int maxPageSize;
 
     public List<Notification> findAll() {
         return repository.findAll();
@@ -31,6 +52,58 @@ public class NotificationService {
         return repository.findByRelatedEntityIdAndType(relatedEntityId, type);
     }
 
+    /**
+     * Whether a notification of the type about the entity was ever sent, archived ones included
+     */
+    public boolean isNotified(NotificationType type, Long relatedEntityId) {
+        return isNotified(type, relatedEntityId, null);
+    }
+
+    /**
+     * Same as {@link #isNotified(NotificationType, Long)} for a caller that has owned the entity's partition since
+     * ownedSince, so that no other replica wrote notifications about it meanwhile
+     */
+    public boolean isNotified(NotificationType type, Long relatedEntityId, Long ownedSince) {
+        Boolean known = dedupeIndex.isNotified(type, relatedEntityId, ownedSince);
+        if (known != null)
+            return known;
+        boolean notified = repository.existsByRelatedEntityIdAndType(relatedEntityId, type)
+                || archiveRepository.existsByRelatedEntityIdAndType(relatedEntityId, type)
+                || digestEntityRepository.existsByRelatedEntityIdAndType(relatedEntityId, type);
+        if (notified)
+            dedupeIndex.confirm(type, relatedEntityId);
+        return notified;
+    }
+
+    /**
+     * Same as {@link #isNotified} for many entities at once
+     */
+    public Set<Long> findNotifiedEntityIds(NotificationType type, Collection<Long> relatedEntityIds) {
+        Set<Long> notified = new HashSet<>();
+        List<Long> unknown = new ArrayList<>();
+        for (Long id : relatedEntityIds) {
+            Boolean known = dedupeIndex.isNotified(type, id, null);
+            if (known == null)
+                unknown.add(id);
+            else if (known)
+                notified.add(id);
+        }
+        if (unknown.isEmpty())
+            return notified;
+        Set<Long> found = new HashSet<>(repository.findRelatedEntityIdsByTypeAndRelatedEntityIdIn(type, unknown));
+        List<Long> rest = unknown.stream().filter(id -> !found.contains(id)).toList();
+        if (!rest.isEmpty())
+            found.addAll(archiveRepository.findRelatedEntityIdsByTypeAndRelatedEntityIdIn(type, rest));
+        // folded into a digest
+        rest = rest.stream().filter(id -> !found.contains(id)).toList();
+        if (!rest.isEmpty())
+            found.addAll(digestEntityRepository.findRelatedEntityIdsByTypeAndRelatedEntityIdIn(type, rest));
+        for (Long id : found)
+            dedupeIndex.confirm(type, id);
+        notified.addAll(found);
+        return notified;
+    }
+
     public Notification initNotificationWithDefaultValues() {
         Notification n = new Notification();
         n.setCreatedAt(new Timestamp(System.currentTimeMillis()));
@@ -38,11 +111,17 @@ public class NotificationService {
         return n;
     }
 
+    @Transactional
     public Notification create(Notification entity) {
         entity.setCreatedAt(new Timestamp(System.currentTimeMillis()));
-        return repository.save(entity);
+        Notification saved = repository.save(entity);
+        index(saved);
+        unreadCounters.onChange(List.of(), null, NotificationRecipient.of(saved), saved.getStatus());
+        streamService.publish(List.of(saved));
+        return saved;
     }
 
+    @Transactional
     public Notification save(Notification entity) {
         if (entity.getStatus() == null) {
             entity.setStatus(NotificationStatus.UNREAD);
@@ -50,16 +129,171 @@ public class NotificationService {
         if (entity.getCreatedAt() == null) {
             entity.setCreatedAt(new Timestamp(System.currentTimeMillis()));
         }
-        return repository.save(entity);
+        Optional<Notification> fromDb = entity.getId() == null ? Optional.empty() : repository.findById(entity.getId());
+        // read before the save merges entity into the row loaded
+        List<NotificationRecipient> oldRecipients = fromDb.map(NotificationRecipient::of).orElse(List.of());
+        NotificationStatus oldStatus = fromDb.map(Notification::getStatus).orElse(null);
+        fromDb.ifPresent(old -> forgetIfMoved(old.getType(), old.getRelatedEntityId(), entity));
+        Notification saved = repository.save(entity);
+        index(saved);
+        unreadCounters.onChange(oldRecipients, oldStatus, NotificationRecipient.of(saved), saved.getStatus());
+        if (fromDb.isEmpty())
+            streamService.publish(List.of(saved));
+        return saved;
+    }
+
+    /**
+     * Writes new notifications, the types with a digest policy go through {@link NotificationDigester}; returns
+     * the rows inserted, notifications folded into an earlier digest are not among them
+     */
+    @Transactional
+    public List<Notification> saveAll(List<Notification> entities) {
+        for (Notification entity : entities) {
+            if (entity.getStatus() == null)
+                entity.setStatus(NotificationStatus.UNREAD);
+            if (entity.getCreatedAt() == null)
+                entity.setCreatedAt(new Timestamp(System.currentTimeMillis()));
+        }
+        NotificationDigester.Digested digested = digester.digest(entities);
+        List<Notification> inserted = new ArrayList<>(digested.emitted());
+        List<NotificationDigester.Fold> folded = new ArrayList<>();
+        for (NotificationDigester.Fold fold : digested.folds()) {
+            String ids = new LongListConverter().convertToDatabaseColumn(fold.relatedEntityIds());
+            if (repository.foldIntoDigest(fold.digestId(), fold.count(), ids, fold.text()) > 0)
+                folded.add(fold);
+            else
+                // read or deleted meanwhile
+                inserted.add(digester.reopen(fold));
+        }
+        List<Notification> saved = repository.saveAll(inserted);
+        // a fold adds no row, a digest read meanwhile is reopened among the inserted ones
+        for (Notification n : saved) {
+            index(n);
+            unreadCounters.onChange(List.of(), null, NotificationRecipient.of(n), n.getStatus());
+        }
+
+        List<NotificationDigestEntity> digestEntities = new ArrayList<>();
+        for (Notification n : saved)
+            if (n.getAggregateCount() != null)
+                for (Long id : n.getRelatedEntityIds())
+                    digestEntities.add(new NotificationDigestEntity(null, n.getId(), n.getType(), id));
+        for (NotificationDigester.Fold fold : folded)
+            for (Long id : fold.relatedEntityIds()) {
+                digestEntities.add(new NotificationDigestEntity(null, fold.digestId(), fold.first().getType(), id));
+                dedupeIndex.add(fold.first().getType(), id);
+            }
+        digestEntityRepository.saveAll(digestEntities);
+
+        List<Notification> published = new ArrayList<>(saved);
+        // digests that took in more, as they are now
+        if (!folded.isEmpty())
+            published.addAll(repository.findAllById(folded.stream().map(NotificationDigester.Fold::digestId).toList()));
+        streamService.publish(published);
+        return saved;
     }
 
+    @Transactional
     public Notification patch(Notification toBePatched) {
         Notification fromDb = repository.findById(toBePatched.getId()).get();
+        List<NotificationRecipient> oldRecipients = NotificationRecipient.of(fromDb);
+        NotificationStatus oldStatus = fromDb.getStatus();
+        NotificationType oldType = fromDb.getType();
+        Long oldRelatedEntityId = fromDb.getRelatedEntityId();
         NullAwareBeanUtilsBean.copyNonNullProperties(toBePatched, fromDb);
-        return repository.save(fromDb);
+        forgetIfMoved(oldType, oldRelatedEntityId, fromDb);
+        Notification saved = repository.save(fromDb);
+        index(saved);
+        unreadCounters.onChange(oldRecipients, oldStatus, NotificationRecipient.of(saved), saved.getStatus());
+        return saved;
     }
 
+    @Transactional
     public void deleteById(Long id) {
+        Optional<Notification> fromDb = repository.findById(id);
         repository.deleteById(id);
+        digestEntityRepository.deleteByNotificationId(id);
+        fromDb.ifPresent(n -> {
+            unreadCounters.onChange(NotificationRecipient.of(n), n.getStatus(), List.of(), null);
+            dedupeIndex.forget(n.getType(), n.getRelatedEntityId());
+            if (n.getRelatedEntityIds() != null)
+                for (Long relatedEntityId : n.getRelatedEntityIds())
+                    dedupeIndex.forget(n.getType(), relatedEntityId);
+        });
+    }
+
+    private void index(Notification n) {
+        dedupeIndex.add(n.getType(), n.getRelatedEntityId());
+        if (n.getRelatedEntityIds() != null)
+            for (Long id : n.getRelatedEntityIds())
+                dedupeIndex.add(n.getType(), id);
+    }
+
+    /**
+     * The notification no longer is about (type, relatedEntityId); other notifications may still be,
+     * so the pair is left for the DB to confirm
+     */
+    private void forgetIfMoved(NotificationType type, Long relatedEntityId, Notification now) {
+        if (!Objects.equals(type, now.getType()) || !Objects.equals(relatedEntityId, now.getRelatedEntityId()))
+            dedupeIndex.forget(type, relatedEntityId);
+    }
+
+    /**
+     * One page of the recipient's notifications, newest first; limit is capped by notifications.inbox.max-page-size
+     */
+    public NotificationPage findInboxPage(NotificationRecipient recipient, NotificationStatus status, String cursor, Integer limit) {
+        if (limit != null && limit <= 0)
+            throw new IllegalArgumentException("limit must be positive");
+        int size = limit == null ? maxPageSize : Math.min(limit, maxPageSize);
+        PageCursor after = cursor == null ? null : PageCursor.decode(cursor);
+        List<Notification> rows = repository.findInboxPage(recipient, status, after, size + 1);
+        if (rows.size() <= size)
+            return new NotificationPage(rows, null);
+        List<Notification> items = rows.subList(0, size);
+        Notification last = items.get(size - 1);
+        return new NotificationPage(items, new PageCursor(last.getCreatedAt(), last.getId()).encode());
+    }
+
+    /**
+     * Same as {@link #findInboxPage} over the archived notifications, which are all read
+     */
+    public NotificationPage findArchivePage(NotificationRecipient recipient, String cursor, Integer limit) {
+        if (limit != null && limit <= 0)
+            throw new IllegalArgumentException("limit must be positive");
+        int size = limit == null ? maxPageSize : Math.min(limit, maxPageSize);
+        PageCursor after = cursor == null ? null : PageCursor.decode(cursor);
+        List<NotificationArchive> rows = archiveRepository.findPage(recipient, after, size + 1);
+        List<Notification> items = new ArrayList<>(Math.min(rows.size(), size));
+        for (NotificationArchive a : rows.subList(0, Math.min(rows.size(), size)))
+            items.add(new Notification(a.getId(), a.getText(), a.getType(), a.getRelatedEntityId(), NotificationStatus.READ,
+                    a.getClientId(), a.getWorkerId(), a.getManagerId(), a.getCreatedAt(), a.getAggregateCount(), a.getRelatedEntityIds()));
+        if (rows.size() <= size)
+            return new NotificationPage(items, null);
+        Notification last = items.get(size - 1);
+        return new NotificationPage(items, new PageCursor(last.getCreatedAt(), last.getId()).encode());
+    }
+
+    /**
+     * Read from the recipient's row in unread_notification_count, see {@link UnreadNotificationCounters}
+     */
+    public long countUnread(NotificationRecipient recipient) {
+        return unreadCounters.unread(recipient);
+    }
+
+    /**
+     * Marks the recipient's notifications among ids as read, or all of them when ids is null;
+     * returns how many were unread
+     */
+    @Transactional
+    public int markRead(NotificationRecipient recipient, Collection<Long> ids) {
+        if (ids != null && ids.isEmpty())
+            return 0;
+        // locked, so that the counters of every addressee go down by exactly the rows this transaction marks
+        List<Notification> unread = repository.lockUnread(recipient, ids);
+        List<Long> unreadIds = unread.stream().map(Notification::getId).toList();
+        int read = 0;
+        for (int from = 0; from < unreadIds.size(); from += MARK_READ_CHUNK)
+            read += repository.markRead(recipient, unreadIds.subList(from, Math.min(unreadIds.size(), from + MARK_READ_CHUNK)));
+        unreadCounters.onRead(unread);
+        return read;
     }
 }
@@ -0,0 +1,256 @@
+package com.itmo.spy_system.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.itmo.spy_system.dto.NotificationRecipient;
+import com.itmo.spy_system.dto.TaskUpdate;
+import com.itmo.spy_system.entity.Notification;
+import com.itmo.spy_system.repository.ClientRepository;
+import com.itmo.spy_system.repository.ManagerRepository;
+import com.itmo.spy_system.repository.NotificationRepository;
+import com.itmo.spy_system.repository.WorkerRepository;
+import com.itmo.spy_system.utils.PgChannel;
+import com.itmo.spy_system.utils.SseSubscriptions;
+import com.itmo.spy_system.utils.SseSubscriptions.Event;
+import com.itmo.spy_system.utils.Utils;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.sql.Timestamp;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Live feed of notifications and task updates for /api/notifications/stream, published after commit to the
+ * subscribers of this replica and, on Postgres, announced on the notification_stream channel to the other replicas,
+ * which load the notifications by id and publish them to their own subscribers. Every subscriber only gets what is
+ * addressed to them; a subscriber that reconnects with the id of the last notification it has seen first gets the
+ * ones created since then.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class NotificationStreamService {
+
+    private final NotificationRepository repository;
+    private final ClientRepository clientRepository;
+    private final WorkerRepository workerRepository;
+    private final ManagerRepository managerRepository;
+    private final MeterRegistry meterRegistry;
+    private final JdbcTemplate jdbcTemplate;
+    private final ObjectMapper objectMapper;
+
+    @Value("${notifications.stream.buffer-size:256}")
+    private int bufferSize;
+
+    @Value("${notifications.stream.timeout-ms:1800000}")
+    private long timeoutMs;
+
+    @Value("${notifications.stream.sender-threads:2}")
+    private int senderThreads;
+
+    // below buffer-size, a replay must not overflow the subscriber's buffer
+    @Value("${notifications.stream.replay-limit:100}")
+    private int replayLimit;
+
+    /**
+     * How much earlier than the last seen notification a replay starts, for notifications committed late or
+     * stamped by a replica whose clock is behind
+     */
+    @Value("${notifications.stream.replay-overlap-ms:5000}")
+    private long replayOverlapMs;
+
+    @Value("${notifications.stream.relay.enabled:true}")
+    private boolean relayEnabled;
+
+    @Value("${notifications.stream.relay.reconnect-ms:5000}")
+    private long relayReconnectMs;
+
+    private static final String CHANNEL = "notification_stream";
+    // ids of up to this many notifications per announcement keep it below the 8000 byte payload limit
+    private static final int IDS_PER_MESSAGE = 300;
+
+    /**
+     * What one replica announces to the others, either notification ids or a task update
+     */
+    private record Relayed(String origin, List<Long> notificationIds, TaskUpdate task) {
+    }
+
+    private final String origin = UUID.randomUUID().toString();
+    private SseSubscriptions<Object> subscriptions;
+    private Timer pushDelay;
+    private PgChannel channel;
+
+    @PostConstruct
+    public void init() {
+        subscriptions = new SseSubscriptions<>("notifications", bufferSize, timeoutMs, senderThreads, meterRegistry);
+        // from the notification's creation until it is handed to the subscribers
+        pushDelay = meterRegistry.timer("notifications.push.delay");
+        if (!relayEnabled)
+            return;
+        String product = jdbcTemplate.execute((ConnectionCallback<String>) c -> c.getMetaData().getDatabaseProductName());
+        if (!"PostgreSQL".equals(product)) {
+            log.info("Notification stream relay requires PostgreSQL, running on {}; only local subscribers are reached", product);
+            return;
+        }
+        channel = new PgChannel(jdbcTemplate, CHANNEL, relayReconnectMs, this::receive);
+        channel.start();
+    }
+
+    /**
+     * The authenticated client, worker or manager; null if it is none of them
+     */
+    public NotificationRecipient currentRecipient() {
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        if (authentication == null)
+            return null;
+        String email = authentication.getName();
+        for (GrantedAuthority authority : authentication.getAuthorities()) {
+            if (authority.getAuthority().equals("client"))
+                return clientRepository.findByEmail(email).map(c -> NotificationRecipient.client(c.getId())).orElse(null);
+            if (authority.getAuthority().equals("worker"))
+                return workerRepository.findByEmail(email).map(w -> NotificationRecipient.worker(w.getId())).orElse(null);
+            if (authority.getAuthority().equals("manager"))
+                return managerRepository.findByEmail(email).map(m -> NotificationRecipient.manager(m.getId())).orElse(null);
+        }
+        return null;
+    }
+
+    /**
+     * At most replay-limit notifications are replayed, oldest first; a longer backlog ends with a "truncated" event
+     * telling the subscriber to refetch its inbox
+     */
+    public SseEmitter subscribe(NotificationRecipient recipient, Long lastSeenId) {
+        if (lastSeenId == null)
+            return subscriptions.subscribe(recipient::receives);
+        return subscriptions.subscribe(recipient::receives, () -> replay(recipient, lastSeenId));
+    }
+
+    /**
+     * Ids come from sequences every replica takes blocks of, so they do not follow the order notifications were
+     * written in. The backlog is therefore everything of the recipient created since the last seen notification,
+     * less replay-overlap-ms; some of it may have been seen already, which the subscriber tells by the event ids.
+     * If the last seen notification is gone, e.g. archived, the backlog starts with the oldest one left. It is
+     * sent in (createdAt, id) order up to replay-limit, the buffer must keep room for live events; when it is
+     * longer, the last replayed one is named by a "truncated" event, as the subscriber has to refetch its inbox.
+     */
+    private List<Event<Object>> replay(NotificationRecipient recipient, Long lastSeenId) {
+        Timestamp since = repository.findById(lastSeenId)
+                .map(Notification::getCreatedAt)
+                .map(t -> new Timestamp(t.getTime() - replayOverlapMs))
+                .orElse(new Timestamp(0));
+        List<Notification> backlog = repository.findForRecipientSince(recipient.clientId(), recipient.workerId(),
+                recipient.managerId(), since, lastSeenId, PageRequest.of(0, replayLimit + 1));
+        boolean truncated = backlog.size() > replayLimit;
+        if (truncated)
+            backlog = backlog.subList(0, replayLimit);
+        List<Event<Object>> events = new ArrayList<>(backlog.size() + 1);
+        for (Notification n : backlog)
+            events.add(event(n));
+        if (truncated) {
+            meterRegistry.counter("notifications.replay.truncated").increment();
+            // no id, it must not become the subscriber's Last-Event-ID
+            events.add(new Event<>(null, "truncated", Map.of("lastReplayedId", backlog.get(backlog.size() - 1).getId())));
+        }
+        return events;
+    }
+
+    public void publish(Collection<Notification> notifications) {
+        Utils.runAfterCommit(() -> {
+            deliver(notifications);
+            List<Long> ids = new ArrayList<>(notifications.size());
+            for (Notification n : notifications)
+                ids.add(n.getId());
+            for (int from = 0; from < ids.size(); from += IDS_PER_MESSAGE)
+                relay(new Relayed(origin, ids.subList(from, Math.min(ids.size(), from + IDS_PER_MESSAGE)), null));
+        });
+    }
+
+    public void publish(TaskUpdate update) {
+        Utils.runAfterCommit(() -> {
+            deliver(update);
+            relay(new Relayed(origin, null, update));
+        });
+    }
+
+    private void deliver(Collection<Notification> notifications) {
+        if (subscriptions.size() == 0)
+            return;
+        long now = System.currentTimeMillis();
+        for (Notification n : notifications) {
+            subscriptions.publish(event(n));
+            if (n.getCreatedAt() != null)
+                pushDelay.record(now - n.getCreatedAt().getTime(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void deliver(TaskUpdate update) {
+        if (subscriptions.size() > 0)
+            // no id, Last-Event-ID only tracks notifications
+            subscriptions.publish(new Event<>(null, "task", update));
+    }
+
+    private void relay(Relayed message) {
+        if (channel == null)
+            return;
+        try {
+            channel.send(objectMapper.writeValueAsString(message));
+        } catch (JsonProcessingException | DataAccessException e) {
+            // the other replicas' subscribers get it on their next replay
+            log.warn("Could not relay {} to the other replicas", message, e);
+        }
+    }
+
+    /**
+     * An announcement from the channel, the ones this replica sent itself were delivered already
+     */
+    private void receive(String payload) {
+        Relayed message;
+        try {
+            message = objectMapper.readValue(payload, Relayed.class);
+        } catch (JsonProcessingException e) {
+            log.warn("Ignoring a malformed {} payload: {}", CHANNEL, payload);
+            return;
+        }
+        if (origin.equals(message.origin()) || subscriptions.size() == 0)
+            return;
+        if (message.task() != null)
+            deliver(message.task());
+        if (message.notificationIds() != null && !message.notificationIds().isEmpty()) {
+            Map<Long, Notification> byId = new HashMap<>();
+            for (Notification n : repository.findAllById(message.notificationIds()))
+                byId.put(n.getId(), n);
+            // in the order they were published
+            List<Notification> notifications = new ArrayList<>(byId.size());
+            for (Long id : message.notificationIds())
+                if (byId.containsKey(id))
+                    notifications.add(byId.get(id));
+            deliver(notifications);
+        }
+    }
+
+    private static Event<Object> event(Notification n) {
+        return new Event<>(String.valueOf(n.getId()), "notification", n);
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        if (channel != null)
+            channel.stop();
+        subscriptions.shutdown();
+    }
+}
@@ -5,51 +5,119 @@ import com.itmo.spy_system.repository.DeviceRepository;
 import com.itmo.spy_system.repository.MetricRepository;
 import com.itmo.spy_system.repository.NotificationRepository;
 import com.itmo.spy_system.utils.Utils;
-import lombok.AllArgsConstructor;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
 import org.aspectj.weaver.ast.Not;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.scheduling.annotation.EnableScheduling;
-import org.springframework.scheduling.annotation.Scheduled;
 
 import java.sql.Timestamp;
-import java.util.List;
-import java.util.Optional;
+import java.time.LocalDate;
+import java.util.*;
 
+@Slf4j
 @Configuration
-@EnableScheduling
-@AllArgsConstructor
+@RequiredArgsConstructor
 public class OutDatedContractsCheck {
 
+    public static final String JOB = "contract-expiry";
+
     private final ContractService contractService;
     private final NotificationService notificationService;
     private final ClientService clientService;
+    private final ClusterJobRunner jobRunner;
+    private final ChunkedBatchRunner chunkedBatchRunner;
+    private final ScheduledEventQueue eventQueue;
+
+    @Value("${contracts.expiry.partitions:4}")
+    private int partitions;
+
+    @Value("${contracts.expiry.threads:2}")
+    private int threads;
+
+    // contracts expire on their own events, this is only a reconciliation pass
+    @Value("${contracts.expiry.interval-ms:604800000}")
+    private long intervalMillis;
+
+    @Value("${contracts.expiry.chunk-size:500}")
+    private int chunkSize;
+
+    @PostConstruct
+    public void init() {
+        eventQueue.registerHandler(ScheduledEventType.CONTRACT_EXPIRY, this::onExpiryDue);
+        jobRunner.register(JOB, partitions, threads, intervalMillis, new ClusterJobRunner.PartitionTask() {
+            @Override
+            public void run(int partition, int partitions) {
+                checkOutDatedContracts(partition, partitions);
+            }
+
+            // contracts from before expiry events, or whose event was lost, get one as soon as the partition has an owner
+            @Override
+            public void onClaimed(int partition, int partitions) {
+                scheduleMissingExpiries(partition, partitions);
+            }
+        });
+    }
 
-    @Scheduled(fixedRate = 86_400_000) // run every day
-    public void checkOutDatedContracts() {
-        List<Contract> contracts = contractService.getOutDatedContracts();
+    private void onExpiryDue(Long contractId) {
+        LocalDate today = LocalDate.now();
+        contractService.findById(contractId)
+                .filter(c -> c.getStatus() != ContractStatus.OUTDATED)
+                .filter(c -> c.getEndDate() != null && c.getEndDate().toLocalDate().isBefore(today))
+                .ifPresent(c -> expire(List.of(c)));
+    }
+
+    public void checkOutDatedContracts(int partition, int partitions) {
+        long expired = chunkedBatchRunner.run(JOB + ":" + partition, chunkSize,
+                (afterId, limit) -> contractService.getOutDatedContracts(partition, partitions, afterId, limit),
+                Contract::getId,
+                this::expire);
+        int scheduled = scheduleMissingExpiries(partition, partitions);
+        if (expired > 0 || scheduled > 0)
+            log.info("Contract reconciliation of partition {}: {} expired late, {} events scheduled",
+                    partition, expired, scheduled);
+    }
+
+    public int scheduleMissingExpiries(int partition, int partitions) {
+        List<Contract> unscheduled = contractService.getContractsWithoutExpiryEvent(partition, partitions);
+        for (Contract c : unscheduled)
+            contractService.scheduleExpiry(c);
+        return unscheduled.size();
+    }
+
+    private void expire(List<Contract> contracts) {
+        List<Long> ids = contracts.stream().map(Contract::getId).toList();
+        Set<Long> notified = notificationService.findNotifiedEntityIds(NotificationType.CONTRACT_OUTDATED, ids);
+        List<Notification> notifications = new ArrayList<>();
+        Set<Long> clientIds = new HashSet<>();
         for (Contract c : contracts) {
-            Optional<Notification> existing = notificationService.findByTypeAndRelatedEntityId(NotificationType.CONTRACT_OUTDATED, c.getId());
-            if (existing.isPresent())
+            if (notified.contains(c.getId()))
                 continue;
             Client client = c.getClient();
-            client.setCanCreateNewContract(true);
-            clientService.save(client);
+            clientIds.add(client.getId());
 
             Notification forClient = notificationService.initNotificationWithDefaultValues();
-            forClient.setClientId(c.getClient().getId());
+            forClient.setClientId(client.getId());
             forClient.setType(NotificationType.CONTRACT_OUTDATED);
+            forClient.setRelatedEntityId(c.getId());
             forClient.setText("Срок вашего договора истек, вы можете создать новый");
-            notificationService.save(forClient);
+            notifications.add(forClient);
 
+            if (c.getSigner() == null)
+                continue;
             Notification forManager = notificationService.initNotificationWithDefaultValues();
             forManager.setManagerId(c.getSigner().getId());
             forManager.setType(NotificationType.CONTRACT_OUTDATED);
+            forManager.setRelatedEntityId(c.getId());
             String text = String.format("У клиента %s %c. %c. (#%d) истек срок договора (#%d)",
                     client.getSurname(), client.getName().charAt(0), client.getLastname().charAt(0), client.getId(), c.getId());
             forManager.setText(text);
-            c.setStatus(ContractStatus.OUTDATED);
-            contractService.save(c);
-            notificationService.save(forManager);
+            notifications.add(forManager);
         }
+        if (!clientIds.isEmpty())
+            clientService.allowNewContracts(clientIds);
+        notificationService.saveAll(notifications);
+        contractService.updateStatus(ids, ContractStatus.OUTDATED);
     }
 }
@@ -0,0 +1,297 @@
+package com.itmo.spy_system.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.itmo.spy_system.entity.Notification;
+import com.itmo.spy_system.entity.OutboxMessage;
+import com.itmo.spy_system.entity.OutboxMessageType;
+import com.itmo.spy_system.entity.OutboxStatus;
+import com.itmo.spy_system.repository.OutboxMessageRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Transactional outbox for the side effects of business writes. Notifications and emails are written to
+ * outbox_message in the caller's transaction and carried out later by a dispatcher, so a request does not pay
+ * for them and they are not lost when it commits. Messages are spread over the partitions of the "outbox"
+ * cluster job, every replica drains the partitions it holds; a message is taken by deleting its row in the
+ * transaction that carries it out. Failed messages are retried with exponential backoff and parked after
+ * outbox.max-attempts. With outbox.enabled=false everything is carried out inline as before.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class OutboxService {
+
+    private static final String JOB = "outbox";
+
+    record EmailPayload(String to, String subject, String text) {
+    }
+
+    private final OutboxMessageRepository repository;
+    private final NotificationService notificationService;
+    private final DefaultEmailService emailService;
+    private final ClusterJobRunner jobRunner;
+    private final TransactionTemplate transactionTemplate;
+    private final ObjectMapper objectMapper;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${outbox.enabled:false}")
+    private boolean enabled;
+
+    @Value("${outbox.partitions:4}")
+    private int partitions;
+
+    // the cluster job only hands out the partitions, they are drained by the poller in between lease renewals
+    @Value("${outbox.poll-ms:250}")
+    private long pollMillis;
+
+    @Value("${outbox.batch-size:100}")
+    private int batchSize;
+
+    @Value("${outbox.max-attempts:10}")
+    private int maxAttempts;
+
+    @Value("${outbox.retry.base-ms:1000}")
+    private long retryBaseMillis;
+
+    @Value("${outbox.retry.max-ms:600000}")
+    private long retryMaxMillis;
+
+    @Value("${outbox.lag.refresh-ms:5000}")
+    private long lagRefreshMillis;
+
+    private ScheduledExecutorService dispatcher;
+    // the poller and the cluster job both drain a partition, one at a time, so a failed message is not retried by
+    // the other one before its backoff
+    private final Set<Integer> draining = ConcurrentHashMap.newKeySet();
+    private volatile double lagSeconds;
+    private volatile long parked;
+    private Counter dispatchedCounter;
+    private Counter failedCounter;
+    private Counter parkedCounter;
+
+    @PostConstruct
+    public void init() {
+        if (!enabled)
+            return;
+        // seconds since the oldest pending message was written
+        Gauge.builder("outbox.lag", this, s -> s.lagSeconds).baseUnit("seconds").register(meterRegistry);
+        Gauge.builder("outbox.parked", this, s -> s.parked).register(meterRegistry);
+        dispatchedCounter = meterRegistry.counter("outbox.messages", "result", "dispatched");
+        failedCounter = meterRegistry.counter("outbox.messages", "result", "failed");
+        parkedCounter = meterRegistry.counter("outbox.messages", "result", "parked");
+
+        // a newly claimed partition is drained right away, the same as on every poll
+        jobRunner.register(JOB, partitions, 1, pollMillis, (partition, partitions) -> drain(partition));
+        dispatcher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "outbox-dispatcher");
+            t.setDaemon(true);
+            return t;
+        });
+        dispatcher.scheduleWithFixedDelay(this::poll, pollMillis, pollMillis, TimeUnit.MILLISECONDS);
+        dispatcher.scheduleWithFixedDelay(this::refreshLag, 0, lagRefreshMillis, TimeUnit.MILLISECONDS);
+        log.info("Outbox dispatcher started: {} partitions, polling every {}ms", partitions, pollMillis);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Creates the notification once the current transaction commits
+     */
+    public void enqueueNotification(Notification notification) {
+        enqueueNotifications(List.of(notification));
+    }
+
+    public void enqueueNotifications(List<Notification> notifications) {
+        if (notifications.isEmpty())
+            return;
+        if (!enabled) {
+            notificationService.saveAll(notifications);
+            return;
+        }
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        List<OutboxMessage> messages = new ArrayList<>(notifications.size());
+        for (Notification n : notifications) {
+            // stamped now, so the inbox orders it by the business change and not by its dispatch
+            if (n.getCreatedAt() == null)
+                n.setCreatedAt(now);
+            messages.add(message(OutboxMessageType.NOTIFICATION, n, now));
+        }
+        repository.saveAll(messages);
+    }
+
+    /**
+     * Sends the email once the current transaction commits; do not put secrets into it, the outbox keeps the text
+     * until it is sent
+     */
+    public void enqueueEmail(String to, String subject, String text) {
+        if (!enabled) {
+            emailService.sendSimpleEmail(to, subject, text);
+            return;
+        }
+        repository.save(message(OutboxMessageType.EMAIL, new EmailPayload(to, subject, text),
+                new Timestamp(System.currentTimeMillis())));
+    }
+
+    private OutboxMessage message(OutboxMessageType type, Object payload, Timestamp now) {
+        try {
+            return new OutboxMessage(null, type, objectMapper.writeValueAsString(payload), OutboxStatus.PENDING, 0, now, now, null);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Could not serialize " + type + " outbox message", e);
+        }
+    }
+
+    private void poll() {
+        try {
+            for (int p = 0; p < partitions; p++)
+                if (jobRunner.owns(JOB, p))
+                    drain(p);
+        } catch (RuntimeException e) {
+            log.error("Outbox poll failed", e);
+        }
+    }
+
+    private void drain(int partition) {
+        if (!draining.add(partition))
+            return;
+        try {
+            while (true) {
+                List<OutboxMessage> due = repository.findDueInPartition(OutboxStatus.PENDING,
+                        new Timestamp(System.currentTimeMillis()), partition, partitions, PageRequest.of(0, batchSize));
+                if (due.isEmpty())
+                    return;
+                dispatch(due);
+                if (due.size() < batchSize)
+                    return;
+            }
+        } finally {
+            draining.remove(partition);
+        }
+    }
+
+    private void dispatch(List<OutboxMessage> due) {
+        List<OutboxMessage> notifications = new ArrayList<>();
+        for (OutboxMessage m : due) {
+            if (m.getType() == OutboxMessageType.NOTIFICATION)
+                notifications.add(m);
+            else
+                dispatchOne(m);
+        }
+        if (notifications.isEmpty())
+            return;
+        try {
+            Boolean done = transactionTemplate.execute(status -> {
+                if (repository.take(notifications.stream().map(OutboxMessage::getId).toList()) != notifications.size()) {
+                    // some were taken by another replica meanwhile, carry out the rest one by one
+                    status.setRollbackOnly();
+                    return false;
+                }
+                List<Notification> parsed = new ArrayList<>(notifications.size());
+                for (OutboxMessage m : notifications)
+                    parsed.add(parse(m, Notification.class));
+                notificationService.saveAll(parsed);
+                return true;
+            });
+            if (Boolean.TRUE.equals(done)) {
+                dispatchedCounter.increment(notifications.size());
+                return;
+            }
+        } catch (RuntimeException e) {
+            log.debug("Outbox batch of {} notifications failed, retrying one by one", notifications.size(), e);
+        }
+        for (OutboxMessage m : notifications)
+            dispatchOne(m);
+    }
+
+    private void dispatchOne(OutboxMessage m) {
+        try {
+            Boolean taken = transactionTemplate.execute(status -> {
+                if (repository.take(List.of(m.getId())) == 0)
+                    return false;
+                carryOut(m);
+                return true;
+            });
+            if (Boolean.TRUE.equals(taken))
+                dispatchedCounter.increment();
+        } catch (RuntimeException e) {
+            retryLater(m, e);
+        }
+    }
+
+    private void carryOut(OutboxMessage m) {
+        switch (m.getType()) {
+            case NOTIFICATION -> notificationService.saveAll(List.of(parse(m, Notification.class)));
+            case EMAIL -> {
+                EmailPayload email = parse(m, EmailPayload.class);
+                emailService.sendSimpleEmail(email.to(), email.subject(), email.text());
+            }
+        }
+    }
+
+    private <T> T parse(OutboxMessage m, Class<T> type) {
+        try {
+            return objectMapper.readValue(m.getPayload(), type);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Malformed payload of outbox message #" + m.getId(), e);
+        }
+    }
+
+    private void retryLater(OutboxMessage m, RuntimeException e) {
+        int attempts = m.getAttempts() + 1;
+        boolean park = attempts >= maxAttempts;
+        long backoff = Math.min(retryMaxMillis, retryBaseMillis << Math.min(attempts - 1, 30));
+        Timestamp next = new Timestamp(System.currentTimeMillis() + backoff);
+        String error = e.getClass().getSimpleName() + ": " + e.getMessage();
+        try {
+            transactionTemplate.executeWithoutResult(status -> repository.reschedule(m.getId(), attempts, next, error,
+                    park ? OutboxStatus.PARKED : OutboxStatus.PENDING));
+        } catch (RuntimeException rescheduleFailure) {
+            log.error("Could not reschedule outbox message #{}", m.getId(), rescheduleFailure);
+            return;
+        }
+        failedCounter.increment();
+        if (park) {
+            parkedCounter.increment();
+            log.warn("Parked {} outbox message #{} after {} attempts: {}", m.getType(), m.getId(), attempts, error);
+        } else {
+            log.info("{} outbox message #{} failed, attempt {} of {} in {}ms: {}", m.getType(), m.getId(), attempts, maxAttempts, backoff, error);
+        }
+    }
+
+    private void refreshLag() {
+        try {
+            Timestamp oldest = repository.findOldestCreatedAt(OutboxStatus.PENDING);
+            lagSeconds = oldest == null ? 0 : Math.max(0, System.currentTimeMillis() - oldest.getTime()) / 1000.0;
+            parked = repository.countByStatus(OutboxStatus.PARKED);
+        } catch (RuntimeException e) {
+            log.warn("Could not refresh outbox lag: {}", e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (dispatcher != null)
+            dispatcher.shutdownNow();
+    }
+}
@@ -17,6 +17,7 @@ import org.springframework.scheduling.annotation.EnableScheduling;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.security.core.userdetails.User;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.security.SecureRandom;
 import java.sql.Timestamp;
@@ -27,7 +28,7 @@ import java.util.Optional;
 @RequiredArgsConstructor
 public class PasswordResetService {
 
-    private final DefaultEmailService mailSender;
+    private final OutboxService outboxService;
     private final ClientRepository clientRepository;
     private final ManagerRepository managerRepository;
     private final WorkerRepository workerRepository;
@@ -43,6 +44,7 @@ public class PasswordResetService {
         return base64Encoder.encodeToString(randomBytes);
     }
 
+    @Transactional
     public void processRequest(String email) {
 
         ResetToken record = new ResetToken();
@@ -80,7 +82,7 @@ public class PasswordResetService {
         String resetUrl = appUrl + "/reset-password?token=" + token;
         String body = "Click the link below to reset your password.\n" + resetUrl;
 
-        mailSender.sendSimpleEmail(email, "Password Reset", body);
+        outboxService.enqueueEmail(email, "Password Reset", body);
     }
 
 //    @Configuration
@@ -1,17 +1,19 @@
 package com.itmo.spy_system.service;
 
+import com.itmo.spy_system.dto.TaskUpdate;
 import com.itmo.spy_system.entity.*;
 import com.itmo.spy_system.entity.*;
 import com.itmo.spy_system.repository.ClientRepository;
 import com.itmo.spy_system.repository.PunishmentTaskRepository;
 import com.itmo.spy_system.utils.NullAwareBeanUtilsBean;
+import com.itmo.spy_system.utils.Utils;
 import lombok.AllArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.sql.Timestamp;
-import java.util.List;
-import java.util.Optional;
+import java.util.*;
 
 @Service
 @AllArgsConstructor
@@ -21,11 +23,15 @@ public class PunishmentTaskService {
     private final PunishmentTaskRepository repository;
     private final NotificationService notificationService;
     private final ClientRepository clientRepository;
+    private final WorkerTaskCounters taskCounters;
+    private final NotificationStreamService streamService;
+    private final OutboxService outboxService;
 
     public List<PunishmentTask> findAll() {
         return repository.findAll();
     }
 
+    @Transactional
     public PunishmentTask create(PunishmentTask entity, Client client) {
         entity.setCreatedAt(new Timestamp(System.currentTimeMillis()));
         PunishmentType punishmentType = client.getViolationsCount() > 4 ? PunishmentType.PHYSICAL : PunishmentType.ELECTRICAL;
@@ -37,6 +43,8 @@ public class PunishmentTaskService {
 
         // Notification(Long id, String text, NotificationStatus status, Long clientId, Long workerId, Long managerId)
         PunishmentTask savedEntity = repository.save(entity);
+        Utils.runAfterCommit(() -> taskCounters.onChange(WorkerTaskCounters.Kind.PUNISHMENT, null, null, savedEntity.getExecutionerId(), savedEntity.getStatus()));
+        publishUpdate(savedEntity, null);
         Notification notification = new Notification();
         notification.setWorkerId(savedEntity.getExecutionerId());
 //        notification.setClientId(savedEntity.getClient().getId());
@@ -44,12 +52,54 @@ public class PunishmentTaskService {
         notification.setType(NotificationType.PUNISHMENT_TASK_CREATION);
         notification.setRelatedEntityId(savedEntity.getId());
         notification.setText("Вам было назначено новое задание #" + savedEntity.getId());
-        Notification n = notificationService.create(notification);
+        outboxService.enqueueNotification(notification);
         return savedEntity;
     }
 
+    /**
+     * Same as {@link #create} for many tasks with their executioners already chosen,
+     * tasks, clients and notifications are each written in one batch
+     */
+    @Transactional
+    public List<PunishmentTask> createAll(List<PunishmentTask> tasks) {
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        Map<Long, Client> clients = new LinkedHashMap<>();
+        for (PunishmentTask task : tasks) {
+            Client client = task.getClient();
+            task.setCreatedAt(now);
+            task.setType(client.getViolationsCount() > 4 ? PunishmentType.PHYSICAL : PunishmentType.ELECTRICAL);
+            task.setStatus(TaskStatus.NEW);
+            client.setViolationsCount(client.getViolationsCount() + 1);
+            clients.put(client.getId(), client);
+        }
+        clientRepository.saveAll(clients.values());
+        List<PunishmentTask> saved = repository.saveAll(tasks);
+
+        List<Notification> notifications = new ArrayList<>(saved.size());
+        for (PunishmentTask task : saved) {
+            Utils.runAfterCommit(() -> taskCounters.onChange(WorkerTaskCounters.Kind.PUNISHMENT, null, null, task.getExecutionerId(), task.getStatus()));
+            publishUpdate(task, null);
+            Notification notification = notificationService.initNotificationWithDefaultValues();
+            notification.setWorkerId(task.getExecutionerId());
+            notification.setType(NotificationType.PUNISHMENT_TASK_CREATION);
+            notification.setRelatedEntityId(task.getId());
+            notification.setText("Вам было назначено новое задание #" + task.getId());
+            notifications.add(notification);
+        }
+        outboxService.enqueueNotifications(notifications);
+        return saved;
+    }
+
     public PunishmentTask save(PunishmentTask entity) {
-        return repository.save(entity);
+        Optional<PunishmentTask> fromDb = entity.getId() == null ? Optional.empty() : repository.findById(entity.getId());
+        // read before saving, within a transaction fromDb is the instance that gets saved
+        Long oldExecutionerId = fromDb.map(PunishmentTask::getExecutionerId).orElse(null);
+        TaskStatus oldStatus = fromDb.map(PunishmentTask::getStatus).orElse(null);
+        PunishmentTask saved = repository.save(entity);
+        Utils.runAfterCommit(() -> taskCounters.onChange(WorkerTaskCounters.Kind.PUNISHMENT,
+                oldExecutionerId, oldStatus, saved.getExecutionerId(), saved.getStatus()));
+        publishUpdate(saved, oldExecutionerId);
+        return saved;
     }
 
     public Optional<PunishmentTask> findById(Long id) {
@@ -71,11 +121,24 @@ public class PunishmentTaskService {
             notification.setText("Задание наказания #" + fromDb.getId() + " было отменено");
             Notification n = notificationService.create(notification);
         }
+        Long oldExecutionerId = fromDb.getExecutionerId();
+        TaskStatus oldStatus = fromDb.getStatus();
         NullAwareBeanUtilsBean.copyNonNullProperties(toBePatched, fromDb);
-        return repository.save(fromDb);
+        PunishmentTask saved = repository.save(fromDb);
+        Utils.runAfterCommit(() -> taskCounters.onChange(WorkerTaskCounters.Kind.PUNISHMENT, oldExecutionerId, oldStatus, saved.getExecutionerId(), saved.getStatus()));
+        publishUpdate(saved, oldExecutionerId);
+        return saved;
+    }
+
+    private void publishUpdate(PunishmentTask task, Long previousExecutionerId) {
+        streamService.publish(new TaskUpdate(WorkerTaskCounters.Kind.PUNISHMENT.name(), task.getId(), task.getStatus(),
+                task.getExecutionerId(), Objects.equals(previousExecutionerId, task.getExecutionerId()) ? null : previousExecutionerId,
+                task.getCreatorId()));
     }
 
     public void deleteById(Long id) {
+        Optional<PunishmentTask> fromDb = repository.findById(id);
         repository.deleteById(id);
+        fromDb.ifPresent(t -> Utils.runAfterCommit(() -> taskCounters.onChange(WorkerTaskCounters.Kind.PUNISHMENT, t.getExecutionerId(), t.getStatus(), null, null)));
     }
 }
@@ -0,0 +1,246 @@
+package com.itmo.spy_system.service;
+
+import com.itmo.spy_system.entity.ScheduledEvent;
+import com.itmo.spy_system.entity.ScheduledEventType;
+import com.itmo.spy_system.repository.ScheduledEventRepository;
+import com.itmo.spy_system.utils.Utils;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Persistent delay queue. Events live in scheduled_event, the ones due within events.horizon-ms are also kept
+ * in an in-memory priority queue and a dispatcher thread sleeps until the earliest of them is due. An event is
+ * taken by deleting its row in the handler's transaction, so with several replicas it is still handled once.
+ * An event whose handler fails is retried with exponential backoff and parked after events.max-attempts.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class ScheduledEventQueue {
+
+    private final ScheduledEventRepository repository;
+    private final TransactionTemplate transactionTemplate;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${events.horizon-ms:3600000}")
+    private long horizonMillis;
+
+    @Value("${events.refill-ms:60000}")
+    private long refillMillis;
+
+    @Value("${events.load-limit:10000}")
+    private int loadLimit;
+
+    @Value("${events.max-attempts:10}")
+    private int maxAttempts;
+
+    @Value("${events.retry.base-ms:1000}")
+    private long retryBaseMillis;
+
+    @Value("${events.retry.max-ms:600000}")
+    private long retryMaxMillis;
+
+    // dueAt is the next attempt's
+    private record Entry(Long id, ScheduledEventType type, Long entityId, long dueAt, int attempts) {
+    }
+
+    private final PriorityQueue<Entry> queue = new PriorityQueue<>(
+            Comparator.comparingLong(Entry::dueAt).thenComparing(Entry::id));
+    // latest entry per event id, older entries left in the priority queue are skipped
+    private final Map<Long, Entry> queued = new ConcurrentHashMap<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private final Map<ScheduledEventType, Consumer<Long>> handlers = new ConcurrentHashMap<>();
+    // every event due before this is in memory
+    private long loadedUntil;
+    private volatile boolean running = true;
+    private Thread dispatcher;
+
+    @PostConstruct
+    public void init() {
+        transactionTemplate.executeWithoutResult(status -> repository.initAttempts());
+        Gauge.builder("events.queued", queued, Map::size).register(meterRegistry);
+        dispatcher = new Thread(this::dispatch, "scheduled-events");
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+    }
+
+    public void registerHandler(ScheduledEventType type, Consumer<Long> handler) {
+        handlers.put(type, handler);
+    }
+
+    /**
+     * Schedules the entity's event or moves it to a new due time
+     */
+    public void schedule(ScheduledEventType type, Long entityId, Timestamp dueAt) {
+        ScheduledEvent event = repository.findByTypeAndEntityId(type, entityId)
+                .orElseGet(() -> new ScheduledEvent(null, type, entityId, null, null, null, null));
+        // a parked event is revived by a new due time
+        event.setDueAt(dueAt);
+        event.setNextAttemptAt(dueAt);
+        event.setAttempts(0);
+        event.setLastError(null);
+        ScheduledEvent saved = repository.save(event);
+        Utils.runAfterCommit(() -> offer(new Entry(saved.getId(), type, entityId, dueAt.getTime(), 0)));
+    }
+
+    public void cancel(ScheduledEventType type, Long entityId) {
+        repository.findByTypeAndEntityId(type, entityId).ifPresent(event -> {
+            repository.delete(event);
+            Utils.runAfterCommit(() -> queued.remove(event.getId()));
+        });
+    }
+
+    private void offer(Entry entry) {
+        lock.lock();
+        try {
+            if (entry.dueAt() >= loadedUntil) {
+                // picked up by a later refill
+                queued.remove(entry.id());
+                return;
+            }
+            queued.put(entry.id(), entry);
+            queue.add(entry);
+            changed.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Loads the events due within the horizon, including the ones scheduled by other replicas
+     */
+    @Scheduled(fixedDelayString = "${events.refill-ms:60000}")
+    public void refill() {
+        long horizon = System.currentTimeMillis() + horizonMillis;
+        List<ScheduledEvent> events = repository.findByNextAttemptAtBeforeOrderByNextAttemptAt(new Timestamp(horizon), PageRequest.of(0, loadLimit));
+        lock.lock();
+        try {
+            loadedUntil = events.size() < loadLimit ? horizon : events.get(events.size() - 1).getNextAttemptAt().getTime();
+            for (ScheduledEvent e : events) {
+                Entry known = queued.get(e.getId());
+                if (known != null && known.dueAt() == e.getNextAttemptAt().getTime())
+                    continue;
+                Entry entry = new Entry(e.getId(), e.getType(), e.getEntityId(), e.getNextAttemptAt().getTime(),
+                        e.getAttempts() == null ? 0 : e.getAttempts());
+                queued.put(entry.id(), entry);
+                queue.add(entry);
+            }
+            changed.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void dispatch() {
+        while (running) {
+            try {
+                Entry due = awaitNext();
+                if (due != null)
+                    fire(due);
+            } catch (InterruptedException e) {
+                return;
+            } catch (RuntimeException e) {
+                log.error("Scheduled event dispatch failed", e);
+            }
+        }
+    }
+
+    private Entry awaitNext() throws InterruptedException {
+        lock.lock();
+        try {
+            while (running) {
+                Entry head = queue.peek();
+                if (head != null && queued.get(head.id()) != head) {
+                    queue.poll();
+                    continue;
+                }
+                long wait = head == null ? refillMillis : head.dueAt() - System.currentTimeMillis();
+                if (wait <= 0) {
+                    queue.poll();
+                    queued.remove(head.id());
+                    return head;
+                }
+                changed.await(wait, TimeUnit.MILLISECONDS);
+            }
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void fire(Entry entry) {
+        Consumer<Long> handler = handlers.get(entry.type());
+        if (handler == null) {
+            log.warn("No handler for scheduled {} of #{}", entry.type(), entry.entityId());
+            return;
+        }
+        try {
+            Boolean handled = transactionTemplate.execute(status -> {
+                if (repository.take(entry.id(), new Timestamp(entry.dueAt())) == 0)
+                    return false;
+                handler.accept(entry.entityId());
+                return true;
+            });
+            if (Boolean.TRUE.equals(handled))
+                meterRegistry.timer("events.fire.delay", "type", entry.type().name())
+                        .record(System.currentTimeMillis() - entry.dueAt(), TimeUnit.MILLISECONDS);
+        } catch (RuntimeException e) {
+            retryLater(entry, e);
+        }
+    }
+
+    private void retryLater(Entry entry, RuntimeException e) {
+        int attempts = entry.attempts() + 1;
+        boolean park = attempts >= maxAttempts;
+        long backoff = Math.min(retryMaxMillis, retryBaseMillis << Math.min(attempts - 1, 30));
+        Timestamp next = park ? null : new Timestamp(System.currentTimeMillis() + backoff);
+        String error = e.getClass().getSimpleName() + ": " + e.getMessage();
+        Integer updated;
+        try {
+            updated = transactionTemplate.execute(status ->
+                    repository.retryLater(entry.id(), new Timestamp(entry.dueAt()), attempts, next, error));
+        } catch (RuntimeException rescheduleFailure) {
+            // the row is unchanged, a later refill brings the event back
+            log.error("Could not reschedule {} of #{}", entry.type(), entry.entityId(), rescheduleFailure);
+            return;
+        }
+        if (updated == null || updated == 0) {
+            // taken or rescheduled meanwhile
+            log.info("Scheduled {} of #{} failed: {}", entry.type(), entry.entityId(), error);
+            return;
+        }
+        meterRegistry.counter("events.failed", "type", entry.type().name(), "result", park ? "parked" : "retried").increment();
+        if (park) {
+            log.error("Parked scheduled {} of #{} after {} attempts", entry.type(), entry.entityId(), attempts, e);
+        } else {
+            log.warn("Scheduled {} of #{} failed, attempt {} of {} in {}ms: {}", entry.type(), entry.entityId(),
+                    attempts, maxAttempts, backoff, error);
+            offer(new Entry(entry.id(), entry.type(), entry.entityId(), next.getTime(), attempts));
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        if (dispatcher != null)
+            dispatcher.interrupt();
+    }
+}
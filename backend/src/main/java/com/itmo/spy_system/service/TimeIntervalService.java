@@ -2,19 +2,30 @@ package com.itmo.spy_system.service;
 
 import com.itmo.spy_system.entity.Client;
 import com.itmo.spy_system.entity.TimeInterval;
+import com.itmo.spy_system.entity.Weekday;
 import com.itmo.spy_system.entity.Worker;
+import com.itmo.spy_system.repository.ManagerRepository;
 import com.itmo.spy_system.repository.TimeIntervalRepository;
+import com.itmo.spy_system.repository.WorkerRepository;
+import com.itmo.spy_system.utils.DayIntervals;
+import com.itmo.spy_system.utils.DayIntervals.Slot;
 import com.itmo.spy_system.utils.NullAwareBeanUtilsBean;
+import com.itmo.spy_system.utils.Utils;
 import lombok.RequiredArgsConstructor;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
-import java.util.List;
-import java.util.Optional;
+import java.util.*;
+
+import static com.itmo.spy_system.utils.DayIntervals.secondOfDay;
 
 @Service
 @RequiredArgsConstructor
 public class TimeIntervalService {
     private final TimeIntervalRepository repository;
+    private final WorkerScheduleIndex scheduleIndex;
+    private final WorkerRepository workerRepository;
+    private final ManagerRepository managerRepository;
 
     public List<TimeInterval> findAll() {
         return repository.findAll();
@@ -24,20 +35,86 @@ public class TimeIntervalService {
         return repository.findById(id);
     }
 
+    @Transactional
     public TimeInterval save(TimeInterval entity) {
         validateTimeInterval(entity);
-        return repository.save(entity);
+        TimeInterval saved = repository.save(entity);
+        Utils.runAfterCommit(() -> scheduleIndex.put(saved));
+        return saved;
     }
 
+    @Transactional
     public TimeInterval patch(TimeInterval toBePatched) {
         TimeInterval fromDb = repository.findById(toBePatched.getId()).get();
         NullAwareBeanUtilsBean.copyNonNullProperties(toBePatched, fromDb);
         validateTimeInterval(fromDb);
-        return repository.save(fromDb);
+        TimeInterval saved = repository.save(fromDb);
+        Utils.runAfterCommit(() -> scheduleIndex.put(saved));
+        return saved;
     }
 
     public void deleteById(Long id) {
         repository.deleteById(id);
+        scheduleIndex.remove(id);
+    }
+
+    private record Owner(Long workerId, Long managerId, Weekday weekday) {
+    }
+
+    /**
+     * Replaces the whole weekly schedule of every worker and manager present in the roster with the roster's
+     * intervals. The roster is checked per owner and day after sorting, then saved in a single transaction that
+     * holds the owners' locks, so that no single shift written meanwhile through another replica slips in between.
+     */
+    @Transactional
+    public List<TimeInterval> importRoster(List<TimeInterval> roster) {
+        Map<Owner, List<Slot>> days = new HashMap<>();
+        for (int i = 0; i < roster.size(); i++) {
+            TimeInterval t = roster.get(i);
+            if (t.getBegin() == null || t.getEnding() == null || t.getWeekday() == null)
+                throw new IllegalArgumentException("Begin, ending and weekday must be set.");
+            if (t.getBegin().after(t.getEnding()))
+                throw new IllegalArgumentException("Begin time must be before end time.");
+            if (t.getWorkerId() == null && t.getManagerId() == null)
+                throw new IllegalArgumentException("Either workerId or managerId must be set.");
+            // worker shifts are owned by the worker alone, like in validateTimeInterval
+            Owner owner = new Owner(t.getWorkerId(), t.getWorkerId() == null ? t.getManagerId() : null, t.getWeekday());
+            days.computeIfAbsent(owner, k -> new ArrayList<>())
+                    .add(new Slot(i, secondOfDay(t.getBegin()), secondOfDay(t.getEnding())));
+        }
+        for (Map.Entry<Owner, List<Slot>> day : days.entrySet()) {
+            int clash = DayIntervals.firstClash(day.getValue());
+            if (clash >= 0)
+                throw new IllegalArgumentException("Roster interval #" + day.getValue().get(clash).id()
+                        + " overlaps with another one of the same owner on " + day.getKey().weekday() + ".");
+        }
+
+        Set<Long> workerIds = new HashSet<>();
+        Set<Long> managerIds = new HashSet<>();
+        for (Owner owner : days.keySet()) {
+            if (owner.workerId() != null)
+                workerIds.add(owner.workerId());
+            else
+                managerIds.add(owner.managerId());
+        }
+        lockOwners(workerIds, managerIds);
+        List<TimeInterval> replaced = new ArrayList<>();
+        if (!workerIds.isEmpty())
+            replaced.addAll(repository.findByWorkerIdIn(workerIds));
+        if (!managerIds.isEmpty())
+            replaced.addAll(repository.findByManagerIdInAndWorkerIdIsNull(managerIds));
+        repository.deleteAllInBatch(replaced);
+
+        for (TimeInterval t : roster)
+            t.setId(null);
+        List<TimeInterval> saved = repository.saveAll(roster);
+        Utils.runAfterCommit(() -> {
+            for (TimeInterval t : replaced)
+                scheduleIndex.remove(t.getId());
+            for (TimeInterval t : saved)
+                scheduleIndex.put(t);
+        });
+        return saved;
     }
 
     private void validateTimeInterval(TimeInterval interval) {
@@ -51,25 +128,23 @@ public class TimeIntervalService {
             throw new IllegalArgumentException("Either workerId or managerId must be set.");
         }
 
-        List<TimeInterval> sameDayIntervals = (interval.getWorkerId() != null)
-                ? repository.findByWorkerIdAndWeekday(interval.getWorkerId(), interval.getWeekday())
-                : repository.findByManagerIdAndWeekday(interval.getManagerId(), interval.getWeekday());
-
-        for (TimeInterval existing : sameDayIntervals) {
-            if (interval.getId() != null && interval.getId().equals(existing.getId())) continue;
-
-//            boolean overlap =
-//                    !(interval.getEnding().compareTo(existing.getBegin()) < 0 ||
-//                            interval.getBegin().compareTo(existing.getEnding()) >= 0);
-
-            boolean overlap = !(                                        // negate
-                    interval.getEnding().before(existing.getBegin()) || // ends before existing begins
-                            interval.getBegin().after(existing.getEnding())     // starts after existing begins
-            );
-
-            if (overlap) {
-                throw new IllegalArgumentException("TimeInterval overlaps with existing one on the same weekday.");
-            }
+        // the owner's row lock serializes concurrent writes to the schedule, so the check below stays true until commit
+        lockOwners(interval.getWorkerId() != null ? Set.of(interval.getWorkerId()) : Set.of(),
+                interval.getWorkerId() == null ? Set.of(interval.getManagerId()) : Set.of());
+        if (repository.existsClash(interval.getWorkerId(), interval.getManagerId(), interval.getWeekday(),
+                interval.getBegin(), interval.getEnding(), interval.getId())) {
+            throw new IllegalArgumentException("TimeInterval overlaps with existing one on the same weekday.");
         }
     }
+
+    /**
+     * Workers before managers, each in id order, the same order as {@link MonitoringService} takes, so that
+     * concurrent writers never wait for each other in a cycle
+     */
+    private void lockOwners(Collection<Long> workerIds, Collection<Long> managerIds) {
+        if (!workerIds.isEmpty())
+            workerRepository.lockAllById(workerIds);
+        if (!managerIds.isEmpty())
+            managerRepository.lockAllById(managerIds);
+    }
 }
@@ -0,0 +1,160 @@
+package com.itmo.spy_system.service;
+
+import com.itmo.spy_system.dto.NotificationRecipient;
+import com.itmo.spy_system.entity.Notification;
+import com.itmo.spy_system.entity.NotificationStatus;
+import com.itmo.spy_system.entity.UnreadNotificationCount;
+import com.itmo.spy_system.repository.NotificationRepository;
+import com.itmo.spy_system.repository.UnreadNotificationCountRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.*;
+import java.util.function.LongSupplier;
+
+/**
+ * Number of unread notifications per recipient, kept in unread_notification_count so that the unread badge is a
+ * single row on every replica. {@link NotificationService} applies every change in the transaction that makes it,
+ * rows of several recipients in the order of their keys so that two transactions never wait on each other. A
+ * recipient's row is created on its first change with the count of its committed unread notifications. A job run
+ * once per cluster corrects whatever drift direct writes to the notification table caused.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class UnreadNotificationCounters {
+
+    private static final String JOB = "notifications-unread-counters";
+
+    private final UnreadNotificationCountRepository repository;
+    private final NotificationRepository notificationRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final ClusterJobRunner jobRunner;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${notifications.unread-counters.reconcile-ms:300000}")
+    private long reconcileMillis;
+
+    private TransactionTemplate newTransaction;
+    private Counter driftCounter;
+
+    @PostConstruct
+    public void init() {
+        newTransaction = new TransactionTemplate(transactionTemplate.getTransactionManager());
+        newTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        driftCounter = meterRegistry.counter("notifications.unread_counters.drift");
+        jobRunner.register(JOB, 1, 1, reconcileMillis, (partition, partitions) -> reconcile());
+    }
+
+    static String key(NotificationRecipient recipient) {
+        return recipient.property() + ":" + recipient.id();
+    }
+
+    public long unread(NotificationRecipient recipient) {
+        return repository.findById(key(recipient))
+                .map(UnreadNotificationCount::getUnread)
+                // nothing changed for the recipient since the table was created
+                .orElseGet(() -> notificationRepository.countUnread(recipient));
+    }
+
+    /**
+     * A notification moved from (oldRecipients, oldStatus) to (newRecipients, newStatus); empty recipients and
+     * null statuses stand for a notification that did not exist before or does not exist anymore. Must be called
+     * in the transaction writing the notification.
+     */
+    public void onChange(List<NotificationRecipient> oldRecipients, NotificationStatus oldStatus,
+                         List<NotificationRecipient> newRecipients, NotificationStatus newStatus) {
+        Map<NotificationRecipient, Long> deltas = new HashMap<>();
+        if (oldStatus == NotificationStatus.UNREAD)
+            for (NotificationRecipient r : oldRecipients)
+                deltas.merge(r, -1L, Long::sum);
+        if (newStatus == NotificationStatus.UNREAD)
+            for (NotificationRecipient r : newRecipients)
+                deltas.merge(r, 1L, Long::sum);
+        apply(deltas);
+    }
+
+    /**
+     * The notifications, all unread before, were marked as read in the current transaction
+     */
+    public void onRead(Collection<Notification> read) {
+        Map<NotificationRecipient, Long> deltas = new HashMap<>();
+        for (Notification n : read)
+            for (NotificationRecipient r : NotificationRecipient.of(n))
+                deltas.merge(r, -1L, Long::sum);
+        apply(deltas);
+    }
+
+    private void apply(Map<NotificationRecipient, Long> deltas) {
+        SortedMap<String, Map.Entry<NotificationRecipient, Long>> byKey = new TreeMap<>();
+        for (Map.Entry<NotificationRecipient, Long> e : deltas.entrySet())
+            if (e.getValue() != 0)
+                byKey.put(key(e.getKey()), e);
+        for (Map.Entry<String, Map.Entry<NotificationRecipient, Long>> e : byKey.entrySet()) {
+            NotificationRecipient recipient = e.getValue().getKey();
+            long delta = e.getValue().getValue();
+            if (repository.add(e.getKey(), delta) > 0)
+                continue;
+            // counted in a transaction of its own, which does not see the rows the current one is writing
+            create(e.getKey(), () -> notificationRepository.countUnread(recipient));
+            repository.add(e.getKey(), delta);
+        }
+    }
+
+    /**
+     * Creates the row in a transaction of its own unless it exists; false if it did
+     */
+    private boolean create(String key, LongSupplier unread) {
+        try {
+            return Boolean.TRUE.equals(newTransaction.execute(status -> {
+                if (repository.existsById(key))
+                    return false;
+                repository.saveAndFlush(new UnreadNotificationCount(key, unread.getAsLong()));
+                return true;
+            }));
+        } catch (DataIntegrityViolationException e) {
+            // created by another transaction at the same moment
+            return false;
+        }
+    }
+
+    /**
+     * Compares every row with a count over the notification table. The counts are read after the rows, so a row
+     * is only corrected if it is unchanged since, otherwise a transaction changed it meanwhile and it is left to
+     * the next run.
+     */
+    public void reconcile() {
+        Map<String, Long> seen = new HashMap<>();
+        for (UnreadNotificationCount c : repository.findAll())
+            seen.put(c.getRecipient(), c.getUnread());
+        Map<String, Long> actual = new HashMap<>();
+        for (Map.Entry<NotificationRecipient, Long> e : notificationRepository.countByRecipient(NotificationStatus.UNREAD).entrySet())
+            actual.put(key(e.getKey()), e.getValue());
+
+        Set<String> keys = new HashSet<>(seen.keySet());
+        keys.addAll(actual.keySet());
+        int drifted = 0;
+        for (String key : keys) {
+            Long was = seen.get(key);
+            long is = actual.getOrDefault(key, 0L);
+            if (was == null) {
+                if (is > 0 && create(key, () -> is))
+                    drifted++;
+            } else if (was != is && Boolean.TRUE.equals(transactionTemplate.execute(status -> repository.correct(key, was, is) > 0))) {
+                drifted++;
+            }
+        }
+        if (drifted > 0) {
+            driftCounter.increment(drifted);
+            log.info("Corrected unread notification counters of {} recipients", drifted);
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package com.itmo.spy_system.service;
+
+import com.itmo.spy_system.entity.Client;
+import com.itmo.spy_system.entity.PunishmentTask;
+import com.itmo.spy_system.entity.TaskStatus;
+import com.itmo.spy_system.entity.Worker;
+import com.itmo.spy_system.repository.ClientRepository;
+import com.itmo.spy_system.utils.Utils;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Turns threshold violations into punishment tasks. Violations are assigned in passes: every pass hands its
+ * tasks one by one to the officer with the fewest open tasks (counting the ones given out in this pass), so a
+ * storm of violations is spread evenly instead of landing on a single "most free" officer.
+ * Each ingested batch is assigned in the transaction that stores its readings. Setting violations.batch.window-ms
+ * above zero instead collects the violations raised within the window after their readings commit and assigns
+ * them together; they are held in memory only, so a replica stopping within the window loses their tasks.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class ViolationAssigner {
+
+    public record Violation(Long clientId, Long metricId) {
+    }
+
+    private final ClientRepository clientRepository;
+    private final WorkerService workerService;
+    private final WorkerTaskCounters taskCounters;
+    private final PunishmentTaskService punishmentTaskService;
+    private final TransactionTemplate transactionTemplate;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${violations.batch.window-ms:0}")
+    private long windowMillis;
+
+    private final List<Violation> pending = new ArrayList<>();
+    private final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "violation-batch");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private Timer assignTimer;
+    private DistributionSummary batchSize;
+    private DistributionSummary spread;
+
+    @PostConstruct
+    public void init() {
+        assignTimer = meterRegistry.timer("violations.assign.duration");
+        batchSize = meterRegistry.summary("violations.assign.batch_size");
+        // difference between the most and the least loaded candidate after a pass, 0 or 1 is a fair split
+        spread = meterRegistry.summary("violations.assign.spread");
+    }
+
+    public void submit(List<Violation> violations) {
+        if (violations.isEmpty())
+            return;
+        if (windowMillis <= 0) {
+            assign(violations);
+            return;
+        }
+        // readings that roll back raise no tasks
+        Utils.runAfterCommit(() -> enqueue(violations));
+    }
+
+    private void enqueue(List<Violation> violations) {
+        synchronized (pending) {
+            boolean opensWindow = pending.isEmpty();
+            pending.addAll(violations);
+            if (opensWindow)
+                flusher.schedule(this::flush, windowMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void flush() {
+        List<Violation> batch;
+        synchronized (pending) {
+            batch = new ArrayList<>(pending);
+            pending.clear();
+        }
+        if (batch.isEmpty())
+            return;
+        try {
+            transactionTemplate.executeWithoutResult(status -> assign(batch));
+        } catch (RuntimeException e) {
+            // e.g. a client deleted meanwhile, one violation must not cost the others their tasks
+            log.warn("Could not assign {} violations at once, assigning one by one: {}", batch.size(), e.getMessage());
+            for (Violation v : batch) {
+                try {
+                    transactionTemplate.executeWithoutResult(status -> assign(List.of(v)));
+                } catch (RuntimeException ex) {
+                    meterRegistry.counter("violations.failed").increment();
+                    log.error("Could not assign violation of client #{} (metric #{})", v.clientId(), v.metricId(), ex);
+                }
+            }
+        }
+    }
+
+    public List<PunishmentTask> assign(List<Violation> violations) {
+        long started = System.nanoTime();
+        Map<Long, Client> clients = new HashMap<>();
+        for (Client c : clientRepository.findAllById(violations.stream().map(Violation::clientId).distinct().toList()))
+            clients.put(c.getId(), c);
+
+        List<Worker> officers = workerService.findAssignableCorrectionsOfficers();
+        if (officers.isEmpty())
+            throw new IllegalStateException("No corrections officers to assign violations to");
+        // (open tasks, worker id), ties go to the lowest id like in WorkerTaskCounters
+        PriorityQueue<long[]> byLoad = new PriorityQueue<>(
+                Comparator.<long[]>comparingLong(l -> l[0]).thenComparingLong(l -> l[1]));
+        for (Worker w : officers)
+            byLoad.add(new long[]{taskCounters.openTasks(w.getId()), w.getId()});
+
+        List<PunishmentTask> tasks = new ArrayList<>(violations.size());
+        for (Violation v : violations) {
+            Client client = clients.get(v.clientId());
+            if (client == null)
+                continue;
+            long[] least = byLoad.poll();
+            PunishmentTask task = new PunishmentTask();
+            task.setClient(client);
+            task.setStatus(TaskStatus.NEW);
+            task.setExecutionerId(least[1]);
+            task.setTriggeredMetricId(v.metricId());
+            tasks.add(task);
+            least[0]++;
+            byLoad.add(least);
+        }
+        List<PunishmentTask> saved = punishmentTaskService.createAll(tasks);
+
+        long min = Long.MAX_VALUE, max = 0;
+        for (long[] l : byLoad) {
+            min = Math.min(min, l[0]);
+            max = Math.max(max, l[0]);
+        }
+        spread.record(max - min);
+        batchSize.record(saved.size());
+        assignTimer.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+        meterRegistry.counter("violations.assigned").increment(saved.size());
+        return saved;
+    }
+
+    @PreDestroy
+    public void stop() {
+        flusher.shutdown();
+        flush();
+    }
+}
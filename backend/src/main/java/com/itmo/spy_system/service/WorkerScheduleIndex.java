@@ -0,0 +1,145 @@
+package com.itmo.spy_system.service;
+
+import com.itmo.spy_system.entity.TimeInterval;
+import com.itmo.spy_system.entity.Weekday;
+import com.itmo.spy_system.repository.TimeIntervalRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Weekly working schedule of every worker as a bitmap with one bit per minute of the week, built from
+ * the workers' {@link TimeInterval} rows. Loaded once the application is ready, after whatever writes intervals
+ * at startup; {@link TimeIntervalService} keeps it up to date, a periodic reload picks up changes made through
+ * other replicas.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class WorkerScheduleIndex {
+
+    public static final int MINUTES_PER_DAY = 24 * 60;
+    public static final int MINUTES_PER_WEEK = 7 * MINUTES_PER_DAY;
+
+    private final TimeIntervalRepository timeIntervalRepository;
+
+    // worker id -> interval id -> interval
+    private final Map<Long, Map<Long, TimeInterval>> intervals = new ConcurrentHashMap<>();
+    private final Map<Long, Long> workerByInterval = new ConcurrentHashMap<>();
+    private volatile Map<Long, BitSet> schedules = Map.of();
+
+    @EventListener(ApplicationReadyEvent.class)
+    @Scheduled(fixedDelayString = "${workers.schedule.reload-ms:300000}", initialDelayString = "${workers.schedule.reload-ms:300000}")
+    public synchronized void reload() {
+        intervals.clear();
+        workerByInterval.clear();
+        for (TimeInterval t : timeIntervalRepository.findAll())
+            if (t.getWorkerId() != null)
+                add(t);
+        Map<Long, BitSet> rebuilt = new HashMap<>();
+        for (Long workerId : intervals.keySet())
+            rebuilt.put(workerId, bitmap(intervals.get(workerId).values()));
+        schedules = rebuilt;
+        log.debug("Worker schedule index loaded for {} workers", rebuilt.size());
+    }
+
+    public static int minuteOfWeek(LocalDateTime at) {
+        return at.getDayOfWeek().ordinal() * MINUTES_PER_DAY + at.getHour() * 60 + at.getMinute();
+    }
+
+    public static int minuteOfWeek(Weekday weekday, LocalTime time) {
+        return weekday.ordinal() * MINUTES_PER_DAY + time.getHour() * 60 + time.getMinute();
+    }
+
+    public boolean isOnDuty(Long workerId, int minuteOfWeek) {
+        BitSet schedule = schedules.get(workerId);
+        return schedule != null && schedule.get(minuteOfWeek);
+    }
+
+    /**
+     * Minutes from minuteOfWeek until the worker's next shift starts, wrapping over the end of the week;
+     * empty if the worker has no shifts at all
+     */
+    public OptionalInt minutesUntilNextShift(Long workerId, int minuteOfWeek) {
+        BitSet schedule = schedules.get(workerId);
+        if (schedule == null || schedule.isEmpty())
+            return OptionalInt.empty();
+        int next = schedule.nextSetBit(minuteOfWeek);
+        if (next >= 0)
+            return OptionalInt.of(next - minuteOfWeek);
+        return OptionalInt.of(MINUTES_PER_WEEK - minuteOfWeek + schedule.nextSetBit(0));
+    }
+
+    /**
+     * The interval was created or changed
+     */
+    public synchronized void put(TimeInterval t) {
+        Long previousWorker = detach(t.getId());
+        if (t.getWorkerId() != null)
+            add(t);
+        rebuild(previousWorker);
+        rebuild(t.getWorkerId());
+    }
+
+    public synchronized void remove(Long intervalId) {
+        rebuild(detach(intervalId));
+    }
+
+    private Long detach(Long intervalId) {
+        Long workerId = workerByInterval.remove(intervalId);
+        if (workerId != null) {
+            Map<Long, TimeInterval> byId = intervals.get(workerId);
+            if (byId != null)
+                byId.remove(intervalId);
+        }
+        return workerId;
+    }
+
+    private void add(TimeInterval t) {
+        intervals.computeIfAbsent(t.getWorkerId(), id -> new ConcurrentHashMap<>()).put(t.getId(), t);
+        workerByInterval.put(t.getId(), t.getWorkerId());
+    }
+
+    private void rebuild(Long workerId) {
+        if (workerId == null)
+            return;
+        Map<Long, BitSet> updated = new HashMap<>(schedules);
+        Map<Long, TimeInterval> byId = intervals.get(workerId);
+        if (byId == null || byId.isEmpty()) {
+            intervals.remove(workerId);
+            updated.remove(workerId);
+        } else {
+            updated.put(workerId, bitmap(byId.values()));
+        }
+        schedules = updated;
+    }
+
+    private static BitSet bitmap(Collection<TimeInterval> workerIntervals) {
+        BitSet bits = new BitSet(MINUTES_PER_WEEK);
+        for (TimeInterval t : workerIntervals) {
+            if (t.getWeekday() == null || t.getBegin() == null || t.getEnding() == null)
+                continue;
+            int begin = minuteOfWeek(t.getWeekday(), t.getBegin().toLocalTime());
+            int ending = minuteOfWeek(t.getWeekday(), t.getEnding().toLocalTime());
+            // a shift until 24:00 reads back as ending at midnight
+            if (ending < begin && t.getEnding().toLocalTime().equals(LocalTime.MIDNIGHT))
+                ending += MINUTES_PER_DAY;
+            if (begin > ending)
+                continue;
+            // the ending minute is still on duty, the check used to be begin <= now <= ending; on Sunday it may
+            // be Monday's first one
+            bits.set(begin, Math.min(ending + 1, MINUTES_PER_WEEK));
+            if (ending >= MINUTES_PER_WEEK)
+                bits.set(0, ending - MINUTES_PER_WEEK + 1);
+        }
+        return bits;
+    }
+}
@@ -3,27 +3,25 @@ package com.itmo.spy_system.service;
 
 import com.itmo.spy_system.entity.*;
 import com.itmo.spy_system.repository.MonitoringTimeIntervalRepository;
-import com.itmo.spy_system.repository.PunishmentTaskRepository;
-import com.itmo.spy_system.repository.TimeIntervalRepository;
 import com.itmo.spy_system.repository.WorkerRepository;
 import com.itmo.spy_system.utils.NullAwareBeanUtilsBean;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Service;
 import lombok.RequiredArgsConstructor;
 
-import java.sql.Time;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
+import java.util.OptionalInt;
 
 @Service
 @RequiredArgsConstructor
 public class WorkerService {
     private final WorkerRepository workerRepository;
-    private final PunishmentTaskRepository punishmentTaskRepository;
+    private final WorkerTaskCounters taskCounters;
     private final MonitoringTimeIntervalRepository monitoringTimeIntervalRepository;
-    private final TimeIntervalRepository timeIntervalRepository;
+    private final WorkerScheduleIndex scheduleIndex;
 
     private final PasswordEncoder passwordEncoder;
 
@@ -60,59 +58,49 @@ public class WorkerService {
         return !(monitoringTimeIntervalRepository.findByWorkerId(id).isEmpty());
     }
 
-    public Worker findMostFreeCorrectionsOfficer() {
+    /**
+     * Corrections officers on duty right now; if nobody is, the one whose shift starts soonest
+     */
+    public List<Worker> findAssignableCorrectionsOfficers() {
         List<Worker> correctionsOfficers = workerRepository.findByRole(WorkerRole.CORRECTIONS_OFFICER);
+        if (correctionsOfficers.isEmpty())
+            return List.of();
 
-        LocalDateTime now = LocalDateTime.now();
-        Weekday today = Weekday.valueOf(now.getDayOfWeek().name().toUpperCase());
-        Time currentTime = Time.valueOf(now.toLocalTime());
+        int minute = WorkerScheduleIndex.minuteOfWeek(LocalDateTime.now());
 
         List<Worker> workingNow = new ArrayList<>();
-
-        // TODO throw new NoWorkersFoundException("No workers were found");
-        Worker mostSuiteableWorker = correctionsOfficers.get(0);
-
         for (Worker w : correctionsOfficers) {
-            List<TimeInterval> intervals = timeIntervalRepository.findByWorkerIdAndWeekday(w.getId(), today);
-            boolean isWorkingNow = intervals.stream().anyMatch(t ->
-                    !(currentTime.before(t.getBegin()) || currentTime.after(t.getEnding())));
-            if (isWorkingNow) {
+            if (scheduleIndex.isOnDuty(w.getId(), minute))
                 workingNow.add(w);
-            }
         }
-        if (workingNow.isEmpty()) {
-            TimeInterval nearestInterval = null;
-            Worker nearestWorker = mostSuiteableWorker;
-
-            for (Worker w : correctionsOfficers) {
-                List<TimeInterval> intervals = timeIntervalRepository.findByWorkerId(w.getId());
-                for (TimeInterval t : intervals) {
-                    if (nearestInterval == null) {
-                        nearestInterval = t;
-                        nearestWorker = w;
-                    }
-                    if (Weekday.getWeekdayDifference(today, t.getWeekday()) <=
-                            Weekday.getWeekdayDifference(today, nearestInterval.getWeekday())) {
-                        if (t.getBegin().before(nearestInterval.getBegin())) {
-                            nearestInterval = t;
-                            nearestWorker = w;
-                        }
-                    }
-                }
-            }
-            mostSuiteableWorker = nearestWorker;
-        } else {
-            long leastTaskCount = Long.MAX_VALUE;
-            for (Worker w : workingNow) {
-                long taskCount = punishmentTaskRepository
-                        .findByExecutionerIdAndStatusIn(w.getId(), List.of(TaskStatus.NEW, TaskStatus.IN_PROGRESS))
-                        .size();
-                if (taskCount < leastTaskCount) {
-                    mostSuiteableWorker = w;
-                    leastTaskCount = taskCount;
-                }
+        if (!workingNow.isEmpty())
+            return workingNow;
+
+        // nobody is on duty, take whoever starts soonest
+        Worker nearestWorker = correctionsOfficers.get(0);
+        int soonest = Integer.MAX_VALUE;
+        for (Worker w : correctionsOfficers) {
+            OptionalInt untilShift = scheduleIndex.minutesUntilNextShift(w.getId(), minute);
+            if (untilShift.isPresent() && untilShift.getAsInt() < soonest) {
+                soonest = untilShift.getAsInt();
+                nearestWorker = w;
             }
         }
+        return List.of(nearestWorker);
+    }
+
+    public Worker findMostFreeCorrectionsOfficer() {
+        List<Worker> candidates = findAssignableCorrectionsOfficers();
+
+        // TODO throw new NoWorkersFoundException("No workers were found");
+        Worker mostSuiteableWorker = candidates.get(0);
+        if (candidates.size() == 1)
+            return mostSuiteableWorker;
+
+        Long leastLoaded = taskCounters.leastLoaded(candidates.stream().map(Worker::getId).toList()).orElseThrow();
+        for (Worker w : candidates)
+            if (w.getId().equals(leastLoaded))
+                mostSuiteableWorker = w;
         return mostSuiteableWorker;
     }
 }
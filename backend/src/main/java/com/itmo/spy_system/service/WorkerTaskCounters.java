@@ -0,0 +1,176 @@
+package com.itmo.spy_system.service;
+
+import com.itmo.spy_system.dto.ExecutionerCount;
+import com.itmo.spy_system.entity.TaskStatus;
+import com.itmo.spy_system.repository.DeviceChangeTaskRepository;
+import com.itmo.spy_system.repository.PunishmentTaskRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+
+/**
+ * Number of open (NEW or IN_PROGRESS) punishment and device change tasks per executioner. The task services
+ * report every committed creation, status or executioner change and deletion, so the least loaded one among
+ * some candidates is found without counting rows. A periodic reconciliation against the tables corrects
+ * whatever drift other replicas or direct writes caused.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class WorkerTaskCounters {
+
+    public enum Kind {
+        PUNISHMENT, DEVICE_CHANGE
+    }
+
+    public static final List<TaskStatus> OPEN_STATUSES = List.of(TaskStatus.NEW, TaskStatus.IN_PROGRESS);
+
+    private final PunishmentTaskRepository punishmentTaskRepository;
+    private final DeviceChangeTaskRepository deviceChangeTaskRepository;
+    private final MeterRegistry meterRegistry;
+
+    private record Load(int total, long workerId) implements Comparable<Load> {
+        @Override
+        public int compareTo(Load o) {
+            int cmp = Integer.compare(total, o.total);
+            return cmp != 0 ? cmp : Long.compare(workerId, o.workerId);
+        }
+    }
+
+    // guarded by this, ranked holds one Load per worker in counts
+    private final Map<Long, int[]> counts = new HashMap<>();
+    private final TreeSet<Load> ranked = new TreeSet<>();
+    // workers changed while a reconciliation was reading the tables, null when none is
+    private Set<Long> touched;
+    private Counter driftCounter;
+
+    @PostConstruct
+    public void init() {
+        driftCounter = meterRegistry.counter("workers.task_counters.drift");
+        reconcile();
+    }
+
+    public static boolean isOpen(TaskStatus status) {
+        return status != null && OPEN_STATUSES.contains(status);
+    }
+
+    /**
+     * A task moved from (oldWorker, oldStatus) to (newWorker, newStatus); nulls stand for a task that did not
+     * exist before or does not exist anymore
+     */
+    public synchronized void onChange(Kind kind, Long oldWorker, TaskStatus oldStatus, Long newWorker, TaskStatus newStatus) {
+        if (oldWorker != null && isOpen(oldStatus))
+            add(kind, oldWorker, -1);
+        if (newWorker != null && isOpen(newStatus))
+            add(kind, newWorker, 1);
+    }
+
+    public synchronized int openTasks(Long workerId) {
+        int[] c = counts.get(workerId);
+        return c == null ? 0 : total(c);
+    }
+
+    /**
+     * The candidate with the fewest open tasks, ties go to the lowest id. Candidates not known yet join the
+     * ranking with zero load, which is then walked from the least loaded worker up to the first candidate.
+     */
+    public synchronized Optional<Long> leastLoaded(Collection<Long> candidates) {
+        if (candidates.isEmpty())
+            return Optional.empty();
+        Set<Long> wanted = new HashSet<>(candidates);
+        for (Long id : wanted)
+            if (!counts.containsKey(id))
+                put(id, new int[Kind.values().length]);
+        for (Load load : ranked)
+            if (wanted.contains(load.workerId()))
+                return Optional.of(load.workerId());
+        return Optional.empty();
+    }
+
+    private void add(Kind kind, Long workerId, int delta) {
+        int[] c = counts.get(workerId);
+        int[] next = c == null ? new int[Kind.values().length] : c.clone();
+        next[kind.ordinal()] = Math.max(0, next[kind.ordinal()] + delta);
+        put(workerId, next);
+        if (touched != null)
+            touched.add(workerId);
+    }
+
+    private void put(Long workerId, int[] c) {
+        int[] old = counts.put(workerId, c);
+        if (old != null)
+            ranked.remove(new Load(total(old), workerId));
+        ranked.add(new Load(total(c), workerId));
+    }
+
+    private static int total(int[] c) {
+        int sum = 0;
+        for (int v : c)
+            sum += v;
+        return sum;
+    }
+
+    /**
+     * Brings the counters in line with the tables. These are read outside the lock, so the difference between
+     * them and a snapshot taken under the lock before reading is added to the counters rather than the counters
+     * overwritten, and workers changed meanwhile are left to the next run, as their changes may or may not
+     * have been read.
+     */
+    @Scheduled(fixedDelayString = "${workers.task-counters.reconcile-ms:300000}", initialDelayString = "${workers.task-counters.reconcile-ms:300000}")
+    public void reconcile() {
+        Map<Long, int[]> snapshot = new HashMap<>();
+        synchronized (this) {
+            if (touched != null)
+                return; // another reconciliation is under way
+            counts.forEach((id, c) -> snapshot.put(id, c.clone()));
+            touched = new HashSet<>();
+        }
+        Map<Long, int[]> actual = new HashMap<>();
+        try {
+            collect(actual, Kind.PUNISHMENT, punishmentTaskRepository.countByExecutionerAndStatusIn(OPEN_STATUSES));
+            collect(actual, Kind.DEVICE_CHANGE, deviceChangeTaskRepository.countByExecutionerAndStatusIn(OPEN_STATUSES));
+        } catch (RuntimeException e) {
+            synchronized (this) {
+                touched = null;
+            }
+            throw e;
+        }
+
+        synchronized (this) {
+            boolean initial = snapshot.isEmpty();
+            Set<Long> ids = new HashSet<>(snapshot.keySet());
+            ids.addAll(actual.keySet());
+            int drifted = 0;
+            for (Long id : ids) {
+                if (touched.contains(id))
+                    continue;
+                int[] was = snapshot.getOrDefault(id, new int[Kind.values().length]);
+                int[] is = actual.getOrDefault(id, new int[Kind.values().length]);
+                if (Arrays.equals(was, is))
+                    continue;
+                int[] c = counts.getOrDefault(id, new int[Kind.values().length]).clone();
+                for (int k = 0; k < c.length; k++)
+                    c[k] = Math.max(0, c[k] + is[k] - was[k]);
+                put(id, c);
+                drifted++;
+            }
+            touched = null;
+            if (drifted > 0 && !initial) {
+                driftCounter.increment(drifted);
+                log.info("Corrected open task counters of {} workers", drifted);
+            }
+        }
+    }
+
+    private static void collect(Map<Long, int[]> into, Kind kind, List<ExecutionerCount> rows) {
+        for (ExecutionerCount row : rows)
+            into.computeIfAbsent(row.getExecutionerId(), k -> new int[Kind.values().length])[kind.ordinal()] =
+                    row.getCount().intValue();
+    }
+}
@@ -0,0 +1,35 @@
+package com.itmo.spy_system.utils;
+
+import java.sql.Time;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Checks of the intervals of one owner on one day of the week. Bounds are seconds of the day, both inclusive.
+ */
+public class DayIntervals {
+
+    public record Slot(long id, int begin, int ending) {
+    }
+
+    private static final Comparator<Slot> BY_BEGIN = Comparator.comparingInt(Slot::begin).thenComparingLong(Slot::id);
+
+    public static int secondOfDay(Time time) {
+        return time.toLocalTime().toSecondOfDay();
+    }
+
+    /**
+     * Index of the first slot that overlaps an earlier one once the slots are sorted in place by begin,
+     * or -1 if none do. Checks a whole day of one owner in O(n log n).
+     */
+    public static int firstClash(List<Slot> slots) {
+        slots.sort(BY_BEGIN);
+        int reach = Integer.MIN_VALUE;
+        for (int i = 0; i < slots.size(); i++) {
+            if (i > 0 && slots.get(i).begin() <= reach)
+                return i;
+            reach = Math.max(reach, slots.get(i).ending());
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,126 @@
+package com.itmo.spy_system.utils;
+
+import java.util.*;
+
+/**
+ * Hashed hierarchical timer wheel with one pending timer per key. Three levels of 64 slots cover
+ * 64, 64^2 and 64^3 ticks; timers further away than that are parked in the last level and re-placed
+ * when their slot comes around. Re-arming a key moves its single timer, so frequently re-armed keys
+ * never leave stale entries behind.
+ */
+public class HierarchicalTimerWheel<K> {
+
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int MASK = SLOTS - 1;
+    private static final int LEVELS = 3;
+    private static final long HORIZON = 1L << (SLOT_BITS * LEVELS);
+
+    private static final class Timer {
+        long deadlineTick;
+        int index;
+    }
+
+    private final long tickMillis;
+    private final Map<K, Timer> timers = new HashMap<>();
+    private final List<Set<K>> slots = new ArrayList<>(LEVELS * SLOTS);
+    private long currentTick;
+
+    public HierarchicalTimerWheel(long tickMillis, long nowMillis) {
+        this.tickMillis = tickMillis;
+        this.currentTick = nowMillis / tickMillis;
+        for (int i = 0; i < LEVELS * SLOTS; i++)
+            slots.add(new HashSet<>());
+    }
+
+    public synchronized void schedule(K key, long deadlineMillis) {
+        Timer t = timers.get(key);
+        if (t == null) {
+            t = new Timer();
+            timers.put(key, t);
+        } else {
+            slots.get(t.index).remove(key);
+        }
+        // round up so a timer never fires before its deadline
+        t.deadlineTick = Math.floorDiv(deadlineMillis + tickMillis - 1, tickMillis);
+        place(key, t);
+    }
+
+    public synchronized void cancel(K key) {
+        Timer t = timers.remove(key);
+        if (t != null)
+            slots.get(t.index).remove(key);
+    }
+
+    public synchronized int size() {
+        return timers.size();
+    }
+
+    /**
+     * Moves time forward and returns the keys whose deadline has passed, they are no longer scheduled
+     */
+    public synchronized List<K> advance(long nowMillis) {
+        List<K> expired = new ArrayList<>();
+        long target = nowMillis / tickMillis;
+        while (currentTick < target) {
+            currentTick++;
+            if ((currentTick & (SLOTS * SLOTS - 1)) == 0)
+                cascade(2, (int) ((currentTick >>> (2 * SLOT_BITS)) & MASK));
+            if ((currentTick & MASK) == 0)
+                cascade(1, (int) ((currentTick >>> SLOT_BITS) & MASK));
+
+            Set<K> due = slots.get((int) (currentTick & MASK));
+            if (due.isEmpty())
+                continue;
+            List<K> keys = new ArrayList<>(due);
+            due.clear();
+            for (K key : keys) {
+                Timer t = timers.get(key);
+                if (t.deadlineTick <= currentTick) {
+                    timers.remove(key);
+                    expired.add(key);
+                } else {
+                    place(key, t);
+                }
+            }
+        }
+        return expired;
+    }
+
+    private void cascade(int level, int slot) {
+        Set<K> bucket = slots.get(level * SLOTS + slot);
+        if (bucket.isEmpty())
+            return;
+        List<K> keys = new ArrayList<>(bucket);
+        bucket.clear();
+        for (K key : keys) {
+            Timer t = timers.get(key);
+            // the current slot is handled right after the cascade, place would put it one tick late
+            if (t.deadlineTick <= currentTick) {
+                t.index = (int) (currentTick & MASK);
+                slots.get(t.index).add(key);
+            } else {
+                place(key, t);
+            }
+        }
+    }
+
+    private void place(K key, Timer t) {
+        long delta = t.deadlineTick - currentTick;
+        long tick = t.deadlineTick;
+        int index;
+        if (delta <= 0) {
+            index = (int) ((currentTick + 1) & MASK);
+        } else if (delta < SLOTS) {
+            index = (int) (tick & MASK);
+        } else if (delta < (long) SLOTS * SLOTS) {
+            index = SLOTS + (int) ((tick >>> SLOT_BITS) & MASK);
+        } else {
+            if (delta >= HORIZON)
+                tick = currentTick + HORIZON - 1;
+            index = 2 * SLOTS + (int) ((tick >>> (2 * SLOT_BITS)) & MASK);
+        }
+        t.index = index;
+        slots.get(index).add(key);
+    }
+}
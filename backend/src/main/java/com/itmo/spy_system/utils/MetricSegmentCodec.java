@@ -0,0 +1,412 @@
+package com.itmo.spy_system.utils;
+
+import com.itmo.spy_system.entity.Metric;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.sql.Timestamp;
+import java.util.*;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Columnar encoding of one device's readings for the cold store.
+ * <p>
+ * Layout: a fixed header (magic, version, device id, row count, first/last timestamp, distinct client ids)
+ * followed by a bit stream with one column after another: ids as zig-zag varint deltas, timestamps
+ * (microseconds) as delta-of-delta, values XOR-encoded Gorilla-style, coordinates as fixed-point deltas
+ * (or XOR of the raw doubles when they do not survive the fixed-point round trip) and client ids as deltas.
+ * Nullable columns are preceded by a presence bitmap.
+ */
+public final class MetricSegmentCodec {
+
+    private static final int MAGIC = 0x4D534547;
+    private static final byte VERSION = 1;
+    private static final double COORDINATE_SCALE = 1e7;
+
+    public record Header(long deviceId, int count, Timestamp first, Timestamp last, Set<Long> clientIds) {
+    }
+
+    private MetricSegmentCodec() {
+    }
+
+    /**
+     * @param rows readings of a single device sorted by (timestamp, id), timestamps must not be null
+     */
+    public static byte[] encode(long deviceId, List<Metric> rows) {
+        if (rows.isEmpty())
+            throw new IllegalArgumentException("Segment must contain at least one reading");
+        Set<Long> clientIds = new TreeSet<>();
+        for (Metric m : rows)
+            if (m.getClientId() != null)
+                clientIds.add(m.getClientId());
+
+        ByteBuffer header = ByteBuffer.allocate(4 + 1 + 8 + 4 + 8 + 8 + 4 + 8 * clientIds.size());
+        header.putInt(MAGIC).put(VERSION).putLong(deviceId).putInt(rows.size())
+                .putLong(toMicros(rows.get(0).getTimestamp()))
+                .putLong(toMicros(rows.get(rows.size() - 1).getTimestamp()))
+                .putInt(clientIds.size());
+        clientIds.forEach(header::putLong);
+
+        BitWriter w = new BitWriter();
+        long prevId = 0;
+        for (Metric m : rows) {
+            w.writeVarLong(m.getId() - prevId);
+            prevId = m.getId();
+        }
+        encodeTimestamps(w, rows);
+
+        XorEncoder values = new XorEncoder(w, 32);
+        writePresence(w, rows, m -> m.getValue() != null);
+        for (Metric m : rows)
+            if (m.getValue() != null)
+                values.write(m.getValue() & 0xFFFFFFFFL);
+
+        encodeCoordinates(w, rows, Metric::getLatitude);
+        encodeCoordinates(w, rows, Metric::getLongitude);
+
+        writePresence(w, rows, m -> m.getClientId() != null);
+        long prevClient = 0;
+        for (Metric m : rows) {
+            if (m.getClientId() != null) {
+                w.writeVarLong(m.getClientId() - prevClient);
+                prevClient = m.getClientId();
+            }
+        }
+
+        byte[] body = w.toByteArray();
+        return ByteBuffer.allocate(header.capacity() + body.length).put(header.array()).put(body).array();
+    }
+
+    public static Header readHeader(ByteBuffer buf) {
+        if (buf.getInt() != MAGIC)
+            throw new IllegalArgumentException("Not a metric segment");
+        byte version = buf.get();
+        if (version != VERSION)
+            throw new IllegalArgumentException("Unsupported metric segment version " + version);
+        long deviceId = buf.getLong();
+        int count = buf.getInt();
+        Timestamp first = fromMicros(buf.getLong());
+        Timestamp last = fromMicros(buf.getLong());
+        int clients = buf.getInt();
+        Set<Long> clientIds = new HashSet<>();
+        for (int i = 0; i < clients; i++)
+            clientIds.add(buf.getLong());
+        return new Header(deviceId, count, first, last, clientIds);
+    }
+
+    public static List<Metric> decode(ByteBuffer buf) {
+        Header h = readHeader(buf);
+        int n = h.count();
+        BitReader r = new BitReader(buf);
+
+        Metric[] rows = new Metric[n];
+        long id = 0;
+        for (int i = 0; i < n; i++) {
+            id += r.readVarLong();
+            rows[i] = new Metric();
+            rows[i].setId(id);
+            rows[i].setDeviceId(h.deviceId());
+        }
+        decodeTimestamps(r, rows);
+
+        boolean[] present = readPresence(r, n);
+        XorDecoder values = new XorDecoder(r, 32);
+        for (int i = 0; i < n; i++)
+            if (present[i])
+                rows[i].setValue((int) values.read());
+
+        Double[] latitudes = decodeCoordinates(r, n);
+        Double[] longitudes = decodeCoordinates(r, n);
+        present = readPresence(r, n);
+        long client = 0;
+        for (int i = 0; i < n; i++) {
+            rows[i].setLatitude(latitudes[i]);
+            rows[i].setLongitude(longitudes[i]);
+            if (present[i]) {
+                client += r.readVarLong();
+                rows[i].setClientId(client);
+            }
+        }
+        return Arrays.asList(rows);
+    }
+
+    private static void encodeTimestamps(BitWriter w, List<Metric> rows) {
+        long prev = toMicros(rows.get(0).getTimestamp());
+        w.writeBits(prev, 64);
+        long prevDelta = 0;
+        for (int i = 1; i < rows.size(); i++) {
+            long t = toMicros(rows.get(i).getTimestamp());
+            long delta = t - prev;
+            long dod = delta - prevDelta;
+            if (dod == 0) {
+                w.writeBit(false);
+            } else if (dod >= -63 && dod <= 64) {
+                w.writeBits(0b10, 2);
+                w.writeBits(dod + 63, 7);
+            } else if (dod >= -255 && dod <= 256) {
+                w.writeBits(0b110, 3);
+                w.writeBits(dod + 255, 9);
+            } else if (dod >= -2047 && dod <= 2048) {
+                w.writeBits(0b1110, 4);
+                w.writeBits(dod + 2047, 12);
+            } else {
+                w.writeBits(0b1111, 4);
+                w.writeVarLong(dod);
+            }
+            prev = t;
+            prevDelta = delta;
+        }
+    }
+
+    private static void decodeTimestamps(BitReader r, Metric[] rows) {
+        long prev = r.readBits(64);
+        rows[0].setTimestamp(fromMicros(prev));
+        long prevDelta = 0;
+        for (int i = 1; i < rows.length; i++) {
+            long dod;
+            if (!r.readBit())
+                dod = 0;
+            else if (!r.readBit())
+                dod = r.readBits(7) - 63;
+            else if (!r.readBit())
+                dod = r.readBits(9) - 255;
+            else if (!r.readBit())
+                dod = r.readBits(12) - 2047;
+            else
+                dod = r.readVarLong();
+            prevDelta += dod;
+            prev += prevDelta;
+            rows[i].setTimestamp(fromMicros(prev));
+        }
+    }
+
+    private static void encodeCoordinates(BitWriter w, List<Metric> rows, Function<Metric, Double> column) {
+        writePresence(w, rows, m -> column.apply(m) != null);
+        boolean fixedPoint = true;
+        for (Metric m : rows) {
+            Double v = column.apply(m);
+            if (v != null && (Math.abs(v) > 1e11 || Math.round(v * COORDINATE_SCALE) / COORDINATE_SCALE != v)) {
+                fixedPoint = false;
+                break;
+            }
+        }
+        w.writeBit(fixedPoint);
+        if (fixedPoint) {
+            long prev = 0;
+            for (Metric m : rows) {
+                Double v = column.apply(m);
+                if (v == null)
+                    continue;
+                long scaled = Math.round(v * COORDINATE_SCALE);
+                w.writeVarLong(scaled - prev);
+                prev = scaled;
+            }
+        } else {
+            XorEncoder xor = new XorEncoder(w, 64);
+            for (Metric m : rows) {
+                Double v = column.apply(m);
+                if (v != null)
+                    xor.write(Double.doubleToRawLongBits(v));
+            }
+        }
+    }
+
+    private static Double[] decodeCoordinates(BitReader r, int n) {
+        boolean[] present = readPresence(r, n);
+        Double[] result = new Double[n];
+        if (r.readBit()) {
+            long prev = 0;
+            for (int i = 0; i < n; i++) {
+                if (!present[i])
+                    continue;
+                prev += r.readVarLong();
+                result[i] = prev / COORDINATE_SCALE;
+            }
+        } else {
+            XorDecoder xor = new XorDecoder(r, 64);
+            for (int i = 0; i < n; i++)
+                if (present[i])
+                    result[i] = Double.longBitsToDouble(xor.read());
+        }
+        return result;
+    }
+
+    private static void writePresence(BitWriter w, List<Metric> rows, Predicate<Metric> present) {
+        for (Metric m : rows)
+            w.writeBit(present.test(m));
+    }
+
+    private static boolean[] readPresence(BitReader r, int n) {
+        boolean[] present = new boolean[n];
+        for (int i = 0; i < n; i++)
+            present[i] = r.readBit();
+        return present;
+    }
+
+    private static long toMicros(Timestamp ts) {
+        return Math.floorDiv(ts.getTime(), 1000L) * 1_000_000L + ts.getNanos() / 1000;
+    }
+
+    private static Timestamp fromMicros(long micros) {
+        Timestamp ts = new Timestamp(Math.floorDiv(micros, 1_000_000L) * 1000L);
+        ts.setNanos((int) Math.floorMod(micros, 1_000_000L) * 1000);
+        return ts;
+    }
+
+    /**
+     * Gorilla value compression: '0' for a repeated value, otherwise the XOR with the previous value,
+     * reusing the previous leading/trailing zero window when the meaningful bits fit into it.
+     */
+    private static final class XorEncoder {
+        private final BitWriter w;
+        private final int width;
+        private boolean first = true;
+        private long prev;
+        private int prevLeading = -1;
+        private int prevTrailing;
+
+        XorEncoder(BitWriter w, int width) {
+            this.w = w;
+            this.width = width;
+        }
+
+        void write(long bits) {
+            if (first) {
+                w.writeBits(bits, width);
+                first = false;
+                prev = bits;
+                return;
+            }
+            long xor = bits ^ prev;
+            prev = bits;
+            if (xor == 0) {
+                w.writeBit(false);
+                return;
+            }
+            w.writeBit(true);
+            int leading = Long.numberOfLeadingZeros(xor) - (64 - width);
+            int trailing = Long.numberOfTrailingZeros(xor);
+            if (prevLeading >= 0 && leading >= prevLeading && trailing >= prevTrailing) {
+                w.writeBit(false);
+                w.writeBits(xor >>> prevTrailing, width - prevLeading - prevTrailing);
+            } else {
+                int length = width - leading - trailing;
+                w.writeBit(true);
+                w.writeBits(leading, 6);
+                w.writeBits(length - 1, 6);
+                w.writeBits(xor >>> trailing, length);
+                prevLeading = leading;
+                prevTrailing = trailing;
+            }
+        }
+    }
+
+    private static final class XorDecoder {
+        private final BitReader r;
+        private final int width;
+        private boolean first = true;
+        private long prev;
+        private int prevLeading;
+        private int prevTrailing;
+
+        XorDecoder(BitReader r, int width) {
+            this.r = r;
+            this.width = width;
+        }
+
+        long read() {
+            if (first) {
+                first = false;
+                prev = r.readBits(width);
+                return prev;
+            }
+            if (!r.readBit())
+                return prev;
+            if (r.readBit()) {
+                prevLeading = (int) r.readBits(6);
+                int length = (int) r.readBits(6) + 1;
+                prevTrailing = width - prevLeading - length;
+            }
+            long meaningful = r.readBits(width - prevLeading - prevTrailing);
+            prev ^= meaningful << prevTrailing;
+            return prev;
+        }
+    }
+
+    private static final class BitWriter {
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        private int current;
+        private int used;
+
+        void writeBit(boolean bit) {
+            current = (current << 1) | (bit ? 1 : 0);
+            if (++used == 8) {
+                out.write(current);
+                current = 0;
+                used = 0;
+            }
+        }
+
+        void writeBits(long value, int count) {
+            for (int i = count - 1; i >= 0; i--)
+                writeBit(((value >>> i) & 1) != 0);
+        }
+
+        void writeVarLong(long value) {
+            long zigzag = (value << 1) ^ (value >> 63);
+            while ((zigzag & ~0x7FL) != 0) {
+                writeBits((zigzag & 0x7F) | 0x80, 8);
+                zigzag >>>= 7;
+            }
+            writeBits(zigzag, 8);
+        }
+
+        byte[] toByteArray() {
+            if (used > 0)
+                out.write(current << (8 - used));
+            current = 0;
+            used = 0;
+            return out.toByteArray();
+        }
+    }
+
+    private static final class BitReader {
+        private final ByteBuffer buf;
+        private int current;
+        private int left;
+
+        BitReader(ByteBuffer buf) {
+            this.buf = buf;
+        }
+
+        boolean readBit() {
+            if (left == 0) {
+                current = buf.get() & 0xFF;
+                left = 8;
+            }
+            left--;
+            return ((current >>> left) & 1) != 0;
+        }
+
+        long readBits(int count) {
+            long value = 0;
+            for (int i = 0; i < count; i++)
+                value = (value << 1) | (readBit() ? 1 : 0);
+            return value;
+        }
+
+        long readVarLong() {
+            long zigzag = 0;
+            int shift = 0;
+            while (true) {
+                long b = readBits(8);
+                zigzag |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0)
+                    break;
+                shift += 7;
+            }
+            return (zigzag >>> 1) ^ -(zigzag & 1);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.itmo.spy_system.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.function.Consumer;
+
+/**
+ * A Postgres LISTEN/NOTIFY channel shared by all replicas, payloads are limited to 8000 bytes. {@link #send}
+ * reaches every replica listening on the channel, the sender included; a daemon thread holds one connection of its
+ * own to listen on and hands every payload it receives to the handler. The connection is opened again after a
+ * failure, payloads sent while it is down are lost.
+ */
+@Slf4j
+public class PgChannel {
+
+    private static final int POLL_MS = 1000;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final String channel;
+    private final Consumer<String> handler;
+    private final long reconnectMs;
+    private final Thread listener;
+    private volatile boolean stopped;
+
+    public PgChannel(JdbcTemplate jdbcTemplate, String channel, long reconnectMs, Consumer<String> handler) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.channel = channel;
+        this.reconnectMs = reconnectMs;
+        this.handler = handler;
+        this.listener = new Thread(this::listen, "pg-listen-" + channel);
+        this.listener.setDaemon(true);
+    }
+
+    public void start() {
+        listener.start();
+    }
+
+    public void send(String payload) {
+        jdbcTemplate.query("SELECT pg_notify(?, ?)", rs -> null, channel, payload);
+    }
+
+    private void listen() {
+        while (!stopped) {
+            try (Connection connection = jdbcTemplate.getDataSource().getConnection()) {
+                connection.setAutoCommit(true);
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute("LISTEN " + channel);
+                }
+                PGConnection pg = connection.unwrap(PGConnection.class);
+                log.info("Listening on {}", channel);
+                while (!stopped) {
+                    PGNotification[] received = pg.getNotifications(POLL_MS);
+                    if (received == null)
+                        continue;
+                    for (PGNotification n : received) {
+                        try {
+                            handler.accept(n.getParameter());
+                        } catch (RuntimeException e) {
+                            log.error("Could not handle a payload of {}", channel, e);
+                        }
+                    }
+                }
+            } catch (SQLException e) {
+                if (stopped)
+                    return;
+                log.warn("Lost the connection listening on {}, reconnecting in {} ms", channel, reconnectMs, e);
+                try {
+                    Thread.sleep(reconnectMs);
+                } catch (InterruptedException ie) {
+                    return;
+                }
+            }
+        }
+    }
+
+    public void stop() throws InterruptedException {
+        stopped = true;
+        listener.interrupt();
+        listener.join(2L * POLL_MS);
+    }
+}
@@ -0,0 +1,202 @@
+package com.itmo.spy_system.utils;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Fan-out of events to SSE subscribers. Every subscriber gets its own bounded buffer drained by a
+ * shared sender pool, so a publisher never blocks on a socket; a subscriber whose buffer overflows
+ * is considered too slow and disconnected.
+ */
+@Slf4j
+public class SseSubscriptions<E> {
+
+    public record Event<E>(String id, String name, E data) {
+    }
+
+    private final String stream;
+    private final int bufferSize;
+    private final long timeoutMs;
+    private final ExecutorService sender;
+    private final Set<Subscription> subscriptions = ConcurrentHashMap.newKeySet();
+
+    private final Counter sentCounter;
+    private final Counter slowCounter;
+    private final Timer fanoutTimer;
+
+    private record Queued<E>(Event<E> event, long publishedAt) {
+    }
+
+    private class Subscription {
+        final SseEmitter emitter;
+        final Predicate<E> filter;
+        final Queue<Queued<E>> buffer = new ConcurrentLinkedQueue<>();
+        final AtomicInteger size = new AtomicInteger();
+        final AtomicBoolean draining = new AtomicBoolean();
+        // live events published while the backlog is loaded, null once it is sent
+        volatile List<Queued<E>> held;
+        volatile boolean closed;
+
+        Subscription(SseEmitter emitter, Predicate<E> filter) {
+            this.emitter = emitter;
+            this.filter = filter;
+        }
+
+        void offer(Queued<E> q) {
+            if (held != null) {
+                synchronized (this) {
+                    if (held != null) {
+                        held.add(q);
+                        return;
+                    }
+                }
+            }
+            enqueue(q);
+        }
+
+        void enqueue(Queued<E> q) {
+            if (closed)
+                return;
+            if (size.incrementAndGet() > bufferSize) {
+                slowCounter.increment();
+                close(new IllegalStateException("Subscriber is too slow"));
+                return;
+            }
+            buffer.add(q);
+            if (draining.compareAndSet(false, true))
+                sender.execute(this::drain);
+        }
+
+        void drain() {
+            try {
+                Queued<E> q;
+                while (!closed && (q = buffer.poll()) != null) {
+                    size.decrementAndGet();
+                    SseEmitter.SseEventBuilder builder = SseEmitter.event().name(q.event().name()).data(q.event().data());
+                    if (q.event().id() != null)
+                        builder.id(q.event().id());
+                    emitter.send(builder);
+                    sentCounter.increment();
+                    fanoutTimer.record(System.nanoTime() - q.publishedAt(), TimeUnit.NANOSECONDS);
+                }
+            } catch (IOException | IllegalStateException e) {
+                close(null);
+                return;
+            } finally {
+                draining.set(false);
+            }
+            // an event may have been queued after the last poll but before the flag was cleared
+            if (!buffer.isEmpty() && draining.compareAndSet(false, true))
+                sender.execute(this::drain);
+        }
+
+        void close(Throwable reason) {
+            if (closed)
+                return;
+            closed = true;
+            subscriptions.remove(this);
+            buffer.clear();
+            try {
+                if (reason == null)
+                    emitter.complete();
+                else
+                    emitter.completeWithError(reason);
+            } catch (RuntimeException ignored) {
+                // the connection is already gone
+            }
+        }
+    }
+
+    public SseSubscriptions(String stream, int bufferSize, long timeoutMs, int senderThreads, MeterRegistry meterRegistry) {
+        this.stream = stream;
+        this.bufferSize = bufferSize;
+        this.timeoutMs = timeoutMs;
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.sender = Executors.newFixedThreadPool(senderThreads, r -> {
+            Thread t = new Thread(r, "sse-" + stream + "-" + threadNumber.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        Gauge.builder("sse.connections", subscriptions, Set::size).tag("stream", stream).register(meterRegistry);
+        this.sentCounter = meterRegistry.counter("sse.events", "stream", stream, "result", "sent");
+        this.slowCounter = meterRegistry.counter("sse.events", "stream", stream, "result", "slow_consumer");
+        this.fanoutTimer = Timer.builder("sse.fanout.latency").tag("stream", stream).register(meterRegistry);
+    }
+
+    public SseEmitter subscribe(Predicate<E> filter) {
+        SseEmitter emitter = new SseEmitter(timeoutMs);
+        Subscription s = new Subscription(emitter, filter);
+        emitter.onCompletion(() -> s.close(null));
+        emitter.onTimeout(() -> s.close(null));
+        emitter.onError(e -> s.close(null));
+        subscriptions.add(s);
+        log.debug("New {} subscriber, {} connected", stream, subscriptions.size());
+        return emitter;
+    }
+
+    /**
+     * Same as {@link #subscribe(Predicate)}, but the backlog is sent first. Live events published while the backlog
+     * is loaded are held back and sent after it, unless the backlog already contains an event with the same id.
+     */
+    public SseEmitter subscribe(Predicate<E> filter, Supplier<List<Event<E>>> backlog) {
+        SseEmitter emitter = new SseEmitter(timeoutMs);
+        Subscription s = new Subscription(emitter, filter);
+        s.held = new ArrayList<>();
+        emitter.onCompletion(() -> s.close(null));
+        emitter.onTimeout(() -> s.close(null));
+        emitter.onError(e -> s.close(null));
+        // registered before the backlog is loaded, so nothing published in between is lost
+        subscriptions.add(s);
+        List<Event<E>> replay;
+        try {
+            replay = backlog.get();
+        } catch (RuntimeException e) {
+            s.close(e);
+            throw e;
+        }
+        long now = System.nanoTime();
+        Set<String> replayed = new HashSet<>();
+        synchronized (s) {
+            for (Event<E> event : replay) {
+                if (event.id() != null)
+                    replayed.add(event.id());
+                s.enqueue(new Queued<>(event, now));
+            }
+            for (Queued<E> q : s.held)
+                if (q.event().id() == null || !replayed.contains(q.event().id()))
+                    s.enqueue(q);
+            s.held = null;
+        }
+        log.debug("New {} subscriber with {} replayed events, {} connected", stream, replay.size(), subscriptions.size());
+        return emitter;
+    }
+
+    public void publish(Event<E> event) {
+        long now = System.nanoTime();
+        for (Subscription s : subscriptions)
+            if (s.filter.test(event.data()))
+                s.offer(new Queued<>(event, now));
+    }
+
+    public int size() {
+        return subscriptions.size();
+    }
+
+    public void shutdown() {
+        for (Subscription s : subscriptions)
+            s.close(null);
+        sender.shutdownNow();
+    }
+}
@@ -8,6 +8,8 @@ import com.itmo.spy_system.repository.DeviceRepository;
 import com.itmo.spy_system.repository.ManagerRepository;
 import lombok.AllArgsConstructor;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import java.util.List;
 import java.util.Optional;
@@ -32,6 +34,23 @@ public class Utils {
         return c.getSigner();
     }
 
+    /**
+     * Runs the action once the current transaction commits, or right away when there is none.
+     * In-memory state must not see writes that may still be rolled back.
+     */
+    public static void runAfterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+
 
 
 }
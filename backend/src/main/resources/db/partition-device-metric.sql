@@ -0,0 +1,55 @@
+-- One-off migration of device_metric to a table range-partitioned by "timestamp" (PostgreSQL only), run once
+-- with the backend stopped before enabling metrics.partitioning:
+--   psql -v ON_ERROR_STOP=1 -f partition-device-metric.sql
+-- granularity and retention_days have to match metrics.partitioning.granularity and .retention-days; readings
+-- older than the retention window are not moved, the old table is dropped at the end. No-op once partitioned.
+DO $$
+DECLARE
+    granularity    text := 'day';  -- or 'month'
+    retention_days int  := 365;    -- 0 moves every reading
+    premake        int  := 7;
+    step           interval := ('1 ' || granularity)::interval;
+    suffix         text := CASE granularity WHEN 'day' THEN 'YYYYMMDD' ELSE 'YYYYMM' END;
+    lowest         date;
+    oldest         date;
+    start          date;
+    moved          bigint;
+BEGIN
+    IF (SELECT relkind FROM pg_class WHERE oid = to_regclass('device_metric')) = 'p' THEN
+        RAISE NOTICE 'device_metric is partitioned already';
+        RETURN;
+    END IF;
+
+    LOCK TABLE device_metric IN ACCESS EXCLUSIVE MODE;
+    ALTER TABLE device_metric RENAME TO device_metric_unpartitioned;
+    -- the partitioned table takes over the index names
+    ALTER INDEX IF EXISTS device_metric_client_id_timestamp_index RENAME TO device_metric_unpartitioned_client_id_timestamp_index;
+    ALTER INDEX IF EXISTS device_metric_device_id_timestamp_index RENAME TO device_metric_unpartitioned_device_id_timestamp_index;
+    CREATE TABLE device_metric (LIKE device_metric_unpartitioned INCLUDING DEFAULTS) PARTITION BY RANGE ("timestamp");
+    ALTER TABLE device_metric ALTER COLUMN "timestamp" SET NOT NULL;
+    ALTER TABLE device_metric ADD CONSTRAINT device_metric_partitioned_pkey PRIMARY KEY (id, "timestamp");
+    CREATE TABLE device_metric_default PARTITION OF device_metric DEFAULT;
+
+    lowest := CASE WHEN retention_days > 0
+        THEN date_trunc(granularity, current_date - retention_days)::date END;
+    -- readings without a timestamp must not drag the partitions back to 1970
+    SELECT MIN("timestamp")::date INTO oldest FROM device_metric_unpartitioned WHERE "timestamp" > to_timestamp(0);
+    -- GREATEST ignores a NULL lowest
+    start := date_trunc(granularity, GREATEST(COALESCE(oldest, current_date), lowest))::date;
+    WHILE start <= current_date + premake * step LOOP
+        EXECUTE format('CREATE TABLE device_metric_p%s PARTITION OF device_metric FOR VALUES FROM (%L) TO (%L)',
+                       to_char(start, suffix), start, (start + step)::date);
+        start := (start + step)::date;
+    END LOOP;
+
+    -- readings without a timestamp get the epoch one, they land in the default partition unless out of retention
+    UPDATE device_metric_unpartitioned SET "timestamp" = to_timestamp(0) WHERE "timestamp" IS NULL;
+    INSERT INTO device_metric
+    SELECT * FROM device_metric_unpartitioned WHERE lowest IS NULL OR "timestamp" >= lowest;
+    GET DIAGNOSTICS moved = ROW_COUNT;
+
+    CREATE INDEX device_metric_client_id_timestamp_index ON device_metric (client_id, "timestamp");
+    CREATE INDEX device_metric_device_id_timestamp_index ON device_metric (device_id, "timestamp");
+    DROP TABLE device_metric_unpartitioned;
+    RAISE NOTICE 'Moved % readings into the partitioned device_metric', moved;
+END $$;
@@ -0,0 +1,13 @@
+-- Entities allocate ids in blocks of 50 (pooled optimizer), sequences created with
+-- allocationSize=1 have to step by the same amount. No-op on a fresh database.
+ALTER SEQUENCE IF EXISTS client_sequence INCREMENT BY 50;
+ALTER SEQUENCE IF EXISTS contract_sequence INCREMENT BY 50;
+ALTER SEQUENCE IF EXISTS dct_sequence INCREMENT BY 50;
+ALTER SEQUENCE IF EXISTS manager_sequence INCREMENT BY 50;
+ALTER SEQUENCE IF EXISTS metric_sequence INCREMENT BY 50;
+ALTER SEQUENCE IF EXISTS mti_sequence INCREMENT BY 50;
+ALTER SEQUENCE IF EXISTS notification_sequence INCREMENT BY 50;
+ALTER SEQUENCE IF EXISTS punishment_task_sequence INCREMENT BY 50;
+ALTER SEQUENCE IF EXISTS reset_token_sequence INCREMENT BY 50;
+ALTER SEQUENCE IF EXISTS time_interval_sequence INCREMENT BY 50;
+ALTER SEQUENCE IF EXISTS worker_sequence INCREMENT BY 50;
@@ -3,6 +3,8 @@ package com.itmo.spy_system.controller;
 import com.itmo.spy_system.entity.*;
 import com.itmo.spy_system.repository.*;
 import com.itmo.spy_system.service.DefaultEmailService;
+import com.itmo.spy_system.service.DeviceStateCache;
+import com.itmo.spy_system.service.LastMetricIndex;
 import org.junit.jupiter.api.BeforeEach;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.autoconfigure.domain.EntityScan;
@@ -95,6 +97,27 @@ public abstract class BaseApiTest {
     @Autowired
     protected FileRepository fileRepository;
 
+    @Autowired
+    protected MetricRollupRepository metricRollupRepository;
+
+    @Autowired
+    protected NotificationArchiveRepository notificationArchiveRepository;
+
+    @Autowired
+    protected NotificationDigestEntityRepository notificationDigestEntityRepository;
+
+    @Autowired
+    protected UnreadNotificationCountRepository unreadNotificationCountRepository;
+
+    @Autowired
+    protected ScheduledEventRepository scheduledEventRepository;
+
+    @Autowired
+    protected DeviceStateCache deviceStateCache;
+
+    @Autowired
+    protected LastMetricIndex lastMetricIndex;
+
     protected Manager seniorManager;
     protected String seniorManagerUsername;
     protected String seniorManagerPassword;
@@ -124,6 +147,9 @@ public abstract class BaseApiTest {
     @BeforeEach
     void setUpData() {
         notificationRepository.deleteAll();
+        notificationArchiveRepository.deleteAll();
+        notificationDigestEntityRepository.deleteAll();
+        unreadNotificationCountRepository.deleteAll();
         contractRepository.deleteAll();
         metricRepository.deleteAll();
         punishmentTaskRepository.deleteAll();
@@ -132,6 +158,10 @@ public abstract class BaseApiTest {
         monitoringTimeIntervalRepository.deleteAll();
         resetTokenRepository.deleteAll();
         fileRepository.deleteAll();
+        metricRollupRepository.deleteAll();
+        scheduledEventRepository.deleteAll();
+        deviceStateCache.clear();
+        lastMetricIndex.clear();
 
         clientRepository.deleteAll();
         workerRepository.deleteAll();
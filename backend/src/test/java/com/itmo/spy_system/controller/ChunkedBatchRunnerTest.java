@@ -0,0 +1,92 @@
+package com.itmo.spy_system.controller;
+
+import com.itmo.spy_system.entity.BatchCheckpoint;
+import com.itmo.spy_system.repository.BatchCheckpointRepository;
+import com.itmo.spy_system.service.ChunkedBatchRunner;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.LongStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ChunkedBatchRunnerTest extends BaseApiTest {
+
+    private static final List<Long> KEYS = LongStream.rangeClosed(1, 10).boxed().toList();
+
+    @Autowired
+    private ChunkedBatchRunner runner;
+
+    @Autowired
+    private BatchCheckpointRepository checkpointRepository;
+
+    private String name;
+    // keys of the chunks whose transaction committed
+    private final List<Long> written = new ArrayList<>();
+    private final List<Long> read = new ArrayList<>();
+
+    @BeforeEach
+    void newBatch() {
+        name = "test-" + UUID.randomUUID();
+    }
+
+    private static List<Long> after(Long afterKey, int limit) {
+        return KEYS.stream().filter(k -> afterKey == null || k > afterKey).limit(limit).toList();
+    }
+
+    /**
+     * Runs over KEYS in chunks of 3, the writer fails on chunk failAt (counted from 1 in this run), 0 never fails
+     */
+    private long run(int failAt) {
+        int[] chunks = {0};
+        return runner.run(name, 3, (afterKey, limit) -> {
+            List<Long> chunk = after(afterKey, limit);
+            read.addAll(chunk);
+            return chunk;
+        }, Long::longValue, chunk -> {
+            if (++chunks[0] == failAt)
+                throw new IllegalStateException("Writer failed");
+            written.addAll(chunk);
+        });
+    }
+
+    @Test
+    void interruptedRunResumesAfterTheLastCommittedChunk() {
+        assertThrows(IllegalStateException.class, () -> run(3));
+        assertEquals(List.of(1L, 2L, 3L, 4L, 5L, 6L), written);
+        assertEquals(6L, checkpointRepository.findById(name).orElseThrow().getLastKey());
+
+        read.clear();
+        assertEquals(4, run(0));
+
+        // every key written exactly once, the resumed run read nothing before the checkpoint
+        assertEquals(KEYS, written);
+        assertEquals(List.of(7L, 8L, 9L, 10L), read);
+        assertFalse(checkpointRepository.existsById(name));
+    }
+
+    @Test
+    void staleCheckpointIsIgnored() {
+        checkpointRepository.save(new BatchCheckpoint(name, 6L,
+                new Timestamp(System.currentTimeMillis() - Duration.ofHours(3).toMillis())));
+
+        assertEquals(10, run(0));
+
+        assertEquals(KEYS, written);
+        assertFalse(checkpointRepository.existsById(name));
+    }
+
+    @Test
+    void completedRunStartsOverNextTime() {
+        assertEquals(10, run(0));
+        assertEquals(10, run(0));
+
+        assertEquals(20, written.size());
+    }
+}
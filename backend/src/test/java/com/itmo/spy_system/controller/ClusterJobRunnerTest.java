@@ -0,0 +1,177 @@
+package com.itmo.spy_system.controller;
+
+import com.itmo.spy_system.entity.JobLease;
+import com.itmo.spy_system.repository.JobLeaseRepository;
+import com.itmo.spy_system.service.ClusterJobRunner;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.function.BooleanSupplier;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// two replicas sharing job_lease, with leases of a second renewed every 100ms
+public class ClusterJobRunnerTest extends BaseApiTest {
+
+    @Autowired
+    private JobLeaseRepository jobLeaseRepository;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private record Call(String instance, int partition) {
+    }
+
+    private final List<ClusterJobRunner> runners = new ArrayList<>();
+    private final Queue<Call> runs = new ConcurrentLinkedQueue<>();
+    private final Queue<Call> claims = new ConcurrentLinkedQueue<>();
+    private String job;
+
+    @BeforeEach
+    void newJob() {
+        // leases of earlier tests are left alone
+        job = "test-" + UUID.randomUUID();
+    }
+
+    @AfterEach
+    void stopRunners() {
+        runners.forEach(ClusterJobRunner::stop);
+    }
+
+    private ClusterJobRunner start(String instance, int partitions) {
+        ClusterJobRunner runner = new ClusterJobRunner(jobLeaseRepository, transactionTemplate, meterRegistry);
+        ReflectionTestUtils.setField(runner, "instanceId", instance);
+        ReflectionTestUtils.setField(runner, "leaseSeconds", 1L);
+        ReflectionTestUtils.setField(runner, "renewMillis", 100L);
+        runners.add(runner);
+        runner.register(job, partitions, partitions, 60000, new ClusterJobRunner.PartitionTask() {
+            @Override
+            public void run(int partition, int partitions) {
+                runs.add(new Call(instance, partition));
+            }
+
+            @Override
+            public void onClaimed(int partition, int partitions) {
+                claims.add(new Call(instance, partition));
+            }
+        });
+        runner.init();
+        return runner;
+    }
+
+    // stops renewing without releasing anything, as a replica that died
+    private static void crash(ClusterJobRunner runner) {
+        ((ExecutorService) ReflectionTestUtils.getField(runner, "renewer")).shutdownNow();
+    }
+
+    private long owned(ClusterJobRunner runner, int partitions) {
+        return IntStream.range(0, partitions).filter(p -> runner.owns(job, p)).count();
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline)
+            Thread.sleep(20);
+        assertTrue(condition.getAsBoolean());
+    }
+
+    private void assertNoPartitionOwnedTwice(ClusterJobRunner a, ClusterJobRunner b, int partitions) {
+        for (int p = 0; p < partitions; p++)
+            assertFalse(a.owns(job, p) && b.owns(job, p), "partition " + p + " is owned twice");
+    }
+
+    @Test
+    void leaseIsClaimedByOneReplica() throws Exception {
+        ClusterJobRunner a = start("a", 1);
+        ClusterJobRunner b = start("b", 1);
+
+        await(() -> a.owns(job, 0) || b.owns(job, 0));
+        Thread.sleep(500);
+
+        assertNoPartitionOwnedTwice(a, b, 1);
+        String owner = a.owns(job, 0) ? "a" : "b";
+        JobLease lease = jobLeaseRepository.findById(job + ":0").orElseThrow();
+        assertEquals(owner, lease.getOwner());
+        assertNotNull(lease.getLastRunAt());
+        // claimed once and run once, the next run is a minute away
+        assertEquals(List.of(new Call(owner, 0)), List.copyOf(runs));
+        assertEquals(List.of(new Call(owner, 0)), List.copyOf(claims));
+    }
+
+    @Test
+    void partitionsAreSharedFairlyWithAReplicaJoiningLater() throws Exception {
+        ClusterJobRunner a = start("a", 4);
+        await(() -> owned(a, 4) == 4);
+
+        ClusterJobRunner b = start("b", 4);
+        await(() -> owned(a, 4) == 2 && owned(b, 4) == 2);
+        Thread.sleep(500);
+
+        assertEquals(2, owned(a, 4));
+        assertEquals(2, owned(b, 4));
+        assertNoPartitionOwnedTwice(a, b, 4);
+        // every partition ran on a when claimed, the ones handed over to b are not run again before their interval
+        assertEquals(4, runs.stream().filter(r -> r.instance().equals("a")).count());
+        assertEquals(0, runs.stream().filter(r -> r.instance().equals("b")).count());
+        assertEquals(2, claims.stream().filter(c -> c.instance().equals("b")).count());
+    }
+
+    @Test
+    void partitionsFailOverAfterTheLeaseExpires() throws Exception {
+        ClusterJobRunner a = start("a", 2);
+        ClusterJobRunner b = start("b", 2);
+        await(() -> owned(a, 2) == 1 && owned(b, 2) == 1);
+        int lost = a.owns(job, 0) ? 0 : 1;
+
+        crash(a);
+        // a renewal already under way is let finish
+        Thread.sleep(150);
+        long leaseUntil = jobLeaseRepository.findById(job + ":" + lost).orElseThrow().getLeaseUntil().getTime();
+
+        await(() -> owned(b, 2) == 2);
+        assertTrue(System.currentTimeMillis() >= leaseUntil);
+        assertEquals(0, owned(a, 2));
+        assertTrue(claims.contains(new Call("b", lost)));
+        assertFalse(runs.contains(new Call("b", lost)));
+    }
+
+    @Test
+    void ownedSinceIsWhenThePartitionWasTakenOver() throws Exception {
+        long before = System.currentTimeMillis();
+        ClusterJobRunner a = start("a", 1);
+        await(() -> a.owns(job, 0));
+
+        Long since = a.ownedSince(job, 0);
+        assertNotNull(since);
+        assertTrue(since >= before && since <= System.currentTimeMillis());
+        // renewals keep it
+        Thread.sleep(500);
+        assertEquals(since, a.ownedSince(job, 0));
+        assertEquals(1, claims.size());
+
+        ClusterJobRunner b = start("b", 1);
+        assertNull(b.ownedSince(job, 0));
+        long crashedAt = System.currentTimeMillis();
+        crash(a);
+        await(() -> b.owns(job, 0));
+
+        assertNull(a.ownedSince(job, 0));
+        assertTrue(b.ownedSince(job, 0) >= crashedAt);
+        assertEquals(List.of(new Call("a", 0), new Call("b", 0)), List.copyOf(claims));
+    }
+}
@@ -0,0 +1,173 @@
+package com.itmo.spy_system.controller;
+
+import com.itmo.spy_system.entity.Contract;
+import com.itmo.spy_system.entity.ContractStatus;
+import com.itmo.spy_system.entity.ScheduledEvent;
+import com.itmo.spy_system.entity.ScheduledEventType;
+import com.itmo.spy_system.service.ContractService;
+import com.itmo.spy_system.service.OutDatedContractsCheck;
+import com.itmo.spy_system.service.ScheduledEventQueue;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.test.context.TestPropertySource;
+
+import java.sql.Date;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+// a failing event is retried after 100ms, then 200ms, and parked at the third failure
+@TestPropertySource(properties = {
+        "events.max-attempts=3",
+        "events.retry.base-ms=100",
+        "events.retry.max-ms=200"
+})
+public class ContractExpiryTest extends BaseApiTest {
+
+    @SpyBean
+    private ContractService contractService;
+
+    @Autowired
+    private ScheduledEventQueue eventQueue;
+
+    @Autowired
+    private OutDatedContractsCheck outDatedContractsCheck;
+
+    private Contract newContract(LocalDate endDate) {
+        Contract c = new Contract();
+        c.setClient(client);
+        c.setSigner(manager);
+        c.setStatus(ContractStatus.SIGNED);
+        c.setEndDate(endDate == null ? null : Date.valueOf(endDate));
+        return contractRepository.save(c);
+    }
+
+    private Timestamp dueAt(Contract c) {
+        return scheduledEventRepository.findByTypeAndEntityId(ScheduledEventType.CONTRACT_EXPIRY, c.getId())
+                .map(ScheduledEvent::getDueAt)
+                .orElse(null);
+    }
+
+    private static ScheduledEvent dueEvent(Contract c, long dueAt) {
+        return new ScheduledEvent(null, ScheduledEventType.CONTRACT_EXPIRY, c.getId(),
+                new Timestamp(dueAt), new Timestamp(dueAt), 0, null);
+    }
+
+    @Test
+    void expiryFollowsTheEndDate() {
+        LocalDate endDate = LocalDate.now().plusDays(10);
+        Contract c = newContract(endDate);
+
+        contractService.scheduleExpiry(c);
+        assertEquals(Timestamp.valueOf(endDate.plusDays(1).atStartOfDay()), dueAt(c));
+
+        // moved, not duplicated
+        c.setEndDate(Date.valueOf(endDate.plusDays(5)));
+        contractService.scheduleExpiry(c);
+        assertEquals(Timestamp.valueOf(endDate.plusDays(6).atStartOfDay()), dueAt(c));
+        assertEquals(1, scheduledEventRepository.count());
+
+        c.setEndDate(null);
+        contractService.scheduleExpiry(c);
+        assertNull(dueAt(c));
+
+        c.setEndDate(Date.valueOf(endDate));
+        contractService.scheduleExpiry(c);
+        c.setStatus(ContractStatus.OUTDATED);
+        contractService.scheduleExpiry(c);
+        assertNull(dueAt(c));
+    }
+
+    @Test
+    void dueEventsFireInDueOrder() {
+        Contract first = newContract(null);
+        Contract second = newContract(null);
+        Contract third = newContract(null);
+        long now = System.currentTimeMillis();
+        // stored out of order, all of them already due
+        scheduledEventRepository.saveAll(List.of(
+                dueEvent(second, now - 2000), dueEvent(third, now - 1000), dueEvent(first, now - 3000)));
+
+        eventQueue.refill();
+
+        verify(contractService, timeout(5000)).findById(third.getId());
+        InOrder inOrder = inOrder(contractService);
+        inOrder.verify(contractService).findById(first.getId());
+        inOrder.verify(contractService).findById(second.getId());
+        inOrder.verify(contractService).findById(third.getId());
+        // every event is taken once
+        assertEquals(0, scheduledEventRepository.count());
+    }
+
+    @Test
+    void endedContractIsOutdatedByItsEvent() throws Exception {
+        client.setName("Иван");
+        client.setSurname("Петров");
+        client.setLastname("Сергеевич");
+        clientRepository.save(client);
+        Contract c = newContract(LocalDate.now().minusDays(1));
+
+        contractService.scheduleExpiry(c);
+        eventQueue.refill();
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (contractRepository.findById(c.getId()).orElseThrow().getStatus() != ContractStatus.OUTDATED
+                && System.currentTimeMillis() < deadline)
+            Thread.sleep(50);
+        assertEquals(ContractStatus.OUTDATED, contractRepository.findById(c.getId()).orElseThrow().getStatus());
+    }
+
+    @Test
+    void contractsWithoutAnEventGetOneWhenThePartitionIsClaimed() {
+        LocalDate endDate = LocalDate.now().plusDays(3);
+        // e.g. written before expiry events existed
+        Contract c = newContract(endDate);
+        assertNull(dueAt(c));
+
+        assertEquals(1, outDatedContractsCheck.scheduleMissingExpiries(0, 1));
+        assertEquals(Timestamp.valueOf(endDate.plusDays(1).atStartOfDay()), dueAt(c));
+        assertEquals(0, outDatedContractsCheck.scheduleMissingExpiries(0, 1));
+    }
+
+    @Test
+    void failingEventIsRetriedAndParked() throws Exception {
+        Contract c = newContract(LocalDate.now().minusDays(1));
+        doThrow(new IllegalStateException("Contract service is down")).when(contractService).findById(c.getId());
+        scheduledEventRepository.save(dueEvent(c, System.currentTimeMillis() - 1000));
+
+        eventQueue.refill();
+
+        long deadline = System.currentTimeMillis() + 5000;
+        ScheduledEvent event = scheduledEventRepository.findAll().get(0);
+        while (event.getAttempts() < 3 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+            event = scheduledEventRepository.findAll().get(0);
+        }
+        assertEquals(3, event.getAttempts());
+        assertNull(event.getNextAttemptAt());
+        assertTrue(event.getLastError().contains("Contract service is down"));
+        verify(contractService, times(3)).findById(c.getId());
+
+        // a parked event is not fired again
+        Thread.sleep(500);
+        eventQueue.refill();
+        Thread.sleep(500);
+        verify(contractService, times(3)).findById(c.getId());
+        assertEquals(ContractStatus.SIGNED, contractRepository.findById(c.getId()).orElseThrow().getStatus());
+
+        // until it is scheduled again
+        doCallRealMethod().when(contractService).findById(c.getId());
+        contractService.scheduleExpiry(c);
+        deadline = System.currentTimeMillis() + 5000;
+        while (contractRepository.findById(c.getId()).orElseThrow().getStatus() != ContractStatus.OUTDATED
+                && System.currentTimeMillis() < deadline)
+            Thread.sleep(50);
+        assertEquals(ContractStatus.OUTDATED, contractRepository.findById(c.getId()).orElseThrow().getStatus());
+        assertEquals(0, scheduledEventRepository.count());
+    }
+}
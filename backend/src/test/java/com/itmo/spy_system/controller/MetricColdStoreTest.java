@@ -0,0 +1,135 @@
+package com.itmo.spy_system.controller;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.itmo.spy_system.entity.Metric;
+import com.itmo.spy_system.entity.MetricSegment;
+import com.itmo.spy_system.repository.MetricSegmentRepository;
+import com.itmo.spy_system.service.MetricColdStore;
+import com.itmo.spy_system.utils.MetricSegmentCodec;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.test.context.TestPropertySource;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+// readings older than a day are tiered, three to a segment
+@TestPropertySource(properties = {
+        "metrics.cold.enabled=true",
+        "metrics.cold.directory=build/cold-metrics-test",
+        "metrics.cold.after-days=1",
+        "metrics.cold.segment-rows=3"
+})
+public class MetricColdStoreTest extends BaseApiTest {
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private MetricColdStore coldStore;
+
+    @Autowired
+    private MetricSegmentRepository segmentRepository;
+
+    @Value("${metrics.cold.directory}")
+    private String directory;
+
+    private List<Metric> saveReadings(int count, long ageMillis) {
+        long start = System.currentTimeMillis() - ageMillis;
+        List<Metric> readings = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Metric m = new Metric();
+            m.setDeviceId(assignedDevice.getDeviceId());
+            m.setClientId(client.getId());
+            m.setValue(10 + i);
+            m.setLatitude(60.0 + i / 1000.0);
+            m.setLongitude(30.0);
+            m.setTimestamp(new Timestamp(start + i * 60000L));
+            readings.add(m);
+        }
+        return metricRepository.saveAll(readings);
+    }
+
+    private List<Long> readAllPages(String order, int limit) throws Exception {
+        List<Long> ids = new ArrayList<>();
+        String cursor = null;
+        do {
+            String json = mockMvc.perform((cursor == null
+                            ? get("/api/metrics/page?clientId={id}&order={order}&limit={limit}", client.getId(), order, limit)
+                            : get("/api/metrics/page?clientId={id}&order={order}&limit={limit}&cursor={cursor}",
+                                    client.getId(), order, limit, cursor))
+                            .with(managerAuth()))
+                    .andExpect(status().isOk())
+                    .andReturn().getResponse().getContentAsString();
+            JsonNode page = objectMapper.readTree(json);
+            page.get("items").forEach(item -> ids.add(item.get("id").asLong()));
+            cursor = page.get("nextCursor").isNull() ? null : page.get("nextCursor").asText();
+        } while (cursor != null);
+        return ids;
+    }
+
+    private static List<Long> idsInOrder(List<Metric> readings) {
+        return readings.stream()
+                .sorted(Comparator.comparing(Metric::getTimestamp).thenComparing(Metric::getId))
+                .map(Metric::getId)
+                .toList();
+    }
+
+    @Test
+    void tieringMovesOldReadingsIntoSegments() throws Exception {
+        List<Metric> all = new ArrayList<>(saveReadings(7, Duration.ofDays(10).toMillis()));
+        List<Metric> recent = saveReadings(1, 0);
+        all.addAll(recent);
+        long segmentsBefore = segmentRepository.count();
+
+        coldStore.tier();
+
+        List<Metric> hot = metricRepository.findAll().stream()
+                .filter(m -> client.getId().equals(m.getClientId()))
+                .toList();
+        assertEquals(List.of(recent.get(0).getId()), hot.stream().map(Metric::getId).toList());
+        assertEquals(segmentsBefore + 3, segmentRepository.count());
+        assertEquals(idsInOrder(all), readAllPages("asc", 100));
+    }
+
+    @Test
+    void pagesRunAcrossBothTiers() throws Exception {
+        List<Metric> all = new ArrayList<>(saveReadings(7, Duration.ofDays(10).toMillis()));
+        all.addAll(saveReadings(4, 0));
+
+        coldStore.tier();
+
+        List<Long> ascending = idsInOrder(all);
+        assertEquals(ascending, readAllPages("asc", 3));
+        List<Long> descending = new ArrayList<>(ascending);
+        Collections.reverse(descending);
+        assertEquals(descending, readAllPages("desc", 2));
+    }
+
+    @Test
+    void segmentsTieredByAnotherReplicaAreRead() throws Exception {
+        List<Metric> old = saveReadings(3, Duration.ofDays(10).toMillis());
+        // what the replica holding the tiering job does: write the file, then list it and delete the rows at once
+        Path relative = Paths.get(String.valueOf(assignedDevice.getDeviceId()), "elsewhere-" + old.get(0).getId() + ".seg");
+        Path file = Paths.get(directory).resolve(relative);
+        Files.createDirectories(file.getParent());
+        Files.write(file, MetricSegmentCodec.encode(assignedDevice.getDeviceId(), old));
+        segmentRepository.save(new MetricSegment(null, relative.toString(), assignedDevice.getDeviceId()));
+        metricRepository.deleteAll(old);
+
+        assertEquals(idsInOrder(old), readAllPages("asc", 100));
+    }
+}
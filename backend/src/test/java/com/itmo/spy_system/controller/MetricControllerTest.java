@@ -2,21 +2,109 @@ package com.itmo.spy_system.controller;
 
 
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.itmo.spy_system.entity.Metric;
-import com.itmo.spy_system.entity.NotificationType;
+import com.itmo.spy_system.entity.*;
+import com.itmo.spy_system.service.DeviceStateCache;
+import com.itmo.spy_system.service.LastMetricIndex;
+import com.itmo.spy_system.service.MetricRollupService;
+import com.itmo.spy_system.service.MetricStreamService;
+import com.itmo.spy_system.service.TimeIntervalService;
+import com.itmo.spy_system.service.WorkerTaskCounters;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.MediaType;
 import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import java.sql.Time;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 public class MetricControllerTest extends BaseApiTest {
     @Autowired
     protected ObjectMapper objectMapper;
 
+    @Autowired
+    protected MetricRollupService rollupService;
+
+    @Autowired
+    protected TimeIntervalService timeIntervalService;
+
+    @Autowired
+    protected WorkerTaskCounters taskCounters;
+
+    @Autowired
+    protected MetricStreamService streamService;
+
+    @Autowired
+    protected MeterRegistry meterRegistry;
+
+    private Metric postReading(int value, String timestamp) throws Exception {
+        String json = mockMvc.perform(post("/api/metrics?chargeLevel=100")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(String.format("""
+                        {"deviceId": %d, "value": %d, "timestamp": "%s"}
+                        """, assignedDevice.getDeviceId(), value, timestamp)))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+        return objectMapper.readValue(json, Metric.class);
+    }
+
+    // the index answers with the newest reading in device_metric
+    private void assertLastValueMatchesTheTable() {
+        Metric newestOfClient = metricRepository.findLatestByClientId(client.getId()).orElseThrow();
+        LastMetricIndex.LastValue ofClient = lastMetricIndex.getForClient(client.getId());
+        assertEquals(newestOfClient.getValue(), ofClient.value());
+        assertEquals(newestOfClient.getTimestamp(), ofClient.timestamp());
+        Metric newestOfDevice = metricRepository.findLatestByDeviceId(assignedDevice.getDeviceId()).orElseThrow();
+        LastMetricIndex.LastValue ofDevice = lastMetricIndex.getForDevice(assignedDevice.getDeviceId());
+        assertEquals(newestOfDevice.getValue(), ofDevice.value());
+        assertEquals(newestOfDevice.getTimestamp(), ofDevice.timestamp());
+    }
+
+    @Test
+    void lastValueIgnoresReadingsArrivingOutOfOrder() throws Exception {
+        assertNull(lastMetricIndex.getForClient(client.getId()).value());
+        postReading(20, "2024-01-01T00:00:10");
+        // taken earlier, delivered late
+        postReading(30, "2024-01-01T00:00:05");
+
+        assertLastValueMatchesTheTable();
+        assertEquals(20, lastMetricIndex.getForClient(client.getId()).value());
+    }
+
+    @Test
+    void lastValueIsReloadedAfterEviction() throws Exception {
+        postReading(20, "2024-01-01T00:00:05");
+        Metric newest = postReading(30, "2024-01-01T00:00:10");
+        assertEquals(30, lastMetricIndex.getForDevice(assignedDevice.getDeviceId()).value());
+
+        // deleting the newest reading evicts it, the one before is loaded from the table
+        mockMvc.perform(delete("/api/metrics/{id}", newest.getId()).with(managerAuth()))
+                .andExpect(status().isOk());
+        assertLastValueMatchesTheTable();
+        assertEquals(20, lastMetricIndex.getForClient(client.getId()).value());
+
+        // and so is everything once the entries are gone
+        lastMetricIndex.clear();
+        assertLastValueMatchesTheTable();
+        assertEquals(20, lastMetricIndex.getForDevice(assignedDevice.getDeviceId()).value());
+    }
+
     @Test
     void getMetricsByClientId() throws Exception {
         mockMvc.perform(get("/api/metrics/filtered?clientId={id}", clientA.getId())
@@ -73,4 +161,252 @@ public class MetricControllerTest extends BaseApiTest {
                 .andExpect(jsonPath("$[0].type").value(NotificationType.PUNISHMENT_TASK_CREATION.toString()));
 
     }
+
+    @Test
+    void postDeviceMetricBatch() throws Exception {
+        mockMvc.perform(post("/api/metrics/batch")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(String.format("""
+                        [{"deviceId": %d, "value": 10, "chargeLevel": 90,
+                          "timestamp": "1970-01-01T00:00:00", "latitude": 1, "longitude": 1},
+                         {"deviceId": %d, "value": 12, "chargeLevel": 10,
+                          "timestamp": "1970-01-01T00:00:01", "latitude": 1, "longitude": 1},
+                         {"deviceId": %d, "value": 5, "chargeLevel": 50,
+                          "timestamp": "1970-01-01T00:00:01", "latitude": 1, "longitude": 1}]
+                        """, assignedDevice.getDeviceId(), assignedDevice.getDeviceId(), freeDevice.getDeviceId())
+                        ))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.accepted").value(3));
+
+        mockMvc.perform(get("/api/metrics/filtered?clientId={id}", client.getId())
+                        .with(managerAuth()))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(2));
+
+        mockMvc.perform(get("/api/devices/{id}", assignedDevice.getDeviceId()).with(managerAuth()))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.batteryLevel").value(10));
+    }
+
+    @Test
+    void postDeviceMetricBatchWithUnknownDevice() throws Exception {
+        mockMvc.perform(post("/api/metrics/batch")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("""
+                        [{"deviceId": 404, "value": 10, "chargeLevel": 90}]
+                        """))
+                .andExpect(status().isUnprocessableEntity());
+    }
+
+    @Test
+    void getRollupsPicksResolutionByRange() throws Exception {
+        LocalDateTime base = LocalDateTime.now(ZoneOffset.UTC).truncatedTo(ChronoUnit.HOURS).minusHours(2);
+        mockMvc.perform(post("/api/metrics/batch")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(String.format("""
+                        [{"deviceId": %d, "value": 10, "chargeLevel": 90, "timestamp": "%s"},
+                         {"deviceId": %d, "value": 30, "chargeLevel": 90, "timestamp": "%s"},
+                         {"deviceId": %d, "value": 20, "chargeLevel": 90, "timestamp": "%s"}]
+                        """, assignedDevice.getDeviceId(), base.plusSeconds(5),
+                                assignedDevice.getDeviceId(), base.plusSeconds(10),
+                                assignedDevice.getDeviceId(), base.plusSeconds(70))
+                        ))
+                .andExpect(status().isOk());
+        rollupService.flush();
+
+        mockMvc.perform(get("/api/metrics/rollups?deviceId={id}&from={from}&to={to}",
+                        assignedDevice.getDeviceId(), base, base.plusHours(1))
+                        .with(managerAuth()))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.resolution").value(RollupResolution.MINUTE.toString()))
+                .andExpect(jsonPath("$.buckets.length()").value(2))
+                .andExpect(jsonPath("$.buckets[0].minValue").value(10))
+                .andExpect(jsonPath("$.buckets[0].maxValue").value(30))
+                .andExpect(jsonPath("$.buckets[0].lastValue").value(30))
+                .andExpect(jsonPath("$.buckets[0].avgValue").value(20.0))
+                .andExpect(jsonPath("$.buckets[1].count").value(1));
+
+        mockMvc.perform(get("/api/metrics/rollups?clientId={id}&from={from}&to={to}&maxPoints=10",
+                        client.getId(), base, base.plusHours(1))
+                        .with(managerAuth()))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.resolution").value(RollupResolution.HOUR.toString()))
+                .andExpect(jsonPath("$.buckets.length()").value(1))
+                .andExpect(jsonPath("$.buckets[0].count").value(3))
+                .andExpect(jsonPath("$.buckets[0].lastValue").value(20));
+    }
+
+    @Test
+    void getMetricsPageWithCursor() throws Exception {
+        mockMvc.perform(get("/api/metrics/filtered?clientId={id}&limit=100", clientA.getId())
+                        .with(managerAuth()))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(2));
+
+        MvcResult first = mockMvc.perform(get("/api/metrics/page?clientId={id}&limit=1", clientA.getId())
+                        .with(managerAuth()))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.items.length()").value(1))
+                .andExpect(jsonPath("$.nextCursor").isString())
+                .andReturn();
+        String cursor = objectMapper.readTree(first.getResponse().getContentAsString()).get("nextCursor").asText();
+        Long firstId = objectMapper.readTree(first.getResponse().getContentAsString()).get("items").get(0).get("id").asLong();
+
+        mockMvc.perform(get("/api/metrics/page?clientId={id}&limit=1&cursor={cursor}", clientA.getId(), cursor)
+                        .with(managerAuth()))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.items.length()").value(1))
+                .andExpect(jsonPath("$.items[0].id").value(not(firstId.intValue())))
+                .andExpect(jsonPath("$.nextCursor").value(nullValue()));
+
+        mockMvc.perform(get("/api/metrics/page?cursor=broken").with(managerAuth()))
+                .andExpect(status().isUnprocessableEntity());
+    }
+
+    @Test
+    void subscribeToMetricStream() throws Exception {
+        mockMvc.perform(get("/api/metrics/stream?clientId={id}", client.getId()).with(clientAuth()))
+                .andExpect(status().isForbidden());
+
+        MvcResult stream = mockMvc.perform(get("/api/metrics/stream?clientId={id}", client.getId()).with(managerAuth()))
+                .andExpect(status().isOk())
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        Metric posted = postReading(20, "2024-01-01T00:00:10");
+        String payload = awaitStreamed(stream, "id:" + posted.getId());
+        assertTrue(payload.contains("event:metric"));
+        assertTrue(payload.contains("\"value\":20"));
+    }
+
+    private static String awaitStreamed(MvcResult stream, String expected) throws Exception {
+        long deadline = System.currentTimeMillis() + 10000;
+        String payload = stream.getResponse().getContentAsString();
+        while (!payload.contains(expected) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+            payload = stream.getResponse().getContentAsString();
+        }
+        assertTrue(payload.contains(expected), payload);
+        return payload;
+    }
+
+    @Test
+    void slowStreamSubscriberIsDisconnectedAtTheBufferLimit() throws Exception {
+        Gauge connections = meterRegistry.get("sse.connections").tag("stream", "metrics").gauge();
+        double slowBefore = meterRegistry.get("sse.events").tags("stream", "metrics", "result", "slow_consumer")
+                .counter().count();
+        SseEmitter emitter = streamService.subscribe(client.getId(), null);
+        double connected = connections.value();
+
+        // the sender blocks on the emitter while it is held, so everything published meanwhile stays buffered
+        synchronized (emitter) {
+            for (int batch = 0; batch < 3; batch++) {
+                StringBuilder readings = new StringBuilder("[");
+                for (int i = 0; i < 100; i++)
+                    readings.append(i == 0 ? "" : ",").append(String.format(
+                            "{\"deviceId\": %d, \"value\": 10, \"chargeLevel\": 100, \"timestamp\": \"2024-01-01T%02d:%02d:00\"}",
+                            assignedDevice.getDeviceId(), batch, i % 60));
+                mockMvc.perform(post("/api/metrics/batch")
+                                .contentType(MediaType.APPLICATION_JSON)
+                                .content(readings.append("]").toString()))
+                        .andExpect(status().isOk());
+            }
+        }
+
+        assertEquals(slowBefore + 1, meterRegistry.get("sse.events")
+                .tags("stream", "metrics", "result", "slow_consumer").counter().count());
+        assertEquals(connected - 1, connections.value());
+    }
+
+    @Test
+    void lowBatteryNotifiedOnce() throws Exception {
+        for (int chargeLevel : new int[]{10, 5, 3}) {
+            mockMvc.perform(post("/api/metrics?chargeLevel={level}", chargeLevel)
+                            .contentType(MediaType.APPLICATION_JSON)
+                            .content(String.format("""
+                            {"deviceId": %d, "value": 10}
+                            """, assignedDevice.getDeviceId())))
+                    .andExpect(status().isOk());
+        }
+
+        mockMvc.perform(get("/api/notifications").with(managerAuth()))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[?(@.type == 'DEVICE_LOW_BATTERY')]", hasSize(1)));
+
+        mockMvc.perform(get("/api/devices/{id}", assignedDevice.getDeviceId()).with(managerAuth()))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.batteryLevel").value(3))
+                .andExpect(jsonPath("$.lastActiveTime").exists());
+    }
+
+    @Test
+    void lowBatterySeenByAnotherReplicaIsNotNotifiedAgain() throws Exception {
+        // this replica still holds an unwritten state from before the drop
+        deviceStateCache.apply(assignedDevice.getDeviceId(),
+                new DeviceStateCache.DeviceState(100, DeviceStatus.ACTIVE, null));
+        // another replica took a reading below the threshold and notified already
+        jdbcTemplate.update("UPDATE device SET battery_level = 10 WHERE device_id = ?", assignedDevice.getDeviceId());
+
+        mockMvc.perform(post("/api/metrics?chargeLevel=5")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(String.format("""
+                        {"deviceId": %d, "value": 10}
+                        """, assignedDevice.getDeviceId())))
+                .andExpect(status().isOk());
+
+        mockMvc.perform(get("/api/notifications").with(managerAuth()))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[?(@.type == 'DEVICE_LOW_BATTERY')]", hasSize(0)));
+    }
+
+    @Test
+    void flushedDeviceStateIsReadFromTheTable() throws Exception {
+        mockMvc.perform(post("/api/metrics?chargeLevel=40")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(String.format("""
+                        {"deviceId": %d, "value": 10}
+                        """, assignedDevice.getDeviceId())))
+                .andExpect(status().isOk());
+        deviceStateCache.flush();
+        // written by another replica after the flush
+        jdbcTemplate.update("UPDATE device SET battery_level = 70 WHERE device_id = ?", assignedDevice.getDeviceId());
+
+        mockMvc.perform(get("/api/devices/{id}", assignedDevice.getDeviceId()).with(managerAuth()))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.batteryLevel").value(70));
+    }
+
+    @Test
+    void violationBurstIsSpreadOverOfficersOnDuty() throws Exception {
+        Worker worker2 = new Worker();
+        worker2.setEmail("worker2@example.com");
+        worker2.setRole(WorkerRole.CORRECTIONS_OFFICER);
+        worker2.setManager(manager);
+        workerRepository.save(worker2);
+        for (Worker w : List.of(worker, worker2))
+            for (Weekday day : Weekday.values())
+                timeIntervalService.save(new TimeInterval(null, w.getId(), null,
+                        Time.valueOf("00:00:00"), Time.valueOf("23:59:59"), day));
+        // the fixture tasks of worker were written past the counters
+        taskCounters.reconcile();
+
+        // three upward crossings of the threshold in one batch
+        mockMvc.perform(post("/api/metrics/batch")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(String.format("""
+                        [{"deviceId": %1$d, "value": 60, "chargeLevel": 90},
+                         {"deviceId": %1$d, "value": 10, "chargeLevel": 90},
+                         {"deviceId": %1$d, "value": 60, "chargeLevel": 90},
+                         {"deviceId": %1$d, "value": 10, "chargeLevel": 90},
+                         {"deviceId": %1$d, "value": 60, "chargeLevel": 90}]
+                        """, assignedDevice.getDeviceId())))
+                .andExpect(status().isOk());
+
+        // worker already had two open tasks, so worker2 takes the first two and worker the tie-break
+        List<TaskStatus> open = List.of(TaskStatus.NEW, TaskStatus.IN_PROGRESS);
+        assertEquals(2, punishmentTaskRepository.findByExecutionerIdAndStatusIn(worker.getId(), open).size());
+        assertEquals(2, punishmentTaskRepository.findByExecutionerIdAndStatusIn(worker2.getId(), open).size());
+        assertEquals(3, taskCounters.openTasks(worker.getId()));
+        assertEquals(2, taskCounters.openTasks(worker2.getId()));
+    }
 }
@@ -0,0 +1,130 @@
+package com.itmo.spy_system.controller;
+
+import com.itmo.spy_system.entity.Metric;
+import com.itmo.spy_system.service.MetricIngestionPipeline;
+import com.itmo.spy_system.service.MetricService;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.web.servlet.ResultActions;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+// one worker with room for one reading, so that a second reading waits while the worker is busy and a third one is turned away
+@TestPropertySource(properties = {
+        "metrics.ingestion.async.enabled=true",
+        "metrics.ingestion.workers=1",
+        "metrics.ingestion.queue-capacity=1",
+        "metrics.ingestion.retry-after-seconds=7"
+})
+public class MetricIngestionPipelineTest extends BaseApiTest {
+
+    @Autowired
+    private MetricIngestionPipeline pipeline;
+
+    @SpyBean
+    private MetricService metricService;
+
+    private final CountDownLatch persisting = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    private ResultActions postReading(int value) throws Exception {
+        return mockMvc.perform(post("/api/metrics?chargeLevel=100")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(String.format("""
+                        {"deviceId": %d,
+                        "value": %d,
+                        "timestamp": "2024-01-01T00:00:00",
+                        "latitude": 1,
+                        "longitude": 1}
+                        """, assignedDevice.getDeviceId(), value)));
+    }
+
+    private long persistedReadings() {
+        return metricRepository.findAll().stream()
+                .filter(m -> assignedDevice.getDeviceId().equals(m.getDeviceId()))
+                .count();
+    }
+
+    private void awaitPersisted(long expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (persistedReadings() < expected && System.currentTimeMillis() < deadline)
+            Thread.sleep(50);
+        assertEquals(expected, persistedReadings());
+    }
+
+    // the worker holds the first batch until released
+    private void blockWorker() {
+        doAnswer(invocation -> {
+            persisting.countDown();
+            release.await(10, TimeUnit.SECONDS);
+            return invocation.callRealMethod();
+        }).when(metricService).createBatch(any());
+    }
+
+    @Test
+    void readingIsAcceptedAndPersistedLater() throws Exception {
+        postReading(10).andExpect(status().isAccepted());
+
+        awaitPersisted(1);
+        Metric persisted = metricRepository.findAll().stream()
+                .filter(m -> assignedDevice.getDeviceId().equals(m.getDeviceId()))
+                .findFirst().orElseThrow();
+        assertEquals(10, persisted.getValue());
+    }
+
+    @Test
+    void fullQueueIsAnsweredWithRetryAfter() throws Exception {
+        blockWorker();
+        try {
+            postReading(1).andExpect(status().isAccepted());
+            assertTrue(persisting.await(10, TimeUnit.SECONDS));
+            // waits in the queue
+            postReading(2).andExpect(status().isAccepted());
+
+            postReading(3)
+                    .andExpect(status().isServiceUnavailable())
+                    .andExpect(header().string(HttpHeaders.RETRY_AFTER, "7"));
+        } finally {
+            release.countDown();
+        }
+        awaitPersisted(2);
+    }
+
+    @Test
+    @DirtiesContext
+    void stopDrainsQueuedReadings() throws Exception {
+        blockWorker();
+        postReading(1).andExpect(status().isAccepted());
+        assertTrue(persisting.await(10, TimeUnit.SECONDS));
+        postReading(2).andExpect(status().isAccepted());
+
+        Thread stopping = new Thread(() -> {
+            try {
+                pipeline.stop();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        stopping.start();
+        release.countDown();
+        stopping.join(10000);
+
+        assertEquals(2, persistedReadings());
+        // a stopped pipeline takes nothing new
+        postReading(3).andExpect(status().isServiceUnavailable());
+    }
+}
@@ -0,0 +1,147 @@
+package com.itmo.spy_system.controller;
+
+import com.itmo.spy_system.entity.Weekday;
+import com.itmo.spy_system.entity.Worker;
+import com.itmo.spy_system.entity.WorkerRole;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.ResultActions;
+
+import java.sql.Timestamp;
+
+import static org.hamcrest.Matchers.contains;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+// the manager signed the contract of client, so client is the only one in the manager's scope
+public class MonitoringTimeIntervalControllerTest extends BaseApiTest {
+
+    private Worker officer;
+
+    @BeforeEach
+    void setUpOfficer() {
+        officer = new Worker();
+        officer.setEmail("officer@example.com");
+        officer.setPassword(passwordEncoder.encode("officerpass"));
+        officer.setRole(WorkerRole.SURVEILLANCE_OFFICER);
+        officer.setManager(manager);
+        workerRepository.save(officer);
+    }
+
+    private void watch(Weekday weekday, String begin, String ending) throws Exception {
+        mockMvc.perform(post("/api/monitoring_time_intervals")
+                        .with(managerAuth())
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(String.format("""
+                                {"clientId": %d, "workerId": %d, "weekday": "%s", "begin": "%s", "ending": "%s"}
+                                """, client.getId(), officer.getId(), weekday, begin, ending)))
+                .andExpect(status().isOk());
+    }
+
+    private ResultActions uncoveredAt(String at) throws Exception {
+        return mockMvc.perform(get("/api/monitoring_time_intervals/uncovered")
+                        .with(managerAuth())
+                        .param("at", at))
+                .andExpect(status().isOk());
+    }
+
+    private ResultActions coverageGaps() throws Exception {
+        return mockMvc.perform(get("/api/monitoring_time_intervals/coverage_gaps")
+                        .with(managerAuth()))
+                .andExpect(status().isOk());
+    }
+
+    @Test
+    void unwatchedClientIsOneWholeWeekGap() throws Exception {
+        // 2024-01-01 is a Monday
+        uncoveredAt("2024-01-01T12:00:00")
+                .andExpect(jsonPath("$[*].id").value(contains(client.getId().intValue())))
+                .andExpect(jsonPath("$[0].latestContract.id").value(contract.getId()))
+                // neither the client's nor the contract signer's password hash
+                .andExpect(jsonPath("$..password").doesNotExist());
+        coverageGaps()
+                .andExpect(jsonPath("$.length()").value(1))
+                .andExpect(jsonPath("$[0].weekday").value("MONDAY"))
+                .andExpect(jsonPath("$[0].from").value("00:00:00"))
+                .andExpect(jsonPath("$[0].minutes").value(7 * 24 * 60));
+    }
+
+    @Test
+    void deletedClientIsNotUncovered() throws Exception {
+        client.setDeletedAt(new Timestamp(System.currentTimeMillis()));
+        clientRepository.save(client);
+
+        uncoveredAt("2024-01-01T12:00:00").andExpect(jsonPath("$.length()").value(0));
+    }
+
+    @Test
+    void fullyWatchedWeekHasNoGaps() throws Exception {
+        for (Weekday weekday : Weekday.values())
+            watch(weekday, "00:00:00", "23:59:00");
+
+        coverageGaps().andExpect(jsonPath("$.length()").value(0));
+        for (String at : new String[]{"2024-01-01T00:00:00", "2024-01-03T13:37:00", "2024-01-07T23:59:00"})
+            uncoveredAt(at).andExpect(jsonPath("$.length()").value(0));
+    }
+
+    @Test
+    void gapBetweenIntervalsIsReported() throws Exception {
+        watch(Weekday.MONDAY, "00:00:00", "23:59:00");
+        watch(Weekday.TUESDAY, "00:00:00", "11:59:00");
+        watch(Weekday.TUESDAY, "14:00:00", "23:59:00");
+        watch(Weekday.WEDNESDAY, "00:00:00", "23:59:00");
+        watch(Weekday.THURSDAY, "00:00:00", "23:59:00");
+        watch(Weekday.FRIDAY, "00:00:00", "23:59:00");
+        watch(Weekday.SATURDAY, "00:00:00", "23:59:00");
+        watch(Weekday.SUNDAY, "00:00:00", "23:59:00");
+
+        coverageGaps()
+                .andExpect(jsonPath("$.length()").value(1))
+                .andExpect(jsonPath("$[0].clientId").value(client.getId()))
+                .andExpect(jsonPath("$[0].weekday").value("TUESDAY"))
+                .andExpect(jsonPath("$[0].from").value("12:00:00"))
+                .andExpect(jsonPath("$[0].minutes").value(120));
+        // the ending minute is still watched
+        uncoveredAt("2024-01-02T11:59:00").andExpect(jsonPath("$.length()").value(0));
+        uncoveredAt("2024-01-02T12:00:00").andExpect(jsonPath("$.length()").value(1));
+        uncoveredAt("2024-01-02T13:59:00").andExpect(jsonPath("$.length()").value(1));
+        uncoveredAt("2024-01-02T14:00:00").andExpect(jsonPath("$.length()").value(0));
+    }
+
+    @Test
+    void watchAcrossMidnightHasNoGapThere() throws Exception {
+        watch(Weekday.WEDNESDAY, "20:00:00", "23:59:00");
+        watch(Weekday.THURSDAY, "00:00:00", "06:00:00");
+
+        uncoveredAt("2024-01-03T23:59:00").andExpect(jsonPath("$.length()").value(0));
+        uncoveredAt("2024-01-04T00:00:00").andExpect(jsonPath("$.length()").value(0));
+        uncoveredAt("2024-01-04T06:01:00").andExpect(jsonPath("$.length()").value(1));
+        // one gap, from Thursday morning around the week to Wednesday evening
+        coverageGaps()
+                .andExpect(jsonPath("$.length()").value(1))
+                .andExpect(jsonPath("$[0].weekday").value("THURSDAY"))
+                .andExpect(jsonPath("$[0].from").value("06:01:00"))
+                .andExpect(jsonPath("$[0].minutes").value(7 * 24 * 60 - 240 - 361));
+    }
+
+    @Test
+    void gapAcrossTheEndOfTheWeekIsReportedOnce() throws Exception {
+        watch(Weekday.MONDAY, "06:00:00", "17:59:00");
+        watch(Weekday.SUNDAY, "00:00:00", "11:59:00");
+
+        // 2024-01-07 is a Sunday, 2024-01-08 the Monday after
+        uncoveredAt("2024-01-07T23:59:00").andExpect(jsonPath("$.length()").value(1));
+        uncoveredAt("2024-01-08T00:00:00").andExpect(jsonPath("$.length()").value(1));
+        uncoveredAt("2024-01-08T06:00:00").andExpect(jsonPath("$.length()").value(0));
+        coverageGaps()
+                .andExpect(jsonPath("$.length()").value(2))
+                .andExpect(jsonPath("$[0].weekday").value("MONDAY"))
+                .andExpect(jsonPath("$[0].from").value("18:00:00"))
+                .andExpect(jsonPath("$[0].minutes").value(6 * 24 * 60 - 18 * 60))
+                .andExpect(jsonPath("$[1].weekday").value("SUNDAY"))
+                .andExpect(jsonPath("$[1].from").value("12:00:00"))
+                .andExpect(jsonPath("$[1].minutes").value(12 * 60 + 6 * 60));
+    }
+}
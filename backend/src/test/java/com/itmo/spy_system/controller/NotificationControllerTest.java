@@ -0,0 +1,392 @@
+package com.itmo.spy_system.controller;
+
+import com.itmo.spy_system.dto.NotificationRecipient;
+import com.itmo.spy_system.entity.Notification;
+import com.itmo.spy_system.entity.NotificationStatus;
+import com.itmo.spy_system.entity.NotificationType;
+import com.itmo.spy_system.service.NotificationArchiver;
+import com.itmo.spy_system.service.NotificationDedupeIndex;
+import com.itmo.spy_system.service.NotificationService;
+import com.itmo.spy_system.service.NotificationStreamService;
+import com.itmo.spy_system.service.UnreadNotificationCounters;
+import com.jayway.jsonpath.JsonPath;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+import org.springframework.test.web.servlet.request.RequestPostProcessor;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.hasSize;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+public class NotificationControllerTest extends BaseApiTest {
+
+    @Autowired
+    private NotificationService notificationService;
+
+    @Autowired
+    private NotificationArchiver archiver;
+
+    @Autowired
+    private NotificationDedupeIndex dedupeIndex;
+
+    @Autowired
+    private NotificationStreamService streamService;
+
+    @Autowired
+    private UnreadNotificationCounters unreadCounters;
+
+    private List<Notification> notifyWorker(int count) {
+        List<Notification> created = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Notification n = notificationService.initNotificationWithDefaultValues();
+            n.setWorkerId(worker.getId());
+            n.setType(NotificationType.PUNISHMENT_TASK_CREATION);
+            n.setText("Notification #" + i);
+            created.add(notificationService.save(n));
+        }
+        return created;
+    }
+
+    private MvcResult subscribe(RequestPostProcessor auth, Long lastSeenId) throws Exception {
+        MockHttpServletRequestBuilder builder = get("/api/notifications/stream").with(auth);
+        if (lastSeenId != null)
+            builder.header("Last-Event-ID", lastSeenId);
+        return mockMvc.perform(builder)
+                .andExpect(request().asyncStarted())
+                .andReturn();
+    }
+
+    // ids of the notification events sent so far
+    private static List<Long> eventIds(MvcResult stream) throws Exception {
+        List<Long> ids = new ArrayList<>();
+        for (String line : stream.getResponse().getContentAsString(StandardCharsets.UTF_8).split("\n"))
+            if (line.startsWith("id:"))
+                ids.add(Long.parseLong(line.substring(3)));
+        return ids;
+    }
+
+    private static List<Long> awaitEventIds(MvcResult stream, int count) throws Exception {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (eventIds(stream).size() < count && System.currentTimeMillis() < deadline)
+            Thread.sleep(50);
+        return eventIds(stream);
+    }
+
+    private Notification createdAt(Notification n, long millis) {
+        n.setCreatedAt(new Timestamp(millis));
+        return notificationService.save(n);
+    }
+
+    @Test
+    void subscriberOnlyGetsOwnNotifications() throws Exception {
+        MvcResult stream = subscribe(workerAuth(), null);
+
+        Notification toClient = notificationService.initNotificationWithDefaultValues();
+        toClient.setClientId(client.getId());
+        toClient.setText("To the client");
+        notificationService.save(toClient);
+        Notification toManager = notificationService.initNotificationWithDefaultValues();
+        toManager.setManagerId(manager.getId());
+        toManager.setText("To the manager");
+        notificationService.save(toManager);
+        List<Notification> toWorker = notifyWorker(2);
+
+        assertEquals(List.of(toWorker.get(0).getId(), toWorker.get(1).getId()), awaitEventIds(stream, 2));
+        assertTrue(stream.getResponse().getContentAsString(StandardCharsets.UTF_8).contains("Notification #1"));
+    }
+
+    @Test
+    void reconnectReplaysWhatWasCreatedSinceTheLastSeen() throws Exception {
+        List<Notification> created = notifyWorker(4);
+        long lastSeenAt = System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(1);
+        Notification lastSeen = createdAt(created.get(1), lastSeenAt);
+        // a lower id, but written later, e.g. by a replica with an older block of the sequence
+        Notification later = createdAt(created.get(0), lastSeenAt + 1000);
+        // long before, seen already
+        createdAt(created.get(2), lastSeenAt - TimeUnit.HOURS.toMillis(1));
+        // within the overlap, replayed in case it was committed after the last seen one
+        Notification justBefore = createdAt(created.get(3), lastSeenAt - 1000);
+        Notification toClient = notificationService.initNotificationWithDefaultValues();
+        toClient.setClientId(client.getId());
+        createdAt(toClient, lastSeenAt + 1000);
+
+        MvcResult stream = subscribe(workerAuth(), lastSeen.getId());
+        assertEquals(List.of(justBefore.getId(), later.getId()), awaitEventIds(stream, 2));
+
+        // then live ones
+        Notification live = notifyWorker(1).get(0);
+        assertEquals(List.of(justBefore.getId(), later.getId(), live.getId()), awaitEventIds(stream, 3));
+        assertFalse(stream.getResponse().getContentAsString(StandardCharsets.UTF_8).contains("event:truncated"));
+    }
+
+    @Test
+    void longBacklogIsReplayedOldestFirstAndTruncated() throws Exception {
+        List<Notification> created = notifyWorker(5);
+        long start = System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(1);
+        for (int i = 0; i < created.size(); i++)
+            createdAt(created.get(i), start + i * 1000L);
+        int replayLimit = (int) ReflectionTestUtils.getField(streamService, "replayLimit");
+        ReflectionTestUtils.setField(streamService, "replayLimit", 2);
+        try {
+            MvcResult stream = subscribe(workerAuth(), created.get(0).getId());
+            assertEquals(List.of(created.get(1).getId(), created.get(2).getId()), awaitEventIds(stream, 2));
+
+            long deadline = System.currentTimeMillis() + 5000;
+            while (!stream.getResponse().getContentAsString(StandardCharsets.UTF_8).contains("event:truncated")
+                    && System.currentTimeMillis() < deadline)
+                Thread.sleep(50);
+            String content = stream.getResponse().getContentAsString(StandardCharsets.UTF_8);
+            assertTrue(content.contains("event:truncated"));
+            assertTrue(content.contains("\"lastReplayedId\":" + created.get(2).getId()));
+            assertEquals(2, eventIds(stream).size());
+        } finally {
+            ReflectionTestUtils.setField(streamService, "replayLimit", replayLimit);
+        }
+    }
+
+    @Test
+    void inboxIsPagedNewestFirst() throws Exception {
+        List<Notification> created = notifyWorker(3);
+
+        String firstPage = mockMvc.perform(get("/api/notifications/inbox?limit=2").with(workerAuth()))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.items.length()").value(2))
+                .andExpect(jsonPath("$.items[0].id").value(created.get(2).getId()))
+                .andExpect(jsonPath("$.nextCursor").isNotEmpty())
+                .andReturn().getResponse().getContentAsString();
+        String cursor = JsonPath.read(firstPage, "$.nextCursor");
+
+        mockMvc.perform(get("/api/notifications/inbox?limit=2&cursor={cursor}", cursor).with(workerAuth()))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.items.length()").value(1))
+                .andExpect(jsonPath("$.items[0].id").value(created.get(0).getId()))
+                .andExpect(jsonPath("$.nextCursor").doesNotExist());
+
+        mockMvc.perform(get("/api/notifications/inbox").with(clientAuth()))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.items.length()").value(0));
+    }
+
+    @Test
+    void unreadCounterFollowsMarkAsRead() throws Exception {
+        List<Notification> created = notifyWorker(3);
+
+        mockMvc.perform(get("/api/notifications/unread_count").with(workerAuth()))
+                .andExpect(status().isOk())
+                .andExpect(content().string("3"));
+
+        mockMvc.perform(post("/api/notifications/mark_read").with(workerAuth())
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("[" + created.get(0).getId() + "]"))
+                .andExpect(status().isOk())
+                .andExpect(content().string("1"));
+        mockMvc.perform(get("/api/notifications/unread_count").with(workerAuth()))
+                .andExpect(content().string("2"));
+
+        mockMvc.perform(post("/api/notifications/mark_all_read").with(workerAuth()))
+                .andExpect(status().isOk())
+                .andExpect(content().string("2"));
+        mockMvc.perform(get("/api/notifications/unread_count").with(workerAuth()))
+                .andExpect(content().string("0"));
+        mockMvc.perform(get("/api/notifications/inbox?status=UNREAD").with(workerAuth()))
+                .andExpect(jsonPath("$.items.length()").value(0));
+    }
+
+    @Test
+    void unreadCounterFollowsStatusAndRecipientChanges() {
+        NotificationRecipient toWorker = NotificationRecipient.worker(worker.getId());
+        NotificationRecipient toManager = NotificationRecipient.manager(manager.getId());
+        long managerUnread = notificationService.countUnread(toManager);
+        List<Notification> created = notifyWorker(3);
+        assertEquals(3, notificationService.countUnread(toWorker));
+        assertEquals(3L, unreadNotificationCountRepository.findById("workerId:" + worker.getId()).orElseThrow().getUnread());
+
+        Notification read = new Notification();
+        read.setId(created.get(0).getId());
+        read.setStatus(NotificationStatus.READ);
+        notificationService.patch(read);
+        assertEquals(2, notificationService.countUnread(toWorker));
+
+        // readdressed, and also to the manager
+        Notification moved = notificationService.findById(created.get(1).getId()).orElseThrow();
+        moved.setWorkerId(null);
+        moved.setManagerId(manager.getId());
+        notificationService.save(moved);
+        assertEquals(1, notificationService.countUnread(toWorker));
+        assertEquals(managerUnread + 1, notificationService.countUnread(toManager));
+
+        notificationService.deleteById(created.get(2).getId());
+        notificationService.deleteById(created.get(0).getId());
+        assertEquals(0, notificationService.countUnread(toWorker));
+
+        // a notification to both is read for both
+        Notification both = notificationService.initNotificationWithDefaultValues();
+        both.setWorkerId(worker.getId());
+        both.setManagerId(manager.getId());
+        both = notificationService.save(both);
+        assertEquals(1, notificationService.countUnread(toWorker));
+        assertEquals(managerUnread + 2, notificationService.countUnread(toManager));
+        assertEquals(1, notificationService.markRead(toWorker, null));
+        assertEquals(0, notificationService.countUnread(toWorker));
+        assertEquals(managerUnread + 1, notificationService.countUnread(toManager));
+        // read already
+        assertEquals(0, notificationService.markRead(toManager, List.of(both.getId())));
+        assertEquals(managerUnread + 1, notificationService.countUnread(toManager));
+    }
+
+    @Test
+    void unreadCounterIsReconciledWithDirectWrites() throws Exception {
+        notifyWorker(1);
+        // straight to the table, past the counter
+        Notification n = notificationService.initNotificationWithDefaultValues();
+        n.setWorkerId(worker.getId());
+        notificationRepository.save(n);
+        Notification toClient = notificationService.initNotificationWithDefaultValues();
+        toClient.setClientId(client.getId());
+        notificationRepository.save(toClient);
+
+        mockMvc.perform(get("/api/notifications/unread_count").with(workerAuth()))
+                .andExpect(content().string("1"));
+        // without a row yet, counted
+        mockMvc.perform(get("/api/notifications/unread_count").with(clientAuth()))
+                .andExpect(content().string("1"));
+
+        unreadCounters.reconcile();
+
+        mockMvc.perform(get("/api/notifications/unread_count").with(workerAuth()))
+                .andExpect(content().string("2"));
+        assertEquals(1L, unreadNotificationCountRepository.findById("clientId:" + client.getId()).orElseThrow().getUnread());
+        notificationService.markRead(NotificationRecipient.worker(worker.getId()), List.of(n.getId()));
+        mockMvc.perform(get("/api/notifications/unread_count").with(workerAuth()))
+                .andExpect(content().string("1"));
+    }
+
+    @Test
+    void oldReadNotificationsMoveToArchive() throws Exception {
+        List<Notification> created = notifyWorker(3);
+        Notification old = created.get(0);
+        old.setStatus(NotificationStatus.READ);
+        old.setRelatedEntityId(old.getId());
+        old.setCreatedAt(new Timestamp(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(365)));
+        notificationService.save(old);
+        // old but unread, stays in the inbox
+        Notification oldUnread = created.get(1);
+        oldUnread.setCreatedAt(old.getCreatedAt());
+        notificationService.save(oldUnread);
+
+        archiver.archive(0, 1);
+
+        mockMvc.perform(get("/api/notifications/inbox").with(workerAuth()))
+                .andExpect(jsonPath("$.items.length()").value(2));
+        mockMvc.perform(get("/api/notifications/archive").with(workerAuth()))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.items.length()").value(1))
+                .andExpect(jsonPath("$.items[0].id").value(old.getId()))
+                .andExpect(jsonPath("$.items[0].status").value("READ"));
+        assertTrue(notificationService.isNotified(NotificationType.PUNISHMENT_TASK_CREATION, old.getId()));
+        assertEquals(Set.of(old.getId()),
+                notificationService.findNotifiedEntityIds(NotificationType.PUNISHMENT_TASK_CREATION, List.of(old.getId())));
+    }
+
+    @Test
+    void filterMissFallsBackToTheDbUnlessTheKeyWasOwnedSinceTheScan() throws Exception {
+        dedupeIndex.rebuild();
+        long scannedBy = System.currentTimeMillis();
+        Thread.sleep(5);
+        // straight to the table, as another replica would after the scan
+        Notification n = notificationService.initNotificationWithDefaultValues();
+        n.setManagerId(manager.getId());
+        n.setType(NotificationType.DEVICE_INACTIVE);
+        n.setRelatedEntityId(1042L);
+        notificationRepository.save(n);
+
+        assertNull(dedupeIndex.isNotified(NotificationType.DEVICE_INACTIVE, 1042L, null));
+        assertNull(dedupeIndex.isNotified(NotificationType.DEVICE_INACTIVE, 1042L, System.currentTimeMillis()));
+        assertTrue(notificationService.isNotified(NotificationType.DEVICE_INACTIVE, 1042L, System.currentTimeMillis()));
+        assertTrue(notificationService.isNotified(NotificationType.DEVICE_INACTIVE, 1042L));
+
+        // owned since before the scan, so only this replica could have written it
+        assertEquals(Boolean.FALSE, dedupeIndex.isNotified(NotificationType.DEVICE_INACTIVE, 1043L, scannedBy - 60000));
+        assertFalse(notificationService.isNotified(NotificationType.DEVICE_INACTIVE, 1043L));
+    }
+
+    private List<Notification> storm(int devices) {
+        List<Notification> storm = new ArrayList<>();
+        for (long deviceId = 1; deviceId <= devices; deviceId++) {
+            Notification n = notificationService.initNotificationWithDefaultValues();
+            n.setManagerId(manager.getId());
+            n.setType(NotificationType.DEVICE_INACTIVE);
+            n.setRelatedEntityId(deviceId);
+            n.setText("Device #" + deviceId);
+            storm.add(n);
+        }
+        return storm;
+    }
+
+    @Test
+    void stormIsCollapsedIntoDigest() throws Exception {
+        List<Notification> storm = storm(5);
+        // two as they are, the third opens a digest, the rest are folded into it
+        assertEquals(3, notificationService.saveAll(storm.subList(0, 4)).size());
+        assertEquals(0, notificationService.saveAll(storm.subList(4, 5)).size());
+
+        String inbox = mockMvc.perform(get("/api/notifications/inbox").with(managerAuth()))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.items[?(@.type == 'DEVICE_INACTIVE')]", hasSize(3)))
+                .andExpect(jsonPath("$.items[?(@.aggregateCount == 3)]", hasSize(1)))
+                .andReturn().getResponse().getContentAsString();
+        List<List<Integer>> digested = JsonPath.read(inbox, "$.items[?(@.aggregateCount == 3)].relatedEntityIds");
+        assertEquals(List.of(List.of(3, 4, 5)), digested);
+        assertTrue(notificationService.isNotified(NotificationType.DEVICE_INACTIVE, 5L));
+
+        // as on a replica that did not write them, the folded ones are found in the DB
+        dedupeIndex.forget(NotificationType.DEVICE_INACTIVE, 4L);
+        dedupeIndex.forget(NotificationType.DEVICE_INACTIVE, 5L);
+        assertNull(dedupeIndex.isNotified(NotificationType.DEVICE_INACTIVE, 4L, null));
+        assertTrue(notificationService.isNotified(NotificationType.DEVICE_INACTIVE, 4L));
+        dedupeIndex.forget(NotificationType.DEVICE_INACTIVE, 4L);
+        assertEquals(Set.of(4L, 5L),
+                notificationService.findNotifiedEntityIds(NotificationType.DEVICE_INACTIVE, List.of(4L, 5L, 6L)));
+    }
+
+    @Test
+    void digestReadMeanwhileIsNotFoldedInto() {
+        List<Notification> storm = storm(6);
+        List<Notification> saved = notificationService.saveAll(storm.subList(0, 3));
+        Notification digest = saved.get(2);
+        assertEquals(1, digest.getAggregateCount());
+        notificationService.markRead(NotificationRecipient.manager(manager.getId()), List.of(digest.getId()));
+
+        // a new digest instead, the read one stays as it was
+        List<Notification> reopened = notificationService.saveAll(storm.subList(3, 5));
+        assertEquals(1, reopened.size());
+        assertEquals(2, reopened.get(0).getAggregateCount());
+        assertEquals(List.of(4L, 5L), reopened.get(0).getRelatedEntityIds());
+        Notification read = notificationRepository.findById(digest.getId()).orElseThrow();
+        assertEquals(NotificationStatus.READ, read.getStatus());
+        assertEquals(1, read.getAggregateCount());
+
+        assertEquals(0, notificationService.saveAll(storm.subList(5, 6)).size());
+        Notification open = notificationRepository.findById(reopened.get(0).getId()).orElseThrow();
+        assertEquals(NotificationStatus.UNREAD, open.getStatus());
+        assertEquals(3, open.getAggregateCount());
+        assertEquals(List.of(4L, 5L, 6L), open.getRelatedEntityIds());
+        assertEquals("Device #4 (+2 похожих)", open.getText());
+    }
+}
@@ -0,0 +1,139 @@
+package com.itmo.spy_system.controller;
+
+import com.itmo.spy_system.entity.Notification;
+import com.itmo.spy_system.entity.NotificationType;
+import com.itmo.spy_system.entity.OutboxMessage;
+import com.itmo.spy_system.entity.OutboxStatus;
+import com.itmo.spy_system.repository.OutboxMessageRepository;
+import com.itmo.spy_system.service.NotificationService;
+import com.itmo.spy_system.service.OutboxService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.mail.MailSendException;
+import org.springframework.test.context.TestPropertySource;
+
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+// one partition polled often, retried after 200ms, then 400ms, and parked at the third failure
+@TestPropertySource(properties = {
+        "outbox.enabled=true",
+        "outbox.partitions=1",
+        "outbox.poll-ms=50",
+        "outbox.max-attempts=3",
+        "outbox.retry.base-ms=200",
+        "outbox.retry.max-ms=400",
+        "jobs.renew-ms=100"
+})
+public class OutboxServiceTest extends BaseApiTest {
+
+    @Autowired
+    private OutboxService outboxService;
+
+    @Autowired
+    private NotificationService notificationService;
+
+    @Autowired
+    private OutboxMessageRepository outboxMessageRepository;
+
+    // when the email service was called, failing or not
+    private final List<Long> sendAttempts = new CopyOnWriteArrayList<>();
+
+    @BeforeEach
+    void clearOutbox() {
+        outboxMessageRepository.deleteAll();
+    }
+
+    private void failSends(int times) {
+        doAnswer(invocation -> {
+            sendAttempts.add(System.currentTimeMillis());
+            if (sendAttempts.size() <= times)
+                throw new MailSendException("Mail server is down");
+            return null;
+        }).when(defaultEmailService).sendSimpleEmail(anyString(), anyString(), anyString());
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline)
+            Thread.sleep(20);
+        assertTrue(condition.getAsBoolean());
+    }
+
+    @Test
+    void enqueuedNotificationsAreDelivered() throws Exception {
+        Timestamp createdAt = new Timestamp(System.currentTimeMillis() - 60000);
+        List<Notification> enqueued = List.of(1, 2).stream().map(i -> {
+            Notification n = notificationService.initNotificationWithDefaultValues();
+            n.setWorkerId(worker.getId());
+            n.setType(NotificationType.PUNISHMENT_TASK_CREATION);
+            n.setText("Notification #" + i);
+            n.setCreatedAt(createdAt);
+            return n;
+        }).toList();
+
+        outboxService.enqueueNotifications(enqueued);
+
+        await(() -> notificationRepository.count() == 2);
+        await(() -> outboxMessageRepository.count() == 0);
+        for (Notification n : notificationRepository.findAll()) {
+            assertEquals(worker.getId(), n.getWorkerId());
+            // the business change's time, not the dispatch's
+            assertEquals(createdAt, n.getCreatedAt());
+        }
+    }
+
+    @Test
+    void enqueuedEmailIsSent() throws Exception {
+        failSends(0);
+
+        outboxService.enqueueEmail("someone@mail.com", "Subject", "Text");
+
+        verify(defaultEmailService, timeout(10000)).sendSimpleEmail("someone@mail.com", "Subject", "Text");
+        await(() -> outboxMessageRepository.count() == 0);
+    }
+
+    @Test
+    void failedEmailIsRetriedAfterBackoff() throws Exception {
+        failSends(1);
+
+        outboxService.enqueueEmail("someone@mail.com", "Subject", "Text");
+
+        await(() -> outboxMessageRepository.findAll().stream().anyMatch(m -> m.getAttempts() == 1));
+        OutboxMessage failed = outboxMessageRepository.findAll().get(0);
+        assertEquals(OutboxStatus.PENDING, failed.getStatus());
+        assertTrue(failed.getLastError().contains("Mail server is down"));
+        assertTrue(failed.getNextAttemptAt().getTime() >= sendAttempts.get(0) + 200);
+
+        verify(defaultEmailService, timeout(10000).times(2)).sendSimpleEmail("someone@mail.com", "Subject", "Text");
+        assertTrue(sendAttempts.get(1) - sendAttempts.get(0) >= 200);
+        await(() -> outboxMessageRepository.count() == 0);
+    }
+
+    @Test
+    void emailIsParkedAfterMaxAttempts() throws Exception {
+        failSends(Integer.MAX_VALUE);
+
+        outboxService.enqueueEmail("someone@mail.com", "Subject", "Text");
+
+        await(() -> outboxMessageRepository.countByStatus(OutboxStatus.PARKED) == 1);
+        OutboxMessage parked = outboxMessageRepository.findAll().get(0);
+        assertEquals(3, parked.getAttempts());
+        assertTrue(parked.getLastError().contains("Mail server is down"));
+        assertEquals(3, sendAttempts.size());
+        // the backoff doubles up to its maximum
+        assertTrue(sendAttempts.get(1) - sendAttempts.get(0) >= 200);
+        assertTrue(sendAttempts.get(2) - sendAttempts.get(1) >= 400);
+
+        // a parked message is not taken again
+        Thread.sleep(1000);
+        assertEquals(3, sendAttempts.size());
+        assertEquals(1, outboxMessageRepository.count());
+    }
+}
@@ -0,0 +1,128 @@
+package com.itmo.spy_system.controller;
+
+import com.itmo.spy_system.entity.TimeInterval;
+import com.itmo.spy_system.entity.Weekday;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.ResultActions;
+
+import java.sql.Time;
+import java.util.Comparator;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+public class TimeIntervalControllerTest extends BaseApiTest {
+
+    private TimeInterval shift(Long workerId, Long managerId, Weekday weekday, String begin, String ending) {
+        TimeInterval t = new TimeInterval();
+        t.setWorkerId(workerId);
+        t.setManagerId(managerId);
+        t.setWeekday(weekday);
+        t.setBegin(Time.valueOf(begin));
+        t.setEnding(Time.valueOf(ending));
+        return timeIntervalRepository.save(t);
+    }
+
+    private ResultActions importRoster(String roster) throws Exception {
+        return mockMvc.perform(post("/api/time_intervals/import")
+                .with(managerAuth())
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(roster));
+    }
+
+    private List<TimeInterval> schedule() {
+        List<TimeInterval> all = timeIntervalRepository.findAll();
+        all.sort(Comparator.comparing(TimeInterval::getWeekday).thenComparing(TimeInterval::getBegin));
+        return all;
+    }
+
+    @Test
+    void rosterReplacesTheOwnersSchedules() throws Exception {
+        shift(worker.getId(), null, Weekday.MONDAY, "08:00:00", "20:00:00");
+        shift(worker.getId(), null, Weekday.FRIDAY, "08:00:00", "12:00:00");
+        // not in the roster, kept
+        TimeInterval other = shift(null, seniorManager.getId(), Weekday.MONDAY, "09:00:00", "18:00:00");
+
+        // overlaps the worker's current Monday, which it replaces
+        importRoster(String.format("""
+                [
+                    {"workerId": %d, "weekday": "MONDAY", "begin": "09:00:00", "ending": "12:00:00"},
+                    {"workerId": %d, "weekday": "MONDAY", "begin": "13:00:00", "ending": "17:00:00"},
+                    {"managerId": %d, "weekday": "MONDAY", "begin": "09:00:00", "ending": "12:00:00"}
+                ]
+                """, worker.getId(), worker.getId(), manager.getId()))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(3));
+
+        List<TimeInterval> all = schedule();
+        assertEquals(4, all.size());
+        assertEquals(List.of(Time.valueOf("09:00:00"), Time.valueOf("13:00:00")), all.stream()
+                .filter(t -> worker.getId().equals(t.getWorkerId()))
+                .map(TimeInterval::getBegin).toList());
+        assertEquals(1, all.stream().filter(t -> manager.getId().equals(t.getManagerId())).count());
+        assertEquals(1, all.stream().filter(t -> other.getId().equals(t.getId())).count());
+    }
+
+    @Test
+    void clashWithinTheRosterIsRejected() throws Exception {
+        shift(worker.getId(), null, Weekday.MONDAY, "08:00:00", "10:00:00");
+
+        // the first interval reaches past the second one into the third
+        importRoster(String.format("""
+                [
+                    {"workerId": %d, "weekday": "TUESDAY", "begin": "16:00:00", "ending": "18:00:00"},
+                    {"workerId": %d, "weekday": "TUESDAY", "begin": "09:00:00", "ending": "17:00:00"},
+                    {"workerId": %d, "weekday": "TUESDAY", "begin": "10:00:00", "ending": "11:00:00"}
+                ]
+                """, worker.getId(), worker.getId(), worker.getId()))
+                .andExpect(status().isUnprocessableEntity());
+
+        // nothing was replaced
+        List<TimeInterval> all = schedule();
+        assertEquals(1, all.size());
+        assertEquals(Weekday.MONDAY, all.get(0).getWeekday());
+    }
+
+    @Test
+    void clashOfAManagerShiftIsRejected() throws Exception {
+        // bounds are inclusive, so the manager's own shifts clash at noon; the worker's shift at the same time
+        // belongs to the worker, not to the manager
+        importRoster(String.format("""
+                [
+                    {"managerId": %d, "weekday": "SUNDAY", "begin": "09:00:00", "ending": "12:00:00"},
+                    {"workerId": %d, "managerId": %d, "weekday": "SUNDAY", "begin": "09:00:00", "ending": "12:00:00"},
+                    {"managerId": %d, "weekday": "SUNDAY", "begin": "12:00:00", "ending": "13:00:00"}
+                ]
+                """, manager.getId(), worker.getId(), manager.getId(), manager.getId()))
+                .andExpect(status().isUnprocessableEntity());
+
+        assertEquals(0, timeIntervalRepository.count());
+    }
+
+    @Test
+    void shiftClashingWithAStoredOneIsRejected() throws Exception {
+        // written directly, as through another replica
+        shift(worker.getId(), null, Weekday.WEDNESDAY, "09:00:00", "12:00:00");
+
+        mockMvc.perform(post("/api/time_intervals")
+                        .with(managerAuth())
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(String.format("""
+                                {"workerId": %d, "weekday": "WEDNESDAY", "begin": "11:00:00", "ending": "13:00:00"}
+                                """, worker.getId())))
+                .andExpect(status().isUnprocessableEntity());
+
+        mockMvc.perform(post("/api/time_intervals")
+                        .with(managerAuth())
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(String.format("""
+                                {"workerId": %d, "weekday": "WEDNESDAY", "begin": "13:00:00", "ending": "15:00:00"}
+                                """, worker.getId())))
+                .andExpect(status().isOk());
+
+        assertEquals(2, timeIntervalRepository.count());
+    }
+}
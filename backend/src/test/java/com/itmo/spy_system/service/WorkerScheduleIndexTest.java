@@ -0,0 +1,108 @@
+package com.itmo.spy_system.service;
+
+import com.itmo.spy_system.entity.TimeInterval;
+import com.itmo.spy_system.entity.Weekday;
+import com.itmo.spy_system.repository.TimeIntervalRepository;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Time;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.OptionalInt;
+
+import static com.itmo.spy_system.service.WorkerScheduleIndex.MINUTES_PER_DAY;
+import static com.itmo.spy_system.service.WorkerScheduleIndex.minuteOfWeek;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class WorkerScheduleIndexTest {
+
+    private static final long WORKER = 1L;
+
+    private final List<TimeInterval> intervals = new ArrayList<>();
+
+    private void shift(Weekday weekday, String begin, String ending) {
+        intervals.add(new TimeInterval((long) intervals.size() + 1, WORKER, null,
+                Time.valueOf(LocalTime.parse(begin)), Time.valueOf(LocalTime.parse(ending)), weekday));
+    }
+
+    private WorkerScheduleIndex load() {
+        TimeIntervalRepository repository = mock(TimeIntervalRepository.class);
+        when(repository.findAll()).thenReturn(intervals);
+        WorkerScheduleIndex index = new WorkerScheduleIndex(repository);
+        index.reload();
+        return index;
+    }
+
+    private static int at(Weekday weekday, String time) {
+        return minuteOfWeek(weekday, LocalTime.parse(time));
+    }
+
+    @Test
+    void onDutyFromBeginUntilTheEndingMinute() {
+        shift(Weekday.TUESDAY, "09:00", "17:00");
+        WorkerScheduleIndex index = load();
+
+        assertFalse(index.isOnDuty(WORKER, at(Weekday.TUESDAY, "08:59")));
+        assertTrue(index.isOnDuty(WORKER, at(Weekday.TUESDAY, "09:00")));
+        assertTrue(index.isOnDuty(WORKER, at(Weekday.TUESDAY, "17:00")));
+        assertFalse(index.isOnDuty(WORKER, at(Weekday.TUESDAY, "17:01")));
+        assertFalse(index.isOnDuty(WORKER, at(Weekday.WEDNESDAY, "09:00")));
+        assertFalse(index.isOnDuty(2L, at(Weekday.TUESDAY, "09:00")));
+    }
+
+    @Test
+    void minutesUntilNextShift() {
+        shift(Weekday.TUESDAY, "09:00", "17:00");
+        shift(Weekday.THURSDAY, "10:00", "12:00");
+        WorkerScheduleIndex index = load();
+
+        assertEquals(OptionalInt.of(60), index.minutesUntilNextShift(WORKER, at(Weekday.TUESDAY, "08:00")));
+        // on duty already
+        assertEquals(OptionalInt.of(0), index.minutesUntilNextShift(WORKER, at(Weekday.TUESDAY, "12:00")));
+        assertEquals(OptionalInt.of(MINUTES_PER_DAY + 17 * 60 - 1),
+                index.minutesUntilNextShift(WORKER, at(Weekday.TUESDAY, "17:01")));
+        // past the last shift of the week, the next one is Tuesday's
+        assertEquals(OptionalInt.of(4 * MINUTES_PER_DAY + 20 * 60 + 59),
+                index.minutesUntilNextShift(WORKER, at(Weekday.THURSDAY, "12:01")));
+        assertEquals(OptionalInt.empty(), index.minutesUntilNextShift(2L, 0));
+    }
+
+    @Test
+    void shiftWrappingFromSundayIntoMonday() {
+        shift(Weekday.SUNDAY, "22:00", "23:59");
+        shift(Weekday.MONDAY, "00:00", "06:00");
+        WorkerScheduleIndex index = load();
+
+        assertTrue(index.isOnDuty(WORKER, at(Weekday.SUNDAY, "23:59")));
+        assertTrue(index.isOnDuty(WORKER, at(Weekday.MONDAY, "00:00")));
+        assertTrue(index.isOnDuty(WORKER, at(Weekday.MONDAY, "06:00")));
+        assertFalse(index.isOnDuty(WORKER, at(Weekday.MONDAY, "06:01")));
+        assertEquals(OptionalInt.of(60), index.minutesUntilNextShift(WORKER, at(Weekday.SUNDAY, "21:00")));
+        // from Monday morning the next shift is Sunday night's
+        assertEquals(OptionalInt.of(6 * MINUTES_PER_DAY + 16 * 60 - 1),
+                index.minutesUntilNextShift(WORKER, at(Weekday.MONDAY, "06:01")));
+    }
+
+    @Test
+    void shiftEndingAtMidnight() {
+        // 24:00 is read back as 00:00
+        shift(Weekday.WEDNESDAY, "20:00", "00:00");
+        shift(Weekday.SUNDAY, "20:00", "00:00");
+        WorkerScheduleIndex index = load();
+
+        assertFalse(index.isOnDuty(WORKER, at(Weekday.WEDNESDAY, "00:00")));
+        assertTrue(index.isOnDuty(WORKER, at(Weekday.WEDNESDAY, "20:00")));
+        assertTrue(index.isOnDuty(WORKER, at(Weekday.WEDNESDAY, "23:59")));
+        assertTrue(index.isOnDuty(WORKER, at(Weekday.THURSDAY, "00:00")));
+        assertFalse(index.isOnDuty(WORKER, at(Weekday.THURSDAY, "00:01")));
+        // Sunday's runs over the end of the week
+        assertTrue(index.isOnDuty(WORKER, at(Weekday.SUNDAY, "23:59")));
+        assertTrue(index.isOnDuty(WORKER, at(Weekday.MONDAY, "00:00")));
+        assertFalse(index.isOnDuty(WORKER, at(Weekday.MONDAY, "00:01")));
+        assertEquals(OptionalInt.of(2 * MINUTES_PER_DAY + 20 * 60 - 1),
+                index.minutesUntilNextShift(WORKER, at(Weekday.MONDAY, "00:01")));
+    }
+}
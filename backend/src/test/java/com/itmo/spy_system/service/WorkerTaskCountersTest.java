@@ -0,0 +1,134 @@
+package com.itmo.spy_system.service;
+
+import com.itmo.spy_system.dto.ExecutionerCount;
+import com.itmo.spy_system.entity.TaskStatus;
+import com.itmo.spy_system.repository.DeviceChangeTaskRepository;
+import com.itmo.spy_system.repository.PunishmentTaskRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import static com.itmo.spy_system.service.WorkerTaskCounters.Kind.DEVICE_CHANGE;
+import static com.itmo.spy_system.service.WorkerTaskCounters.Kind.PUNISHMENT;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class WorkerTaskCountersTest {
+
+    private final PunishmentTaskRepository punishmentTaskRepository = mock(PunishmentTaskRepository.class);
+    private final DeviceChangeTaskRepository deviceChangeTaskRepository = mock(DeviceChangeTaskRepository.class);
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    // open tasks in the tables
+    private final List<ExecutionerCount> punishments = new ArrayList<>();
+    private final List<ExecutionerCount> deviceChanges = new ArrayList<>();
+    private WorkerTaskCounters counters;
+
+    private static ExecutionerCount row(long executionerId, long count) {
+        return new ExecutionerCount() {
+            @Override
+            public Long getExecutionerId() {
+                return executionerId;
+            }
+
+            @Override
+            public Long getCount() {
+                return count;
+            }
+        };
+    }
+
+    @BeforeEach
+    void start() {
+        when(punishmentTaskRepository.countByExecutionerAndStatusIn(any())).thenAnswer(i -> List.copyOf(punishments));
+        when(deviceChangeTaskRepository.countByExecutionerAndStatusIn(any())).thenAnswer(i -> List.copyOf(deviceChanges));
+        punishments.add(row(1, 2));
+        deviceChanges.add(row(2, 1));
+        counters = new WorkerTaskCounters(punishmentTaskRepository, deviceChangeTaskRepository, meterRegistry);
+        counters.init();
+    }
+
+    private double drift() {
+        return meterRegistry.counter("workers.task_counters.drift").count();
+    }
+
+    @Test
+    void initLoadsTheTables() {
+        assertEquals(2, counters.openTasks(1L));
+        assertEquals(1, counters.openTasks(2L));
+        assertEquals(0, counters.openTasks(3L));
+        assertEquals(Optional.of(2L), counters.leastLoaded(List.of(1L, 2L)));
+        // unknown workers have nothing open, ties go to the lowest id
+        assertEquals(Optional.of(3L), counters.leastLoaded(List.of(1L, 2L, 3L, 4L)));
+        assertEquals(Optional.empty(), counters.leastLoaded(List.of()));
+        assertEquals(0, drift());
+    }
+
+    @Test
+    void creationAndStatusTransitions() {
+        counters.onChange(DEVICE_CHANGE, null, null, 2L, TaskStatus.NEW);
+        assertEquals(2, counters.openTasks(2L));
+        // lowest id among the equally loaded
+        assertEquals(Optional.of(1L), counters.leastLoaded(List.of(1L, 2L)));
+
+        counters.onChange(PUNISHMENT, 1L, TaskStatus.NEW, 1L, TaskStatus.IN_PROGRESS);
+        assertEquals(2, counters.openTasks(1L));
+
+        counters.onChange(PUNISHMENT, 1L, TaskStatus.IN_PROGRESS, 1L, TaskStatus.DONE);
+        assertEquals(1, counters.openTasks(1L));
+        assertEquals(Optional.of(1L), counters.leastLoaded(List.of(1L, 2L)));
+
+        // handed over to another executioner
+        counters.onChange(DEVICE_CHANGE, 2L, TaskStatus.NEW, 1L, TaskStatus.NEW);
+        assertEquals(2, counters.openTasks(1L));
+        assertEquals(1, counters.openTasks(2L));
+        assertEquals(Optional.of(2L), counters.leastLoaded(List.of(1L, 2L)));
+
+        // deleted, and closed tasks never count
+        counters.onChange(DEVICE_CHANGE, 1L, TaskStatus.NEW, null, null);
+        counters.onChange(PUNISHMENT, null, null, 2L, TaskStatus.DONE);
+        assertEquals(1, counters.openTasks(1L));
+        assertEquals(1, counters.openTasks(2L));
+        assertEquals(Optional.of(1L), counters.leastLoaded(List.of(2L, 1L)));
+    }
+
+    @Test
+    void reconcileCorrectsDrift() {
+        // written by another replica
+        punishments.set(0, row(1, 3));
+        deviceChanges.clear();
+        punishments.add(row(5, 1));
+
+        counters.reconcile();
+
+        assertEquals(3, counters.openTasks(1L));
+        assertEquals(0, counters.openTasks(2L));
+        assertEquals(1, counters.openTasks(5L));
+        assertEquals(Optional.of(2L), counters.leastLoaded(List.of(1L, 2L, 5L)));
+        assertEquals(3, drift());
+
+        counters.reconcile();
+        assertEquals(3, drift());
+    }
+
+    @Test
+    void changesDuringReconcileAreKept() {
+        // a task created and reported while the tables are read, the read may or may not have seen it
+        when(punishmentTaskRepository.countByExecutionerAndStatusIn(any())).thenAnswer(i -> {
+            counters.onChange(PUNISHMENT, null, null, 1L, TaskStatus.NEW);
+            return List.of(row(1, 3));
+        });
+        deviceChanges.set(0, row(2, 4));
+
+        counters.reconcile();
+
+        assertEquals(3, counters.openTasks(1L));
+        assertEquals(4, counters.openTasks(2L));
+        assertEquals(1, drift());
+    }
+}
@@ -0,0 +1,159 @@
+package com.itmo.spy_system.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HierarchicalTimerWheelTest {
+
+    private static final long TICK = 10;
+    // 64^3 ticks, one revolution of the outermost level
+    private static final long REVOLUTION = 64L * 64 * 64 * TICK;
+
+    /**
+     * Advances one tick at a time and returns when each key fired
+     */
+    private static <K> Map<K, Long> run(HierarchicalTimerWheel<K> wheel, long from, long to) {
+        Map<K, Long> fired = new HashMap<>();
+        for (long now = from; now <= to; now += TICK)
+            for (K key : wheel.advance(now))
+                assertNull(fired.put(key, now), "fired twice: " + key);
+        return fired;
+    }
+
+    @Test
+    void timerFiresOnFirstTickAtOrAfterDeadline() {
+        long start = 1_000_000;
+        HierarchicalTimerWheel<String> wheel = new HierarchicalTimerWheel<>(TICK, start);
+        wheel.schedule("exact", start + 50);
+        wheel.schedule("between", start + 55);
+        wheel.schedule("past", start - 100);
+
+        Map<String, Long> fired = run(wheel, start, start + 100);
+        assertEquals(start + 50, fired.get("exact"));
+        assertEquals(start + 60, fired.get("between"));
+        assertEquals(start + TICK, fired.get("past"));
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    void timersOnEveryLevelFireOnTime() {
+        long start = 0;
+        HierarchicalTimerWheel<Long> wheel = new HierarchicalTimerWheel<>(TICK, start);
+        List<Long> deadlines = List.of(TICK, 63 * TICK, 64 * TICK, 65 * TICK, 4095 * TICK, 4096 * TICK, 4097 * TICK,
+                100_000 * TICK, REVOLUTION - TICK);
+        for (long d : deadlines)
+            wheel.schedule(d, d);
+
+        Map<Long, Long> fired = run(wheel, start, REVOLUTION);
+        for (long d : deadlines)
+            assertEquals(d, fired.get(d), "deadline " + d);
+    }
+
+    @Test
+    void timerBeyondOneRevolutionFiresOnTime() {
+        long start = 7 * TICK;
+        HierarchicalTimerWheel<String> wheel = new HierarchicalTimerWheel<>(TICK, start);
+        wheel.schedule("one", start + REVOLUTION);
+        wheel.schedule("twoAndABit", start + 2 * REVOLUTION + 123 * TICK);
+
+        Map<String, Long> fired = run(wheel, start, start + 3 * REVOLUTION);
+        assertEquals(start + REVOLUTION, fired.get("one"));
+        assertEquals(start + 2 * REVOLUTION + 123 * TICK, fired.get("twoAndABit"));
+    }
+
+    @Test
+    void reschedulingMovesTheSingleTimer() {
+        long start = 0;
+        HierarchicalTimerWheel<String> wheel = new HierarchicalTimerWheel<>(TICK, start);
+        wheel.schedule("later", 100 * TICK);
+        wheel.schedule("later", 5000 * TICK);
+        wheel.schedule("sooner", 5000 * TICK);
+        wheel.schedule("sooner", 3 * TICK);
+        assertEquals(2, wheel.size());
+
+        Map<String, Long> fired = run(wheel, start, 6000 * TICK);
+        assertEquals(5000 * TICK, fired.get("later"));
+        assertEquals(3 * TICK, fired.get("sooner"));
+    }
+
+    @Test
+    void reschedulingWhileTimeMovesKeepsPushingTheDeadline() {
+        HierarchicalTimerWheel<String> wheel = new HierarchicalTimerWheel<>(TICK, 0);
+        // a heartbeat every 20 ticks against a 50 tick timeout never times out
+        for (long now = 0; now < 10_000 * TICK; now += TICK) {
+            if (now % (20 * TICK) == 0)
+                wheel.schedule("device", now + 50 * TICK);
+            assertTrue(wheel.advance(now).isEmpty(), "fired at " + now);
+        }
+        assertEquals(1, wheel.size());
+    }
+
+    @Test
+    void cancelledTimerNeverFires() {
+        HierarchicalTimerWheel<String> wheel = new HierarchicalTimerWheel<>(TICK, 0);
+        wheel.schedule("near", 5 * TICK);
+        wheel.schedule("far", 10_000 * TICK);
+        wheel.schedule("kept", 200 * TICK);
+        wheel.cancel("near");
+        wheel.cancel("far");
+        wheel.cancel("unknown");
+        assertEquals(1, wheel.size());
+
+        Map<String, Long> fired = run(wheel, 0, 20_000 * TICK);
+        assertEquals(Map.of("kept", 200 * TICK), fired);
+    }
+
+    @Test
+    void advancingInLargeStepsFiresEverythingDue() {
+        HierarchicalTimerWheel<Integer> wheel = new HierarchicalTimerWheel<>(TICK, 0);
+        for (int i = 0; i < 100; i++)
+            wheel.schedule(i, i * 1000L * TICK);
+
+        Set<Integer> fired = new HashSet<>(wheel.advance(50_000 * TICK));
+        for (int i = 0; i < 100; i++)
+            assertEquals(i <= 50, fired.contains(i), "timer " + i);
+        fired.addAll(wheel.advance(REVOLUTION));
+        assertEquals(100, fired.size());
+    }
+
+    // the tick a deadline falls due on
+    private static long dueAt(long deadline) {
+        return Math.floorDiv(deadline + TICK - 1, TICK) * TICK;
+    }
+
+    @Test
+    void matchesASortedScheduleOnRandomOperations() {
+        Random random = new Random(42);
+        long start = 123_456_789L * TICK;
+        HierarchicalTimerWheel<Integer> wheel = new HierarchicalTimerWheel<>(TICK, start);
+        Map<Integer, Long> expected = new HashMap<>();
+        long now = start;
+        for (int step = 0; step < 50_000; step++) {
+            int key = random.nextInt(500);
+            int op = random.nextInt(10);
+            if (op < 6) {
+                // mostly near, some beyond one revolution
+                long deadline = now + 1 + (long) (Math.pow(random.nextDouble(), 4) * 2 * REVOLUTION);
+                wheel.schedule(key, deadline);
+                expected.put(key, deadline);
+            } else if (op < 7) {
+                wheel.cancel(key);
+                expected.remove(key);
+            }
+            long previous = now;
+            now += random.nextInt(3) * TICK;
+            for (int k : wheel.advance(now)) {
+                Long deadline = expected.remove(k);
+                assertNotNull(deadline, "unexpected timer " + k);
+                assertTrue(dueAt(deadline) <= now, "timer " + k + " fired early");
+                assertTrue(dueAt(deadline) > previous, "timer " + k + " fired late");
+            }
+            for (long deadline : expected.values())
+                assertTrue(dueAt(deadline) > now, "timer missed at " + now);
+        }
+        assertEquals(expected.size(), wheel.size());
+    }
+}
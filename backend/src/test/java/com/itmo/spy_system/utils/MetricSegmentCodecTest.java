@@ -0,0 +1,133 @@
+package com.itmo.spy_system.utils;
+
+import com.itmo.spy_system.entity.Metric;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MetricSegmentCodecTest {
+
+    private static Metric metric(long id, Timestamp timestamp, Integer value, Double latitude, Double longitude, Long clientId) {
+        Metric m = new Metric();
+        m.setId(id);
+        m.setDeviceId(7L);
+        m.setTimestamp(timestamp);
+        m.setValue(value);
+        m.setLatitude(latitude);
+        m.setLongitude(longitude);
+        m.setClientId(clientId);
+        return m;
+    }
+
+    private static List<Metric> roundTrip(List<Metric> rows) {
+        return MetricSegmentCodec.decode(ByteBuffer.wrap(MetricSegmentCodec.encode(7L, rows)));
+    }
+
+    private static void assertSameRows(List<Metric> expected, List<Metric> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            Metric e = expected.get(i);
+            Metric a = actual.get(i);
+            assertEquals(e.getId(), a.getId(), "id of row " + i);
+            assertEquals(7L, a.getDeviceId());
+            assertEquals(e.getTimestamp(), a.getTimestamp(), "timestamp of row " + i);
+            assertEquals(e.getValue(), a.getValue(), "value of row " + i);
+            assertEquals(e.getLatitude(), a.getLatitude(), "latitude of row " + i);
+            assertEquals(e.getLongitude(), a.getLongitude(), "longitude of row " + i);
+            assertEquals(e.getClientId(), a.getClientId(), "client of row " + i);
+        }
+    }
+
+    @Test
+    void emptySegmentIsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> MetricSegmentCodec.encode(7L, List.of()));
+    }
+
+    @Test
+    void singleReadingRoundTrips() {
+        List<Metric> rows = List.of(metric(1, new Timestamp(1_700_000_000_000L), 42, 60.0, 30.25, 3L));
+        assertSameRows(rows, roundTrip(rows));
+    }
+
+    @Test
+    void regularReadingsRoundTrip() {
+        List<Metric> rows = new ArrayList<>();
+        long start = 1_700_000_000_000L;
+        for (int i = 0; i < 1000; i++)
+            rows.add(metric(100 + i * 3L, new Timestamp(start + i * 1000L + (i % 7 == 0 ? 13 : 0)),
+                    50 + (i % 11) - 5, 59.9386 + i * 1e-5, 30.3141 - i * 2e-5, i < 500 ? 3L : 4L));
+        assertSameRows(rows, roundTrip(rows));
+
+        MetricSegmentCodec.Header h = MetricSegmentCodec.readHeader(ByteBuffer.wrap(MetricSegmentCodec.encode(7L, rows)));
+        assertEquals(7L, h.deviceId());
+        assertEquals(1000, h.count());
+        assertEquals(rows.get(0).getTimestamp(), h.first());
+        assertEquals(rows.get(999).getTimestamp(), h.last());
+        assertEquals(Set.of(3L, 4L), h.clientIds());
+    }
+
+    @Test
+    void nullFieldsRoundTrip() {
+        long start = 1_700_000_000_000L;
+        List<Metric> rows = List.of(
+                metric(1, new Timestamp(start), null, null, null, null),
+                metric(2, new Timestamp(start + 1000), 10, 60.0, null, 3L),
+                metric(3, new Timestamp(start + 2000), null, null, 30.0, null),
+                metric(4, new Timestamp(start + 3000), -5, 61.5, 31.5, 3L),
+                metric(5, new Timestamp(start + 4000), null, null, null, null));
+        assertSameRows(rows, roundTrip(rows));
+
+        MetricSegmentCodec.Header h = MetricSegmentCodec.readHeader(ByteBuffer.wrap(MetricSegmentCodec.encode(7L, rows)));
+        assertEquals(Set.of(3L), h.clientIds());
+    }
+
+    @Test
+    void allNullColumnsRoundTrip() {
+        long start = 1_700_000_000_000L;
+        List<Metric> rows = List.of(
+                metric(1, new Timestamp(start), null, null, null, null),
+                metric(2, new Timestamp(start + 1000), null, null, null, null));
+        assertSameRows(rows, roundTrip(rows));
+        assertTrue(MetricSegmentCodec.readHeader(ByteBuffer.wrap(MetricSegmentCodec.encode(7L, rows))).clientIds().isEmpty());
+    }
+
+    @Test
+    void boundaryTimestampsRoundTrip() {
+        Timestamp micros = new Timestamp(1_700_000_000_123L);
+        micros.setNanos(123_456_000);
+        List<Metric> rows = List.of(
+                metric(1, new Timestamp(-86_400_000L), 1, 0.0, 0.0, 1L),
+                metric(2, new Timestamp(-1L), 2, 0.0, 0.0, 1L),
+                metric(3, new Timestamp(0L), 3, 0.0, 0.0, 1L),
+                // equal timestamps, zero delta
+                metric(4, new Timestamp(0L), 4, 0.0, 0.0, 1L),
+                metric(5, micros, 5, 0.0, 0.0, 1L),
+                // the largest delta-of-delta ranges and beyond
+                metric(6, new Timestamp(micros.getTime() + 1), Integer.MAX_VALUE, 90.0, 180.0, 1L),
+                metric(7, new Timestamp(253_402_300_799_000L), Integer.MIN_VALUE, -90.0, -180.0, Long.MAX_VALUE / 2));
+        assertSameRows(rows, roundTrip(rows));
+    }
+
+    @Test
+    void preciseCoordinatesRoundTripExactly() {
+        long start = 1_700_000_000_000L;
+        // more digits than the fixed-point encoding keeps, the raw doubles are stored instead
+        List<Metric> rows = List.of(
+                metric(1, new Timestamp(start), 1, Math.PI, Math.E, 1L),
+                metric(2, new Timestamp(start + 1000), 1, Math.PI + 1e-12, -Math.E, 1L),
+                metric(3, new Timestamp(start + 2000), 1, 1e300, Double.MIN_VALUE, 1L));
+        assertSameRows(rows, roundTrip(rows));
+    }
+
+    @Test
+    void foreignBytesAreRejected() {
+        assertThrows(IllegalArgumentException.class,
+                () -> MetricSegmentCodec.readHeader(ByteBuffer.wrap(new byte[64])));
+    }
+}
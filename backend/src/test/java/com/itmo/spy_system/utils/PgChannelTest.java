@@ -0,0 +1,135 @@
+package com.itmo.spy_system.utils;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ResultSetExtractor;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+// the listening connection is mocked, tests run on H2 which has no LISTEN/NOTIFY
+public class PgChannelTest {
+
+    private final JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+    private final DataSource dataSource = mock(DataSource.class);
+    private final Statement statement = mock(Statement.class);
+    // payloads the mocked server has for the listener, polled one batch at a time
+    private final LinkedBlockingQueue<String> server = new LinkedBlockingQueue<>();
+    private final Queue<String> received = new ConcurrentLinkedQueue<>();
+    private PgChannel channel;
+
+    private Connection connection() throws SQLException {
+        Connection connection = mock(Connection.class);
+        PGConnection pg = mock(PGConnection.class);
+        when(connection.createStatement()).thenReturn(statement);
+        when(connection.unwrap(PGConnection.class)).thenReturn(pg);
+        when(pg.getNotifications(anyInt())).thenAnswer(i -> {
+            String payload;
+            try {
+                payload = server.poll(20, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                // stopped
+                Thread.currentThread().interrupt();
+                return null;
+            }
+            if (payload == null)
+                return null;
+            if (payload.equals("drop"))
+                throw new SQLException("Connection reset");
+            PGNotification n = mock(PGNotification.class);
+            when(n.getParameter()).thenReturn(payload);
+            return new PGNotification[]{n};
+        });
+        return connection;
+    }
+
+    private void start(Consumer<String> handler) {
+        when(jdbcTemplate.getDataSource()).thenReturn(dataSource);
+        channel = new PgChannel(jdbcTemplate, "test_channel", 10, handler);
+        channel.start();
+    }
+
+    @AfterEach
+    void stop() throws InterruptedException {
+        if (channel != null)
+            channel.stop();
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline)
+            Thread.sleep(20);
+        assertTrue(condition.getAsBoolean());
+    }
+
+    @Test
+    void sendNotifiesTheChannel() {
+        new PgChannel(jdbcTemplate, "test_channel", 10, received::add).send("{\"a\":1}");
+
+        verify(jdbcTemplate).query(eq("SELECT pg_notify(?, ?)"), any(ResultSetExtractor.class), eq("test_channel"), eq("{\"a\":1}"));
+    }
+
+    @Test
+    void receivedPayloadsAreHandedToTheHandler() throws Exception {
+        Connection connection = connection();
+        when(dataSource.getConnection()).thenReturn(connection);
+        start(received::add);
+
+        server.add("one");
+        server.add("two");
+
+        await(() -> received.size() == 2);
+        assertEquals(List.of("one", "two"), List.copyOf(received));
+        verify(statement).execute("LISTEN test_channel");
+        verify(connection).setAutoCommit(true);
+    }
+
+    @Test
+    void failingHandlerDoesNotStopListening() throws Exception {
+        when(dataSource.getConnection()).thenReturn(connection());
+        start(payload -> {
+            if (payload.equals("bad"))
+                throw new IllegalArgumentException("Malformed");
+            received.add(payload);
+        });
+
+        server.add("bad");
+        server.add("good");
+
+        await(() -> received.contains("good"));
+    }
+
+    @Test
+    void listenerReconnectsAfterALostConnection() throws Exception {
+        Connection first = connection();
+        Connection second = connection();
+        when(dataSource.getConnection())
+                .thenThrow(new SQLException("Database is starting up"))
+                .thenReturn(first, second);
+        start(received::add);
+
+        server.add("drop");
+        server.add("after");
+
+        await(() -> received.contains("after"));
+        verify(first).close();
+        verify(dataSource, times(3)).getConnection();
+        verify(statement, times(2)).execute("LISTEN test_channel");
+    }
+}
@@ -0,0 +1,121 @@
+import time
+import random
+
+from psycopg2.extras import execute_values
+
+from volume_test import db_conn
+
+ROWS = 50_000
+# transaction size used by the backend when it persists a batch of readings
+COMMIT_EVERY = 200
+ALLOCATION_SIZE = 50
+# readings inserted by the benchmark are marked with this device id and removed afterwards
+BENCH_DEVICE_ID = -1
+
+
+def make_row(metric_id):
+    return (
+        metric_id,
+        BENCH_DEVICE_ID,
+        None,
+        random.randint(0, 100),
+        59.0 + random.random() * 2,
+        30.0 + random.random() * 2,
+    )
+
+
+def bench_allocation_size_1(conn):
+    """
+    Old behaviour: one nextval round trip and one INSERT statement per reading.
+    """
+    start = time.perf_counter()
+    with conn.cursor() as cur:
+        for i in range(ROWS):
+            cur.execute("SELECT nextval('bench_metric_sequence_1')")
+            metric_id = cur.fetchone()[0]
+            cur.execute(
+                "INSERT INTO device_metric (id, device_id, client_id, metric_value, latitude, longitude, timestamp) "
+                "VALUES (%s, %s, %s, %s, %s, %s, NOW())",
+                make_row(metric_id),
+            )
+            if (i + 1) % COMMIT_EVERY == 0:
+                conn.commit()
+    conn.commit()
+    return time.perf_counter() - start
+
+
+def bench_pooled(conn):
+    """
+    Pooled optimizer: one nextval per ALLOCATION_SIZE ids, rows sent as multi-row
+    INSERTs the way reWriteBatchedInserts=true rewrites Hibernate JDBC batches.
+    """
+    start = time.perf_counter()
+    hi = 0
+    next_id = 1
+    rows = []
+    with conn.cursor() as cur:
+        for i in range(ROWS):
+            if next_id > hi:
+                cur.execute("SELECT nextval('bench_metric_sequence_50')")
+                hi = cur.fetchone()[0]
+                next_id = hi - ALLOCATION_SIZE + 1
+            rows.append(make_row(next_id))
+            next_id += 1
+            if len(rows) == COMMIT_EVERY:
+                execute_values(
+                    cur,
+                    "INSERT INTO device_metric (id, device_id, client_id, metric_value, latitude, longitude, timestamp) "
+                    "VALUES %s",
+                    rows,
+                    template="(%s, %s, %s, %s, %s, %s, NOW())",
+                    page_size=100,
+                )
+                conn.commit()
+                rows = []
+        if rows:
+            execute_values(
+                cur,
+                "INSERT INTO device_metric (id, device_id, client_id, metric_value, latitude, longitude, timestamp) "
+                "VALUES %s",
+                rows,
+                template="(%s, %s, %s, %s, %s, %s, NOW())",
+                page_size=100,
+            )
+    conn.commit()
+    return time.perf_counter() - start
+
+
+def clean_up(conn):
+    with conn.cursor() as cur:
+        cur.execute("DELETE FROM device_metric WHERE device_id = %s", (BENCH_DEVICE_ID,))
+        cur.execute("DROP SEQUENCE IF EXISTS bench_metric_sequence_1")
+        cur.execute("DROP SEQUENCE IF EXISTS bench_metric_sequence_50")
+    conn.commit()
+
+
+def main():
+    with db_conn() as conn:
+        conn.autocommit = False
+        clean_up(conn)
+        with conn.cursor() as cur:
+            # separate id ranges so benchmark rows never collide with real ones
+            cur.execute("CREATE SEQUENCE bench_metric_sequence_1 START WITH 1000000000 INCREMENT BY 1")
+            cur.execute(
+                f"CREATE SEQUENCE bench_metric_sequence_50 START WITH 2000000000 INCREMENT BY {ALLOCATION_SIZE}"
+            )
+        conn.commit()
+
+        try:
+            before = bench_allocation_size_1(conn)
+            after = bench_pooled(conn)
+        finally:
+            clean_up(conn)
+
+        print(f"device_metric inserts, {ROWS} rows")
+        print(f"allocationSize=1:  {ROWS / before:10.0f} rows/s ({before:.2f}s)")
+        print(f"allocationSize={ALLOCATION_SIZE}: {ROWS / after:10.0f} rows/s ({after:.2f}s)")
+        print(f"speedup: x{before / after:.1f}")
+
+
+if __name__ == "__main__":
+    main()